@@ -0,0 +1,1201 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AsterismIndex.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * This class is a geometric hash index of star quads, for blind plate solving with AsterismSolver.
+ * <p>
+ * The index stars are the brightest few catalogue objects in each HEALPix cell, at an order whose cells are
+ * about half the largest quad size across. Each quad is four index stars: the most widely separated pair A and B
+ * (the backbone) and two stars C and D inside the circle with AB as diameter. Placing A at (0,0) and B at (1,1)
+ * on the tangent plane gives C and D coordinates (xc,yc,xd,yd), a code unchanged by translation, rotation
+ * and scale; A/B and C/D are ordered so that xc+xd &lt;= 1 and xc &lt;= xd. A quad belongs to the cell holding
+ * its backbone midpoint. Each cell makes quadsPerCell quads, taking backbones brightest pair first and at most
+ * two quads per backbone, from the brightest stars inside its circle.
+ * <p>
+ * Codes are quantised into bins two code tolerances wide, so any code within the tolerance of a query falls in
+ * at most 16 neighbouring bins. The index is kept in a file, sorted by bin key, and memory-mapped read only
+ * when opened, so it takes no heap and is shared by every thread and process using it. The file is
+ * big-endian: a 64 byte header (magic, version, star and quad counts, star order, band, code tolerance, and the
+ * quad scale range in radians) followed by the star cells, unit vectors, catalogue rows and magnitudes, then
+ * the quad keys, codes and stars, each section 8 byte aligned.
+ * <p>
+ * The build is parallel over cells, and bounded in memory: a counting pass histograms the quad keys, then the
+ * key range is split so each later pass regenerates and sorts only the quads that fit the memory budget, at
+ * about 100 bytes a quad. The catalogue and its SkyDensityMap are not counted against the budget.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see AsterismSolver
+ * @see SkyDensityMap
+ */
+public class AsterismIndex
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The file magic number, "AST1".
+	 */
+	public final static int MAGIC = 0x41535431;
+	/**
+	 * The file version.
+	 */
+	public final static int VERSION = 1;
+	/**
+	 * The default number of index stars per cell.
+	 */
+	public final static int DEFAULT_STARS_PER_CELL = 10;
+	/**
+	 * The default number of quads per cell.
+	 */
+	public final static int DEFAULT_QUADS_PER_CELL = 16;
+	/**
+	 * The default code tolerance.
+	 */
+	public final static double DEFAULT_CODE_TOLERANCE = 0.01;
+	/**
+	 * The default build memory budget, in bytes.
+	 */
+	public final static long DEFAULT_MEMORY_BUDGET = 256L*1024L*1024L;
+	/**
+	 * The number of bytes in the file header.
+	 */
+	private final static int HEADER_SIZE = 64;
+	/**
+	 * The number of bins per code dimension (8 bits each, so a key is an int).
+	 */
+	private final static int BINS = 256;
+	/**
+	 * The number of ints in a quad record while building: key, 4 code bits, 4 stars.
+	 */
+	private final static int RECORD_INTS = 9;
+	/**
+	 * The build memory per quad in a pass: the records, the sort keys and the sorted output.
+	 */
+	private final static int BUILD_BYTES_PER_QUAD = (RECORD_INTS*4)+8+(RECORD_INTS*4)+16;
+	/**
+	 * The most stars inside a backbone's circle considered for C and D, brightest first.
+	 */
+	private final static int MAX_INSIDE = 8;
+	/**
+	 * The most quads made from one backbone, so a cell's quads are spread over its stars.
+	 */
+	private final static int QUADS_PER_BACKBONE = 2;
+	/**
+	 * The size of the buffer used to write sections.
+	 */
+	private final static int WRITE_BUFFER_SIZE = 65536;
+	/**
+	 * The number of index stars.
+	 */
+	protected int starCount = 0;
+	/**
+	 * The number of quads.
+	 */
+	protected int quadCount = 0;
+	/**
+	 * The HEALPix order of the index star cells.
+	 */
+	protected int starOrder = 0;
+	/**
+	 * The magnitude band the index stars were chosen in.
+	 */
+	protected int band = 0;
+	/**
+	 * The code tolerance: codes are binned at twice this.
+	 */
+	protected double codeTolerance = DEFAULT_CODE_TOLERANCE;
+	/**
+	 * The smallest quad backbone, in radians.
+	 */
+	protected double minScale = 0.0;
+	/**
+	 * The largest quad backbone, in radians.
+	 */
+	protected double maxScale = 0.0;
+	/**
+	 * The NESTED pixel of each index star at starOrder, ascending.
+	 */
+	protected LongBuffer starCell = null;
+	/**
+	 * The unit vector of each index star, x, y and z.
+	 */
+	protected DoubleBuffer starVector = null;
+	/**
+	 * The catalogue row of each index star.
+	 */
+	protected IntBuffer starRow = null;
+	/**
+	 * The magnitude of each index star.
+	 */
+	protected FloatBuffer starMagnitude = null;
+	/**
+	 * The bin key of each quad, ascending.
+	 */
+	protected IntBuffer quadKey = null;
+	/**
+	 * The code of each quad, xc, yc, xd, yd.
+	 */
+	protected FloatBuffer quadCode = null;
+	/**
+	 * The index stars of each quad, A, B, C, D.
+	 */
+	protected IntBuffer quadStar = null;
+
+	/**
+	 * Private constructor, use open.
+	 * @see #open
+	 */
+	private AsterismIndex()
+	{
+		super();
+	}
+
+	/**
+	 * Build an index file with the default stars and quads per cell, code tolerance and memory budget.
+	 * @see #build(CelestialObjectColumns,int,double,double,int,int,double,long,File)
+	 */
+	public static void build(CelestialObjectColumns columns,int band,double minQuadArcSeconds,
+				 double maxQuadArcSeconds,File file) throws IOException,IllegalArgumentException
+	{
+		build(columns,band,minQuadArcSeconds,maxQuadArcSeconds,DEFAULT_STARS_PER_CELL,DEFAULT_QUADS_PER_CELL,
+		      DEFAULT_CODE_TOLERANCE,DEFAULT_MEMORY_BUDGET,file);
+	}
+
+	/**
+	 * Build an index file.
+	 * @param columns The catalogue.
+	 * @param band The magnitude band to choose the brightest stars in: CataloguePredicate.BAND_B, BAND_V or
+	 *        BAND_R. Objects without a magnitude in this band are not used.
+	 * @param minQuadArcSeconds The smallest quad backbone, in arc-seconds.
+	 * @param maxQuadArcSeconds The largest quad backbone, in arc-seconds; about half the field of view of the
+	 *        images to be solved is a good choice.
+	 * @param starsPerCell The number of index stars per cell.
+	 * @param quadsPerCell The number of quads per cell.
+	 * @param tolerance The code tolerance, 0.004..0.1. Queries can use this tolerance or less.
+	 * @param memoryBudget The memory the quad passes may use, in bytes.
+	 * @param file The file to write. It is written under a temporary name, forced to disk and renamed, so
+	 *        a crash part way through leaves any earlier index in place rather than a truncated one.
+	 * @exception IOException Thrown if the file cannot be written.
+	 * @exception IllegalArgumentException Thrown if an argument is out of range.
+	 */
+	public static void build(CelestialObjectColumns columns,int band,double minQuadArcSeconds,
+				 double maxQuadArcSeconds,int starsPerCell,final int quadsPerCell,double tolerance,
+				 long memoryBudget,File file) throws IOException,IllegalArgumentException
+	{
+		SkyDensityGrid grid = null;
+		final StarTable table;
+		final double minScale,maxScale,binWidth;
+		final long histogram[];
+		RandomAccessFile raf = null;
+		FileChannel channel = null;
+		ByteBuffer header = null;
+		File tmpFile = null;
+		long maxPassQuads,total,sectionStart[];
+		int passStart,passEnd,passQuads,written;
+
+		if(!((minQuadArcSeconds > 0.0)&&(minQuadArcSeconds < maxQuadArcSeconds)))
+		{
+			throw new IllegalArgumentException("AsterismIndex:build:Illegal quad scale:"+minQuadArcSeconds+".."+
+							   maxQuadArcSeconds+": Must be positive and increasing.");
+		}
+		if((starsPerCell < 4)||(quadsPerCell < 1))
+		{
+			throw new IllegalArgumentException("AsterismIndex:build:Illegal counts:"+starsPerCell+","+
+							   quadsPerCell+": Must be at least 4 stars and 1 quad per cell.");
+		}
+		if(!((tolerance >= 0.004)&&(tolerance <= 0.1)))
+		{
+			throw new IllegalArgumentException("AsterismIndex:build:Illegal tolerance:"+tolerance+
+							   ": Must be 0.004..0.1.");
+		}
+		minScale = minQuadArcSeconds*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		maxScale = maxQuadArcSeconds*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		binWidth = 2.0*tolerance;
+		table = new StarTable();
+		// every star of a quad is within maxScale/2 of its backbone midpoint, so in that cell or a neighbour
+		table.order = HEALPix.orderForResolution(maxScale/2.0);
+		grid = new SkyDensityMap(columns,band,table.order,starsPerCell).getLevel(table.order);
+		table.select(grid,columns,band);
+		// counting pass
+		histogram = new long[BINS];
+		forEachChunk(table.cellCount,(from,to) ->
+		{
+			QuadGenerator generator = new QuadGenerator(table,minScale,maxScale,binWidth);
+			IntArrayList quads = new IntArrayList();
+			long chunkHistogram[] = new long[BINS];
+
+			for(int c = from; c < to; c++)
+			{
+				quads.clear();
+				generator.generate(c,quadsPerCell,quads);
+				for(int r = 0; r < quads.size(); r += RECORD_INTS)
+					chunkHistogram[bucket(quads.get(r))]++;
+			}
+			synchronized(histogram)
+			{
+				for(int b = 0; b < BINS; b++)
+					histogram[b] += chunkHistogram[b];
+			}
+		});
+		total = 0;
+		for(int b = 0; b < BINS; b++)
+			total += histogram[b];
+		if(total > Integer.MAX_VALUE/4)
+		{
+			throw new IllegalArgumentException("AsterismIndex:build:Too many quads:"+total+
+							   ": Use fewer quads per cell or a larger minimum scale.");
+		}
+		sectionStart = sections(table.starCount,(int)total);
+		tmpFile = new File(file.getPath()+".tmp");
+		raf = new RandomAccessFile(tmpFile,"rw");
+		try
+		{
+			raf.setLength(0);
+			channel = raf.getChannel();
+			header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(table.starCount);
+			header.putInt((int)total);
+			header.putInt(table.order);
+			header.putInt(band);
+			header.putDouble(tolerance);
+			header.putDouble(minScale);
+			header.putDouble(maxScale);
+			header.flip();
+			writeFully(channel,header,0);
+			writeLongs(channel,sectionStart[0],table.cell,table.starCount);
+			writeDoubles(channel,sectionStart[1],table.vector,3*table.starCount);
+			writeInts(channel,sectionStart[2],table.row,table.starCount);
+			writeFloats(channel,sectionStart[3],table.magnitude,table.starCount);
+			// quad passes, each a range of first code bins that fits the memory budget
+			maxPassQuads = Math.max(1,memoryBudget/BUILD_BYTES_PER_QUAD);
+			written = 0;
+			passStart = 0;
+			while(passStart < BINS)
+			{
+				passEnd = passStart+1;
+				passQuads = (int)histogram[passStart];
+				while((passEnd < BINS)&&(passQuads+histogram[passEnd] <= maxPassQuads))
+					passQuads += histogram[passEnd++];
+				if(passQuads > 0)
+				{
+					writeQuadPass(table,minScale,maxScale,binWidth,quadsPerCell,passStart,passEnd,passQuads,
+						      channel,sectionStart,written);
+					written += passQuads;
+				}
+				passStart = passEnd;
+			}
+			channel.force(true);
+		}
+		finally
+		{
+			raf.close();
+		}
+		Files.move(tmpFile.toPath(),file.toPath(),StandardCopyOption.ATOMIC_MOVE,
+			   StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Regenerate the quads whose first code bin is in a range, sort them by key, and write them after the
+	 * quads already written.
+	 */
+	private static void writeQuadPass(final StarTable table,final double minScale,final double maxScale,
+					  final double binWidth,final int quadsPerCell,final int binStart,
+					  final int binEnd,int passQuads,FileChannel channel,long sectionStart[],
+					  int written) throws IOException
+	{
+		final IntArrayList chunkQuads[];
+		final int chunks;
+		long sortKey[];
+		int records[],key[],star[];
+		float code[];
+		int chunkSize,count,r;
+
+		chunks = ParallelChunks.chunkCount(table.cellCount,64);
+		chunkQuads = new IntArrayList[chunks];
+		IntStream.range(0,chunks).parallel().forEach(chunk ->
+		{
+			QuadGenerator generator = new QuadGenerator(table,minScale,maxScale,binWidth);
+			IntArrayList quads = new IntArrayList();
+			IntArrayList kept = new IntArrayList();
+			int from,to,b;
+
+			from = ParallelChunks.chunkStart(table.cellCount,chunks,chunk);
+			to = ParallelChunks.chunkStart(table.cellCount,chunks,chunk+1);
+			for(int c = from; c < to; c++)
+			{
+				quads.clear();
+				generator.generate(c,quadsPerCell,quads);
+				for(int i = 0; i < quads.size(); i += RECORD_INTS)
+				{
+					b = bucket(quads.get(i));
+					if((b >= binStart)&&(b < binEnd))
+					{
+						for(int j = 0; j < RECORD_INTS; j++)
+							kept.add(quads.get(i+j));
+					}
+				}
+			}
+			chunkQuads[chunk] = kept;
+		});
+		// concatenate in cell order, so the output does not depend on thread timing
+		records = new int[passQuads*RECORD_INTS];
+		count = 0;
+		for(int chunk = 0; chunk < chunks; chunk++)
+		{
+			chunkSize = chunkQuads[chunk].size();
+			System.arraycopy(chunkQuads[chunk].toArray(),0,records,count,chunkSize);
+			count += chunkSize;
+			chunkQuads[chunk] = null;
+		}
+		sortKey = new long[passQuads];
+		for(int i = 0; i < passQuads; i++)
+			sortKey[i] = (((long)records[i*RECORD_INTS]) << 32)|i;
+		Arrays.parallelSort(sortKey);
+		key = new int[passQuads];
+		code = new float[4*passQuads];
+		star = new int[4*passQuads];
+		for(int i = 0; i < passQuads; i++)
+		{
+			r = ((int)sortKey[i])*RECORD_INTS;
+			key[i] = records[r];
+			for(int j = 0; j < 4; j++)
+			{
+				code[(4*i)+j] = Float.intBitsToFloat(records[r+1+j]);
+				star[(4*i)+j] = records[r+5+j];
+			}
+		}
+		writeInts(channel,sectionStart[4]+(4L*written),key,passQuads);
+		writeFloats(channel,sectionStart[5]+(16L*written),code,4*passQuads);
+		writeInts(channel,sectionStart[6]+(16L*written),star,4*passQuads);
+	}
+
+	/**
+	 * Open an index file, memory-mapping it read only.
+	 * @param file The file.
+	 * @return A new index.
+	 * @exception IOException Thrown if the file cannot be read, is not an index file, or is too large to map.
+	 */
+	public static AsterismIndex open(File file) throws IOException
+	{
+		AsterismIndex index = null;
+		RandomAccessFile raf = null;
+		FileChannel channel = null;
+		ByteBuffer header = null;
+		long sectionStart[];
+		int magic,version;
+
+		index = new AsterismIndex();
+		raf = new RandomAccessFile(file,"r");
+		try
+		{
+			channel = raf.getChannel();
+			header = ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining())
+			{
+				if(channel.read(header,header.position()) < 0)
+					throw new IOException("AsterismIndex:open:"+file+":Truncated header.");
+			}
+			header.flip();
+			magic = header.getInt();
+			if(magic != MAGIC)
+				throw new IOException("AsterismIndex:open:"+file+":Illegal magic number:"+Integer.toHexString(magic));
+			version = header.getInt();
+			if(version != VERSION)
+				throw new IOException("AsterismIndex:open:"+file+":Unsupported version:"+version);
+			index.starCount = header.getInt();
+			index.quadCount = header.getInt();
+			index.starOrder = header.getInt();
+			index.band = header.getInt();
+			index.codeTolerance = header.getDouble();
+			index.minScale = header.getDouble();
+			index.maxScale = header.getDouble();
+			if((index.starCount < 0)||(index.quadCount < 0)||(index.quadCount > Integer.MAX_VALUE/4)||
+			   (index.starCount > Integer.MAX_VALUE/24)||(index.starOrder < 0)||(index.starOrder > HEALPix.MAX_ORDER))
+				throw new IOException("AsterismIndex:open:"+file+":Illegal header.");
+			sectionStart = sections(index.starCount,index.quadCount);
+			if(channel.size() < sectionStart[7])
+			{
+				throw new IOException("AsterismIndex:open:"+file+":Truncated: "+channel.size()+" bytes, expected "+
+						      sectionStart[7]+".");
+			}
+			index.starCell = map(channel,sectionStart[0],8L*index.starCount).asLongBuffer();
+			index.starVector = map(channel,sectionStart[1],24L*index.starCount).asDoubleBuffer();
+			index.starRow = map(channel,sectionStart[2],4L*index.starCount).asIntBuffer();
+			index.starMagnitude = map(channel,sectionStart[3],4L*index.starCount).asFloatBuffer();
+			index.quadKey = map(channel,sectionStart[4],4L*index.quadCount).asIntBuffer();
+			index.quadCode = map(channel,sectionStart[5],16L*index.quadCount).asFloatBuffer();
+			index.quadStar = map(channel,sectionStart[6],16L*index.quadCount).asIntBuffer();
+		}
+		finally
+		{
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Return the number of index stars.
+	 */
+	public int getStarCount()
+	{
+		return starCount;
+	}
+
+	/**
+	 * Return the number of quads.
+	 */
+	public int getQuadCount()
+	{
+		return quadCount;
+	}
+
+	/**
+	 * Return the HEALPix order of the index star cells.
+	 */
+	public int getStarOrder()
+	{
+		return starOrder;
+	}
+
+	/**
+	 * Return the magnitude band the index stars were chosen in.
+	 * @see CataloguePredicate#BAND_V
+	 */
+	public int getBand()
+	{
+		return band;
+	}
+
+	/**
+	 * Return the code tolerance the index was built for.
+	 */
+	public double getCodeTolerance()
+	{
+		return codeTolerance;
+	}
+
+	/**
+	 * Return the smallest quad backbone, in radians.
+	 */
+	public double getMinScale()
+	{
+		return minScale;
+	}
+
+	/**
+	 * Return the largest quad backbone, in radians.
+	 */
+	public double getMaxScale()
+	{
+		return maxScale;
+	}
+
+	/**
+	 * Return the unit vector of an index star.
+	 * @param s The index star, 0..getStarCount()-1.
+	 * @param v An array to put the vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public void getStarVector(int s,double v[],int offset)
+	{
+		v[offset] = starVector.get(3*s);
+		v[offset+1] = starVector.get((3*s)+1);
+		v[offset+2] = starVector.get((3*s)+2);
+	}
+
+	/**
+	 * Return the catalogue row an index star came from.
+	 * @param s The index star.
+	 */
+	public int getStarRow(int s)
+	{
+		return starRow.get(s);
+	}
+
+	/**
+	 * Return the magnitude of an index star.
+	 * @param s The index star.
+	 */
+	public double getStarMagnitude(int s)
+	{
+		return starMagnitude.get(s);
+	}
+
+	/**
+	 * Return one of the stars of a quad.
+	 * @param q The quad, 0..getQuadCount()-1.
+	 * @param k 0 for A, 1 for B, 2 for C, 3 for D.
+	 * @return The index star.
+	 */
+	public int getQuadStar(int q,int k)
+	{
+		return quadStar.get((4*q)+k);
+	}
+
+	/**
+	 * Find the quads whose codes are within a tolerance of a code.
+	 * @param code The code: xc, yc, xd, yd.
+	 * @param tolerance The largest euclidean distance between codes, at most getCodeTolerance().
+	 * @param result A list to add the quad numbers to.
+	 * @exception IllegalArgumentException Thrown if the tolerance is larger than the index's.
+	 */
+	public void lookup(double code[],double tolerance,IntArrayList result) throws IllegalArgumentException
+	{
+		int low[] = new int[4];
+		int high[] = new int[4];
+		double binWidth,toleranceSquared,d,distanceSquared;
+		int key,q;
+
+		if(tolerance > codeTolerance)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":lookup:Illegal tolerance:"+tolerance+
+							   ": Must be no more than "+codeTolerance+".");
+		}
+		binWidth = 2.0*codeTolerance;
+		toleranceSquared = tolerance*tolerance;
+		for(int j = 0; j < 4; j++)
+		{
+			low[j] = bin(code[j]-tolerance,binWidth);
+			high[j] = bin(code[j]+tolerance,binWidth);
+		}
+		for(int b0 = low[0]; b0 <= high[0]; b0++)
+		{
+			for(int b1 = low[1]; b1 <= high[1]; b1++)
+			{
+				for(int b2 = low[2]; b2 <= high[2]; b2++)
+				{
+					for(int b3 = low[3]; b3 <= high[3]; b3++)
+					{
+						key = key(b0,b1,b2,b3);
+						for(q = lowerBound(key); (q < quadCount)&&(quadKey.get(q) == key); q++)
+						{
+							distanceSquared = 0.0;
+							for(int j = 0; j < 4; j++)
+							{
+								d = quadCode.get((4*q)+j)-code[j];
+								distanceSquared += d*d;
+							}
+							if(distanceSquared <= toleranceSquared)
+								result.add(q);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the index stars that may be within a cone: all the stars in the cells covering it.
+	 * @param raRadians The right ascension of the cone centre, in radians.
+	 * @param decRadians The declination of the cone centre, in radians.
+	 * @param radius The cone radius, in radians.
+	 * @param result A list to add the index star numbers to. Stars near the edge may be outside the cone.
+	 */
+	public void starsInCone(double raRadians,double decRadians,double radius,final IntArrayList result)
+	{
+		SkyCone cone = null;
+
+		cone = new SkyCone(raRadians,decRadians,radius*SphericalGeometry.RADIANS_TO_ARCSECONDS);
+		HEALPix.coneCoverage(cone,starOrder,(order,pixel,inside) ->
+		{
+			long first,last;
+			int shift;
+
+			shift = 2*(starOrder-order);
+			first = pixel << shift;
+			last = (pixel+1) << shift;
+			for(int s = lowerBoundCell(first); (s < starCount)&&(starCell.get(s) < last); s++)
+				result.add(s);
+		});
+	}
+
+	/**
+	 * Return the first quad whose key is at least a key.
+	 */
+	private int lowerBound(int key)
+	{
+		int low,high,middle;
+
+		low = 0;
+		high = quadCount;
+		while(low < high)
+		{
+			middle = (low+high) >>> 1;
+			if(quadKey.get(middle) < key)
+				low = middle+1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Return the first index star whose cell is at least a cell.
+	 */
+	private int lowerBoundCell(long cell)
+	{
+		int low,high,middle;
+
+		low = 0;
+		high = starCount;
+		while(low < high)
+		{
+			middle = (low+high) >>> 1;
+			if(starCell.get(middle) < cell)
+				low = middle+1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Work out the code of a quad on a plane. The backbone is the most widely separated pair of the four points;
+	 * the code is only valid if the other two lie inside the circle with the backbone as diameter.
+	 * @param px The x coordinates.
+	 * @param py The y coordinates.
+	 * @param i The first point.
+	 * @param j The second point.
+	 * @param k The third point.
+	 * @param l The fourth point.
+	 * @param code An array of at least 4 elements, set to xc, yc, xd, yd.
+	 * @param order An array of at least 4 elements, set to the points in A, B, C, D order.
+	 * @return The backbone length, or -1 if the quad has no valid code.
+	 */
+	static double quadCode(double px[],double py[],int i,int j,int k,int l,double code[],int order[])
+	{
+		int p[] = order;
+		double dx,dy,d,best,ax,ay,bx,by,lengthSquared,re,im,swap;
+		int a,b,c,e,t;
+
+		p[0] = i;
+		p[1] = j;
+		p[2] = k;
+		p[3] = l;
+		// find the backbone
+		best = -1.0;
+		a = 0;
+		b = 1;
+		for(int m = 0; m < 4; m++)
+		{
+			for(int n = m+1; n < 4; n++)
+			{
+				dx = px[p[m]]-px[p[n]];
+				dy = py[p[m]]-py[p[n]];
+				d = (dx*dx)+(dy*dy);
+				if(d > best)
+				{
+					best = d;
+					a = m;
+					b = n;
+				}
+			}
+		}
+		if(!(best > 0.0))
+			return -1.0;
+		// the other two, in their original order
+		c = -1;
+		e = -1;
+		for(int m = 0; m < 4; m++)
+		{
+			if((m != a)&&(m != b))
+			{
+				if(c < 0)
+					c = m;
+				else
+					e = m;
+			}
+		}
+		a = p[a];
+		b = p[b];
+		c = p[c];
+		e = p[e];
+		ax = px[a];
+		ay = py[a];
+		bx = px[b]-ax;
+		by = py[b]-ay;
+		lengthSquared = (bx*bx)+(by*by);
+		// (P-A)/(B-A) * (1+i), as complex numbers, puts A at (0,0) and B at (1,1)
+		re = (((px[c]-ax)*bx)+((py[c]-ay)*by))/lengthSquared;
+		im = (((py[c]-ay)*bx)-((px[c]-ax)*by))/lengthSquared;
+		code[0] = re-im;
+		code[1] = re+im;
+		re = (((px[e]-ax)*bx)+((py[e]-ay)*by))/lengthSquared;
+		im = (((py[e]-ay)*bx)-((px[e]-ax)*by))/lengthSquared;
+		code[2] = re-im;
+		code[3] = re+im;
+		// C and D must be inside the circle on AB, centred (0.5,0.5) with radius sqrt(0.5)
+		for(int m = 0; m < 4; m += 2)
+		{
+			dx = code[m]-0.5;
+			dy = code[m+1]-0.5;
+			if((dx*dx)+(dy*dy) > 0.5)
+				return -1.0;
+		}
+		// swapping A and B maps (x,y) to (1-x,1-y)
+		if(code[0]+code[2] > 1.0)
+		{
+			for(int m = 0; m < 4; m++)
+				code[m] = 1.0-code[m];
+			t = a;
+			a = b;
+			b = t;
+		}
+		if(code[0] > code[2])
+		{
+			swap = code[0];
+			code[0] = code[2];
+			code[2] = swap;
+			swap = code[1];
+			code[1] = code[3];
+			code[3] = swap;
+			t = c;
+			c = e;
+			e = t;
+		}
+		order[0] = a;
+		order[1] = b;
+		order[2] = c;
+		order[3] = e;
+		return Math.sqrt(lengthSquared);
+	}
+
+	/**
+	 * Return the bin of a code coordinate.
+	 */
+	static int bin(double c,double binWidth)
+	{
+		int b;
+
+		b = (int)Math.floor((c+0.5)/binWidth);
+		return Math.max(0,Math.min(BINS-1,b));
+	}
+
+	/**
+	 * Return the key of four bins. The sign bit is flipped so that signed int order is bin order.
+	 */
+	static int key(int b0,int b1,int b2,int b3)
+	{
+		return ((b0 << 24)|(b1 << 16)|(b2 << 8)|b3)^Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Return the first code bin of a key, which the build passes split on.
+	 */
+	private static int bucket(int key)
+	{
+		return (key^Integer.MIN_VALUE) >>> 24;
+	}
+
+	/**
+	 * Return the start of each file section, and the end of the file as the last element.
+	 */
+	private static long[] sections(int stars,int quads)
+	{
+		long start[] = new long[8];
+		long size[] = new long[] {8L*stars,24L*stars,4L*stars,4L*stars,4L*quads,16L*quads,16L*quads};
+
+		start[0] = HEADER_SIZE;
+		for(int i = 0; i < 7; i++)
+			start[i+1] = (start[i]+size[i]+7L) & ~7L;
+		return start;
+	}
+
+	/**
+	 * Map a file section read only.
+	 */
+	private static ByteBuffer map(FileChannel channel,long position,long size) throws IOException
+	{
+		if(size > Integer.MAX_VALUE)
+			throw new IOException("AsterismIndex:map:Section of "+size+" bytes too large to map.");
+		return channel.map(FileChannel.MapMode.READ_ONLY,position,size);
+	}
+
+	/**
+	 * Run a loop over cells in parallel chunks.
+	 */
+	private static void forEachChunk(int n,ParallelChunks.Task task)
+	{
+		ParallelChunks.forEach(n,64,task);
+	}
+
+	/**
+	 * Write all of a buffer at a file position.
+	 */
+	private static void writeFully(FileChannel channel,ByteBuffer buffer,long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+			position += channel.write(buffer,position);
+	}
+
+	/**
+	 * Write longs at a file position.
+	 */
+	private static void writeLongs(FileChannel channel,long position,long a[],int n) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		int count;
+
+		for(int i = 0; i < n; i += count)
+		{
+			count = Math.min(n-i,WRITE_BUFFER_SIZE/8);
+			buffer.clear();
+			buffer.asLongBuffer().put(a,i,count);
+			buffer.limit(count*8);
+			writeFully(channel,buffer,position);
+			position += count*8;
+		}
+	}
+
+	/**
+	 * Write doubles at a file position.
+	 */
+	private static void writeDoubles(FileChannel channel,long position,double a[],int n) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		int count;
+
+		for(int i = 0; i < n; i += count)
+		{
+			count = Math.min(n-i,WRITE_BUFFER_SIZE/8);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(a,i,count);
+			buffer.limit(count*8);
+			writeFully(channel,buffer,position);
+			position += count*8;
+		}
+	}
+
+	/**
+	 * Write ints at a file position.
+	 */
+	private static void writeInts(FileChannel channel,long position,int a[],int n) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		int count;
+
+		for(int i = 0; i < n; i += count)
+		{
+			count = Math.min(n-i,WRITE_BUFFER_SIZE/4);
+			buffer.clear();
+			buffer.asIntBuffer().put(a,i,count);
+			buffer.limit(count*4);
+			writeFully(channel,buffer,position);
+			position += count*4;
+		}
+	}
+
+	/**
+	 * Write floats at a file position.
+	 */
+	private static void writeFloats(FileChannel channel,long position,float a[],int n) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		int count;
+
+		for(int i = 0; i < n; i += count)
+		{
+			count = Math.min(n-i,WRITE_BUFFER_SIZE/4);
+			buffer.clear();
+			buffer.asFloatBuffer().put(a,i,count);
+			buffer.limit(count*4);
+			writeFully(channel,buffer,position);
+			position += count*4;
+		}
+	}
+
+	public String toString()
+	{
+		return new String("AsterismIndex(stars="+starCount+",quads="+quadCount+",order="+starOrder+",scale="+
+				  (minScale*SphericalGeometry.RADIANS_TO_ARCSECONDS)+".."+
+				  (maxScale*SphericalGeometry.RADIANS_TO_ARCSECONDS)+"\",tolerance="+codeTolerance+")");
+	}
+
+	/**
+	 * The index stars while building, in cell order.
+	 */
+	private static class StarTable
+	{
+		/**
+		 * The HEALPix order of the cells.
+		 */
+		int order = 0;
+		/**
+		 * The number of non-empty cells.
+		 */
+		int cellCount = 0;
+		/**
+		 * The pixel of each non-empty cell, ascending.
+		 */
+		long cellPixel[] = null;
+		/**
+		 * Where each cell's stars start; cell c's are cellStart[c]..cellStart[c+1].
+		 */
+		int cellStart[] = null;
+		/**
+		 * The number of index stars.
+		 */
+		int starCount = 0;
+		/**
+		 * The cell pixel of each star.
+		 */
+		long cell[] = null;
+		/**
+		 * The unit vector of each star.
+		 */
+		double vector[] = null;
+		/**
+		 * The catalogue row of each star.
+		 */
+		int row[] = null;
+		/**
+		 * The magnitude of each star.
+		 */
+		float magnitude[] = null;
+
+		/**
+		 * Take the brightest stars with a magnitude from each cell of a grid.
+		 */
+		void select(SkyDensityGrid grid,CelestialObjectColumns columns,int band)
+		{
+			double ra[],dec[],m[];
+			int s,r,count;
+
+			m = (band == CataloguePredicate.BAND_B) ? columns.getBMagnitude() :
+				((band == CataloguePredicate.BAND_V) ? columns.getVMagnitude() : columns.getRMagnitude());
+			ra = columns.getRARadians();
+			dec = columns.getDecRadians();
+			count = 0;
+			for(int c = 0; c < grid.getCellCount(); c++)
+			{
+				for(int j = 0; (j < grid.getBrightestCount(c))&&(!Double.isNaN(m[grid.getBrightest(c,j)])); j++)
+					count++;
+			}
+			cellCount = 0;
+			cellPixel = new long[grid.getCellCount()];
+			cellStart = new int[grid.getCellCount()+1];
+			cell = new long[count];
+			vector = new double[3*count];
+			row = new int[count];
+			magnitude = new float[count];
+			s = 0;
+			for(int c = 0; c < grid.getCellCount(); c++)
+			{
+				cellPixel[cellCount] = grid.getCell(c);
+				cellStart[cellCount] = s;
+				for(int j = 0; j < grid.getBrightestCount(c); j++)
+				{
+					r = grid.getBrightest(c,j);
+					// absent magnitudes come last
+					if(Double.isNaN(m[r]))
+						break;
+					cell[s] = grid.getCell(c);
+					SphericalGeometry.toUnitVector(ra[r],dec[r],vector,3*s);
+					row[s] = r;
+					magnitude[s] = (float)m[r];
+					s++;
+				}
+				if(s > cellStart[cellCount])
+					cellCount++;
+			}
+			cellStart[cellCount] = s;
+			starCount = s;
+		}
+
+		/**
+		 * Find a cell.
+		 * @return The cell index, or -1 if the cell has no stars.
+		 */
+		int findCell(long pixel)
+		{
+			int i;
+
+			i = Arrays.binarySearch(cellPixel,0,cellCount,pixel);
+			return (i >= 0) ? i : -1;
+		}
+	};
+
+	/**
+	 * Makes the quads of a cell. One generator per thread.
+	 */
+	private static class QuadGenerator
+	{
+		StarTable table = null;
+		double minScale,maxScale,binWidth;
+		long neighbour[] = new long[8];
+		int candidate[] = null;
+		double px[] = null;
+		double py[] = null;
+		double plane[] = new double[2];
+		double centre[] = new double[3];
+		double code[] = new double[4];
+		int order[] = new int[4];
+		int insideStar[] = new int[MAX_INSIDE];
+
+		QuadGenerator(StarTable t,double min,double max,double width)
+		{
+			super();
+			table = t;
+			minScale = min;
+			maxScale = max;
+			binWidth = width;
+		}
+
+		/**
+		 * Add the records of the quads whose backbone midpoint is in a cell: key, code bits, stars A..D.
+		 * @param c The cell index.
+		 * @param quadsPerCell The most quads to make.
+		 * @param out The list to add the records to.
+		 */
+		void generate(int c,int quadsPerCell,IntArrayList out)
+		{
+			double ra,dec,length,mx,my,mz,norm,dx,dy,cx,cy,radiusSquared;
+			long pixel;
+			int n,found,star,s,t,inside,perBackbone;
+
+			pixel = table.cellPixel[c];
+			// candidates: the stars of the cell and its neighbours
+			n = 0;
+			n = addCandidates(c,n);
+			HEALPix.neighbours(table.order,pixel,neighbour);
+			for(int i = 0; i < 8; i++)
+			{
+				if(neighbour[i] >= 0)
+				{
+					s = table.findCell(neighbour[i]);
+					if(s >= 0)
+						n = addCandidates(s,n);
+				}
+			}
+			if(n < 4)
+				return;
+			// brightest first, by insertion sort
+			for(int i = 1; i < n; i++)
+			{
+				star = candidate[i];
+				for(s = i-1; (s >= 0)&&(table.magnitude[candidate[s]] > table.magnitude[star]); s--)
+					candidate[s+1] = candidate[s];
+				candidate[s+1] = star;
+			}
+			HEALPix.pixelToVec(table.order,pixel,centre,0);
+			ra = SphericalGeometry.toRARadians(centre[0],centre[1],centre[2]);
+			dec = SphericalGeometry.toDecRadians(centre[0],centre[1],centre[2]);
+			for(int i = 0; i < n; i++)
+			{
+				s = 3*candidate[i];
+				SphericalGeometry.unitVectorToTangentPlane(ra,dec,table.vector[s],table.vector[s+1],
+									   table.vector[s+2],plane);
+				px[i] = plane[0];
+				py[i] = plane[1];
+			}
+			// backbones, fainter star b outer so bright pairs come first
+			found = 0;
+			for(int b = 1; b < n; b++)
+			{
+				for(int a = 0; a < b; a++)
+				{
+					dx = px[b]-px[a];
+					dy = py[b]-py[a];
+					length = Math.sqrt((dx*dx)+(dy*dy));
+					if((length < minScale)||(length > maxScale))
+						continue;
+					s = 3*candidate[a];
+					t = 3*candidate[b];
+					mx = table.vector[s]+table.vector[t];
+					my = table.vector[s+1]+table.vector[t+1];
+					mz = table.vector[s+2]+table.vector[t+2];
+					norm = Math.sqrt((mx*mx)+(my*my)+(mz*mz));
+					if(HEALPix.vecToPixel(table.order,mx/norm,my/norm,mz/norm) != pixel)
+						continue;
+					// the brightest stars inside the circle on the backbone
+					cx = (px[a]+px[b])/2.0;
+					cy = (py[a]+py[b])/2.0;
+					radiusSquared = (length*length)/4.0;
+					inside = 0;
+					for(int i = 0; (i < n)&&(inside < MAX_INSIDE); i++)
+					{
+						dx = px[i]-cx;
+						dy = py[i]-cy;
+						if((i != a)&&(i != b)&&((dx*dx)+(dy*dy) < radiusSquared))
+							insideStar[inside++] = i;
+					}
+					perBackbone = 0;
+					for(int j = 1; (j < inside)&&(perBackbone < QUADS_PER_BACKBONE); j++)
+					{
+						for(int i = 0; (i < j)&&(perBackbone < QUADS_PER_BACKBONE); i++)
+						{
+							if(quadCode(px,py,a,b,insideStar[i],insideStar[j],code,order) < 0.0)
+								continue;
+							out.add(key(bin(code[0],binWidth),bin(code[1],binWidth),bin(code[2],binWidth),
+								    bin(code[3],binWidth)));
+							for(int k = 0; k < 4; k++)
+								out.add(Float.floatToRawIntBits((float)code[k]));
+							for(int k = 0; k < 4; k++)
+								out.add(candidate[order[k]]);
+							perBackbone++;
+							found++;
+							if(found == quadsPerCell)
+								return;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Add a cell's stars to the candidates, growing the arrays as needed.
+		 * @return The new candidate count.
+		 */
+		private int addCandidates(int c,int n)
+		{
+			int count;
+
+			count = table.cellStart[c+1]-table.cellStart[c];
+			if((candidate == null)||(n+count > candidate.length))
+			{
+				candidate = (candidate == null) ? new int[Math.max(64,count)] :
+					Arrays.copyOf(candidate,Math.max(2*candidate.length,n+count));
+				px = new double[candidate.length];
+				py = new double[candidate.length];
+			}
+			for(int s = table.cellStart[c]; s < table.cellStart[c+1]; s++)
+				candidate[n++] = s;
+			return n;
+		}
+	};
+};
+//
+// $Log$
+//
@@ -0,0 +1,136 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AsterismSolution.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds a blind plate solution found by the AsterismSolver.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see AsterismSolver
+ */
+public class AsterismSolution implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so solutions can be passed between JVMs.
+	 */
+	static final long serialVersionUID = 3417830840582375690L;
+	/**
+	 * The fitted projection from pixels to sky.
+	 */
+	protected TangentPlaneProjection projection = null;
+	/**
+	 * The number of index stars in the image matched to a detection.
+	 */
+	protected int matchCount = 0;
+	/**
+	 * The number of index stars that fall in the image.
+	 */
+	protected int fieldStarCount = 0;
+	/**
+	 * The RMS residual of the matched stars, in arc-seconds.
+	 */
+	protected double rms = 0.0;
+	/**
+	 * The index quad that gave the solution.
+	 */
+	protected int quad = -1;
+	/**
+	 * The number of hypotheses verified.
+	 */
+	protected int hypothesisCount = 0;
+	/**
+	 * The time taken to solve, in milliseconds.
+	 */
+	protected long solveTime = 0;
+
+	/**
+	 * Constructor.
+	 * @param p The fitted projection.
+	 * @param m The number of index stars matched.
+	 * @param f The number of index stars in the image.
+	 * @param r The RMS residual, in arc-seconds.
+	 * @param q The index quad that gave the solution.
+	 * @param h The number of hypotheses verified.
+	 * @param t The time taken, in milliseconds.
+	 */
+	public AsterismSolution(TangentPlaneProjection p,int m,int f,double r,int q,int h,long t)
+	{
+		super();
+		projection = p;
+		matchCount = m;
+		fieldStarCount = f;
+		rms = r;
+		quad = q;
+		hypothesisCount = h;
+		solveTime = t;
+	}
+
+	public TangentPlaneProjection getProjection()
+	{
+		return projection;
+	}
+
+	public int getMatchCount()
+	{
+		return matchCount;
+	}
+
+	public int getFieldStarCount()
+	{
+		return fieldStarCount;
+	}
+
+	public double getRMS()
+	{
+		return rms;
+	}
+
+	public int getQuad()
+	{
+		return quad;
+	}
+
+	public int getHypothesisCount()
+	{
+		return hypothesisCount;
+	}
+
+	public long getSolveTime()
+	{
+		return solveTime;
+	}
+
+	public String toString()
+	{
+		return new String("AsterismSolution("+projection+",matched="+matchCount+"/"+fieldStarCount+",rms="+rms+
+				  "\",quad="+quad+",hypotheses="+hypothesisCount+","+solveTime+"ms)");
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,574 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AsterismSolver.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * This class solves an image with no prior position using an AsterismIndex. Quads are made from the brightest
+ * detections, faintest member last so bright quads are tried first, and their codes (in both image parities)
+ * looked up in the index. Each matching index quad is a hypothesis: the four pairs give a linear solution,
+ * which is verified by projecting the index stars in the field into the image and counting those with a
+ * detection within the match radius. Hypotheses are verified in parallel batches; the first batch holding a
+ * hypothesis with at least minMatches matches ends the search, and its best hypothesis is refitted to all its
+ * matched stars.
+ * <p>
+ * The solver's settings should be made before it is shared; solve itself may be called from many threads.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see AsterismIndex
+ * @see AsterismSolution
+ */
+public class AsterismSolver
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default number of brightest detections quads are made from.
+	 */
+	public final static int DEFAULT_MAX_DETECTIONS = 25;
+	/**
+	 * The default match radius, in pixels.
+	 */
+	public final static double DEFAULT_MATCH_RADIUS = 3.0;
+	/**
+	 * The default number of matched stars needed to accept a solution.
+	 */
+	public final static int DEFAULT_MIN_MATCHES = 10;
+	/**
+	 * The default time limit, in milliseconds.
+	 */
+	public final static long DEFAULT_TIME_LIMIT = 1000;
+	/**
+	 * The number of hypotheses verified together.
+	 */
+	private final static int HYPOTHESIS_BATCH = 64;
+	/**
+	 * The index.
+	 */
+	protected AsterismIndex index = null;
+	/**
+	 * The code tolerance used for lookups.
+	 */
+	protected double codeTolerance = 0.0;
+	/**
+	 * The smallest pixel scale to accept, in arc-seconds per pixel.
+	 */
+	protected double minPixelScale = 0.0;
+	/**
+	 * The largest pixel scale to accept, in arc-seconds per pixel.
+	 */
+	protected double maxPixelScale = Double.POSITIVE_INFINITY;
+	/**
+	 * The number of brightest detections quads are made from.
+	 */
+	protected int maxDetections = DEFAULT_MAX_DETECTIONS;
+	/**
+	 * The match radius, in pixels.
+	 */
+	protected double matchRadius = DEFAULT_MATCH_RADIUS;
+	/**
+	 * The number of matched stars needed to accept a solution.
+	 */
+	protected int minMatches = DEFAULT_MIN_MATCHES;
+	/**
+	 * The time limit, in milliseconds.
+	 */
+	protected long timeLimit = DEFAULT_TIME_LIMIT;
+	/**
+	 * Whether to verify hypotheses in parallel.
+	 */
+	protected boolean parallel = true;
+
+	/**
+	 * Constructor.
+	 * @param i The index to solve with.
+	 */
+	public AsterismSolver(AsterismIndex i)
+	{
+		super();
+		index = i;
+		codeTolerance = i.getCodeTolerance();
+	}
+
+	/**
+	 * Set the code tolerance used for lookups.
+	 * @param t The tolerance, no more than the index's.
+	 * @exception IllegalArgumentException Thrown if the tolerance is not positive or is more than the index's.
+	 */
+	public void setCodeTolerance(double t) throws IllegalArgumentException
+	{
+		if(!((t > 0.0)&&(t <= index.getCodeTolerance())))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCodeTolerance:Illegal tolerance:"+t+
+							   ": Must be positive and no more than "+index.getCodeTolerance()+".");
+		}
+		codeTolerance = t;
+	}
+
+	/**
+	 * Set the range of pixel scales to accept, which also stops image quads that cannot match the index's quad
+	 * sizes being looked up.
+	 * @param min The smallest scale, in arc-seconds per pixel.
+	 * @param max The largest scale, in arc-seconds per pixel.
+	 * @exception IllegalArgumentException Thrown if the range is empty or negative.
+	 */
+	public void setPixelScaleRange(double min,double max) throws IllegalArgumentException
+	{
+		if(!((min >= 0.0)&&(min <= max)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setPixelScaleRange:Illegal range:"+
+							   min+".."+max+": Must be positive and increasing.");
+		}
+		minPixelScale = min;
+		maxPixelScale = max;
+	}
+
+	/**
+	 * Set the number of brightest detections quads are made from.
+	 * @param n The number, at least 4.
+	 * @exception IllegalArgumentException Thrown if the number is less than 4.
+	 */
+	public void setMaxDetections(int n) throws IllegalArgumentException
+	{
+		if(n < 4)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxDetections:Illegal count:"+n+
+							   ": Must be at least 4.");
+		}
+		maxDetections = n;
+	}
+
+	/**
+	 * Set the match radius.
+	 * @param r The radius, in pixels.
+	 * @exception IllegalArgumentException Thrown if the radius is not positive.
+	 */
+	public void setMatchRadius(double r) throws IllegalArgumentException
+	{
+		if(!(r > 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMatchRadius:Illegal radius:"+r+
+							   ": Must be positive.");
+		}
+		matchRadius = r;
+	}
+
+	/**
+	 * Set the number of matched stars needed to accept a solution.
+	 * @param n The number, at least 4.
+	 * @exception IllegalArgumentException Thrown if the number is less than 4.
+	 */
+	public void setMinMatches(int n) throws IllegalArgumentException
+	{
+		if(n < 4)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMinMatches:Illegal count:"+n+
+							   ": Must be at least 4.");
+		}
+		minMatches = n;
+	}
+
+	/**
+	 * Set the time limit.
+	 * @param ms The limit, in milliseconds.
+	 */
+	public void setTimeLimit(long ms)
+	{
+		timeLimit = ms;
+	}
+
+	/**
+	 * Set whether to verify hypotheses in parallel.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Solve an image.
+	 * @param x The pixel x of each detection, brightest first.
+	 * @param y The pixel y of each detection.
+	 * @param n The number of detections.
+	 * @param width The image width, in pixels.
+	 * @param height The image height, in pixels.
+	 * @return The solution, or null if none was found within the time limit.
+	 */
+	public AsterismSolution solve(final double x[],final double y[],int n,final double width,final double height)
+	{
+		final DetectionGrid grid;
+		IntArrayList found = new IntArrayList();
+		int hypotheses[];
+		double parityX[][],py[],code[];
+		int order[];
+		Hypothesis best = null;
+		double length,minLength,maxLength;
+		long startTime,deadline;
+		int m,count,verified;
+
+		startTime = System.nanoTime();
+		deadline = startTime+(timeLimit*1000000L);
+		grid = new DetectionGrid(x,y,n,width,height,matchRadius);
+		m = Math.min(n,maxDetections);
+		parityX = new double[2][m];
+		py = new double[m];
+		for(int i = 0; i < m; i++)
+		{
+			parityX[0][i] = x[i];
+			parityX[1][i] = -x[i];
+			py[i] = y[i];
+		}
+		// image quad backbones that could match the index's quad sizes
+		minLength = index.getMinScale()*SphericalGeometry.RADIANS_TO_ARCSECONDS/maxPixelScale;
+		maxLength = (minPixelScale > 0.0) ?
+			index.getMaxScale()*SphericalGeometry.RADIANS_TO_ARCSECONDS/minPixelScale : Double.POSITIVE_INFINITY;
+		code = new double[4];
+		order = new int[4];
+		hypotheses = new int[5*HYPOTHESIS_BATCH];
+		count = 0;
+		verified = 0;
+		for(int l = 3; l < m; l++)
+		{
+			for(int k = 2; k < l; k++)
+			{
+				for(int j = 1; j < k; j++)
+				{
+					for(int i = 0; i < j; i++)
+					{
+						for(int parity = 0; parity < 2; parity++)
+						{
+							length = AsterismIndex.quadCode(parityX[parity],py,i,j,k,l,code,order);
+							if((length < 0.0)||(length < minLength)||(length > maxLength))
+								continue;
+							found.clear();
+							index.lookup(code,codeTolerance,found);
+							for(int f = 0; f < found.size(); f++)
+							{
+								for(int t = 0; t < 4; t++)
+									hypotheses[(5*count)+t] = order[t];
+								hypotheses[(5*count)+4] = found.get(f);
+								count++;
+								if(count == HYPOTHESIS_BATCH)
+								{
+									best = verify(hypotheses,count,x,y,width,height,grid);
+									verified += count;
+									count = 0;
+									if(best != null)
+										return refine(best,x,y,width,height,grid,verified,startTime);
+								}
+							}
+						}
+						if(System.nanoTime() > deadline)
+							return null;
+					}
+				}
+			}
+		}
+		best = verify(hypotheses,count,x,y,width,height,grid);
+		verified += count;
+		if(best != null)
+			return refine(best,x,y,width,height,grid,verified,startTime);
+		return null;
+	}
+
+	/**
+	 * Verify a batch of hypotheses.
+	 * @param hypotheses The hypotheses: the detections matched to the quad's A, B, C and D, then the quad.
+	 * @param count The number of hypotheses.
+	 * @return The hypothesis with the most matches, if it has at least minMatches, or null.
+	 */
+	private Hypothesis verify(final int hypotheses[],int count,final double x[],final double y[],
+				  final double width,final double height,final DetectionGrid grid)
+	{
+		IntStream stream = null;
+		Hypothesis best = null;
+
+		stream = IntStream.range(0,count);
+		if(parallel)
+			stream = stream.parallel();
+		best = stream.mapToObj(h -> verifyHypothesis(hypotheses,h,x,y,width,height,grid)).filter(h -> h != null).
+			max((a,b) -> Integer.compare(a.matchCount,b.matchCount)).orElse(null);
+		if((best != null)&&(best.matchCount >= minMatches))
+			return best;
+		return null;
+	}
+
+	/**
+	 * Verify one hypothesis.
+	 * @return The hypothesis with its projection and match counts, or null if the four pairs do not give an
+	 *         acceptable solution.
+	 */
+	private Hypothesis verifyHypothesis(int hypotheses[],int h,double x[],double y[],double width,double height,
+					    DetectionGrid grid)
+	{
+		PlateSolutionFitter fitter = null;
+		TangentPlaneProjection initial = null;
+		Hypothesis hypothesis = null;
+		double px[] = new double[4];
+		double py[] = new double[4];
+		double ra[] = new double[4];
+		double dec[] = new double[4];
+		double v[] = new double[3];
+		int detection,star;
+
+		for(int t = 0; t < 4; t++)
+		{
+			detection = hypotheses[(5*h)+t];
+			star = index.getQuadStar(hypotheses[(5*h)+4],t);
+			px[t] = x[detection];
+			py[t] = y[detection];
+			index.getStarVector(star,v,0);
+			ra[t] = SphericalGeometry.toRARadians(v[0],v[1],v[2]);
+			dec[t] = SphericalGeometry.toDecRadians(v[0],v[1],v[2]);
+		}
+		hypothesis = new Hypothesis();
+		hypothesis.quad = hypotheses[(5*h)+4];
+		initial = new TangentPlaneProjection(ra[0],dec[0]);
+		initial.setReferencePixel(px[0],py[0]);
+		fitter = new PlateSolutionFitter();
+		fitter.setParallel(false);
+		fitter.setClipSigma(Double.POSITIVE_INFINITY);
+		try
+		{
+			hypothesis.projection = fitter.fit(px,py,ra,dec,4,initial);
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+		if((hypothesis.projection.getPixelScale() < minPixelScale)||
+		   (hypothesis.projection.getPixelScale() > maxPixelScale))
+			return null;
+		match(hypothesis,width,height,grid,null);
+		return hypothesis;
+	}
+
+	/**
+	 * Refit the winning hypothesis to all its matched stars.
+	 */
+	private AsterismSolution refine(Hypothesis best,double x[],double y[],double width,double height,
+					DetectionGrid grid,int verified,long startTime)
+	{
+		PlateSolutionFitter fitter = null;
+		TangentPlaneProjection initial = null;
+		IntArrayList pairs = new IntArrayList();
+		double centreX[] = new double[1];
+		double centreY[] = new double[1];
+		double px[],py[],ra[],dec[];
+		double v[] = new double[3];
+		double rms;
+		int n;
+
+		match(best,width,height,grid,pairs);
+		n = pairs.size()/2;
+		px = new double[n];
+		py = new double[n];
+		ra = new double[n];
+		dec = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			index.getStarVector(pairs.get(2*i),v,0);
+			ra[i] = SphericalGeometry.toRARadians(v[0],v[1],v[2]);
+			dec[i] = SphericalGeometry.toDecRadians(v[0],v[1],v[2]);
+			px[i] = x[pairs.get((2*i)+1)];
+			py[i] = y[pairs.get((2*i)+1)];
+		}
+		// refit about the image centre
+		centreX[0] = width/2.0;
+		centreY[0] = height/2.0;
+		best.projection.pixelToSky(centreX,centreY,centreX,centreY,1,false);
+		initial = new TangentPlaneProjection(centreX[0],centreY[0]);
+		initial.setReferencePixel(width/2.0,height/2.0);
+		fitter = new PlateSolutionFitter();
+		fitter.setParallel(false);
+		try
+		{
+			best.projection = fitter.fit(px,py,ra,dec,n,initial);
+			rms = fitter.getRMS();
+			match(best,width,height,grid,null);
+		}
+		catch(IllegalArgumentException e)
+		{
+			rms = Double.NaN;
+		}
+		return new AsterismSolution(best.projection,best.matchCount,best.fieldStarCount,rms,best.quad,verified,
+					    (System.nanoTime()-startTime)/1000000L);
+	}
+
+	/**
+	 * Project the index stars around the image into it, and count those that land on a detection.
+	 * @param hypothesis The hypothesis; its match and field star counts are set.
+	 * @param pairs If not null, the matched index star and detection of each match are added to it.
+	 */
+	private void match(Hypothesis hypothesis,double width,double height,DetectionGrid grid,IntArrayList pairs)
+	{
+		TangentPlaneProjection projection = hypothesis.projection;
+		IntArrayList stars = new IntArrayList();
+		double cx[] = new double[] {width/2.0};
+		double cy[] = new double[] {height/2.0};
+		double vx[],vy[],vz[],px[],py[];
+		double v[] = new double[3];
+		double radius;
+		int n,detection,matches,fieldStars;
+
+		projection.pixelToSky(cx,cy,cx,cy,1,false);
+		radius = 0.5*Math.sqrt((width*width)+(height*height))*projection.getPixelScale()*
+			SphericalGeometry.ARCSECONDS_TO_RADIANS*1.05;
+		index.starsInCone(cx[0],cy[0],radius,stars);
+		n = stars.size();
+		vx = new double[n];
+		vy = new double[n];
+		vz = new double[n];
+		px = new double[n];
+		py = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			index.getStarVector(stars.get(i),v,0);
+			vx[i] = v[0];
+			vy[i] = v[1];
+			vz[i] = v[2];
+		}
+		projection.unitVectorsToPixel(vx,vy,vz,px,py,n,false);
+		matches = 0;
+		fieldStars = 0;
+		for(int i = 0; i < n; i++)
+		{
+			// NaN fails these tests too
+			if(!((px[i] >= 0.0)&&(px[i] < width)&&(py[i] >= 0.0)&&(py[i] < height)))
+				continue;
+			fieldStars++;
+			detection = grid.nearest(px[i],py[i]);
+			if(detection >= 0)
+			{
+				matches++;
+				if(pairs != null)
+				{
+					pairs.add(stars.get(i));
+					pairs.add(detection);
+				}
+			}
+		}
+		hypothesis.matchCount = matches;
+		hypothesis.fieldStarCount = fieldStars;
+	}
+
+	/**
+	 * A hypothesis being verified.
+	 */
+	private static class Hypothesis
+	{
+		TangentPlaneProjection projection = null;
+		int quad = -1;
+		int matchCount = 0;
+		int fieldStarCount = 0;
+	};
+
+	/**
+	 * The detections of an image, binned into square cells one match radius across.
+	 */
+	private static class DetectionGrid
+	{
+		double x[] = null;
+		double y[] = null;
+		double radius;
+		int nx,ny;
+		int cellStart[] = null;
+		int member[] = null;
+
+		DetectionGrid(double x[],double y[],int n,double width,double height,double radius)
+		{
+			super();
+			int next[];
+			int c;
+
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+			nx = Math.max(1,(int)Math.ceil(width/radius));
+			ny = Math.max(1,(int)Math.ceil(height/radius));
+			cellStart = new int[(nx*ny)+1];
+			member = new int[n];
+			for(int i = 0; i < n; i++)
+				cellStart[cell(x[i],y[i])+1]++;
+			for(int i = 0; i < nx*ny; i++)
+				cellStart[i+1] += cellStart[i];
+			next = Arrays.copyOf(cellStart,nx*ny);
+			for(int i = 0; i < n; i++)
+			{
+				c = cell(x[i],y[i]);
+				member[next[c]++] = i;
+			}
+		}
+
+		/**
+		 * Return the cell of a position, clamped to the grid.
+		 */
+		int cell(double px,double py)
+		{
+			int ix,iy;
+
+			ix = Math.max(0,Math.min(nx-1,(int)(px/radius)));
+			iy = Math.max(0,Math.min(ny-1,(int)(py/radius)));
+			return (iy*nx)+ix;
+		}
+
+		/**
+		 * Return the nearest detection within the radius of a position, or -1.
+		 */
+		int nearest(double px,double py)
+		{
+			double best,dx,dy,d;
+			int ix,iy,c,found;
+
+			ix = Math.max(0,Math.min(nx-1,(int)(px/radius)));
+			iy = Math.max(0,Math.min(ny-1,(int)(py/radius)));
+			best = radius*radius;
+			found = -1;
+			for(int j = Math.max(0,iy-1); j <= Math.min(ny-1,iy+1); j++)
+			{
+				for(int i = Math.max(0,ix-1); i <= Math.min(nx-1,ix+1); i++)
+				{
+					c = (j*nx)+i;
+					for(int k = cellStart[c]; k < cellStart[c+1]; k++)
+					{
+						dx = x[member[k]]-px;
+						dy = y[member[k]]-py;
+						d = (dx*dx)+(dy*dy);
+						if(d <= best)
+						{
+							best = d;
+							found = member[k];
+						}
+					}
+				}
+			}
+			return found;
+		}
+	};
+};
+//
+// $Log$
+//
@@ -0,0 +1,320 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AstrometryMetrics.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * This class holds optional counters and latency histograms for the package's hot paths: coordinate parsing,
+ * formatting and conversion, comparator use, and index searches. Metrics are off unless the JVM is started with
+ * <pre>-Dorg.estar.astrometry.metrics=true</pre>
+ * ENABLED is a static final constant, so when it is false the JIT removes the instrumentation calls
+ * entirely. When it is true, each timed call costs two System.nanoTime calls and a few uncontended atomic
+ * adds, and the metrics are registered as the MBean org.estar.astrometry:type=AstrometryMetrics.
+ * Instrumented code looks like:
+ * <pre>
+ * long startTime = AstrometryMetrics.start();
+ * ...
+ * AstrometryMetrics.stop(AstrometryMetrics.RA_PARSE,startTime);
+ * </pre>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see AstrometryMetricsMBean
+ */
+public class AstrometryMetrics implements AstrometryMetricsMBean
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The system property that enables metrics.
+	 */
+	public final static String ENABLED_PROPERTY = "org.estar.astrometry.metrics";
+	/**
+	 * Whether metrics are collected, fixed when the class is loaded.
+	 */
+	public final static boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+	/**
+	 * The JMX object name the metrics are registered under.
+	 */
+	public final static String OBJECT_NAME = "org.estar.astrometry:type=AstrometryMetrics";
+	/**
+	 * Operation: RA parsing.
+	 */
+	public final static int RA_PARSE = 0;
+	/**
+	 * Operation: RA formatting.
+	 */
+	public final static int RA_FORMAT = 1;
+	/**
+	 * Operation: RA conversion to and from radians.
+	 */
+	public final static int RA_CONVERT = 2;
+	/**
+	 * Operation: declination parsing.
+	 */
+	public final static int DEC_PARSE = 3;
+	/**
+	 * Operation: declination formatting.
+	 */
+	public final static int DEC_FORMAT = 4;
+	/**
+	 * Operation: declination conversion to and from radians.
+	 */
+	public final static int DEC_CONVERT = 5;
+	/**
+	 * Operation: parsing a Simbad position into a CelestialObject.
+	 */
+	public final static int OBJECT_PARSE = 6;
+	/**
+	 * Operation: a CelestialObject comparator comparison (counted, not timed).
+	 */
+	public final static int COMPARE = 7;
+	/**
+	 * Operation: a CelestialObjectFootprintIndex search.
+	 */
+	public final static int FOOTPRINT_SEARCH = 8;
+	/**
+	 * Operation: a CelestialObjectKDTree search.
+	 */
+	public final static int KDTREE_SEARCH = 9;
+	/**
+	 * Operation: a CatalogueQuery execution.
+	 */
+	public final static int CATALOGUE_QUERY = 10;
+	/**
+	 * The operation names, indexed by operation.
+	 */
+	protected final static String OPERATION_NAMES[] = {"ra.parse","ra.format","ra.convert",
+							   "dec.parse","dec.format","dec.convert",
+							   "object.parse","compare","footprint.search",
+							   "kdtree.search","catalogue.query"};
+	/**
+	 * The count of each counted (not timed) operation.
+	 */
+	protected final static LongAdder counts[] = new LongAdder[OPERATION_NAMES.length];
+	/**
+	 * The number of rejected inputs of each operation.
+	 */
+	protected final static LongAdder rejects[] = new LongAdder[OPERATION_NAMES.length];
+	/**
+	 * The latency, in nanoseconds, of each timed operation.
+	 */
+	protected final static LatencyHistogram latency[] = new LatencyHistogram[OPERATION_NAMES.length];
+
+	static
+	{
+		for(int op = 0; op < OPERATION_NAMES.length; op++)
+		{
+			counts[op] = new LongAdder();
+			rejects[op] = new LongAdder();
+			latency[op] = new LatencyHistogram();
+		}
+		if(ENABLED)
+			register();
+	}
+
+	/**
+	 * Constructor, only used for the MBean instance.
+	 */
+	protected AstrometryMetrics()
+	{
+		super();
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server, if they are not already registered.
+	 * @return true if the metrics are registered.
+	 */
+	public static synchronized boolean register()
+	{
+		MBeanServer server = null;
+		ObjectName name = null;
+
+		try
+		{
+			server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name))
+				server.registerMBean(new AstrometryMetrics(),name);
+			return true;
+		}
+		catch(JMException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Start timing an operation.
+	 * @return The start time to pass to stop, or 0 if metrics are disabled.
+	 * @see #stop
+	 */
+	public static long start()
+	{
+		if(ENABLED)
+			return System.nanoTime();
+		return 0;
+	}
+
+	/**
+	 * Finish timing an operation.
+	 * @param operation The operation, e.g. RA_PARSE.
+	 * @param startTime The value start returned.
+	 * @see #start
+	 */
+	public static void stop(int operation,long startTime)
+	{
+		if(ENABLED)
+			latency[operation].record(System.nanoTime()-startTime);
+	}
+
+	/**
+	 * Count an operation that is not timed.
+	 * @param operation The operation, e.g. COMPARE.
+	 */
+	public static void count(int operation)
+	{
+		if(ENABLED)
+			counts[operation].increment();
+	}
+
+	/**
+	 * Count a rejected input.
+	 * @param operation The operation that rejected its input, e.g. RA_PARSE.
+	 */
+	public static void reject(int operation)
+	{
+		if(ENABLED)
+			rejects[operation].increment();
+	}
+
+	/**
+	 * Return the latency histogram of an operation, in nanoseconds.
+	 * @param operation The operation, e.g. RA_PARSE.
+	 */
+	public static LatencyHistogram getLatency(int operation)
+	{
+		return latency[operation];
+	}
+
+	/**
+	 * Return the number of an operation, or -1 if there is no such operation name.
+	 */
+	protected static int operation(String name)
+	{
+		for(int op = 0; op < OPERATION_NAMES.length; op++)
+		{
+			if(OPERATION_NAMES[op].equals(name))
+				return op;
+		}
+		return -1;
+	}
+
+	public boolean isEnabled()
+	{
+		return ENABLED;
+	}
+
+	public String[] getOperationNames()
+	{
+		return OPERATION_NAMES.clone();
+	}
+
+	public long getCount(String name)
+	{
+		int op;
+
+		op = operation(name);
+		if(op < 0)
+			return -1;
+		return counts[op].sum()+latency[op].getCount();
+	}
+
+	public long getRejectedCount(String name)
+	{
+		int op;
+
+		op = operation(name);
+		if(op < 0)
+			return -1;
+		return rejects[op].sum();
+	}
+
+	public long getLatencyPercentile(String name,double percentile)
+	{
+		int op;
+
+		op = operation(name);
+		if(op < 0)
+			return -1;
+		return latency[op].getPercentile(percentile);
+	}
+
+	public String getSnapshot()
+	{
+		return snapshot();
+	}
+
+	public void reset()
+	{
+		for(int op = 0; op < OPERATION_NAMES.length; op++)
+		{
+			counts[op].reset();
+			rejects[op].reset();
+			latency[op].reset();
+		}
+	}
+
+	/**
+	 * Return a plain text snapshot of every operation, one per line. Timed operations include their latency
+	 * percentiles, in nanoseconds since most operations take well under a microsecond.
+	 */
+	public static String snapshot()
+	{
+		StringBuilder sb = null;
+		LatencyHistogram h = null;
+
+		sb = new StringBuilder();
+		sb.append("enabled: ").append(ENABLED).append("\n");
+		for(int op = 0; op < OPERATION_NAMES.length; op++)
+		{
+			h = latency[op];
+			sb.append(OPERATION_NAMES[op]).append(": count=").append(counts[op].sum()+h.getCount());
+			sb.append(" rejected=").append(rejects[op].sum());
+			if(h.getCount() > 0)
+			{
+				sb.append(" mean=").append((long)h.getMean()).append("ns p50=").append(h.getPercentile(50.0));
+				sb.append("ns p99=").append(h.getPercentile(99.0)).append("ns p99.9=");
+				sb.append(h.getPercentile(99.9)).append("ns max=").append(h.getMax()).append("ns");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,70 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AstrometryMetricsMBean.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * JMX management interface of AstrometryMetrics.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see AstrometryMetrics
+ */
+public interface AstrometryMetricsMBean
+{
+	/**
+	 * Return whether metrics are being collected.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Return the names of the operations measured.
+	 */
+	public String[] getOperationNames();
+
+	/**
+	 * Return the number of times an operation ran, or -1 if there is no such operation.
+	 */
+	public long getCount(String operation);
+
+	/**
+	 * Return the number of times an operation rejected its input, or -1 if there is no such operation.
+	 */
+	public long getRejectedCount(String operation);
+
+	/**
+	 * Return a latency percentile of an operation in nanoseconds, or -1 if there is no such operation.
+	 */
+	public long getLatencyPercentile(String operation,double percentile);
+
+	/**
+	 * Return a plain text snapshot of every operation, one per line.
+	 */
+	public String getSnapshot();
+
+	/**
+	 * Clear every counter and histogram.
+	 */
+	public void reset();
+};
+//
+// $Log$
+//
@@ -0,0 +1,694 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// AstrometrySoakTest.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import javax.management.*;
+import javax.management.openmbean.*;
+
+/**
+ * This class is a soak-test harness. It replays blocks of RTML-style targets (name, sexagesimal RA and Dec,
+ * V magnitude) through the package on many threads at a fixed rate, and writes a JSON report of throughput,
+ * latency, allocation rate and GC pauses, overall and per interval, so builds and JVM flags can be compared.
+ * Each block is processed as a target list would be: every target's RA and Dec are parsed, made into a
+ * CelestialObject, dithered through toRadians/fromRadians and printed with toString, then the block is
+ * sorted by V magnitude and by position.
+ * <p>
+ * It is not in the jar; "make tests" compiles it into test_classes. Usage:
+ * <pre>
+ * java org.estar.astrometry.AstrometrySoakTest [-threads n] [-rate blocks/s] [-duration s] [-warmup s]
+ *	[-interval ms] [-targets n] [-workload file] [-report file]
+ * </pre>
+ * A rate of 0 runs flat out. When rate limited, each block has an intended start time and its latency is
+ * measured from then, so a stall is charged to every block it delays rather than hidden. The workload file
+ * holds one target per line, "name|HH:MM:SS.ss|[+|-]DD:MM:SS.ss|V", with a blank line between blocks; without
+ * one a random workload is generated. Allocation is read from the HotSpot ThreadMXBean and GC pauses from
+ * GC notifications; where the JVM has neither, they are reported as -1.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+public class AstrometrySoakTest
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default number of worker threads.
+	 */
+	public final static int DEFAULT_THREADS = 8;
+	/**
+	 * The default rate, in blocks per second over all threads.
+	 */
+	public final static double DEFAULT_RATE = 2000.0;
+	/**
+	 * The default measured run length, in seconds.
+	 */
+	public final static int DEFAULT_DURATION = 60;
+	/**
+	 * The default warm-up length, in seconds, not included in the summary.
+	 */
+	public final static int DEFAULT_WARMUP = 10;
+	/**
+	 * The default sampling interval, in milliseconds.
+	 */
+	public final static int DEFAULT_INTERVAL = 1000;
+	/**
+	 * The default number of targets in a generated block.
+	 */
+	public final static int DEFAULT_TARGETS = 20;
+	/**
+	 * The number of distinct blocks generated for a random workload.
+	 */
+	protected final static int GENERATED_BLOCKS = 1024;
+	/**
+	 * The number of worker threads.
+	 */
+	protected int threads = DEFAULT_THREADS;
+	/**
+	 * The rate, in blocks per second over all threads, or 0 for no limit.
+	 */
+	protected double rate = DEFAULT_RATE;
+	/**
+	 * The measured run length, in seconds.
+	 */
+	protected int duration = DEFAULT_DURATION;
+	/**
+	 * The warm-up length, in seconds.
+	 */
+	protected int warmup = DEFAULT_WARMUP;
+	/**
+	 * The sampling interval, in milliseconds.
+	 */
+	protected int interval = DEFAULT_INTERVAL;
+	/**
+	 * The number of targets in a generated block.
+	 */
+	protected int targets = DEFAULT_TARGETS;
+	/**
+	 * The workload file, or null to generate one.
+	 */
+	protected File workloadFile = null;
+	/**
+	 * The report file, or null to write the report to standard output.
+	 */
+	protected File reportFile = null;
+	/**
+	 * The workload: each block is an array of targets, each target an array of name, RA, Dec and V.
+	 */
+	protected List<String[][]> workload = null;
+	/**
+	 * The latency of every block processed after the warm-up, in nanoseconds.
+	 */
+	protected LatencyHistogram latency = null;
+	/**
+	 * The latency of the blocks processed in each interval, in nanoseconds.
+	 */
+	protected LatencyHistogram intervalLatency[] = null;
+	/**
+	 * The GC pauses after the warm-up, in microseconds, from GC notifications.
+	 */
+	protected LatencyHistogram gcPauses = null;
+	/**
+	 * The number of GC notifications received, or -1 if notifications are not available.
+	 */
+	protected AtomicLong gcNotifications = null;
+	/**
+	 * A sum of result string lengths, reported so the JIT cannot discard the work.
+	 */
+	protected LongAdder checksum = null;
+	/**
+	 * The time, from System.nanoTime, the measured run started.
+	 */
+	protected volatile long measureStart = 0;
+
+	/**
+	 * Default constructor.
+	 */
+	public AstrometrySoakTest()
+	{
+		super();
+		latency = new LatencyHistogram();
+		gcPauses = new LatencyHistogram();
+		gcNotifications = new AtomicLong(-1);
+		checksum = new LongAdder();
+	}
+
+	/**
+	 * Parse the command line arguments.
+	 * @param args The arguments.
+	 * @exception IllegalArgumentException Thrown if an argument is unknown or out of range.
+	 * @exception NumberFormatException Thrown if a number is malformed.
+	 */
+	public void parseArguments(String args[]) throws IllegalArgumentException
+	{
+		String option = null;
+		String value = null;
+
+		for(int i = 0; i < args.length; i += 2)
+		{
+			option = args[i];
+			if(i+1 >= args.length)
+				throw new IllegalArgumentException(this.getClass().getName()+":parseArguments:"+option+" has no value.");
+			value = args[i+1];
+			if(option.equals("-threads"))
+				threads = Integer.parseInt(value);
+			else if(option.equals("-rate"))
+				rate = Double.parseDouble(value);
+			else if(option.equals("-duration"))
+				duration = Integer.parseInt(value);
+			else if(option.equals("-warmup"))
+				warmup = Integer.parseInt(value);
+			else if(option.equals("-interval"))
+				interval = Integer.parseInt(value);
+			else if(option.equals("-targets"))
+				targets = Integer.parseInt(value);
+			else if(option.equals("-workload"))
+				workloadFile = new File(value);
+			else if(option.equals("-report"))
+				reportFile = new File(value);
+			else
+			{
+				throw new IllegalArgumentException(this.getClass().getName()+":parseArguments:Unknown option:"+
+								   option);
+			}
+		}
+		if((threads < 1)||(rate < 0.0)||(duration < 1)||(warmup < 0)||(interval < 1)||(targets < 1))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":parseArguments:threads, duration, interval and targets must be "+
+							   "positive, rate and warmup must not be negative.");
+		}
+	}
+
+	/**
+	 * Load the workload file, or generate a random workload.
+	 * @exception IOException Thrown if the workload file cannot be read.
+	 */
+	public void loadWorkload() throws IOException
+	{
+		BufferedReader in = null;
+		List<String[]> block = null;
+		String line = null;
+		String fields[];
+
+		workload = new ArrayList<String[][]>();
+		if(workloadFile == null)
+		{
+			generateWorkload();
+			return;
+		}
+		in = new BufferedReader(new InputStreamReader(new FileInputStream(workloadFile),StandardCharsets.UTF_8));
+		try
+		{
+			block = new ArrayList<String[]>();
+			while((line = in.readLine()) != null)
+			{
+				if(line.trim().length() == 0)
+				{
+					if(block.size() > 0)
+						workload.add(block.toArray(new String[block.size()][]));
+					block.clear();
+					continue;
+				}
+				fields = line.split("\\|",-1);
+				if(fields.length != 4)
+				{
+					throw new IOException(this.getClass().getName()+":loadWorkload:"+workloadFile+
+							      ":Malformed target:"+line);
+				}
+				block.add(fields);
+			}
+			if(block.size() > 0)
+				workload.add(block.toArray(new String[block.size()][]));
+		}
+		finally
+		{
+			in.close();
+		}
+		if(workload.size() == 0)
+			throw new IOException(this.getClass().getName()+":loadWorkload:"+workloadFile+":No targets.");
+	}
+
+	/**
+	 * Generate a random workload of GENERATED_BLOCKS blocks of targets, uniform on the sky.
+	 */
+	protected void generateWorkload()
+	{
+		Random random = null;
+		String block[][];
+		RA ra = null;
+		Dec dec = null;
+
+		random = new Random(39L);
+		ra = new RA();
+		dec = new Dec();
+		for(int b = 0; b < GENERATED_BLOCKS; b++)
+		{
+			block = new String[targets][];
+			for(int t = 0; t < targets; t++)
+			{
+				ra.fromRadians(random.nextDouble()*2.0*Math.PI);
+				dec.fromRadians(Math.asin((2.0*random.nextDouble())-1.0));
+				block[t] = new String[] {"target"+b+"."+t,ra.toString(),dec.toString(),
+							 Double.toString(6.0+(random.nextDouble()*12.0))};
+			}
+			workload.add(block);
+		}
+	}
+
+	/**
+	 * Process one block as a target list would be processed.
+	 * @param block The block's targets.
+	 * @return A checksum of the output.
+	 */
+	@SuppressWarnings("unchecked") // the baseline comparators are raw Comparators
+	protected long processBlock(String block[][])
+	{
+		List<CelestialObject> list = null;
+		CelestialObject co = null;
+		RA ra = null;
+		Dec dec = null;
+		double raRadians,decRadians;
+		long sum;
+
+		list = new ArrayList<CelestialObject>(block.length);
+		sum = 0;
+		for(int t = 0; t < block.length; t++)
+		{
+			ra = new RA();
+			ra.parseColon(block[t][1]);
+			dec = new Dec();
+			dec.parseColon(block[t][2]);
+			co = new CelestialObject();
+			co.setName(block[t][0]);
+			co.setVMagnitude(Double.parseDouble(block[t][3]));
+			// dither by 10 arc-seconds, as an offset pointing would
+			raRadians = ra.toRadians()+(10.0*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+			if(raRadians >= 2.0*Math.PI)
+				raRadians -= 2.0*Math.PI;
+			decRadians = Math.min(Math.PI/2.0,dec.toRadians()+(10.0*SphericalGeometry.ARCSECONDS_TO_RADIANS));
+			ra.fromRadians(raRadians);
+			dec.fromRadians(decRadians);
+			co.setRA(ra);
+			co.setDec(dec);
+			sum += co.toString().length();
+			list.add(co);
+		}
+		Collections.sort(list,new CelestialObjectVMagnitudeComparator());
+		sum += list.get(0).getName().length();
+		Collections.sort(list,new CelestialObjectRADecComparator(1.0));
+		sum += list.get(0).getName().length();
+		return sum;
+	}
+
+	/**
+	 * Run the soak test and write the report.
+	 * @exception Exception Thrown if the run fails or the report cannot be written.
+	 */
+	public void run() throws Exception
+	{
+		final ThreadMXBean threadBean;
+		final long threadIds[],knownAllocated[];
+		final CountDownLatch started;
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final List<GarbageCollectorMXBean> gcBeans;
+		final long intervalNanos,runStart;
+		final int intervalCount;
+		final long blocksPerInterval[],allocatedPerInterval[],gcCountPerInterval[],gcTimePerInterval[];
+		Thread workers[];
+		long allocated,lastAllocated,gcCount,gcTime,lastGCCount,lastGCTime,nextSample;
+		int sample;
+
+		if(workload == null)
+			loadWorkload();
+		threadBean = ManagementFactory.getThreadMXBean();
+		gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		listenForGC();
+		intervalNanos = interval*1000000L;
+		intervalCount = (int)((((warmup+duration)*1000000000L)+intervalNanos-1)/intervalNanos);
+		intervalLatency = new LatencyHistogram[intervalCount];
+		for(int i = 0; i < intervalCount; i++)
+			intervalLatency[i] = new LatencyHistogram();
+		blocksPerInterval = new long[intervalCount];
+		allocatedPerInterval = new long[intervalCount];
+		gcCountPerInterval = new long[intervalCount];
+		gcTimePerInterval = new long[intervalCount];
+		started = new CountDownLatch(1);
+		runStart = System.nanoTime();
+		measureStart = runStart+(warmup*1000000000L);
+		workers = new Thread[threads];
+		threadIds = new long[threads];
+		knownAllocated = new long[threads];
+		for(int w = 0; w < threads; w++)
+		{
+			final int worker = w;
+			workers[w] = new Thread(() -> work(worker,runStart,intervalNanos,started,stop),"soak-"+w);
+			workers[w].start();
+			threadIds[w] = workers[w].getId();
+		}
+		started.countDown();
+		// sample allocation and GC at the end of each interval
+		lastAllocated = threadAllocatedBytes(threadBean,threadIds,knownAllocated);
+		lastGCCount = gcCount(gcBeans);
+		lastGCTime = gcTime(gcBeans);
+		for(sample = 0; sample < intervalCount; sample++)
+		{
+			nextSample = runStart+((sample+1)*intervalNanos);
+			while(System.nanoTime() < nextSample)
+				Thread.sleep(Math.max(1,(nextSample-System.nanoTime())/1000000));
+			allocated = threadAllocatedBytes(threadBean,threadIds,knownAllocated);
+			gcCount = gcCount(gcBeans);
+			gcTime = gcTime(gcBeans);
+			allocatedPerInterval[sample] = (allocated < 0) ? -1 : allocated-lastAllocated;
+			gcCountPerInterval[sample] = gcCount-lastGCCount;
+			gcTimePerInterval[sample] = gcTime-lastGCTime;
+			blocksPerInterval[sample] = intervalLatency[sample].getCount();
+			lastAllocated = allocated;
+			lastGCCount = gcCount;
+			lastGCTime = gcTime;
+		}
+		stop.set(true);
+		for(int w = 0; w < threads; w++)
+			workers[w].join();
+		writeReport(blocksPerInterval,allocatedPerInterval,gcCountPerInterval,gcTimePerInterval);
+	}
+
+	/**
+	 * The loop each worker thread runs.
+	 */
+	protected void work(int worker,long runStart,long intervalNanos,CountDownLatch started,AtomicBoolean stop)
+	{
+		double period;
+		long sum,blocks,intended,now,end,elapsed;
+		int block,index;
+
+		try
+		{
+			started.await();
+		}
+		catch(InterruptedException e)
+		{
+			return;
+		}
+		// each worker takes an equal share of the rate, staggered so they do not all start together
+		period = (rate > 0.0) ? (1.0e9*threads)/rate : 0.0;
+		end = measureStart+(duration*1000000000L);
+		sum = 0;
+		blocks = 0;
+		block = worker;
+		while(!stop.get())
+		{
+			intended = runStart+(long)((blocks+(((double)worker)/threads))*period);
+			now = System.nanoTime();
+			if(intended > now)
+			{
+				LockSupport.parkNanos(intended-now);
+				continue;
+			}
+			if(period == 0.0)
+				intended = now;
+			sum += processBlock(workload.get(block % workload.size()));
+			now = System.nanoTime();
+			if(now >= end)
+				break;
+			elapsed = now-intended;
+			index = (int)((now-runStart)/intervalNanos);
+			if(index < intervalLatency.length)
+				intervalLatency[index].record(elapsed);
+			if(now >= measureStart)
+				latency.record(elapsed);
+			blocks++;
+			block += threads;
+		}
+		checksum.add(sum);
+	}
+
+	/**
+	 * Listen for GC notifications, recording the pauses after the warm-up. Does nothing if the JVM does not
+	 * send them.
+	 */
+	protected void listenForGC()
+	{
+		NotificationListener listener = null;
+
+		listener = (notification,handback) ->
+		{
+			CompositeData info = null;
+			CompositeData gcInfo = null;
+			long pause;
+
+			if(!"com.sun.management.gc.notification".equals(notification.getType()))
+				return;
+			info = (CompositeData)notification.getUserData();
+			gcInfo = (CompositeData)info.get("gcInfo");
+			pause = ((Long)gcInfo.get("duration")).longValue();
+			gcNotifications.incrementAndGet();
+			if(System.nanoTime() >= measureStart)
+				gcPauses.record(pause*1000L);
+		};
+		for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			if(bean instanceof NotificationEmitter)
+			{
+				((NotificationEmitter)bean).addNotificationListener(listener,null,null);
+				gcNotifications.compareAndSet(-1,0);
+			}
+		}
+	}
+
+	/**
+	 * Return the total bytes allocated by some threads, or -1 if the JVM cannot tell.
+	 * @param bean The thread MXBean.
+	 * @param threadIds The thread ids.
+	 * @param known The last count read for each thread, updated in place. A thread that has finished
+	 *        reports -1, so its last count is used instead.
+	 */
+	protected static long threadAllocatedBytes(ThreadMXBean bean,long threadIds[],long known[])
+	{
+		com.sun.management.ThreadMXBean hotspot = null;
+		long bytes[];
+		long total;
+
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		hotspot = (com.sun.management.ThreadMXBean)bean;
+		if(!hotspot.isThreadAllocatedMemorySupported())
+			return -1;
+		bytes = hotspot.getThreadAllocatedBytes(threadIds);
+		total = 0;
+		for(int i = 0; i < bytes.length; i++)
+		{
+			if(bytes[i] >= 0)
+				known[i] = bytes[i];
+			total += known[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Return the total number of collections.
+	 */
+	protected static long gcCount(List<GarbageCollectorMXBean> beans)
+	{
+		long total;
+
+		total = 0;
+		for(GarbageCollectorMXBean bean : beans)
+			total += Math.max(0,bean.getCollectionCount());
+		return total;
+	}
+
+	/**
+	 * Return the total collection time, in milliseconds.
+	 */
+	protected static long gcTime(List<GarbageCollectorMXBean> beans)
+	{
+		long total;
+
+		total = 0;
+		for(GarbageCollectorMXBean bean : beans)
+			total += Math.max(0,bean.getCollectionTime());
+		return total;
+	}
+
+	/**
+	 * Write the JSON report.
+	 */
+	protected void writeReport(long blocks[],long allocated[],long gcCounts[],long gcTimes[]) throws IOException
+	{
+		PrintStream out = null;
+		StringBuilder sb = null;
+		RuntimeMXBean runtime = null;
+		long measuredBlocks,measuredAllocated,measuredGCCount,measuredGCTime;
+		int firstMeasured;
+		double seconds,intervalSeconds;
+
+		runtime = ManagementFactory.getRuntimeMXBean();
+		firstMeasured = (int)((warmup*1000L)/interval);
+		measuredBlocks = 0;
+		measuredAllocated = 0;
+		measuredGCCount = 0;
+		measuredGCTime = 0;
+		for(int i = firstMeasured; i < blocks.length; i++)
+		{
+			measuredBlocks += blocks[i];
+			measuredAllocated = ((measuredAllocated < 0)||(allocated[i] < 0)) ? -1 : measuredAllocated+allocated[i];
+			measuredGCCount += gcCounts[i];
+			measuredGCTime += gcTimes[i];
+		}
+		seconds = ((blocks.length-firstMeasured)*(double)interval)/1000.0;
+		intervalSeconds = interval/1000.0;
+		sb = new StringBuilder();
+		sb.append("{\n  \"config\": {\"threads\": ").append(threads).append(", \"rate\": ").append(rate);
+		sb.append(", \"duration\": ").append(duration).append(", \"warmup\": ").append(warmup);
+		sb.append(", \"interval\": ").append(interval).append(", \"blocks\": ").append(workload.size());
+		sb.append(", \"workload\": ");
+		appendJSONString(sb,(workloadFile != null) ? workloadFile.getPath() : null);
+		sb.append("},\n  \"jvm\": {\"version\": ");
+		appendJSONString(sb,System.getProperty("java.vm.version"));
+		sb.append(", \"name\": ");
+		appendJSONString(sb,System.getProperty("java.vm.name"));
+		sb.append(", \"processors\": ").append(Runtime.getRuntime().availableProcessors());
+		sb.append(", \"maxHeap\": ").append(Runtime.getRuntime().maxMemory()).append(", \"arguments\": [");
+		for(int i = 0; i < runtime.getInputArguments().size(); i++)
+		{
+			if(i > 0)
+				sb.append(", ");
+			appendJSONString(sb,runtime.getInputArguments().get(i));
+		}
+		sb.append("], \"collectors\": [");
+		for(int i = 0; i < ManagementFactory.getGarbageCollectorMXBeans().size(); i++)
+		{
+			if(i > 0)
+				sb.append(", ");
+			appendJSONString(sb,ManagementFactory.getGarbageCollectorMXBeans().get(i).getName());
+		}
+		sb.append("]},\n  \"summary\": {\"blocks\": ").append(measuredBlocks);
+		sb.append(", \"blocksPerSecond\": ").append(measuredBlocks/seconds);
+		sb.append(", \"latencyNanos\": ");
+		appendLatency(sb,latency);
+		sb.append(", \"allocatedBytesPerSecond\": ");
+		sb.append((measuredAllocated < 0) ? -1 : (long)(measuredAllocated/seconds));
+		sb.append(", \"allocatedBytesPerBlock\": ");
+		sb.append(((measuredAllocated < 0)||(measuredBlocks == 0)) ? -1 : measuredAllocated/measuredBlocks);
+		sb.append(", \"gcCount\": ").append(measuredGCCount).append(", \"gcTimeMillis\": ").append(measuredGCTime);
+		sb.append(", \"gcPauseMicros\": ");
+		if(gcNotifications.get() < 0)
+			sb.append("null");
+		else
+			appendLatency(sb,gcPauses);
+		sb.append(", \"checksum\": ").append(checksum.sum());
+		sb.append("},\n  \"intervals\": [");
+		for(int i = 0; i < blocks.length; i++)
+		{
+			sb.append((i > 0) ? ",\n    " : "\n    ");
+			sb.append("{\"second\": ").append(i*intervalSeconds);
+			sb.append(", \"warmup\": ").append(i < firstMeasured);
+			sb.append(", \"blocksPerSecond\": ").append(blocks[i]/intervalSeconds);
+			sb.append(", \"latencyNanos\": ");
+			appendLatency(sb,intervalLatency[i]);
+			sb.append(", \"allocatedBytesPerSecond\": ");
+			sb.append((allocated[i] < 0) ? -1 : (long)(allocated[i]/intervalSeconds));
+			sb.append(", \"gcCount\": ").append(gcCounts[i]).append(", \"gcTimeMillis\": ").append(gcTimes[i]);
+			sb.append("}");
+		}
+		sb.append("\n  ]\n}\n");
+		if(reportFile != null)
+			out = new PrintStream(new FileOutputStream(reportFile),false,"UTF-8");
+		else
+			out = System.out;
+		out.print(sb);
+		out.flush();
+		if(reportFile != null)
+			out.close();
+	}
+
+	/**
+	 * Append a latency summary as a JSON object.
+	 */
+	private static void appendLatency(StringBuilder sb,LatencyHistogram h)
+	{
+		sb.append("{\"count\": ").append(h.getCount()).append(", \"mean\": ").append((long)h.getMean());
+		sb.append(", \"p50\": ").append(h.getPercentile(50.0)).append(", \"p99\": ").append(h.getPercentile(99.0));
+		sb.append(", \"p999\": ").append(h.getPercentile(99.9)).append(", \"max\": ").append(h.getMax());
+		sb.append("}");
+	}
+
+	/**
+	 * Append a JSON string, or null.
+	 */
+	private static void appendJSONString(StringBuilder sb,String s)
+	{
+		char c;
+
+		if(s == null)
+		{
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++)
+		{
+			c = s.charAt(i);
+			if((c == '"')||(c == '\\'))
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(' ');
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Main program.
+	 * @param args The command line arguments.
+	 * @see #parseArguments
+	 */
+	public static void main(String args[])
+	{
+		AstrometrySoakTest test = null;
+
+		test = new AstrometrySoakTest();
+		try
+		{
+			test.parseArguments(args);
+			test.run();
+		}
+		catch(Exception e)
+		{
+			System.err.println("AstrometrySoakTest:main:"+e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+};
+//
+// $Log$
+//
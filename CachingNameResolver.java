@@ -0,0 +1,893 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CachingNameResolver.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class resolves object names to positions through a NameResolverBackend, such as Simbad, and
+ * keeps the backend's load down under bursts:
+ * <ul>
+ * <li>Answers are cached, keyed by normalised name (see CelestialObject.normaliseName), for a time to live.
+ *     Names the backend does not know are cached too, for a shorter time. The cache holds at most cacheSize
+ *     names, dropping the least recently used.
+ * <li>Concurrent requests for a name that is not cached share one in-flight future, so the backend is only
+ *     asked once.
+ * <li>Names are queued for up to batchDelay milliseconds and sent to the backend together, up to the
+ *     backend's maximum batch size.
+ * <li>The cache can be kept in a file, loaded by setCacheFile and written by saveCache or close, so a
+ *     restart does not have to ask the backend again.
+ * </ul>
+ * Each caller gets its own copy of a resolved object, so callers may modify what they are given (for
+ * instance with EpochPropagator.propagate) without changing the cached answer or another caller's object.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see NameResolverBackend
+ * @see CelestialObject#normaliseName
+ */
+public class CachingNameResolver
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default time to live of a resolved name, in milliseconds (1 day).
+	 */
+	public final static long DEFAULT_TTL = 24L*60L*60L*1000L;
+	/**
+	 * The default time to live of a name the backend does not know, in milliseconds (10 minutes).
+	 */
+	public final static long DEFAULT_NEGATIVE_TTL = 10L*60L*1000L;
+	/**
+	 * The default maximum number of cached names.
+	 */
+	public final static int DEFAULT_CACHE_SIZE = 10000;
+	/**
+	 * The default time a name waits for others to batch with, in milliseconds.
+	 */
+	public final static long DEFAULT_BATCH_DELAY = 5;
+	/**
+	 * The first line of a cache file. Version 2 adds the proper motion, parallax, radial velocity and epoch.
+	 */
+	protected final static String CACHE_FILE_HEADER = "# CachingNameResolver cache 2";
+	/**
+	 * The first line of a version 1 cache file, which can still be loaded.
+	 */
+	protected final static String CACHE_FILE_HEADER_1 = "# CachingNameResolver cache 1";
+	/**
+	 * The number of fields in a version 1 cache file line for a resolved name.
+	 */
+	private final static int CACHE_FIELDS_1 = 10;
+	/**
+	 * The number of fields in a version 2 cache file line for a resolved name.
+	 */
+	private final static int CACHE_FIELDS_2 = 15;
+	/**
+	 * The backend.
+	 */
+	protected NameResolverBackend backend = null;
+	/**
+	 * The time to live of a resolved name, in milliseconds.
+	 */
+	protected long ttl = DEFAULT_TTL;
+	/**
+	 * The time to live of a name the backend does not know, in milliseconds.
+	 */
+	protected long negativeTTL = DEFAULT_NEGATIVE_TTL;
+	/**
+	 * The maximum number of cached names.
+	 */
+	protected int cacheSize = DEFAULT_CACHE_SIZE;
+	/**
+	 * The time a name waits for others to batch with, in milliseconds.
+	 */
+	protected long batchDelay = DEFAULT_BATCH_DELAY;
+	/**
+	 * The cache, from normalised name to entry, in least recently used order. Guarded by itself.
+	 */
+	protected LinkedHashMap<String,Entry> cache = null;
+	/**
+	 * The futures of names being resolved, by normalised name.
+	 */
+	protected ConcurrentHashMap<String,CompletableFuture<CelestialObject>> inFlight = null;
+	/**
+	 * The normalised names waiting to be sent to the backend. Guarded by itself.
+	 */
+	protected List<String> pendingKeys = null;
+	/**
+	 * The names waiting to be sent to the backend, as first requested, in the same order as pendingKeys.
+	 * Guarded by pendingKeys.
+	 */
+	protected List<String> pendingNames = null;
+	/**
+	 * The executor backend calls are made on.
+	 */
+	protected ExecutorService executor = null;
+	/**
+	 * The executor that sends a part batch when its delay has passed.
+	 */
+	protected ScheduledExecutorService scheduler = null;
+	/**
+	 * Whether close has been called.
+	 */
+	protected volatile boolean closed = false;
+	/**
+	 * The cache file, or null if the cache is not kept in a file.
+	 */
+	protected File cacheFile = null;
+	/**
+	 * The number of requests answered from the cache.
+	 */
+	protected LongAdder hits = null;
+	/**
+	 * The number of requests that joined a request already in flight.
+	 */
+	protected LongAdder coalesced = null;
+	/**
+	 * The number of names sent to the backend.
+	 */
+	protected LongAdder backendNames = null;
+	/**
+	 * The number of backend calls.
+	 */
+	protected LongAdder backendCalls = null;
+
+	/**
+	 * Constructor.
+	 * @param b The backend.
+	 */
+	public CachingNameResolver(NameResolverBackend b)
+	{
+		super();
+		backend = b;
+		cache = new LinkedHashMap<String,Entry>(16,0.75f,true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		inFlight = new ConcurrentHashMap<String,CompletableFuture<CelestialObject>>();
+		pendingKeys = new ArrayList<String>();
+		pendingNames = new ArrayList<String>();
+		executor = Executors.newCachedThreadPool(r ->
+		{
+			Thread t = new Thread(r,"CachingNameResolver");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			Thread t = new Thread(r,"CachingNameResolver batch");
+			t.setDaemon(true);
+			return t;
+		});
+		hits = new LongAdder();
+		coalesced = new LongAdder();
+		backendNames = new LongAdder();
+		backendCalls = new LongAdder();
+	}
+
+	/**
+	 * Set the time to live of a resolved name.
+	 * @param t The time, in milliseconds.
+	 * @exception IllegalArgumentException Thrown if t is negative.
+	 */
+	public void setTTL(long t) throws IllegalArgumentException
+	{
+		if(t < 0)
+			throw new IllegalArgumentException(this.getClass().getName()+":setTTL:Illegal TTL:"+t+": Must be positive.");
+		ttl = t;
+	}
+
+	public long getTTL()
+	{
+		return ttl;
+	}
+
+	/**
+	 * Set the time to live of a name the backend does not know. 0 stops unknown names being cached.
+	 * @param t The time, in milliseconds.
+	 * @exception IllegalArgumentException Thrown if t is negative.
+	 */
+	public void setNegativeTTL(long t) throws IllegalArgumentException
+	{
+		if(t < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setNegativeTTL:Illegal TTL:"+t+
+							   ": Must be positive.");
+		}
+		negativeTTL = t;
+	}
+
+	public long getNegativeTTL()
+	{
+		return negativeTTL;
+	}
+
+	/**
+	 * Set the maximum number of cached names.
+	 * @param n The number of names.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setCacheSize(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCacheSize:Illegal size:"+n+
+							   ": Must be at least 1.");
+		}
+		synchronized(cache)
+		{
+			cacheSize = n;
+		}
+	}
+
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * Set the time a name waits for others to batch with. Only used if the backend batches.
+	 * @param t The time, in milliseconds. 0 sends each name as soon as it is requested.
+	 * @exception IllegalArgumentException Thrown if t is negative.
+	 */
+	public void setBatchDelay(long t) throws IllegalArgumentException
+	{
+		if(t < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setBatchDelay:Illegal delay:"+t+
+							   ": Must be positive.");
+		}
+		batchDelay = t;
+	}
+
+	public long getBatchDelay()
+	{
+		return batchDelay;
+	}
+
+	/**
+	 * Keep the cache in a file. Unexpired entries already in the file are loaded into the cache.
+	 * @param f The file. It need not exist yet.
+	 * @exception IOException Thrown if the file exists but cannot be read.
+	 * @see #saveCache
+	 */
+	public void setCacheFile(File f) throws IOException
+	{
+		cacheFile = f;
+		if(f.exists())
+			loadCache(f);
+	}
+
+	public File getCacheFile()
+	{
+		return cacheFile;
+	}
+
+	/**
+	 * Resolve a name, waiting for the answer.
+	 * @param name The name.
+	 * @return The object, or null if the backend does not know the name.
+	 * @exception IOException Thrown if the backend failed.
+	 * @see #resolveAsync
+	 */
+	public CelestialObject resolve(String name) throws IOException
+	{
+		return await(resolveAsync(name));
+	}
+
+	/**
+	 * Resolve several names, waiting for all the answers. Names that are not cached are batched together.
+	 * @param names The names.
+	 * @return A list the same size and order as names, holding the objects, or null for unknown names.
+	 * @exception IOException Thrown if the backend failed for any name.
+	 */
+	public List<CelestialObject> resolveAll(List<String> names) throws IOException
+	{
+		List<CompletableFuture<CelestialObject>> futures = null;
+		List<CelestialObject> list = null;
+
+		futures = new ArrayList<CompletableFuture<CelestialObject>>(names.size());
+		for(String name : names)
+			futures.add(resolveAsync(name));
+		list = new ArrayList<CelestialObject>(names.size());
+		for(CompletableFuture<CelestialObject> f : futures)
+			list.add(await(f));
+		return list;
+	}
+
+	/**
+	 * Resolve a name. If the name is cached the future is already complete; if it is being resolved for
+	 * another caller the backend request is shared with that caller; otherwise the name is queued for the
+	 * backend.
+	 * @param name The name.
+	 * @return A future holding a new copy of the object, or null if the backend does not know the name. It
+	 *         completes exceptionally if the backend fails, or if the name is not cached and the resolver is
+	 *         closed; failures are not cached.
+	 * @exception IllegalArgumentException Thrown if the name is blank.
+	 */
+	public CompletableFuture<CelestialObject> resolveAsync(final String name) throws IllegalArgumentException
+	{
+		CompletableFuture<CelestialObject> future = null;
+		final boolean created[] = new boolean[1];
+		final String key;
+		Entry entry = null;
+		List<String> batchKeys = null;
+		List<String> batchNames = null;
+
+		key = CelestialObject.normaliseName(name);
+		if(key.length() == 0)
+			throw new IllegalArgumentException(this.getClass().getName()+":resolveAsync:Blank name.");
+		entry = getCached(key);
+		if(entry != null)
+		{
+			hits.increment();
+			return CompletableFuture.completedFuture(copyOf(entry.object));
+		}
+		if(closed)
+		{
+			return CompletableFuture.failedFuture(new IOException(this.getClass().getName()+
+									      ":resolveAsync:Resolver is closed:"+name));
+		}
+		future = inFlight.computeIfAbsent(key,k ->
+		{
+			created[0] = true;
+			return new CompletableFuture<CelestialObject>();
+		});
+		if(!created[0])
+		{
+			coalesced.increment();
+			return future.thenApply(CachingNameResolver::copyOf);
+		}
+		// the name may have been cached between getCached and computeIfAbsent
+		entry = getCached(key);
+		if(entry != null)
+		{
+			hits.increment();
+			inFlight.remove(key,future);
+			future.complete(entry.object);
+			return CompletableFuture.completedFuture(copyOf(entry.object));
+		}
+		synchronized(pendingKeys)
+		{
+			pendingKeys.add(key);
+			pendingNames.add(name);
+			if((pendingKeys.size() >= backend.getMaxBatchSize())||(batchDelay == 0))
+			{
+				batchKeys = new ArrayList<String>(pendingKeys);
+				batchNames = new ArrayList<String>(pendingNames);
+				pendingKeys.clear();
+				pendingNames.clear();
+			}
+			else if(pendingKeys.size() == 1)
+			{
+				try
+				{
+					scheduler.schedule(() -> flush(),batchDelay,TimeUnit.MILLISECONDS);
+				}
+				catch(RejectedExecutionException e)
+				{
+					// closed since the check above: send the name now, submit fails it if it is too late
+					batchKeys = new ArrayList<String>(pendingKeys);
+					batchNames = new ArrayList<String>(pendingNames);
+					pendingKeys.clear();
+					pendingNames.clear();
+				}
+			}
+		}
+		if(batchKeys != null)
+			submit(batchKeys,batchNames);
+		return future.thenApply(CachingNameResolver::copyOf);
+	}
+
+	/**
+	 * Return a copy of a resolved object, so the cached object is never handed to a caller.
+	 * @param co The object, or null.
+	 * @return A new object with the same fields, or null if co is null.
+	 */
+	protected static CelestialObject copyOf(CelestialObject co)
+	{
+		CelestialObject copy = null;
+		RA ra = null;
+		Dec dec = null;
+
+		if(co == null)
+			return null;
+		copy = new CelestialObject();
+		copy.setName(co.getName());
+		copy.setNumber(co.getNumber());
+		if(co.getRA() != null)
+		{
+			ra = new RA();
+			ra.setHours(co.getRA().getHours());
+			ra.setMinutes(co.getRA().getMinutes());
+			ra.setSeconds(co.getRA().getSeconds());
+			copy.setRA(ra);
+		}
+		if(co.getDec() != null)
+		{
+			dec = new Dec();
+			dec.setNegative(co.getDec().getNegative());
+			dec.setDegrees(co.getDec().getDegrees());
+			dec.setMinutes(co.getDec().getMinutes());
+			dec.setSeconds(co.getDec().getSeconds());
+			copy.setDec(dec);
+		}
+		copy.setType(co.getType());
+		copy.setSpectralType(co.getSpectralType());
+		copy.setBMagnitude(co.getBMagnitude());
+		copy.setVMagnitude(co.getVMagnitude());
+		copy.setRMagnitude(co.getRMagnitude());
+		copy.setComment(co.getComment());
+		copy.setProperMotion(co.getPMRA(),co.getPMDec());
+		copy.setParallax(co.getParallax());
+		copy.setRadialVelocity(co.getRadialVelocity());
+		copy.setEpoch(co.getEpoch());
+		return copy;
+	}
+
+	/**
+	 * Send every queued name to the backend.
+	 */
+	protected void flush()
+	{
+		List<String> batchKeys = null;
+		List<String> batchNames = null;
+
+		synchronized(pendingKeys)
+		{
+			if(pendingKeys.size() == 0)
+				return;
+			batchKeys = new ArrayList<String>(pendingKeys);
+			batchNames = new ArrayList<String>(pendingNames);
+			pendingKeys.clear();
+			pendingNames.clear();
+		}
+		submit(batchKeys,batchNames);
+	}
+
+	/**
+	 * Send names to the backend, split into batches no bigger than its maximum batch size, on the executor.
+	 * If the executor has been shut down the names fail instead.
+	 * @param keys The normalised names.
+	 * @param names The names as first requested, in the same order.
+	 */
+	protected void submit(List<String> keys,List<String> names)
+	{
+		int batchSize;
+
+		batchSize = Math.max(1,backend.getMaxBatchSize());
+		for(int start = 0; start < keys.size(); start += batchSize)
+		{
+			final List<String> batchKeys = keys.subList(start,Math.min(keys.size(),start+batchSize));
+			final List<String> batchNames = names.subList(start,Math.min(names.size(),start+batchSize));
+			try
+			{
+				executor.execute(() -> fetch(batchKeys,batchNames));
+			}
+			catch(RejectedExecutionException e)
+			{
+				fail(batchKeys,new IOException(this.getClass().getName()+":submit:Resolver is closed:"+
+							       batchNames));
+			}
+		}
+	}
+
+	/**
+	 * Complete the futures of names exceptionally, taking them out of flight so later requests start afresh.
+	 * @param keys The normalised names.
+	 * @param e The failure.
+	 */
+	protected void fail(List<String> keys,Throwable e)
+	{
+		CompletableFuture<CelestialObject> future = null;
+
+		for(String key : keys)
+		{
+			future = inFlight.remove(key);
+			if(future != null)
+				future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Ask the backend about a batch of names, cache the answers and complete their futures.
+	 * @param keys The normalised names.
+	 * @param names The names as first requested, in the same order.
+	 */
+	protected void fetch(List<String> keys,List<String> names)
+	{
+		List<CelestialObject> results = null;
+		CompletableFuture<CelestialObject> future = null;
+
+		backendCalls.increment();
+		backendNames.add(keys.size());
+		try
+		{
+			if(names.size() == 1)
+				results = Collections.singletonList(backend.resolve(names.get(0)));
+			else
+				results = backend.resolveBatch(names);
+			if(results.size() != names.size())
+			{
+				throw new IOException(this.getClass().getName()+":fetch:Backend returned "+results.size()+
+						      " results for "+names.size()+" names.");
+			}
+		}
+		catch(Exception e)
+		{
+			fail(keys,e);
+			return;
+		}
+		for(int i = 0; i < keys.size(); i++)
+		{
+			// cache before leaving in-flight, so no request can miss both
+			putCached(keys.get(i),results.get(i),System.currentTimeMillis());
+			future = inFlight.remove(keys.get(i));
+			if(future != null)
+				future.complete(results.get(i));
+		}
+	}
+
+	/**
+	 * Return the unexpired cache entry for a normalised name, or null.
+	 */
+	protected Entry getCached(String key)
+	{
+		Entry entry = null;
+
+		synchronized(cache)
+		{
+			entry = cache.get(key);
+			if((entry != null)&&(entry.expiry <= System.currentTimeMillis()))
+			{
+				cache.remove(key);
+				entry = null;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache an answer.
+	 * @param key The normalised name.
+	 * @param object The object, or null if the name is unknown.
+	 * @param now The current time, in milliseconds since the epoch.
+	 */
+	protected void putCached(String key,CelestialObject object,long now)
+	{
+		long t;
+
+		t = (object != null) ? ttl : negativeTTL;
+		if(t == 0)
+			return;
+		synchronized(cache)
+		{
+			cache.put(key,new Entry(object,now+t));
+		}
+	}
+
+	/**
+	 * Remove every cached name.
+	 */
+	public void clearCache()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Return the number of requests answered from the cache.
+	 */
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Return the number of requests that shared a request already in flight.
+	 */
+	public long getCoalescedCount()
+	{
+		return coalesced.sum();
+	}
+
+	/**
+	 * Return the number of backend calls made.
+	 */
+	public long getBackendCallCount()
+	{
+		return backendCalls.sum();
+	}
+
+	/**
+	 * Return the number of names sent to the backend.
+	 */
+	public long getBackendNameCount()
+	{
+		return backendNames.sum();
+	}
+
+	/**
+	 * Write the unexpired cache entries to the cache file. The file is written to a temporary file that
+	 * then replaces it, so a crash cannot leave a half written cache. Objects without an RA and Dec are not
+	 * saved. Does nothing if there is no cache file.
+	 * @exception IOException Thrown if the file cannot be written.
+	 * @see #setCacheFile
+	 */
+	public void saveCache() throws IOException
+	{
+		List<Map.Entry<String,Entry>> entries = null;
+		PrintWriter out = null;
+		File temporary = null;
+		CelestialObject co = null;
+		long now;
+
+		if(cacheFile == null)
+			return;
+		synchronized(cache)
+		{
+			entries = new ArrayList<Map.Entry<String,Entry>>(cache.entrySet());
+		}
+		now = System.currentTimeMillis();
+		temporary = new File(cacheFile.getPath()+".tmp");
+		out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary),
+										StandardCharsets.UTF_8)));
+		try
+		{
+			out.println(CACHE_FILE_HEADER);
+			// least recently used first, so loading restores the order
+			for(Map.Entry<String,Entry> e : entries)
+			{
+				if(e.getValue().expiry <= now)
+					continue;
+				co = e.getValue().object;
+				// a backend may answer without a position, which the file cannot hold
+				if((co != null)&&((co.getRA() == null)||(co.getDec() == null)))
+					continue;
+				out.print(e.getKey());
+				out.print('\t');
+				out.print(e.getValue().expiry);
+				if(co != null)
+				{
+					out.print('\t');
+					out.print(cacheField(co.getName()));
+					out.print('\t');
+					out.print(co.getRA().toRadians());
+					out.print('\t');
+					out.print(co.getDec().toRadians());
+					out.print('\t');
+					out.print(cacheField(co.getType()));
+					out.print('\t');
+					out.print(cacheField(co.getSpectralType()));
+					out.print('\t');
+					out.print(co.getBMagnitude());
+					out.print('\t');
+					out.print(co.getVMagnitude());
+					out.print('\t');
+					out.print(co.getRMagnitude());
+					out.print('\t');
+					out.print(co.getPMRA());
+					out.print('\t');
+					out.print(co.getPMDec());
+					out.print('\t');
+					out.print(co.getParallax());
+					out.print('\t');
+					out.print(co.getRadialVelocity());
+					out.print('\t');
+					out.print(co.getEpoch());
+				}
+				out.println();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if(out.checkError())
+			throw new IOException(this.getClass().getName()+":saveCache:Failed to write:"+temporary);
+		Files.move(temporary.toPath(),cacheFile.toPath(),StandardCopyOption.REPLACE_EXISTING,
+			   StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load the unexpired entries of a cache file into the cache. Malformed lines are skipped. Version 1 files,
+	 * which have no proper motion, parallax, radial velocity or epoch, are still read.
+	 * @param f The file.
+	 * @exception IOException Thrown if the file cannot be read, or is not a cache file.
+	 */
+	protected void loadCache(File f) throws IOException
+	{
+		BufferedReader in = null;
+		CelestialObject co = null;
+		RA ra = null;
+		Dec dec = null;
+		String line = null;
+		String fields[];
+		long now,expiry;
+		int objectFields;
+
+		now = System.currentTimeMillis();
+		in = new BufferedReader(new InputStreamReader(new FileInputStream(f),StandardCharsets.UTF_8));
+		try
+		{
+			line = in.readLine();
+			if(CACHE_FILE_HEADER.equals(line))
+				objectFields = CACHE_FIELDS_2;
+			else if(CACHE_FILE_HEADER_1.equals(line))
+				objectFields = CACHE_FIELDS_1;
+			else
+			{
+				throw new IOException(this.getClass().getName()+":loadCache:"+f+
+						      ":Not a name resolver cache file.");
+			}
+			while((line = in.readLine()) != null)
+			{
+				fields = line.split("\t",-1);
+				if((fields.length != 2)&&(fields.length != objectFields))
+					continue;
+				try
+				{
+					expiry = Long.parseLong(fields[1]);
+					if(expiry <= now)
+						continue;
+					co = null;
+					if(fields.length == objectFields)
+					{
+						co = new CelestialObject();
+						co.setName(fromCacheField(fields[2]));
+						ra = new RA();
+						ra.fromRadians(Double.parseDouble(fields[3]));
+						co.setRA(ra);
+						dec = new Dec();
+						dec.fromRadians(Double.parseDouble(fields[4]));
+						co.setDec(dec);
+						co.setType(fromCacheField(fields[5]));
+						co.setSpectralType(fromCacheField(fields[6]));
+						co.setBMagnitude(Double.parseDouble(fields[7]));
+						co.setVMagnitude(Double.parseDouble(fields[8]));
+						co.setRMagnitude(Double.parseDouble(fields[9]));
+					}
+					if(fields.length == CACHE_FIELDS_2)
+					{
+						co.setProperMotion(Double.parseDouble(fields[10]),
+								   Double.parseDouble(fields[11]));
+						co.setParallax(Double.parseDouble(fields[12]));
+						co.setRadialVelocity(Double.parseDouble(fields[13]));
+						co.setEpoch(Double.parseDouble(fields[14]));
+					}
+					synchronized(cache)
+					{
+						cache.put(fields[0],new Entry(co,expiry));
+					}
+				}
+				catch(IllegalArgumentException e)
+				{
+					// includes NumberFormatException, skip the line
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Return a string as a cache file field: null is empty, tabs and line breaks become spaces.
+	 */
+	private static String cacheField(String s)
+	{
+		if(s == null)
+			return "";
+		return s.replace('\t',' ').replace('\n',' ').replace('\r',' ');
+	}
+
+	/**
+	 * Return a cache file field as a string: empty is null.
+	 */
+	private static String fromCacheField(String s)
+	{
+		if(s.length() == 0)
+			return null;
+		return s;
+	}
+
+	/**
+	 * Save the cache, if there is a cache file, and stop the resolver's threads. Requests still in flight
+	 * are completed; new requests that are not cached complete exceptionally.
+	 * @exception IOException Thrown if the cache file cannot be written.
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		scheduler.shutdown();
+		flush();
+		executor.shutdown();
+		saveCache();
+	}
+
+	/**
+	 * Wait for a future, turning its failure into an IOException.
+	 */
+	protected CelestialObject await(CompletableFuture<CelestialObject> future) throws IOException
+	{
+		Throwable cause = null;
+
+		try
+		{
+			return future.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(this.getClass().getName()+":await:Interrupted.");
+		}
+		catch(ExecutionException e)
+		{
+			cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			throw new IOException(this.getClass().getName()+":await:Backend failed:"+cause,cause);
+		}
+	}
+
+	/**
+	 * A cache entry.
+	 */
+	protected static class Entry
+	{
+		/**
+		 * The object, or null if the name is unknown.
+		 */
+		protected CelestialObject object = null;
+		/**
+		 * The time the entry expires, in milliseconds since the epoch.
+		 */
+		protected long expiry = 0;
+
+		/**
+		 * Constructor.
+		 * @param o The object, or null if the name is unknown.
+		 * @param e The time the entry expires, in milliseconds since the epoch.
+		 */
+		protected Entry(CelestialObject o,long e)
+		{
+			super();
+			object = o;
+			expiry = e;
+		}
+	};
+};
+//
+// $Log$
+//
@@ -0,0 +1,208 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CatalogueHttpLoadTest.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.net.*;
+import java.net.http.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a load-test client for CatalogueHttpService. It keeps a fixed number of random cone searches
+ * in flight, using the asynchronous JDK HttpClient so high concurrency needs no thread per request, and reports
+ * throughput and latency percentiles. It is not in the jar; "make tests" compiles it into test_classes. Usage:
+ * <pre>
+ * java org.estar.astrometry.CatalogueHttpLoadTest &lt;url|-&gt; [concurrency] [seconds] [radius] [objects]
+ * </pre>
+ * The url is the service root, e.g. http://localhost:8080. A url of "-" starts an embedded service over a
+ * random catalogue of the given number of objects (default 1000000), so the client and server share one
+ * machine. The radius is in arc-seconds (default 300).
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CatalogueHttpService
+ */
+public class CatalogueHttpLoadTest
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default number of requests in flight.
+	 */
+	public final static int DEFAULT_CONCURRENCY = 256;
+	/**
+	 * The default test length, in seconds.
+	 */
+	public final static int DEFAULT_SECONDS = 10;
+	/**
+	 * The default cone radius, in arc-seconds.
+	 */
+	public final static double DEFAULT_RADIUS = 300.0;
+	/**
+	 * The default size of the embedded random catalogue.
+	 */
+	public final static int DEFAULT_OBJECTS = 1000000;
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private CatalogueHttpLoadTest()
+	{
+		super();
+	}
+
+	/**
+	 * Run a load test.
+	 * @param root The service root URL, without a trailing slash.
+	 * @param concurrency The number of requests kept in flight.
+	 * @param seconds The length of the test.
+	 * @param radius The cone radius, in arc-seconds.
+	 * @param latency A histogram to record each request's latency in, in nanoseconds.
+	 * @return The number of requests that failed.
+	 */
+	public static long run(final String root,final int concurrency,int seconds,final double radius,
+			       final LatencyHistogram latency) throws InterruptedException
+	{
+		final HttpClient client;
+		final Semaphore inFlight;
+		final AtomicLong failures = new AtomicLong();
+		final Random random = new Random(1L);
+		HttpRequest request = null;
+		String uri = null;
+		double ra,dec;
+		long endTime;
+
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		inFlight = new Semaphore(concurrency);
+		endTime = System.nanoTime()+(seconds*1000000000L);
+		while(System.nanoTime() < endTime)
+		{
+			inFlight.acquire();
+			ra = random.nextDouble()*360.0;
+			// uniform on the sphere
+			dec = Math.toDegrees(Math.asin((2.0*random.nextDouble())-1.0));
+			uri = root+"/cone?ra="+ra+"&dec="+dec+"&radius="+radius;
+			request = HttpRequest.newBuilder(URI.create(uri)).GET().build();
+			final long startTime = System.nanoTime();
+			client.sendAsync(request,HttpResponse.BodyHandlers.discarding()).whenComplete((response,e) ->
+			{
+				if((e != null)||(response.statusCode() != 200))
+					failures.incrementAndGet();
+				else
+					latency.record(System.nanoTime()-startTime);
+				inFlight.release();
+			});
+		}
+		// wait for the requests still in flight
+		inFlight.acquire(concurrency);
+		return failures.get();
+	}
+
+	/**
+	 * Make a random catalogue, uniform on the sphere.
+	 * @param n The number of objects.
+	 * @return A new list of objects.
+	 */
+	protected static List<CelestialObject> randomCatalogue(int n)
+	{
+		List<CelestialObject> list = null;
+		CelestialObject co = null;
+		RA ra = null;
+		Dec dec = null;
+		Random random = null;
+
+		random = new Random(2L);
+		list = new ArrayList<CelestialObject>(n);
+		for(int i = 0; i < n; i++)
+		{
+			co = new CelestialObject();
+			co.setName("obj "+i);
+			ra = new RA();
+			ra.fromRadians(random.nextDouble()*2.0*Math.PI);
+			dec = new Dec();
+			dec.fromRadians(Math.asin((2.0*random.nextDouble())-1.0));
+			co.setRA(ra);
+			co.setDec(dec);
+			co.setVMagnitude(8.0+(random.nextDouble()*12.0));
+			list.add(co);
+		}
+		return list;
+	}
+
+	/**
+	 * Main program.
+	 * @param args The command line arguments: url|- [concurrency] [seconds] [radius] [objects].
+	 */
+	public static void main(String args[])
+	{
+		CatalogueHttpService service = null;
+		LatencyHistogram latency = null;
+		String root = null;
+		int concurrency,seconds,objects;
+		double radius;
+		long failures;
+
+		if(args.length < 1)
+		{
+			System.err.println("Usage: CatalogueHttpLoadTest <url|-> [concurrency] [seconds] [radius] [objects]");
+			System.exit(1);
+		}
+		try
+		{
+			concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+			seconds = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+			radius = (args.length > 3) ? Double.parseDouble(args[3]) : DEFAULT_RADIUS;
+			objects = (args.length > 4) ? Integer.parseInt(args[4]) : DEFAULT_OBJECTS;
+			root = args[0];
+			if(root.equals("-"))
+			{
+				service = new CatalogueHttpService(randomCatalogue(objects));
+				service.start(new InetSocketAddress(InetAddress.getLoopbackAddress(),0));
+				root = "http://localhost:"+service.getPort();
+				System.out.println("Embedded service: "+objects+" objects, virtual threads: "+
+						   service.isVirtualThreads());
+			}
+			latency = new LatencyHistogram();
+			failures = run(root,concurrency,seconds,radius,latency);
+			System.out.println("concurrency="+concurrency+" requests="+latency.getCount()+" failures="+failures+
+					   " throughput="+(latency.getCount()/seconds)+"/s");
+			System.out.println(latency);
+			if(service != null)
+			{
+				System.out.print(service.getMetrics());
+				service.stop();
+			}
+		}
+		catch(Exception e)
+		{
+			System.err.println("CatalogueHttpLoadTest:main:"+e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+};
+//
+// $Log$
+//
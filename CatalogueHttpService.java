@@ -0,0 +1,1015 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CatalogueHttpService.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.sun.net.httpserver.*;
+
+/**
+ * This class is an embedded HTTP service, using the JDK HttpServer, that answers lookups against one in-memory
+ * catalogue of CelestialObjects, so several tools can share a single loaded copy. Endpoints:
+ * <dl>
+ * <dt>GET /cone?ra=&amp;dec=&amp;radius=</dt>
+ * <dd>Objects within radius arc-seconds of a position.</dd>
+ * <dt>GET /box?ra=&amp;dec=&amp;width=&amp;height=[&amp;pa=]</dt>
+ * <dd>Objects within a rectangle, width and height in arc-seconds, position angle in degrees.</dd>
+ * <dt>GET /name?name=</dt>
+ * <dd>Objects with a name, ignoring case and repeated white space.</dd>
+ * <dt>POST /batch</dt>
+ * <dd>Many lookups in one request, one per line of the body in the form <code>cone?ra=..&amp;dec=..&amp;radius=..</code>
+ *     (or box?, name?). Lookups are answered in parallel, and each result row starts with the line number of
+ *     its lookup, from 0. The body size and number of lookups are limited (setMaxBatchBytes,
+ *     setMaxBatchLookups); a larger batch is refused with status 400.</dd>
+ * <dt>GET /metrics</dt>
+ * <dd>A plain text latency summary for each endpoint, followed by the AstrometryMetrics snapshot if metrics
+ *     are enabled.</dd>
+ * </dl>
+ * Positions are sexagesimal (HH:MM:SS.ss, [+|-]DD:MM:SS.ss) or decimal degrees, and a position off the sky is
+ * refused with status 400. Every lookup takes
+ * <code>format=csv</code> (the default) or <code>format=json</code>, and <code>limit=</code>, the maximum number of
+ * rows returned. Results are streamed as they are formatted, through a reused buffer, so large results are not
+ * built in memory.
+ * <p>
+ * Requests are handled on virtual threads when the JVM has them (Java 21 onwards), so a blocked client
+ * costs no platform thread; otherwise on a fixed pool of platform threads.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectFootprintIndex
+ */
+public class CatalogueHttpService
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Result format: comma separated values, with a header line.
+	 */
+	public final static int FORMAT_CSV = 0;
+	/**
+	 * Result format: a JSON object holding a column name array and an array of row arrays.
+	 */
+	public final static int FORMAT_JSON = 1;
+	/**
+	 * The default maximum number of rows a lookup returns.
+	 */
+	public final static int DEFAULT_MAX_ROWS = 100000;
+	/**
+	 * The default maximum size of a batch request body, in bytes.
+	 */
+	public final static int DEFAULT_MAX_BATCH_BYTES = 1024*1024;
+	/**
+	 * The default maximum number of lookups in a batch request.
+	 */
+	public final static int DEFAULT_MAX_BATCH_LOOKUPS = 10000;
+	/**
+	 * The number of platform threads used when virtual threads are not available.
+	 */
+	public final static int DEFAULT_PLATFORM_THREADS = 64;
+	/**
+	 * The default number of seconds stop waits for requests in progress.
+	 */
+	public final static int DEFAULT_STOP_DELAY = 1;
+	/**
+	 * Endpoint number of /cone.
+	 */
+	protected final static int ENDPOINT_CONE = 0;
+	/**
+	 * Endpoint number of /box.
+	 */
+	protected final static int ENDPOINT_BOX = 1;
+	/**
+	 * Endpoint number of /name.
+	 */
+	protected final static int ENDPOINT_NAME = 2;
+	/**
+	 * Endpoint number of /batch.
+	 */
+	protected final static int ENDPOINT_BATCH = 3;
+	/**
+	 * The endpoint names, indexed by endpoint number.
+	 */
+	protected final static String ENDPOINT_NAMES[] = {"cone","box","name","batch"};
+	/**
+	 * The result column names.
+	 */
+	protected final static String COLUMN_NAMES[] = {"name","ra","dec","type","spectralType","b","v","r"};
+	/**
+	 * The number of characters formatted before they are written to the client.
+	 */
+	private final static int FLUSH_SIZE = 8192;
+	/**
+	 * The catalogue.
+	 */
+	protected List<CelestialObject> catalogue = null;
+	/**
+	 * The spatial index over the catalogue.
+	 */
+	protected CelestialObjectFootprintIndex index = null;
+	/**
+	 * Whether the spatial index was loaded from a snapshot rather than built.
+	 */
+	protected boolean indexFromSnapshot = false;
+	/**
+	 * Map from normalised name to the catalogue indices of the objects with that name.
+	 */
+	protected Map<String,int[]> nameIndex = null;
+	/**
+	 * The maximum number of rows a lookup returns.
+	 */
+	protected int maxRows = DEFAULT_MAX_ROWS;
+	/**
+	 * The maximum size of a batch request body, in bytes.
+	 */
+	protected int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+	/**
+	 * The maximum number of lookups in a batch request.
+	 */
+	protected int maxBatchLookups = DEFAULT_MAX_BATCH_LOOKUPS;
+	/**
+	 * The server, or null if the service is not started.
+	 */
+	protected HttpServer server = null;
+	/**
+	 * The executor requests are handled on, or null if the service is not started.
+	 */
+	protected ExecutorService executor = null;
+	/**
+	 * Whether executor uses virtual threads.
+	 */
+	protected boolean virtualThreads = false;
+	/**
+	 * The latency of each endpoint, from request received to response complete, indexed by endpoint number.
+	 */
+	protected LatencyHistogram latency[] = null;
+	/**
+	 * The number of failed requests to each endpoint, indexed by endpoint number.
+	 */
+	protected LongAdder errors[] = null;
+	/**
+	 * The number of result rows sent.
+	 */
+	protected LongAdder rowsSent = null;
+
+	/**
+	 * Constructor. Builds the spatial and name indices.
+	 * @param list The catalogue, all of which must have an RA and Dec. The list must not be changed while the
+	 *        service exists.
+	 */
+	public CatalogueHttpService(List<CelestialObject> list)
+	{
+		super();
+		catalogue = list;
+		index = new CelestialObjectFootprintIndex(list);
+		buildNameIndex();
+	}
+
+	/**
+	 * Constructor. The spatial index is loaded from a snapshot file if it holds a valid index of this
+	 * catalogue, otherwise it is built and saved to the file, so the next start is fast.
+	 * @param list The catalogue, all of which must have an RA and Dec. The list must not be changed while the
+	 *        service exists.
+	 * @param snapshot The spatial index snapshot file.
+	 * @exception IOException Thrown if the index had to be built and the snapshot could not be saved.
+	 * @see SpatialIndexSnapshot
+	 */
+	public CatalogueHttpService(List<CelestialObject> list,File snapshot) throws IOException
+	{
+		super();
+		long fingerprint;
+
+		catalogue = list;
+		fingerprint = SpatialIndexSnapshot.fingerprint(list);
+		try
+		{
+			index = CelestialObjectFootprintIndex.loadSnapshot(snapshot,fingerprint,list);
+			indexFromSnapshot = true;
+		}
+		catch(IOException e)
+		{
+			index = new CelestialObjectFootprintIndex(list);
+			index.saveSnapshot(snapshot,fingerprint);
+		}
+		buildNameIndex();
+	}
+
+	/**
+	 * Build the name index and the per endpoint metrics.
+	 */
+	private void buildNameIndex()
+	{
+		Map<String,IntArrayList> names = null;
+		IntArrayList rows = null;
+		String key = null;
+		List<CelestialObject> list = null;
+
+		list = catalogue;
+		names = new HashMap<String,IntArrayList>();
+		for(int i = 0; i < list.size(); i++)
+		{
+			if(list.get(i).getName() == null)
+				continue;
+			key = CelestialObject.normaliseName(list.get(i).getName());
+			rows = names.get(key);
+			if(rows == null)
+			{
+				rows = new IntArrayList(1);
+				names.put(key,rows);
+			}
+			rows.add(i);
+		}
+		nameIndex = new HashMap<String,int[]>(names.size()*2);
+		for(Map.Entry<String,IntArrayList> e : names.entrySet())
+			nameIndex.put(e.getKey(),e.getValue().toArray());
+		latency = new LatencyHistogram[ENDPOINT_NAMES.length];
+		errors = new LongAdder[ENDPOINT_NAMES.length];
+		for(int e = 0; e < ENDPOINT_NAMES.length; e++)
+		{
+			latency[e] = new LatencyHistogram();
+			errors[e] = new LongAdder();
+		}
+		rowsSent = new LongAdder();
+	}
+
+	/**
+	 * Set the maximum number of rows a lookup returns. A request's limit parameter can only lower this.
+	 * @param n The number of rows.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setMaxRows(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxRows:Illegal row count:"+
+							   n+": Must be at least 1.");
+		}
+		maxRows = n;
+	}
+
+	public int getMaxRows()
+	{
+		return maxRows;
+	}
+
+	/**
+	 * Set the maximum size of a batch request body. A larger body is refused with status 400 without
+	 * reading the rest of it.
+	 * @param n The number of bytes.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setMaxBatchBytes(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxBatchBytes:Illegal byte count:"+
+							   n+": Must be at least 1.");
+		}
+		maxBatchBytes = n;
+	}
+
+	public int getMaxBatchBytes()
+	{
+		return maxBatchBytes;
+	}
+
+	/**
+	 * Set the maximum number of lookups in a batch request. A request with more is refused with status 400.
+	 * @param n The number of lookups.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setMaxBatchLookups(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxBatchLookups:Illegal lookup count:"+
+							   n+": Must be at least 1.");
+		}
+		maxBatchLookups = n;
+	}
+
+	public int getMaxBatchLookups()
+	{
+		return maxBatchLookups;
+	}
+
+	/**
+	 * Start the service on a port of all local addresses.
+	 * @param port The port, or 0 to pick a free one.
+	 * @exception IOException Thrown if the server cannot bind the port.
+	 * @see #start(InetSocketAddress)
+	 */
+	public void start(int port) throws IOException
+	{
+		start(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Start the service.
+	 * @param address The address to listen on.
+	 * @exception IOException Thrown if the server cannot bind the address.
+	 * @exception IllegalStateException Thrown if the service is already started.
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException, IllegalStateException
+	{
+		if(server != null)
+			throw new IllegalStateException(this.getClass().getName()+":start:Already started.");
+		server = HttpServer.create(address,0);
+		server.createContext("/cone",exchange -> handle(exchange,ENDPOINT_CONE));
+		server.createContext("/box",exchange -> handle(exchange,ENDPOINT_BOX));
+		server.createContext("/name",exchange -> handle(exchange,ENDPOINT_NAME));
+		server.createContext("/batch",exchange -> handle(exchange,ENDPOINT_BATCH));
+		server.createContext("/metrics",exchange -> handleMetrics(exchange));
+		executor = newVirtualThreadExecutor();
+		virtualThreads = (executor != null);
+		if(executor == null)
+			executor = Executors.newFixedThreadPool(DEFAULT_PLATFORM_THREADS);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stop the service, waiting up to DEFAULT_STOP_DELAY seconds for requests in progress.
+	 * Does nothing if the service is not started.
+	 */
+	public synchronized void stop()
+	{
+		if(server == null)
+			return;
+		server.stop(DEFAULT_STOP_DELAY);
+		executor.shutdown();
+		server = null;
+		executor = null;
+	}
+
+	/**
+	 * Return the port the service is listening on.
+	 * @exception IllegalStateException Thrown if the service is not started.
+	 */
+	public synchronized int getPort() throws IllegalStateException
+	{
+		if(server == null)
+			throw new IllegalStateException(this.getClass().getName()+":getPort:Not started.");
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Return whether the spatial index was loaded from a snapshot rather than built.
+	 */
+	public boolean isIndexFromSnapshot()
+	{
+		return indexFromSnapshot;
+	}
+
+	/**
+	 * Return whether requests are being handled on virtual threads.
+	 */
+	public boolean isVirtualThreads()
+	{
+		return virtualThreads;
+	}
+
+	/**
+	 * Return the latency histogram of an endpoint.
+	 * @param endpoint The endpoint name: "cone", "box", "name" or "batch".
+	 * @return The histogram, in nanoseconds, or null if there is no such endpoint.
+	 */
+	public LatencyHistogram getLatency(String endpoint)
+	{
+		for(int e = 0; e < ENDPOINT_NAMES.length; e++)
+		{
+			if(ENDPOINT_NAMES[e].equals(endpoint))
+				return latency[e];
+		}
+		return null;
+	}
+
+	/**
+	 * Return a plain text summary of the requests handled, one line per endpoint.
+	 */
+	public String getMetrics()
+	{
+		StringBuilder sb = null;
+
+		sb = new StringBuilder();
+		for(int e = 0; e < ENDPOINT_NAMES.length; e++)
+		{
+			sb.append(ENDPOINT_NAMES[e]).append(": ").append(latency[e]).append(" errors=");
+			sb.append(errors[e].sum()).append("\n");
+		}
+		sb.append("rows: ").append(rowsSent.sum()).append("\n");
+		sb.append("virtualThreads: ").append(virtualThreads).append("\n");
+		if(AstrometryMetrics.ENABLED)
+			sb.append(AstrometryMetrics.snapshot());
+		return sb.toString();
+	}
+
+	/**
+	 * Answer a lookup request, recording its latency.
+	 * @param exchange The request.
+	 * @param endpoint The endpoint number.
+	 */
+	protected void handle(HttpExchange exchange,int endpoint) throws IOException
+	{
+		Map<String,String> parameters = null;
+		List<Map<String,String>> lookups = null;
+		List<int[]> results = null;
+		long startTime;
+		int format,limit;
+
+		startTime = System.nanoTime();
+		try
+		{
+			parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			format = parseFormat(parameters.get("format"));
+			limit = maxRows;
+			if(parameters.get("limit") != null)
+				limit = Math.max(0,Math.min(maxRows,Integer.parseInt(parameters.get("limit"))));
+			if(endpoint == ENDPOINT_BATCH)
+			{
+				if(!exchange.getRequestMethod().equals("POST"))
+				{
+					sendError(exchange,405,"batch requests must be POSTed.");
+					errors[endpoint].increment();
+					return;
+				}
+				lookups = parseBatch(exchange.getRequestBody(),maxBatchBytes,maxBatchLookups);
+			}
+			else
+			{
+				lookups = new ArrayList<Map<String,String>>(1);
+				parameters.put("",ENDPOINT_NAMES[endpoint]);
+				lookups.add(parameters);
+			}
+			results = lookup(lookups,limit);
+		}
+		catch(IllegalArgumentException e)
+		{
+			// includes NumberFormatException
+			sendError(exchange,400,e.getMessage());
+			errors[endpoint].increment();
+			return;
+		}
+		try
+		{
+			sendResults(exchange,format,results,endpoint == ENDPOINT_BATCH);
+			latency[endpoint].record(System.nanoTime()-startTime);
+		}
+		catch(IOException e)
+		{
+			// usually the client went away
+			errors[endpoint].increment();
+			throw e;
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Answer a /metrics request.
+	 */
+	protected void handleMetrics(HttpExchange exchange) throws IOException
+	{
+		byte body[];
+
+		body = getMetrics().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type","text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200,body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	/**
+	 * Answer some lookups. Batches of more than one lookup are answered in parallel.
+	 * @param lookups The lookups. Each map holds a lookup's parameters, with the endpoint name
+	 *        ("cone", "box" or "name") under the empty key.
+	 * @param limit The maximum number of rows in each result.
+	 * @return The catalogue indices matching each lookup, in the same order as lookups.
+	 * @exception IllegalArgumentException Thrown if a lookup is malformed.
+	 */
+	protected List<int[]> lookup(final List<Map<String,String>> lookups,final int limit)
+		throws IllegalArgumentException
+	{
+		final int results[][];
+
+		results = new int[lookups.size()][];
+		// parse everything first, so a bad lookup fails the batch before any work is done
+		final SkyRegion regions[] = new SkyRegion[lookups.size()];
+		for(int i = 0; i < lookups.size(); i++)
+			regions[i] = parseRegion(lookups.get(i));
+		ParallelChunks.forEach(lookups.size(),1,(from,to) ->
+		{
+			IntArrayList found = new IntArrayList();
+			int rows[];
+
+			for(int i = from; i < to; i++)
+			{
+				if(regions[i] != null)
+				{
+					found.clear();
+					index.queryIndices(regions[i],found);
+					rows = found.toArray();
+				}
+				else
+				{
+					rows = nameIndex.get(CelestialObject.normaliseName(lookups.get(i).get("name")));
+					if(rows == null)
+						rows = new int[0];
+				}
+				if(rows.length > limit)
+					rows = Arrays.copyOf(rows,limit);
+				results[i] = rows;
+			}
+		});
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Make the region of a lookup.
+	 * @param lookup The lookup's parameters, with the endpoint name under the empty key.
+	 * @return The region, or null for a name lookup.
+	 * @exception IllegalArgumentException Thrown if the lookup is malformed.
+	 */
+	protected SkyRegion parseRegion(Map<String,String> lookup) throws IllegalArgumentException
+	{
+		String endpoint = null;
+		double raRadians,decRadians,positionAngle;
+
+		endpoint = lookup.get("");
+		if("name".equals(endpoint))
+		{
+			if(lookup.get("name") == null)
+				throw new IllegalArgumentException(this.getClass().getName()+":parseRegion:name lookup has no name.");
+			return null;
+		}
+		raRadians = parseRA(requireParameter(lookup,"ra"));
+		decRadians = parseDec(requireParameter(lookup,"dec"));
+		if("cone".equals(endpoint))
+			return new SkyCone(raRadians,decRadians,Double.parseDouble(requireParameter(lookup,"radius")));
+		if("box".equals(endpoint))
+		{
+			positionAngle = 0.0;
+			if(lookup.get("pa") != null)
+				positionAngle = Double.parseDouble(lookup.get("pa"));
+			return SphericalPolygon.rectangle(raRadians,decRadians,
+							  Double.parseDouble(requireParameter(lookup,"width")),
+							  Double.parseDouble(requireParameter(lookup,"height")),positionAngle);
+		}
+		throw new IllegalArgumentException(this.getClass().getName()+":parseRegion:Illegal lookup:"+
+						   endpoint+": Must be cone, box or name.");
+	}
+
+	/**
+	 * Return a parameter's value.
+	 * @exception IllegalArgumentException Thrown if the parameter is missing.
+	 */
+	protected String requireParameter(Map<String,String> parameters,String key) throws IllegalArgumentException
+	{
+		String value = null;
+
+		value = parameters.get(key);
+		if(value == null)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":requireParameter:Missing parameter:"+
+							   key+".");
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a right ascension, either HH:MM:SS.ss or decimal degrees.
+	 * @return The right ascension, in radians.
+	 * @exception IllegalArgumentException Thrown if the right ascension is malformed, or not at least 0 and
+	 *            less than 24 hours (360 degrees).
+	 */
+	protected static double parseRA(String s) throws IllegalArgumentException
+	{
+		RA ra = null;
+		double degrees;
+
+		if(s.indexOf(':') < 0)
+			degrees = Double.parseDouble(s);
+		else
+		{
+			ra = new RA();
+			ra.parseColon(s);
+			degrees = Math.toDegrees(ra.toRadians());
+		}
+		if(!((degrees >= 0.0)&&(degrees < 360.0)))
+		{
+			throw new IllegalArgumentException("CatalogueHttpService:parseRA:Illegal right ascension:"+s+
+							   ": Must be at least 0 and less than 24 hours (360 degrees).");
+		}
+		return Math.toRadians(degrees);
+	}
+
+	/**
+	 * Parse a declination, either [+|-]DD:MM:SS.ss or decimal degrees.
+	 * @return The declination, in radians.
+	 * @exception IllegalArgumentException Thrown if the declination is malformed, or not in the range -90 to
+	 *            +90 degrees.
+	 */
+	protected static double parseDec(String s) throws IllegalArgumentException
+	{
+		Dec dec = null;
+		double degrees;
+
+		if(s.indexOf(':') < 0)
+			degrees = Double.parseDouble(s);
+		else
+		{
+			dec = new Dec();
+			dec.parseColon(s);
+			degrees = Math.toDegrees(dec.toRadians());
+		}
+		if(!((degrees >= -90.0)&&(degrees <= 90.0)))
+		{
+			throw new IllegalArgumentException("CatalogueHttpService:parseDec:Illegal declination:"+s+
+							   ": Must be in the range -90 to +90 degrees.");
+		}
+		return Math.toRadians(degrees);
+	}
+
+	/**
+	 * Parse the format parameter.
+	 * @param s The parameter value, or null for the default.
+	 * @return FORMAT_CSV or FORMAT_JSON.
+	 * @exception IllegalArgumentException Thrown if the format is not csv or json.
+	 */
+	protected int parseFormat(String s) throws IllegalArgumentException
+	{
+		if((s == null)||s.equals("csv"))
+			return FORMAT_CSV;
+		if(s.equals("json"))
+			return FORMAT_JSON;
+		throw new IllegalArgumentException(this.getClass().getName()+":parseFormat:Illegal format:"+s+
+						   ": Must be csv or json.");
+	}
+
+	/**
+	 * Parse a URL query string.
+	 * @param query The raw (still encoded) query string, or null.
+	 * @return A modifiable map of the decoded parameters.
+	 */
+	protected static Map<String,String> parseQuery(String query)
+	{
+		Map<String,String> parameters = null;
+		int start,end,equals;
+
+		parameters = new HashMap<String,String>();
+		if(query == null)
+			return parameters;
+		start = 0;
+		while(start < query.length())
+		{
+			end = query.indexOf('&',start);
+			if(end < 0)
+				end = query.length();
+			equals = query.indexOf('=',start);
+			if((equals >= 0)&&(equals < end))
+			{
+				parameters.put(URLDecoder.decode(query.substring(start,equals),StandardCharsets.UTF_8),
+					       URLDecoder.decode(query.substring(equals+1,end),StandardCharsets.UTF_8));
+			}
+			else if(end > start)
+				parameters.put(URLDecoder.decode(query.substring(start,end),StandardCharsets.UTF_8),"");
+			start = end+1;
+		}
+		return parameters;
+	}
+
+	/**
+	 * Parse the body of a batch request: one lookup per line, "endpoint?query". Blank lines are ignored.
+	 * At most maxBytes of the body are read.
+	 * @param in The request body.
+	 * @param maxBytes The maximum size of the body, in bytes.
+	 * @param maxLookups The maximum number of lookups.
+	 * @return The lookups, each with the endpoint name under the empty key.
+	 * @exception IllegalArgumentException Thrown if the body is longer than maxBytes, or holds more than
+	 *            maxLookups lookups.
+	 */
+	protected static List<Map<String,String>> parseBatch(InputStream in,int maxBytes,int maxLookups)
+		throws IOException, IllegalArgumentException
+	{
+		BufferedReader reader = null;
+		List<Map<String,String>> lookups = null;
+		Map<String,String> lookup = null;
+		String line = null;
+		byte body[];
+		int question;
+
+		body = in.readNBytes(maxBytes);
+		if(in.read() >= 0)
+		{
+			throw new IllegalArgumentException("CatalogueHttpService:parseBatch:Illegal batch body:"+
+							   "Must be at most "+maxBytes+" bytes.");
+		}
+		lookups = new ArrayList<Map<String,String>>();
+		reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body),StandardCharsets.UTF_8));
+		while((line = reader.readLine()) != null)
+		{
+			line = line.trim();
+			if(line.length() == 0)
+				continue;
+			if(lookups.size() == maxLookups)
+			{
+				throw new IllegalArgumentException("CatalogueHttpService:parseBatch:Illegal batch:"+
+								   "Must have at most "+maxLookups+" lookups.");
+			}
+			question = line.indexOf('?');
+			if(question < 0)
+			{
+				lookup = new HashMap<String,String>();
+				lookup.put("",line);
+			}
+			else
+			{
+				lookup = parseQuery(line.substring(question+1));
+				lookup.put("",line.substring(0,question));
+			}
+			lookups.add(lookup);
+		}
+		return lookups;
+	}
+
+	/**
+	 * Send an error response with a plain text message.
+	 */
+	protected void sendError(HttpExchange exchange,int status,String message) throws IOException
+	{
+		byte body[];
+
+		body = (message+"\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type","text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status,body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	/**
+	 * Stream the results of some lookups. Each row is formatted into one reused StringBuilder, whose
+	 * contents are written to the client every FLUSH_SIZE characters.
+	 * @param exchange The request.
+	 * @param format FORMAT_CSV or FORMAT_JSON.
+	 * @param results The catalogue indices matching each lookup.
+	 * @param batch Whether to start each row with the number of its lookup.
+	 */
+	protected void sendResults(HttpExchange exchange,int format,List<int[]> results,boolean batch)
+		throws IOException
+	{
+		Writer writer = null;
+		StringBuilder sb = null;
+		char buffer[];
+		int rows[];
+		long count;
+		boolean first;
+
+		if(format == FORMAT_JSON)
+			exchange.getResponseHeaders().set("Content-Type","application/json; charset=utf-8");
+		else
+			exchange.getResponseHeaders().set("Content-Type","text/csv; charset=utf-8");
+		// a length of 0 means chunked, so rows are sent as they are formatted
+		exchange.sendResponseHeaders(200,0);
+		writer = new OutputStreamWriter(exchange.getResponseBody(),StandardCharsets.UTF_8);
+		sb = new StringBuilder(FLUSH_SIZE+256);
+		buffer = new char[FLUSH_SIZE+256];
+		if(format == FORMAT_JSON)
+			sb.append("{\"columns\":[");
+		if(batch)
+			sb.append((format == FORMAT_JSON) ? "\"query\"," : "query,");
+		for(int c = 0; c < COLUMN_NAMES.length; c++)
+		{
+			if(c > 0)
+				sb.append(',');
+			if(format == FORMAT_JSON)
+				sb.append('"').append(COLUMN_NAMES[c]).append('"');
+			else
+				sb.append(COLUMN_NAMES[c]);
+		}
+		sb.append((format == FORMAT_JSON) ? "],\"rows\":[" : "\n");
+		count = 0;
+		first = true;
+		for(int q = 0; q < results.size(); q++)
+		{
+			rows = results.get(q);
+			for(int i = 0; i < rows.length; i++)
+			{
+				if(format == FORMAT_JSON)
+				{
+					if(!first)
+						sb.append(',');
+					sb.append('[');
+					if(batch)
+						sb.append(q).append(',');
+					appendJSON(sb,catalogue.get(rows[i]));
+					sb.append(']');
+				}
+				else
+				{
+					if(batch)
+						sb.append(q).append(',');
+					appendCSV(sb,catalogue.get(rows[i]));
+					sb.append('\n');
+				}
+				first = false;
+				count++;
+				if(sb.length() >= FLUSH_SIZE)
+					flush(sb,buffer,writer);
+			}
+		}
+		if(format == FORMAT_JSON)
+			sb.append("]}");
+		flush(sb,buffer,writer);
+		writer.flush();
+		rowsSent.add(count);
+	}
+
+	/**
+	 * Write out and empty a StringBuilder, copying through a reused character buffer rather than
+	 * making a String.
+	 */
+	private static void flush(StringBuilder sb,char buffer[],Writer writer) throws IOException
+	{
+		int offset,length;
+
+		offset = 0;
+		while(offset < sb.length())
+		{
+			length = Math.min(buffer.length,sb.length()-offset);
+			sb.getChars(offset,offset+length,buffer,0);
+			writer.write(buffer,0,length);
+			offset += length;
+		}
+		sb.setLength(0);
+	}
+
+	/**
+	 * Append an object as a CSV row (without a line terminator). Absent values are empty.
+	 */
+	protected static void appendCSV(StringBuilder sb,CelestialObject co)
+	{
+		appendCSVString(sb,co.getName());
+		sb.append(',');
+		co.getRA().appendTo(sb,RA.DEFAULT_SEPERATOR);
+		sb.append(',');
+		co.getDec().appendTo(sb,Dec.DEFAULT_SEPERATOR);
+		sb.append(',');
+		appendCSVString(sb,co.getType());
+		sb.append(',');
+		appendCSVString(sb,co.getSpectralType());
+		sb.append(',');
+		if(co.hasBMagnitude())
+			sb.append(co.getBMagnitude());
+		sb.append(',');
+		if(co.hasVMagnitude())
+			sb.append(co.getVMagnitude());
+		sb.append(',');
+		if(co.hasRMagnitude())
+			sb.append(co.getRMagnitude());
+	}
+
+	/**
+	 * Append a CSV field, quoted if it holds a comma, quote or line break.
+	 */
+	private static void appendCSVString(StringBuilder sb,String s)
+	{
+		boolean quote;
+		char c;
+
+		if(s == null)
+			return;
+		quote = false;
+		for(int i = 0; (i < s.length())&&(!quote); i++)
+		{
+			c = s.charAt(i);
+			quote = (c == ',')||(c == '"')||(c == '\n')||(c == '\r');
+		}
+		if(!quote)
+		{
+			sb.append(s);
+			return;
+		}
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++)
+		{
+			c = s.charAt(i);
+			if(c == '"')
+				sb.append('"');
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Append an object as the contents of a JSON array (without the brackets). Absent values are null.
+	 */
+	protected static void appendJSON(StringBuilder sb,CelestialObject co)
+	{
+		appendJSONString(sb,co.getName());
+		sb.append(",\"");
+		co.getRA().appendTo(sb,RA.DEFAULT_SEPERATOR);
+		sb.append("\",\"");
+		co.getDec().appendTo(sb,Dec.DEFAULT_SEPERATOR);
+		sb.append("\",");
+		appendJSONString(sb,co.getType());
+		sb.append(',');
+		appendJSONString(sb,co.getSpectralType());
+		sb.append(',');
+		appendJSONMagnitude(sb,co.getBMagnitude());
+		sb.append(',');
+		appendJSONMagnitude(sb,co.getVMagnitude());
+		sb.append(',');
+		appendJSONMagnitude(sb,co.getRMagnitude());
+	}
+
+	/**
+	 * Append a JSON string, or null.
+	 */
+	private static void appendJSONString(StringBuilder sb,String s)
+	{
+		char c;
+
+		if(s == null)
+		{
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++)
+		{
+			c = s.charAt(i);
+			if((c == '"')||(c == '\\'))
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+			{
+				sb.append("\\u00");
+				sb.append(Character.forDigit(c >> 4,16));
+				sb.append(Character.forDigit(c & 0xf,16));
+			}
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Append a JSON magnitude, or null if it is absent (JSON has no NaN).
+	 */
+	private static void appendJSONMagnitude(StringBuilder sb,double m)
+	{
+		if(Double.isNaN(m)||Double.isInfinite(m))
+			sb.append("null");
+		else
+			sb.append(m);
+	}
+
+	/**
+	 * Create a virtual thread per task executor, if this JVM has one. Looked up reflectively so this class
+	 * still compiles and runs on JVMs before Java 21.
+	 * @return The executor, or null if virtual threads are not available.
+	 */
+	protected static ExecutorService newVirtualThreadExecutor()
+	{
+		Method method = null;
+
+		try
+		{
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			// not there before Java 21, or a preview feature that is not enabled
+			return null;
+		}
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,643 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CataloguePredicate.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class is a condition on the rows of a CatalogueTable. Predicates are made with the static factory
+ * methods and combined into a CatalogueQuery. Each predicate filters a selection vector (an array of row
+ * numbers) in place, reading the table's primitive columns directly. Rows with a NaN in a magnitude a
+ * predicate uses never match it: the comparison is unknown rather than false, so negating it (with not)
+ * does not match the row either.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CatalogueQuery
+ * @see CatalogueTable
+ */
+public abstract class CataloguePredicate
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Band number of the B magnitude.
+	 */
+	public final static int BAND_B = 0;
+	/**
+	 * Band number of the V magnitude.
+	 */
+	public final static int BAND_V = 1;
+	/**
+	 * Band number of the R magnitude.
+	 */
+	public final static int BAND_R = 2;
+
+	/**
+	 * Constructor.
+	 */
+	protected CataloguePredicate()
+	{
+		super();
+	}
+
+	/**
+	 * Return whether one row matches.
+	 * @param table The table.
+	 * @param row The row number.
+	 */
+	public abstract boolean test(CatalogueTable table,int row);
+
+	/**
+	 * Return whether this predicate's result for one row is unknown, because a value it compares is NaN.
+	 * An unknown row does not match, and does not match the predicate's negation either.
+	 * This version returns false; comparisons of columns that can hold NaN override it.
+	 * @param table The table.
+	 * @param row The row number.
+	 */
+	public boolean isUnknown(CatalogueTable table,int row)
+	{
+		return false;
+	}
+
+	/**
+	 * Filter a selection vector in place, keeping the rows that match in their original order.
+	 * Subclasses override this with a loop over their own columns; this version calls test per row.
+	 * @param table The table.
+	 * @param selection The selected row numbers; the matching ones are moved to the front.
+	 * @param count The number of selected rows.
+	 * @return The number of rows that match.
+	 */
+	public int filter(CatalogueTable table,int selection[],int count)
+	{
+		int kept,row;
+
+		kept = 0;
+		for(int i = 0; i < count; i++)
+		{
+			row = selection[i];
+			if(test(table,row))
+				selection[kept++] = row;
+		}
+		return kept;
+	}
+
+	/**
+	 * Return the relative cost of testing one row. Column comparisons cost 1.
+	 */
+	public double getCost()
+	{
+		return 1.0;
+	}
+
+	/**
+	 * Return the sky region this predicate selects, if it is purely spatial and so can be answered from a
+	 * spatial index, or null otherwise.
+	 */
+	public SkyRegion getRegion()
+	{
+		return null;
+	}
+
+	/**
+	 * Return a predicate matching rows this predicate or another matches.
+	 */
+	public CataloguePredicate or(CataloguePredicate other)
+	{
+		return new Or(this,other);
+	}
+
+	/**
+	 * Return a predicate matching rows this predicate does not match.
+	 */
+	public CataloguePredicate not()
+	{
+		return new Not(this);
+	}
+
+	/**
+	 * Rows whose magnitude in a band is between min and max, inclusive.
+	 * @param band One of BAND_B, BAND_V or BAND_R.
+	 * @param min The brightest magnitude, or -Infinity.
+	 * @param max The faintest magnitude, or Infinity.
+	 * @exception IllegalArgumentException Thrown if the band is not known.
+	 */
+	public static CataloguePredicate magnitude(int band,double min,double max) throws IllegalArgumentException
+	{
+		checkBand(band);
+		return new MagnitudeRange(band,min,max);
+	}
+
+	/**
+	 * Rows whose colour index (magnitude in band1 minus magnitude in band2), such as B-V, is between min
+	 * and max, inclusive.
+	 * @param band1 One of BAND_B, BAND_V or BAND_R.
+	 * @param band2 One of BAND_B, BAND_V or BAND_R.
+	 * @param min The smallest colour index.
+	 * @param max The largest colour index.
+	 * @exception IllegalArgumentException Thrown if a band is not known.
+	 */
+	public static CataloguePredicate colour(int band1,int band2,double min,double max)
+		throws IllegalArgumentException
+	{
+		checkBand(band1);
+		checkBand(band2);
+		return new ColourRange(band1,band2,min,max);
+	}
+
+	/**
+	 * Rows whose type is one of a set.
+	 * @param types The types to match. A null entry matches rows with no type.
+	 */
+	public static CataloguePredicate typeIn(String... types)
+	{
+		return new CodeIn(false,new HashSet<String>(Arrays.asList(types)));
+	}
+
+	/**
+	 * Rows whose spectral type is one of a set.
+	 * @param spectralTypes The spectral types to match. A null entry matches rows with no spectral type.
+	 */
+	public static CataloguePredicate spectralTypeIn(String... spectralTypes)
+	{
+		return new CodeIn(true,new HashSet<String>(Arrays.asList(spectralTypes)));
+	}
+
+	/**
+	 * Rows whose number is between min and max, inclusive.
+	 */
+	public static CataloguePredicate number(int min,int max)
+	{
+		return new NumberRange(min,max);
+	}
+
+	/**
+	 * Rows inside a region. This can be pushed down into the table's footprint index.
+	 */
+	public static CataloguePredicate within(SkyRegion region)
+	{
+		return new Within(region);
+	}
+
+	/**
+	 * Rows within a radius of a position. This can be pushed down into the table's footprint index.
+	 * @param ra The right ascension of the centre.
+	 * @param dec The declination of the centre.
+	 * @param radius The radius, in arc-seconds.
+	 */
+	public static CataloguePredicate cone(RA ra,Dec dec,double radius)
+	{
+		return new Within(new SkyCone(ra,dec,radius));
+	}
+
+	/**
+	 * Check a band number.
+	 */
+	private static void checkBand(int band) throws IllegalArgumentException
+	{
+		if((band != BAND_B)&&(band != BAND_V)&&(band != BAND_R))
+		{
+			throw new IllegalArgumentException("CataloguePredicate:checkBand:Illegal band:"+band);
+		}
+	}
+
+	/**
+	 * Return the column for a band.
+	 */
+	private static double[] column(CatalogueTable table,int band)
+	{
+		if(band == BAND_B)
+			return table.getBMagnitude();
+		else if(band == BAND_V)
+			return table.getVMagnitude();
+		else
+			return table.getRMagnitude();
+	}
+
+	/**
+	 * Magnitude range predicate.
+	 */
+	private static class MagnitudeRange extends CataloguePredicate
+	{
+		private int band;
+		private double min;
+		private double max;
+
+		MagnitudeRange(int b,double mn,double mx)
+		{
+			super();
+			band = b;
+			min = mn;
+			max = mx;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			double m;
+
+			m = column(table,band)[row];
+			return (m >= min)&&(m <= max);
+		}
+
+		public boolean isUnknown(CatalogueTable table,int row)
+		{
+			return Double.isNaN(column(table,band)[row]);
+		}
+
+		public int filter(CatalogueTable table,int selection[],int count)
+		{
+			double column[];
+			double m;
+			int kept,row;
+
+			column = column(table,band);
+			kept = 0;
+			for(int i = 0; i < count; i++)
+			{
+				row = selection[i];
+				m = column[row];
+				if((m >= min)&&(m <= max))
+					selection[kept++] = row;
+			}
+			return kept;
+		}
+
+		public String toString()
+		{
+			return "magnitude("+band+") in ["+min+","+max+"]";
+		}
+	}
+
+	/**
+	 * Colour index range predicate.
+	 */
+	private static class ColourRange extends CataloguePredicate
+	{
+		private int band1;
+		private int band2;
+		private double min;
+		private double max;
+
+		ColourRange(int b1,int b2,double mn,double mx)
+		{
+			super();
+			band1 = b1;
+			band2 = b2;
+			min = mn;
+			max = mx;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			double c;
+
+			c = column(table,band1)[row]-column(table,band2)[row];
+			return (c >= min)&&(c <= max);
+		}
+
+		public boolean isUnknown(CatalogueTable table,int row)
+		{
+			return Double.isNaN(column(table,band1)[row]-column(table,band2)[row]);
+		}
+
+		public int filter(CatalogueTable table,int selection[],int count)
+		{
+			double column1[],column2[];
+			double c;
+			int kept,row;
+
+			column1 = column(table,band1);
+			column2 = column(table,band2);
+			kept = 0;
+			for(int i = 0; i < count; i++)
+			{
+				row = selection[i];
+				c = column1[row]-column2[row];
+				if((c >= min)&&(c <= max))
+					selection[kept++] = row;
+			}
+			return kept;
+		}
+
+		public String toString()
+		{
+			return "colour("+band1+"-"+band2+") in ["+min+","+max+"]";
+		}
+	}
+
+	/**
+	 * Type or spectral type set membership predicate. The set is turned into a lookup table of codes
+	 * the first time the predicate meets a table, and kept for as long as the table is reachable. The
+	 * lookup for the table last met is read without locking, so rows tested in parallel (through Or or Not)
+	 * do not contend, and each test uses the lookup made for its own table.
+	 */
+	private static class CodeIn extends CataloguePredicate
+	{
+		private boolean spectral;
+		private Set<String> values;
+		private volatile CodeLookup last = null;
+		private final Map<CatalogueTable,CodeLookup> lookups = new WeakHashMap<CatalogueTable,CodeLookup>();
+
+		CodeIn(boolean s,Set<String> v)
+		{
+			super();
+			spectral = s;
+			values = v;
+		}
+
+		/**
+		 * Return the lookup for a table, making it the first time the table is met.
+		 */
+		private CodeLookup lookup(CatalogueTable table)
+		{
+			List<String> dictionary = null;
+			CodeLookup l = null;
+			boolean match[];
+			int codes[];
+
+			if(spectral)
+				codes = table.getSpectralTypeCode();
+			else
+				codes = table.getTypeCode();
+			// the codes column identifies the table without holding on to it
+			l = last;
+			if((l != null)&&(l.codes == codes))
+				return l;
+			synchronized(lookups)
+			{
+				l = lookups.get(table);
+				if(l == null)
+				{
+					if(spectral)
+						dictionary = table.getSpectralTypeDictionary();
+					else
+						dictionary = table.getTypeDictionary();
+					match = new boolean[dictionary.size()];
+					for(int c = 0; c < match.length; c++)
+						match[c] = values.contains(dictionary.get(c));
+					l = new CodeLookup(codes,match,values.contains(null));
+					lookups.put(table,l);
+				}
+			}
+			last = l;
+			return l;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			CodeLookup l = null;
+			int c;
+
+			l = lookup(table);
+			c = l.codes[row];
+			if(c == CatalogueTable.NO_CODE)
+				return l.matchNull;
+			return l.match[c];
+		}
+
+		public int filter(CatalogueTable table,int selection[],int count)
+		{
+			CodeLookup l = null;
+			boolean match[];
+			boolean matchNull;
+			int codes[];
+			int kept,row,c;
+
+			l = lookup(table);
+			codes = l.codes;
+			match = l.match;
+			matchNull = l.matchNull;
+			kept = 0;
+			for(int i = 0; i < count; i++)
+			{
+				row = selection[i];
+				c = codes[row];
+				if((c == CatalogueTable.NO_CODE) ? matchNull : match[c])
+					selection[kept++] = row;
+			}
+			return kept;
+		}
+
+		public String toString()
+		{
+			return (spectral ? "spectralType" : "type")+" in "+values;
+		}
+	}
+
+	/**
+	 * The code lookup table a CodeIn predicate made for one table. Never changed once made.
+	 */
+	private static class CodeLookup
+	{
+		private final int codes[];
+		private final boolean match[];
+		private final boolean matchNull;
+
+		CodeLookup(int c[],boolean m[],boolean n)
+		{
+			super();
+			codes = c;
+			match = m;
+			matchNull = n;
+		}
+	}
+
+	/**
+	 * Number range predicate.
+	 */
+	private static class NumberRange extends CataloguePredicate
+	{
+		private int min;
+		private int max;
+
+		NumberRange(int mn,int mx)
+		{
+			super();
+			min = mn;
+			max = mx;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			int n;
+
+			n = table.getNumber()[row];
+			return (n >= min)&&(n <= max);
+		}
+
+		public int filter(CatalogueTable table,int selection[],int count)
+		{
+			int column[];
+			int kept,row,n;
+
+			column = table.getNumber();
+			kept = 0;
+			for(int i = 0; i < count; i++)
+			{
+				row = selection[i];
+				n = column[row];
+				if((n >= min)&&(n <= max))
+					selection[kept++] = row;
+			}
+			return kept;
+		}
+
+		public String toString()
+		{
+			return "number in ["+min+","+max+"]";
+		}
+	}
+
+	/**
+	 * Sky region predicate.
+	 */
+	private static class Within extends CataloguePredicate
+	{
+		private SkyRegion region;
+
+		Within(SkyRegion r)
+		{
+			super();
+			region = r;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			double v[] = new double[3];
+
+			SphericalGeometry.toUnitVector(table.getRARadians()[row],table.getDecRadians()[row],v,0);
+			return region.contains(v[0],v[1],v[2]);
+		}
+
+		public int filter(CatalogueTable table,int selection[],int count)
+		{
+			double ra[],dec[];
+			double v[] = new double[3];
+			int kept,row;
+
+			ra = table.getRARadians();
+			dec = table.getDecRadians();
+			kept = 0;
+			for(int i = 0; i < count; i++)
+			{
+				row = selection[i];
+				SphericalGeometry.toUnitVector(ra[row],dec[row],v,0);
+				if(region.contains(v[0],v[1],v[2]))
+					selection[kept++] = row;
+			}
+			return kept;
+		}
+
+		/**
+		 * Trigonometry per row makes this several times dearer than a column comparison.
+		 */
+		public double getCost()
+		{
+			return 8.0;
+		}
+
+		public SkyRegion getRegion()
+		{
+			return region;
+		}
+
+		public String toString()
+		{
+			return "within "+region;
+		}
+	}
+
+	/**
+	 * Disjunction of two predicates. Rows the first rejects are tested against the second. A row is
+	 * unknown if neither matches and either is unknown.
+	 */
+	private static class Or extends CataloguePredicate
+	{
+		private CataloguePredicate a;
+		private CataloguePredicate b;
+
+		Or(CataloguePredicate p,CataloguePredicate q)
+		{
+			super();
+			a = p;
+			b = q;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			return a.test(table,row)||b.test(table,row);
+		}
+
+		public boolean isUnknown(CatalogueTable table,int row)
+		{
+			return (!test(table,row))&&(a.isUnknown(table,row)||b.isUnknown(table,row));
+		}
+
+		public double getCost()
+		{
+			return a.getCost()+b.getCost();
+		}
+
+		public String toString()
+		{
+			return "("+a+" or "+b+")";
+		}
+	}
+
+	/**
+	 * Negation of a predicate. Rows the predicate's result is unknown for match neither it nor its negation.
+	 */
+	private static class Not extends CataloguePredicate
+	{
+		private CataloguePredicate a;
+
+		Not(CataloguePredicate p)
+		{
+			super();
+			a = p;
+		}
+
+		public boolean test(CatalogueTable table,int row)
+		{
+			return (!a.test(table,row))&&(!a.isUnknown(table,row));
+		}
+
+		public boolean isUnknown(CatalogueTable table,int row)
+		{
+			return a.isUnknown(table,row);
+		}
+
+		public double getCost()
+		{
+			return a.getCost();
+		}
+
+		public String toString()
+		{
+			return "not "+a;
+		}
+	}
+};
+//
+// $Log$
+//
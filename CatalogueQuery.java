@@ -0,0 +1,271 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CatalogueQuery.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class is a conjunction of CataloguePredicates run against a CatalogueTable, for example:
+ * <pre>
+ * new CatalogueQuery().
+ * 	and(CataloguePredicate.magnitude(CataloguePredicate.BAND_V,Double.NEGATIVE_INFINITY,14.0)).
+ * 	and(CataloguePredicate.typeIn("star","variable")).
+ * 	and(CataloguePredicate.colour(CataloguePredicate.BAND_B,CataloguePredicate.BAND_V,0.3,0.8)).
+ * 	and(CataloguePredicate.cone(ra,dec,600.0)).execute(table,true);
+ * </pre>
+ * Execution plan:
+ * <ul>
+ * <li>The most selective spatial predicate, if any, is pushed down into the table's footprint index, which
+ *     produces the candidate rows. Otherwise every row is a candidate.
+ * <li>The selectivity of each remaining predicate is estimated on a sample of the candidates, and predicates
+ *     are run cheapest-to-reject first.
+ * <li>Candidates are processed in batches of BATCH_SIZE rows: each predicate in turn shrinks the batch's
+ *     selection vector, and a batch stops as soon as it is empty. Batches can run in parallel.
+ * </ul>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CataloguePredicate
+ * @see CatalogueTable
+ */
+public class CatalogueQuery
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of rows in a selection vector batch.
+	 */
+	public final static int BATCH_SIZE = 4096;
+	/**
+	 * The maximum number of candidate rows used to estimate selectivity.
+	 */
+	private final static int SAMPLE_SIZE = 1024;
+	/**
+	 * The predicates, in the order they were added.
+	 */
+	protected List<CataloguePredicate> predicates = null;
+
+	/**
+	 * Default constructor. An empty query matches every row.
+	 */
+	public CatalogueQuery()
+	{
+		super();
+		predicates = new ArrayList<CataloguePredicate>();
+	}
+
+	/**
+	 * Add a predicate that rows must also match.
+	 * @param p The predicate.
+	 * @return This query, so calls can be chained.
+	 */
+	public CatalogueQuery and(CataloguePredicate p)
+	{
+		predicates.add(p);
+		return this;
+	}
+
+	/**
+	 * Run the query.
+	 * @param table The table to query.
+	 * @param parallel Whether to run batches in parallel.
+	 * @return The matching row numbers, in ascending order.
+	 */
+	public int[] execute(final CatalogueTable table,boolean parallel)
+	{
+		final List<CataloguePredicate> plan = new ArrayList<CataloguePredicate>();
+		final int candidates[];
+		final int candidateCount,batchCount;
+		final int results[][];
+		int total,offset;
+		int rows[];
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		candidates = plan(table,plan,null);
+		candidateCount = (candidates != null) ? candidates.length : table.getSize();
+		batchCount = (candidateCount+BATCH_SIZE-1)/BATCH_SIZE;
+		results = new int[batchCount][];
+		ParallelChunks.Task task = (from,to) ->
+		{
+			int selection[] = new int[BATCH_SIZE];
+			int start,count;
+
+			for(int b = from; b < to; b++)
+			{
+				start = b*BATCH_SIZE;
+				count = Math.min(BATCH_SIZE,candidateCount-start);
+				if(candidates != null)
+					System.arraycopy(candidates,start,selection,0,count);
+				else
+				{
+					for(int i = 0; i < count; i++)
+						selection[i] = start+i;
+				}
+				for(int p = 0; (p < plan.size())&&(count > 0); p++)
+					count = plan.get(p).filter(table,selection,count);
+				results[b] = Arrays.copyOf(selection,count);
+			}
+		};
+		if(parallel)
+			ParallelChunks.forEach(batchCount,1,task);
+		else
+			task.run(0,batchCount);
+		total = 0;
+		for(int b = 0; b < batchCount; b++)
+			total += results[b].length;
+		rows = new int[total];
+		offset = 0;
+		for(int b = 0; b < batchCount; b++)
+		{
+			System.arraycopy(results[b],0,rows,offset,results[b].length);
+			offset += results[b].length;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.CATALOGUE_QUERY,startTime);
+		return rows;
+	}
+
+	/**
+	 * Run the query and return the matching objects.
+	 * @param table The table to query.
+	 * @param parallel Whether to run batches in parallel.
+	 * @return The objects the matching rows were made from, in row order.
+	 * @see #execute
+	 */
+	public List<CelestialObject> executeObjects(CatalogueTable table,boolean parallel)
+	{
+		List<CelestialObject> list = null;
+		int rows[];
+
+		rows = execute(table,parallel);
+		list = new ArrayList<CelestialObject>(rows.length);
+		for(int i = 0; i < rows.length; i++)
+			list.add(table.getObject(rows[i]));
+		return list;
+	}
+
+	/**
+	 * Describe how the query would be run against a table, one step per line.
+	 * @param table The table.
+	 * @return A description of the plan.
+	 */
+	public String explain(CatalogueTable table)
+	{
+		StringBuilder sb = null;
+		List<CataloguePredicate> plan = new ArrayList<CataloguePredicate>();
+		int candidates[];
+
+		sb = new StringBuilder();
+		candidates = plan(table,plan,sb);
+		sb.append("candidates: ").append((candidates != null) ? candidates.length : table.getSize()).append("\n");
+		for(int p = 0; p < plan.size(); p++)
+			sb.append("filter: ").append(plan.get(p)).append("\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Plan the query: push down a spatial predicate and order the rest.
+	 * @param table The table.
+	 * @param plan A list to add the predicates left to run to, in the order to run them.
+	 * @param description If not null, a description of the pushdown is appended.
+	 * @return The candidate row numbers in ascending order, or null if every row is a candidate.
+	 */
+	protected int[] plan(CatalogueTable table,List<CataloguePredicate> plan,StringBuilder description)
+	{
+		CataloguePredicate pushdown = null;
+		IntArrayList found = null;
+		final Map<CataloguePredicate,Double> rank;
+		int candidates[];
+		double selectivity,best;
+
+		// push down the spatial predicate that keeps the fewest rows
+		best = Double.MAX_VALUE;
+		for(CataloguePredicate p : predicates)
+		{
+			if(p.getRegion() != null)
+			{
+				selectivity = estimateSelectivity(table,p,null);
+				if(selectivity < best)
+				{
+					best = selectivity;
+					pushdown = p;
+				}
+			}
+		}
+		candidates = null;
+		if(pushdown != null)
+		{
+			found = new IntArrayList();
+			table.getFootprintIndex().queryIndices(pushdown.getRegion(),found);
+			candidates = found.toArray();
+			// ascending row order keeps column reads sequential
+			Arrays.sort(candidates);
+			if(description != null)
+				description.append("index: ").append(pushdown).append("\n");
+		}
+		// rank the rest by rows rejected per unit cost, best first
+		rank = new HashMap<CataloguePredicate,Double>();
+		for(CataloguePredicate p : predicates)
+		{
+			if(p == pushdown)
+				continue;
+			selectivity = estimateSelectivity(table,p,candidates);
+			rank.put(p,(1.0-selectivity)/p.getCost());
+			plan.add(p);
+		}
+		plan.sort((a,b) -> Double.compare(rank.get(b),rank.get(a)));
+		return candidates;
+	}
+
+	/**
+	 * Estimate the fraction of rows a predicate keeps, by testing an evenly spaced sample.
+	 * @param table The table.
+	 * @param p The predicate.
+	 * @param candidates The candidate rows to sample, or null to sample the whole table.
+	 * @return The estimated fraction kept, 0..1. Half-counts are added so no estimate is exactly 0 or 1.
+	 */
+	protected double estimateSelectivity(CatalogueTable table,CataloguePredicate p,int candidates[])
+	{
+		int n,samples,kept,row;
+		double step;
+
+		n = (candidates != null) ? candidates.length : table.getSize();
+		if(n == 0)
+			return 0.5;
+		samples = Math.min(n,SAMPLE_SIZE);
+		step = ((double)n)/samples;
+		kept = 0;
+		for(int i = 0; i < samples; i++)
+		{
+			row = (int)(i*step);
+			if(candidates != null)
+				row = candidates[row];
+			if(p.test(table,row))
+				kept++;
+		}
+		return (kept+0.5)/(samples+1.0);
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,158 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CatalogueRecordFormat.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class describes the layout of a delimited catalogue line, such as Simbad's '|' separated ASCII output:
+ * which column holds which CelestialObject field. The position column is parsed with
+ * CelestialObject.parseSimbadRADec. Fields are trimmed of surrounding white space, and empty fields are left
+ * at their CelestialObject defaults.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see LazyCelestialObject
+ * @see CelestialObject#parseSimbadRADec
+ */
+public class CatalogueRecordFormat implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as formats travel with LazyCelestialObjects.
+	 */
+	static final long serialVersionUID = -2671659425850815866L;
+	/**
+	 * Field number of the name.
+	 */
+	public final static int FIELD_NAME = 0;
+	/**
+	 * Field number of the number.
+	 */
+	public final static int FIELD_NUMBER = 1;
+	/**
+	 * Field number of the position, in the form parsed by CelestialObject.parseSimbadRADec.
+	 */
+	public final static int FIELD_RA_DEC = 2;
+	/**
+	 * Field number of the type.
+	 */
+	public final static int FIELD_TYPE = 3;
+	/**
+	 * Field number of the spectral type.
+	 */
+	public final static int FIELD_SPECTRAL_TYPE = 4;
+	/**
+	 * Field number of the B magnitude.
+	 */
+	public final static int FIELD_B_MAGNITUDE = 5;
+	/**
+	 * Field number of the V magnitude.
+	 */
+	public final static int FIELD_V_MAGNITUDE = 6;
+	/**
+	 * Field number of the R magnitude.
+	 */
+	public final static int FIELD_R_MAGNITUDE = 7;
+	/**
+	 * Field number of the comment.
+	 */
+	public final static int FIELD_COMMENT = 8;
+	/**
+	 * The number of fields.
+	 */
+	public final static int FIELD_COUNT = 9;
+	/**
+	 * The column delimiter.
+	 */
+	protected char delimiter = '|';
+	/**
+	 * The column holding each field, or -1 if the field is not in the line.
+	 */
+	protected int column[] = null;
+	/**
+	 * One more than the highest column used, so line scanning can stop early.
+	 */
+	protected int columnCount = 0;
+
+	/**
+	 * Constructor. No fields are mapped to columns.
+	 * @param d The column delimiter.
+	 */
+	public CatalogueRecordFormat(char d)
+	{
+		super();
+		delimiter = d;
+		column = new int[FIELD_COUNT];
+		Arrays.fill(column,-1);
+	}
+
+	/**
+	 * Set which column a field is in.
+	 * @param field The field, one of the FIELD_ constants.
+	 * @param c The column, counting from zero, or -1 if the field is not in the line.
+	 * @exception IllegalArgumentException Thrown if the field is not known or the column is less than -1.
+	 */
+	public void setColumn(int field,int c) throws IllegalArgumentException
+	{
+		if((field < 0)||(field >= FIELD_COUNT))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setColumn:Illegal field:"+field);
+		}
+		if(c < -1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setColumn:Illegal column:"+c+
+							   ": Must be -1 or more.");
+		}
+		column[field] = c;
+		columnCount = 0;
+		for(int f = 0; f < FIELD_COUNT; f++)
+			columnCount = Math.max(columnCount,column[f]+1);
+	}
+
+	/**
+	 * Return which column a field is in, or -1 if it is not in the line.
+	 */
+	public int getColumn(int field)
+	{
+		return column[field];
+	}
+
+	/**
+	 * Return the number of columns that need to be found in a line.
+	 */
+	public int getColumnCount()
+	{
+		return columnCount;
+	}
+
+	public char getDelimiter()
+	{
+		return delimiter;
+	}
+};
+//
+// $Log$
+//
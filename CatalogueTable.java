@@ -0,0 +1,198 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CatalogueTable.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class holds a catalogue as columns for querying: the positions and magnitudes of CelestialObjectColumns,
+ * plus the number, and the type and spectral type dictionary encoded as ints. A footprint index over the
+ * positions is built the first time a query needs one.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CatalogueQuery
+ */
+public class CatalogueTable extends CelestialObjectColumns
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so a serialized table stays readable as columns are added.
+	 */
+	static final long serialVersionUID = -1916167319933043634L;
+	/**
+	 * The code used for a null type or spectral type.
+	 */
+	public final static int NO_CODE = -1;
+	/**
+	 * The list the table was made from.
+	 */
+	protected List<CelestialObject> objectList = null;
+	/**
+	 * The number of each row.
+	 */
+	protected int number[] = null;
+	/**
+	 * The type of each row, as an index into typeDictionary, or NO_CODE.
+	 */
+	protected int typeCode[] = null;
+	/**
+	 * The distinct types, in order of first appearance.
+	 */
+	protected List<String> typeDictionary = null;
+	/**
+	 * The spectral type of each row, as an index into spectralTypeDictionary, or NO_CODE.
+	 */
+	protected int spectralTypeCode[] = null;
+	/**
+	 * The distinct spectral types, in order of first appearance.
+	 */
+	protected List<String> spectralTypeDictionary = null;
+	/**
+	 * Footprint index over the positions, built on demand.
+	 */
+	protected transient CelestialObjectFootprintIndex footprintIndex = null;
+
+	/**
+	 * Constructor. Fills the columns from a list, in parallel.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 */
+	public CatalogueTable(final List<CelestialObject> list)
+	{
+		super(list.size());
+		final Map<String,Integer> types;
+		final Map<String,Integer> spectralTypes;
+
+		objectList = list;
+		number = new int[size];
+		typeCode = new int[size];
+		spectralTypeCode = new int[size];
+		ParallelChunks.forEach(size,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			CelestialObject co = null;
+
+			for(int i = from; i < to; i++)
+			{
+				co = list.get(i);
+				set(i,co);
+				number[i] = co.getNumber();
+			}
+		});
+		// dictionaries are built in list order, so codes are stable for a given list
+		typeDictionary = new ArrayList<String>();
+		spectralTypeDictionary = new ArrayList<String>();
+		types = new HashMap<String,Integer>();
+		spectralTypes = new HashMap<String,Integer>();
+		for(int i = 0; i < size; i++)
+		{
+			typeCode[i] = encode(list.get(i).getType(),types,typeDictionary);
+			spectralTypeCode[i] = encode(list.get(i).getSpectralType(),spectralTypes,spectralTypeDictionary);
+		}
+	}
+
+	/**
+	 * Return the dictionary code of a string, adding it to the dictionary if it is new.
+	 */
+	private static int encode(String s,Map<String,Integer> codes,List<String> dictionary)
+	{
+		Integer code = null;
+
+		if(s == null)
+			return NO_CODE;
+		code = codes.get(s);
+		if(code == null)
+		{
+			code = dictionary.size();
+			codes.put(s,code);
+			dictionary.add(s);
+		}
+		return code;
+	}
+
+	/**
+	 * Return the object row i was made from.
+	 */
+	public CelestialObject getObject(int i)
+	{
+		return objectList.get(i);
+	}
+
+	/**
+	 * Return the number column. The array is not copied.
+	 */
+	public int[] getNumber()
+	{
+		return number;
+	}
+
+	/**
+	 * Return the type code column. The array is not copied.
+	 * @see #getTypeDictionary
+	 */
+	public int[] getTypeCode()
+	{
+		return typeCode;
+	}
+
+	/**
+	 * Return the distinct types; a type code is an index into this list.
+	 */
+	public List<String> getTypeDictionary()
+	{
+		return Collections.unmodifiableList(typeDictionary);
+	}
+
+	/**
+	 * Return the spectral type code column. The array is not copied.
+	 * @see #getSpectralTypeDictionary
+	 */
+	public int[] getSpectralTypeCode()
+	{
+		return spectralTypeCode;
+	}
+
+	/**
+	 * Return the distinct spectral types; a spectral type code is an index into this list.
+	 */
+	public List<String> getSpectralTypeDictionary()
+	{
+		return Collections.unmodifiableList(spectralTypeDictionary);
+	}
+
+	/**
+	 * Return the footprint index over the positions, building it on first use. Index results are row numbers.
+	 */
+	public synchronized CelestialObjectFootprintIndex getFootprintIndex()
+	{
+		if(footprintIndex == null)
+		{
+			footprintIndex = new CelestialObjectFootprintIndex(raRadians,decRadians,size,
+							   CelestialObjectFootprintIndex.defaultOrder(size));
+		}
+		return footprintIndex;
+	}
+};
+//
+// $Log$
+//
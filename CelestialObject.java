@@ -33,16 +33,53 @@ import java.util.*;
 public class CelestialObject implements Serializable
 {
 	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID. Fixed at the value of the original class, as instances are passed between JVMs, and
+	 * fields added since are read as absent from older streams (see readObject).
+	 */
+	static final long serialVersionUID = 8253047525018719332L;
+	/**
+	 * The value of a magnitude that is not known. This is NaN, so it can never be mistaken for a real
+	 * magnitude (0.0 is a real magnitude), and any arithmetic on it, such as a colour index, is also NaN.
+	 * Test for it with Double.isNaN or the hasXMagnitude methods, not with ==.
+	 */
+	public final static double MAGNITUDE_ABSENT = Double.NaN;
+	/**
+	 * The value of an astrometric quantity (proper motion, parallax, radial velocity or epoch) that is not
+	 * known. Like MAGNITUDE_ABSENT this is NaN; test for it with the hasX methods.
+	 */
+	public final static double ASTROMETRY_ABSENT = Double.NaN;
 	public String name = null;
 	public int number = 0;
 	public RA ra = null;
 	public Dec dec = null;
 	public String type = null;
 	public String spectralType = null;
-	public double bMagnitude = 0.0;
-	public double vMagnitude = 0.0;
-	public double rMagnitude = 0.0;
+	public double bMagnitude = MAGNITUDE_ABSENT;
+	public double vMagnitude = MAGNITUDE_ABSENT;
+	public double rMagnitude = MAGNITUDE_ABSENT;
         public String comment = null;
+	/**
+	 * The proper motion in right ascension, multiplied by the cosine of the declination, in milli-arcseconds
+	 * per year.
+	 */
+	public double pmRA = ASTROMETRY_ABSENT;
+	/**
+	 * The proper motion in declination, in milli-arcseconds per year.
+	 */
+	public double pmDec = ASTROMETRY_ABSENT;
+	/**
+	 * The parallax, in milli-arcseconds.
+	 */
+	public double parallax = ASTROMETRY_ABSENT;
+	/**
+	 * The radial velocity, in km/s, positive receding.
+	 */
+	public double radialVelocity = ASTROMETRY_ABSENT;
+	/**
+	 * The epoch of the position, as a Julian year (e.g. 2016.0).
+	 */
+	public double epoch = ASTROMETRY_ABSENT;
 	private final static int TOKEN_INDEX_RAH = 0;
 	private final static int TOKEN_INDEX_RAM = 1;
 	private final static int TOKEN_INDEX_RAS = 2;
@@ -145,6 +182,51 @@ public class CelestialObject implements Serializable
 		return rMagnitude;
 	}
 
+	/**
+	 * Return whether the B magnitude is known.
+	 * @see #MAGNITUDE_ABSENT
+	 */
+	public boolean hasBMagnitude()
+	{
+		return !Double.isNaN(getBMagnitude());
+	}
+
+	/**
+	 * Return whether the V magnitude is known.
+	 * @see #MAGNITUDE_ABSENT
+	 */
+	public boolean hasVMagnitude()
+	{
+		return !Double.isNaN(getVMagnitude());
+	}
+
+	/**
+	 * Return whether the R magnitude is known.
+	 * @see #MAGNITUDE_ABSENT
+	 */
+	public boolean hasRMagnitude()
+	{
+		return !Double.isNaN(getRMagnitude());
+	}
+
+	/**
+	 * Return the B-V colour index.
+	 * @return B-V, or MAGNITUDE_ABSENT if either magnitude is not known.
+	 */
+	public double getBMinusV()
+	{
+		return getBMagnitude()-getVMagnitude();
+	}
+
+	/**
+	 * Return the V-R colour index.
+	 * @return V-R, or MAGNITUDE_ABSENT if either magnitude is not known.
+	 */
+	public double getVMinusR()
+	{
+		return getVMagnitude()-getRMagnitude();
+	}
+
 	public void setComment(String s)
 	{
 		comment = s;
@@ -155,6 +237,123 @@ public class CelestialObject implements Serializable
 		return comment;
 	}
 
+	/**
+	 * Set the proper motion.
+	 * @param ra The proper motion in right ascension, multiplied by the cosine of the declination, in
+	 *        milli-arcseconds per year.
+	 * @param dec The proper motion in declination, in milli-arcseconds per year.
+	 */
+	public void setProperMotion(double ra,double dec)
+	{
+		pmRA = ra;
+		pmDec = dec;
+	}
+
+	/**
+	 * Return the proper motion in right ascension, multiplied by the cosine of the declination.
+	 * @return The proper motion in milli-arcseconds per year, or ASTROMETRY_ABSENT.
+	 */
+	public double getPMRA()
+	{
+		return pmRA;
+	}
+
+	/**
+	 * Return the proper motion in declination.
+	 * @return The proper motion in milli-arcseconds per year, or ASTROMETRY_ABSENT.
+	 */
+	public double getPMDec()
+	{
+		return pmDec;
+	}
+
+	/**
+	 * Return whether the proper motion is known.
+	 */
+	public boolean hasProperMotion()
+	{
+		return !(Double.isNaN(getPMRA())||Double.isNaN(getPMDec()));
+	}
+
+	/**
+	 * Set the parallax.
+	 * @param p The parallax, in milli-arcseconds.
+	 */
+	public void setParallax(double p)
+	{
+		parallax = p;
+	}
+
+	/**
+	 * Return the parallax.
+	 * @return The parallax in milli-arcseconds, or ASTROMETRY_ABSENT.
+	 */
+	public double getParallax()
+	{
+		return parallax;
+	}
+
+	/**
+	 * Return whether the parallax is known.
+	 */
+	public boolean hasParallax()
+	{
+		return !Double.isNaN(getParallax());
+	}
+
+	/**
+	 * Set the radial velocity.
+	 * @param v The radial velocity, in km/s, positive receding.
+	 */
+	public void setRadialVelocity(double v)
+	{
+		radialVelocity = v;
+	}
+
+	/**
+	 * Return the radial velocity.
+	 * @return The radial velocity in km/s, or ASTROMETRY_ABSENT.
+	 */
+	public double getRadialVelocity()
+	{
+		return radialVelocity;
+	}
+
+	/**
+	 * Return whether the radial velocity is known.
+	 */
+	public boolean hasRadialVelocity()
+	{
+		return !Double.isNaN(getRadialVelocity());
+	}
+
+	/**
+	 * Set the epoch of the position.
+	 * @param e The epoch, as a Julian year.
+	 */
+	public void setEpoch(double e)
+	{
+		epoch = e;
+	}
+
+	/**
+	 * Return the epoch of the position.
+	 * @return The epoch as a Julian year, or ASTROMETRY_ABSENT.
+	 * @see EpochPropagator#DEFAULT_EPOCH
+	 */
+	public double getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * Return whether the epoch of the position is known.
+	 */
+	public boolean hasEpoch()
+	{
+		return !Double.isNaN(getEpoch());
+	}
+
 	/**
 	 * Routine to parse the RA and Dec returned from Simbad.
 	 * This copes with strings of the form: "01 10 12.98  +60 04 35.9"
@@ -170,6 +369,26 @@ public class CelestialObject implements Serializable
 	 * @see #TOKEN_INDEX_DECS
 	 */
 	public void parseSimbadRADec(String s)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		try
+		{
+			parseSimbadRADecImpl(s);
+		}
+		catch(RuntimeException e)
+		{
+			AstrometryMetrics.reject(AstrometryMetrics.OBJECT_PARSE);
+			throw e;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.OBJECT_PARSE,startTime);
+	}
+
+	/**
+	 * The body of parseSimbadRADec, timed by it.
+	 */
+	private void parseSimbadRADecImpl(String s)
 	{
 		StringTokenizer st = null;
 		String valueString = null;
@@ -255,10 +474,66 @@ public class CelestialObject implements Serializable
 		}// end for
 	}
 
+	/**
+	 * Normalise an object name for use as a lookup key: trimmed, lower case, and runs of white space replaced by
+	 * one space, so "M  31" and "m 31" are the same key.
+	 * @param s The name.
+	 * @return The normalised name.
+	 */
+	public static String normaliseName(String s)
+	{
+		StringBuilder sb = null;
+		boolean space;
+		char c;
+
+		sb = new StringBuilder(s.length());
+		space = false;
+		for(int i = 0; i < s.length(); i++)
+		{
+			c = s.charAt(i);
+			if(Character.isWhitespace(c))
+				space = (sb.length() > 0);
+			else
+			{
+				if(space)
+					sb.append(' ');
+				sb.append(Character.toLowerCase(c));
+				space = false;
+			}
+		}
+		return sb.toString();
+	}
+
 	public String toString()
 	{
 		return new String(name+" ("+number+") "+ra+" "+dec+" B:"+bMagnitude+" V:"+vMagnitude+" R:"+rMagnitude);
 	}
+
+	/**
+	 * Read the fields one by one, so a stream from an older version of this class (without the astrometric
+	 * fields) leaves them absent rather than 0.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = null;
+
+		fields = in.readFields();
+		name = (String)fields.get("name",null);
+		number = fields.get("number",0);
+		ra = (RA)fields.get("ra",null);
+		dec = (Dec)fields.get("dec",null);
+		type = (String)fields.get("type",null);
+		spectralType = (String)fields.get("spectralType",null);
+		bMagnitude = fields.get("bMagnitude",MAGNITUDE_ABSENT);
+		vMagnitude = fields.get("vMagnitude",MAGNITUDE_ABSENT);
+		rMagnitude = fields.get("rMagnitude",MAGNITUDE_ABSENT);
+		comment = (String)fields.get("comment",null);
+		pmRA = fields.get("pmRA",ASTROMETRY_ABSENT);
+		pmDec = fields.get("pmDec",ASTROMETRY_ABSENT);
+		parallax = fields.get("parallax",ASTROMETRY_ABSENT);
+		radialVelocity = fields.get("radialVelocity",ASTROMETRY_ABSENT);
+		epoch = fields.get("epoch",ASTROMETRY_ABSENT);
+	}
 };
 //
 // $Log: not supported by cvs2svn $
@@ -0,0 +1,365 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CelestialObjectColumns.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class holds a catalogue of celestial objects in columnar form: one primitive array per field, rather than
+ * one CelestialObject per row. Positions are held in radians. This is the form bulk operations over large
+ * catalogues work on.
+ * <p>
+ * The astrometric columns (proper motion, parallax, radial velocity and epoch) are optional: they are null
+ * until allocateAstrometry is called, and catalogues without them cost nothing extra.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObject
+ */
+public class CelestialObjectColumns implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so a saved set of columns can be read by later builds.
+	 */
+	static final long serialVersionUID = 7284772455116442373L;
+	/**
+	 * The number of rows.
+	 */
+	protected int size = 0;
+	/**
+	 * The right ascension of each row, in radians.
+	 */
+	protected double raRadians[] = null;
+	/**
+	 * The declination of each row, in radians.
+	 */
+	protected double decRadians[] = null;
+	/**
+	 * The B magnitude of each row.
+	 */
+	protected double bMagnitude[] = null;
+	/**
+	 * The V magnitude of each row.
+	 */
+	protected double vMagnitude[] = null;
+	/**
+	 * The R magnitude of each row.
+	 */
+	protected double rMagnitude[] = null;
+	/**
+	 * The proper motion in right ascension (times cos(dec)) of each row, in milli-arcseconds per year, or null.
+	 */
+	protected double pmRA[] = null;
+	/**
+	 * The proper motion in declination of each row, in milli-arcseconds per year, or null.
+	 */
+	protected double pmDec[] = null;
+	/**
+	 * The parallax of each row, in milli-arcseconds, or null.
+	 */
+	protected double parallax[] = null;
+	/**
+	 * The radial velocity of each row, in km/s, or null.
+	 */
+	protected double radialVelocity[] = null;
+	/**
+	 * The epoch of each row's position, as a Julian year, or null.
+	 */
+	protected double epoch[] = null;
+	/**
+	 * The B-V colour index of each row, computed on demand.
+	 */
+	protected transient double bMinusV[] = null;
+	/**
+	 * The V-R colour index of each row, computed on demand.
+	 */
+	protected transient double vMinusR[] = null;
+
+	/**
+	 * Constructor. Allocates the columns, with all magnitudes absent.
+	 * @param n The number of rows.
+	 * @see CelestialObject#MAGNITUDE_ABSENT
+	 */
+	public CelestialObjectColumns(int n)
+	{
+		this(new double[n],new double[n],n);
+	}
+
+	/**
+	 * Constructor. Wraps existing position arrays (which are not copied), with all magnitudes absent.
+	 * @param ra The right ascension of each row, in radians.
+	 * @param dec The declination of each row, in radians.
+	 * @param n The number of rows.
+	 * @see CelestialObject#MAGNITUDE_ABSENT
+	 */
+	public CelestialObjectColumns(double ra[],double dec[],int n)
+	{
+		super();
+		size = n;
+		raRadians = ra;
+		decRadians = dec;
+		bMagnitude = new double[n];
+		vMagnitude = new double[n];
+		rMagnitude = new double[n];
+		Arrays.fill(bMagnitude,CelestialObject.MAGNITUDE_ABSENT);
+		Arrays.fill(vMagnitude,CelestialObject.MAGNITUDE_ABSENT);
+		Arrays.fill(rMagnitude,CelestialObject.MAGNITUDE_ABSENT);
+	}
+
+	/**
+	 * Create columns from a list of CelestialObjects, in parallel. The astrometric columns are allocated if
+	 * any object has a proper motion, parallax, radial velocity or epoch.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 * @return A new set of columns, row i holding list element i.
+	 */
+	public static CelestialObjectColumns fromList(final List<CelestialObject> list)
+	{
+		final CelestialObjectColumns columns;
+		CelestialObject co = null;
+
+		columns = new CelestialObjectColumns(list.size());
+		for(int i = 0; i < list.size(); i++)
+		{
+			co = list.get(i);
+			if(co.hasProperMotion()||co.hasParallax()||co.hasRadialVelocity()||co.hasEpoch())
+			{
+				columns.allocateAstrometry();
+				break;
+			}
+		}
+		ParallelChunks.forEach(list.size(),ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				columns.set(i,list.get(i));
+		});
+		return columns;
+	}
+
+	/**
+	 * Set row i from an object. The object's astrometric fields are copied only if the astrometric columns
+	 * have been allocated.
+	 * @param i The row.
+	 * @param co The object, which must have an RA and Dec.
+	 * @see #allocateAstrometry
+	 */
+	public void set(int i,CelestialObject co)
+	{
+		raRadians[i] = co.getRA().toRadians();
+		decRadians[i] = co.getDec().toRadians();
+		bMagnitude[i] = co.getBMagnitude();
+		vMagnitude[i] = co.getVMagnitude();
+		rMagnitude[i] = co.getRMagnitude();
+		if(pmRA != null)
+		{
+			pmRA[i] = co.getPMRA();
+			pmDec[i] = co.getPMDec();
+			parallax[i] = co.getParallax();
+			radialVelocity[i] = co.getRadialVelocity();
+			epoch[i] = co.getEpoch();
+		}
+		bMinusV = null;
+		vMinusR = null;
+	}
+
+	/**
+	 * Allocate the astrometric columns, with every value absent, if they are not already allocated.
+	 * @see CelestialObject#ASTROMETRY_ABSENT
+	 */
+	public synchronized void allocateAstrometry()
+	{
+		if(pmRA != null)
+			return;
+		pmRA = absentColumn();
+		pmDec = absentColumn();
+		parallax = absentColumn();
+		radialVelocity = absentColumn();
+		epoch = absentColumn();
+	}
+
+	/**
+	 * Return whether the astrometric columns are allocated.
+	 */
+	public boolean hasAstrometry()
+	{
+		return (pmRA != null);
+	}
+
+	/**
+	 * Return the number of rows.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Return the right ascension column, in radians. The array is not copied.
+	 */
+	public double[] getRARadians()
+	{
+		return raRadians;
+	}
+
+	/**
+	 * Return the declination column, in radians. The array is not copied.
+	 */
+	public double[] getDecRadians()
+	{
+		return decRadians;
+	}
+
+	/**
+	 * Return the B magnitude column. The array is not copied.
+	 */
+	public double[] getBMagnitude()
+	{
+		return bMagnitude;
+	}
+
+	/**
+	 * Return the V magnitude column. The array is not copied.
+	 */
+	public double[] getVMagnitude()
+	{
+		return vMagnitude;
+	}
+
+	/**
+	 * Return the R magnitude column. The array is not copied.
+	 */
+	public double[] getRMagnitude()
+	{
+		return rMagnitude;
+	}
+
+	/**
+	 * Return the proper motion in right ascension (times cos(dec)) column, in milli-arcseconds per year, or
+	 * null if the astrometric columns are not allocated. The array is not copied.
+	 */
+	public double[] getPMRA()
+	{
+		return pmRA;
+	}
+
+	/**
+	 * Return the proper motion in declination column, in milli-arcseconds per year, or null if the
+	 * astrometric columns are not allocated. The array is not copied.
+	 */
+	public double[] getPMDec()
+	{
+		return pmDec;
+	}
+
+	/**
+	 * Return the parallax column, in milli-arcseconds, or null if the astrometric columns are not
+	 * allocated. The array is not copied.
+	 */
+	public double[] getParallax()
+	{
+		return parallax;
+	}
+
+	/**
+	 * Return the radial velocity column, in km/s, or null if the astrometric columns are not allocated.
+	 * The array is not copied.
+	 */
+	public double[] getRadialVelocity()
+	{
+		return radialVelocity;
+	}
+
+	/**
+	 * Return the epoch column, as Julian years, or null if the astrometric columns are not allocated.
+	 * The array is not copied.
+	 */
+	public double[] getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * Return the B-V colour index column, computing it (in parallel) on first use. Rows missing either
+	 * magnitude have CelestialObject.MAGNITUDE_ABSENT. Rows changed through set are picked up; call
+	 * clearColours after changing the magnitude arrays directly.
+	 */
+	public synchronized double[] getBMinusV()
+	{
+		if(bMinusV == null)
+			bMinusV = difference(bMagnitude,vMagnitude);
+		return bMinusV;
+	}
+
+	/**
+	 * Return the V-R colour index column, computing it (in parallel) on first use.
+	 * @see #getBMinusV
+	 */
+	public synchronized double[] getVMinusR()
+	{
+		if(vMinusR == null)
+			vMinusR = difference(vMagnitude,rMagnitude);
+		return vMinusR;
+	}
+
+	/**
+	 * Discard the colour index columns, so they are recomputed on next use.
+	 */
+	public synchronized void clearColours()
+	{
+		bMinusV = null;
+		vMinusR = null;
+	}
+
+	/**
+	 * Return a new column with every row absent.
+	 */
+	private double[] absentColumn()
+	{
+		double c[] = null;
+
+		c = new double[size];
+		Arrays.fill(c,CelestialObject.ASTROMETRY_ABSENT);
+		return c;
+	}
+
+	/**
+	 * Return a new column holding a-b for each row.
+	 */
+	private double[] difference(final double a[],final double b[])
+	{
+		final double d[];
+
+		d = new double[size];
+		ParallelChunks.forEach(size,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				d[i] = a[i]-b[i];
+		});
+		return d;
+	}
+};
+//
+// $Log$
+//
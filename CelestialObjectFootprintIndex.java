@@ -0,0 +1,374 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CelestialObjectFootprintIndex.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * This class answers "which catalogue objects fall inside this footprint" queries. The catalogue is sorted by
+ * HEALPix (NESTED) pixel at a fixed index order. A query first covers the footprint with HEALPix cells, which
+ * prunes the catalogue to a few contiguous pixel ranges; objects in cells entirely inside the footprint are
+ * returned without further tests, and only objects in cells straddling the footprint edge get the exact
+ * containment test.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SphericalPolygon
+ * @see HEALPix#coverage
+ */
+public class CelestialObjectFootprintIndex
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The finest index order allowed. Pixel numbers at this order fit in 31 bits.
+	 */
+	public final static int MAX_INDEX_ORDER = 13;
+	/**
+	 * The average number of objects per pixel the default index order aims for.
+	 */
+	public final static int DEFAULT_OBJECTS_PER_PIXEL = 16;
+	/**
+	 * The list of objects the index was built from, or null if built from coordinate arrays.
+	 */
+	protected List<CelestialObject> objectList = null;
+	/**
+	 * The HEALPix order of the index.
+	 */
+	protected int order = 0;
+	/**
+	 * The number of objects in the index.
+	 */
+	protected int size = 0;
+	/**
+	 * The pixel of each object, in ascending order.
+	 */
+	protected long pixel[] = null;
+	/**
+	 * The catalogue index of each object, in pixel order.
+	 */
+	protected int index[] = null;
+	/**
+	 * X components of the unit vectors, in pixel order.
+	 */
+	protected double x[] = null;
+	/**
+	 * Y components of the unit vectors, in pixel order.
+	 */
+	protected double y[] = null;
+	/**
+	 * Z components of the unit vectors, in pixel order.
+	 */
+	protected double z[] = null;
+
+	/**
+	 * Constructor. Uses the default index order for the size of the catalogue.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 * @see #defaultOrder
+	 */
+	public CelestialObjectFootprintIndex(List<CelestialObject> list)
+	{
+		this(list,defaultOrder(list.size()));
+	}
+
+	/**
+	 * Constructor.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 * @param o The HEALPix order of the index, 0..MAX_INDEX_ORDER.
+	 */
+	public CelestialObjectFootprintIndex(List<CelestialObject> list,int o)
+	{
+		super();
+		double raRadians[],decRadians[];
+		CelestialObject co = null;
+
+		objectList = list;
+		raRadians = new double[list.size()];
+		decRadians = new double[list.size()];
+		for(int i = 0; i < list.size(); i++)
+		{
+			co = list.get(i);
+			raRadians[i] = co.getRA().toRadians();
+			decRadians[i] = co.getDec().toRadians();
+		}
+		build(raRadians,decRadians,raRadians.length,o);
+	}
+
+	/**
+	 * Constructor. Builds the index from coordinate arrays. Query results index into these arrays.
+	 * @param raRadians The right ascensions, in radians.
+	 * @param decRadians The declinations, in radians.
+	 * @param count The number of elements of the arrays to use.
+	 * @param o The HEALPix order of the index, 0..MAX_INDEX_ORDER.
+	 */
+	public CelestialObjectFootprintIndex(double raRadians[],double decRadians[],int count,int o)
+	{
+		super();
+		build(raRadians,decRadians,count,o);
+	}
+
+	/**
+	 * Constructor used by loadSnapshot, which fills in the index from a snapshot instead of building it.
+	 */
+	protected CelestialObjectFootprintIndex()
+	{
+		super();
+	}
+
+	/**
+	 * Load an index from a snapshot written by saveSnapshot, instead of building it.
+	 * @param file The snapshot file.
+	 * @param fingerprint The fingerprint of the catalogue the index is for.
+	 * @param list The catalogue, for getObject and query, or null if the index is over coordinate arrays.
+	 * @return The index.
+	 * @exception IOException Thrown if the snapshot cannot be read, is damaged, or was built from a different
+	 *            catalogue.
+	 * @see SpatialIndexSnapshot#fingerprint
+	 */
+	public static CelestialObjectFootprintIndex loadSnapshot(File file,long fingerprint,List<CelestialObject> list)
+		throws IOException
+	{
+		CelestialObjectFootprintIndex fi = null;
+		SpatialIndexSnapshot snapshot = null;
+
+		snapshot = SpatialIndexSnapshot.open(file,SpatialIndexSnapshot.KIND_FOOTPRINT_INDEX,fingerprint);
+		fi = new CelestialObjectFootprintIndex();
+		fi.objectList = list;
+		fi.order = (int)snapshot.getParameter(0);
+		fi.size = (int)snapshot.getParameter(1);
+		if((fi.order < 0)||(fi.order > MAX_INDEX_ORDER)||(snapshot.getSectionCount() != 5))
+			throw new IOException("CelestialObjectFootprintIndex:loadSnapshot:"+file+":Illegal snapshot.");
+		if((list != null)&&(list.size() != fi.size))
+		{
+			throw new IOException("CelestialObjectFootprintIndex:loadSnapshot:"+file+":Snapshot has "+fi.size+
+					      " objects, the list has "+list.size()+".");
+		}
+		fi.pixel = snapshot.getLongs(0);
+		fi.index = snapshot.getInts(1);
+		fi.x = snapshot.getDoubles(2);
+		fi.y = snapshot.getDoubles(3);
+		fi.z = snapshot.getDoubles(4);
+		for(int s = 0; s < 5; s++)
+		{
+			if(snapshot.getSectionLength(s) != fi.size)
+				throw new IOException("CelestialObjectFootprintIndex:loadSnapshot:"+file+":Illegal snapshot.");
+		}
+		return fi;
+	}
+
+	/**
+	 * Save the index to a snapshot file, so a later process can load it with loadSnapshot.
+	 * @param file The file to write.
+	 * @param fingerprint The fingerprint of the catalogue the index was built from.
+	 * @exception IOException Thrown if the file cannot be written.
+	 * @see SpatialIndexSnapshot#fingerprint
+	 */
+	public void saveSnapshot(File file,long fingerprint) throws IOException
+	{
+		SpatialIndexSnapshot.write(file,SpatialIndexSnapshot.KIND_FOOTPRINT_INDEX,fingerprint,
+					   new long[] {order,size},new Object[] {pixel,index,x,y,z},
+					   new long[] {size,size,size,size,size});
+	}
+
+	/**
+	 * Return the default index order for a catalogue size, aiming for DEFAULT_OBJECTS_PER_PIXEL objects
+	 * per pixel on average.
+	 * @param count The number of objects.
+	 * @return An order between 0 and MAX_INDEX_ORDER.
+	 * @see #DEFAULT_OBJECTS_PER_PIXEL
+	 */
+	public static int defaultOrder(int count)
+	{
+		int o;
+
+		o = 0;
+		while((o < MAX_INDEX_ORDER)&&((HEALPix.pixelCount(o+1)*DEFAULT_OBJECTS_PER_PIXEL) <= count))
+			o++;
+		return o;
+	}
+
+	/**
+	 * Build the index: compute each object's pixel in parallel, then sort by pixel.
+	 * @exception IllegalArgumentException Thrown if the order is out of range.
+	 */
+	protected void build(final double raRadians[],final double decRadians[],int count,int o)
+		throws IllegalArgumentException
+	{
+		final long keys[];
+		final double v[][];
+
+		if((o < 0)||(o > MAX_INDEX_ORDER))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":build:Illegal order:"+o+
+							   ": Must be between 0 and "+MAX_INDEX_ORDER+".");
+		}
+		order = o;
+		size = count;
+		keys = new long[count];
+		v = new double[3][count];
+		// key = pixel in the high 32 bits, catalogue index in the low 32 bits
+		ParallelChunks.forEach(count,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			double cosDec;
+
+			for(int i = from; i < to; i++)
+			{
+				cosDec = Math.cos(decRadians[i]);
+				v[0][i] = cosDec*Math.cos(raRadians[i]);
+				v[1][i] = cosDec*Math.sin(raRadians[i]);
+				v[2][i] = Math.sin(decRadians[i]);
+				keys[i] = (HEALPix.vecToPixel(order,v[0][i],v[1][i],v[2][i]) << 32)|i;
+			}
+		});
+		Arrays.parallelSort(keys);
+		pixel = new long[count];
+		index = new int[count];
+		x = new double[count];
+		y = new double[count];
+		z = new double[count];
+		ParallelChunks.forEach(count,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			int j;
+
+			for(int i = from; i < to; i++)
+			{
+				j = (int)(keys[i] & 0xffffffffL);
+				pixel[i] = keys[i] >>> 32;
+				index[i] = j;
+				x[i] = v[0][j];
+				y[i] = v[1][j];
+				z[i] = v[2][j];
+			}
+		});
+	}
+
+	/**
+	 * Return the HEALPix order of the index.
+	 */
+	public int getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Return the number of objects in the index.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Return the object at a catalogue index.
+	 * @param i The catalogue index, as returned by queryIndices.
+	 * @return The object, or null if the index was built from coordinate arrays.
+	 */
+	public CelestialObject getObject(int i)
+	{
+		if(objectList == null)
+			return null;
+		return objectList.get(i);
+	}
+
+	/**
+	 * Find the objects inside a footprint.
+	 * @param region The footprint, usually a SphericalPolygon.
+	 * @return A list of the objects inside the footprint, in pixel order.
+	 * @see #queryIndices
+	 */
+	public List<CelestialObject> query(SkyRegion region)
+	{
+		List<CelestialObject> list = null;
+		IntArrayList indices = null;
+
+		indices = new IntArrayList();
+		queryIndices(region,indices);
+		list = new ArrayList<CelestialObject>(indices.size());
+		for(int i = 0; i < indices.size(); i++)
+			list.add(getObject(indices.get(i)));
+		return list;
+	}
+
+	/**
+	 * Find the catalogue indices of the objects inside a footprint.
+	 * @param region The footprint.
+	 * @param result A list to add the catalogue indices of objects inside the footprint to.
+	 */
+	public void queryIndices(final SkyRegion region,final IntArrayList result)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		HEALPix.coverage(region,order,(cellOrder,cellPixel,inside) ->
+		{
+			int shift,i;
+			long lo,hi;
+
+			shift = 2*(order-cellOrder);
+			lo = cellPixel << shift;
+			hi = (cellPixel+1) << shift;
+			for(i = lowerBound(lo); (i < size)&&(pixel[i] < hi); i++)
+			{
+				if(inside||region.contains(x[i],y[i],z[i]))
+					result.add(index[i]);
+			}
+		});
+		AstrometryMetrics.stop(AstrometryMetrics.FOOTPRINT_SEARCH,startTime);
+	}
+
+	/**
+	 * Find the objects inside many footprints, answering the footprints in parallel.
+	 * @param regions The list of footprints.
+	 * @return A list, in the same order as regions, of the lists of objects inside each footprint.
+	 * @see #query
+	 */
+	public List<List<CelestialObject>> queryBatch(List<? extends SkyRegion> regions)
+	{
+		return regions.parallelStream().map(r -> query(r)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Return the index of the first object whose pixel is greater or equal to a value.
+	 */
+	protected int lowerBound(long p)
+	{
+		int lo,hi,mid;
+
+		lo = 0;
+		hi = size;
+		while(lo < hi)
+		{
+			mid = (lo+hi) >>> 1;
+			if(pixel[mid] < p)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,655 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CelestialObjectKDTree.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A k-d tree over the unit vectors of a list of CelestialObjects, used to find the K nearest
+ * catalogue objects to a position. The tree is stored in an implicit array layout: the node
+ * for the index range [lo,hi) is the median element (lo+hi)/2, its left subtree is [lo,mid) and its
+ * right subtree is [mid+1,hi). No node objects are allocated, and searches do not allocate.
+ * Distances are computed as chord lengths between unit vectors (which are monotonic in angle), and
+ * only converted to arc-seconds when results are returned.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SphericalGeometry
+ */
+public class CelestialObjectKDTree
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Ranges larger than this are built in parallel.
+	 */
+	private final static int PARALLEL_BUILD_THRESHOLD = 32768;
+	/**
+	 * The number of queries in one batch chunk.
+	 */
+	private final static int BATCH_CHUNK = 256;
+	/**
+	 * The list of objects the tree was built from, or null if built from coordinate arrays.
+	 */
+	protected List<CelestialObject> objectList = null;
+	/**
+	 * The number of points in the tree.
+	 */
+	protected int size = 0;
+	/**
+	 * X components of the unit vectors, in tree order.
+	 */
+	protected double x[] = null;
+	/**
+	 * Y components of the unit vectors, in tree order.
+	 */
+	protected double y[] = null;
+	/**
+	 * Z components of the unit vectors, in tree order.
+	 */
+	protected double z[] = null;
+	/**
+	 * The catalogue index of the point at each tree position.
+	 */
+	protected int index[] = null;
+	/**
+	 * The splitting dimension (0,1 or 2) of the node at each tree position.
+	 */
+	protected byte splitDimension[] = null;
+
+	/**
+	 * Constructor. Builds the tree from a list of CelestialObjects, all of which must have an RA and Dec.
+	 * @param list The list of CelestialObjects.
+	 * @see #build
+	 */
+	public CelestialObjectKDTree(List<CelestialObject> list)
+	{
+		super();
+		double raRadians[],decRadians[];
+		CelestialObject co = null;
+
+		objectList = list;
+		raRadians = new double[list.size()];
+		decRadians = new double[list.size()];
+		for(int i = 0; i < list.size(); i++)
+		{
+			co = list.get(i);
+			raRadians[i] = co.getRA().toRadians();
+			decRadians[i] = co.getDec().toRadians();
+		}
+		build(raRadians,decRadians,raRadians.length);
+	}
+
+	/**
+	 * Constructor. Builds the tree from coordinate arrays. Search results index into these arrays.
+	 * @param raRadians The right ascensions, in radians.
+	 * @param decRadians The declinations, in radians.
+	 * @param count The number of elements of the arrays to use.
+	 * @see #build
+	 */
+	public CelestialObjectKDTree(double raRadians[],double decRadians[],int count)
+	{
+		super();
+		build(raRadians,decRadians,count);
+	}
+
+	/**
+	 * Constructor used by loadSnapshot, which fills in the tree from a snapshot instead of building it.
+	 */
+	protected CelestialObjectKDTree()
+	{
+		super();
+	}
+
+	/**
+	 * Load a tree from a snapshot written by saveSnapshot, instead of building it.
+	 * @param file The snapshot file.
+	 * @param fingerprint The fingerprint of the catalogue the tree is for.
+	 * @param list The catalogue, for getObject and nearest, or null if the tree is over coordinate arrays.
+	 * @return The tree.
+	 * @exception IOException Thrown if the snapshot cannot be read, is damaged, or was built from a different
+	 *            catalogue.
+	 * @see SpatialIndexSnapshot#fingerprint
+	 */
+	public static CelestialObjectKDTree loadSnapshot(File file,long fingerprint,List<CelestialObject> list)
+		throws IOException
+	{
+		CelestialObjectKDTree tree = null;
+		SpatialIndexSnapshot snapshot = null;
+
+		snapshot = SpatialIndexSnapshot.open(file,SpatialIndexSnapshot.KIND_KD_TREE,fingerprint);
+		tree = new CelestialObjectKDTree();
+		tree.objectList = list;
+		tree.size = (int)snapshot.getParameter(0);
+		if((tree.size < 0)||(snapshot.getSectionCount() != 5))
+			throw new IOException("CelestialObjectKDTree:loadSnapshot:"+file+":Illegal snapshot.");
+		if((list != null)&&(list.size() != tree.size))
+		{
+			throw new IOException("CelestialObjectKDTree:loadSnapshot:"+file+":Snapshot has "+tree.size+
+					      " objects, the list has "+list.size()+".");
+		}
+		tree.x = snapshot.getDoubles(0);
+		tree.y = snapshot.getDoubles(1);
+		tree.z = snapshot.getDoubles(2);
+		tree.index = snapshot.getInts(3);
+		tree.splitDimension = snapshot.getBytes(4);
+		for(int s = 0; s < 5; s++)
+		{
+			if(snapshot.getSectionLength(s) != tree.size)
+				throw new IOException("CelestialObjectKDTree:loadSnapshot:"+file+":Illegal snapshot.");
+		}
+		return tree;
+	}
+
+	/**
+	 * Save the tree to a snapshot file, so a later process can load it with loadSnapshot.
+	 * @param file The file to write.
+	 * @param fingerprint The fingerprint of the catalogue the tree was built from.
+	 * @exception IOException Thrown if the file cannot be written.
+	 * @see SpatialIndexSnapshot#fingerprint
+	 */
+	public void saveSnapshot(File file,long fingerprint) throws IOException
+	{
+		SpatialIndexSnapshot.write(file,SpatialIndexSnapshot.KIND_KD_TREE,fingerprint,new long[] {size},
+					   new Object[] {x,y,z,index,splitDimension},new long[] {size,size,size,size,size});
+	}
+
+	/**
+	 * Build the tree.
+	 * @param raRadians The right ascensions, in radians.
+	 * @param decRadians The declinations, in radians.
+	 * @param count The number of points.
+	 */
+	protected void build(double raRadians[],double decRadians[],int count)
+	{
+		final double v[][];
+		final int perm[];
+
+		size = count;
+		v = new double[3][count];
+		perm = new int[count];
+		ParallelChunks.forEach(count,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			double cosDec;
+
+			for(int i = from; i < to; i++)
+			{
+				cosDec = Math.cos(decRadians[i]);
+				v[0][i] = cosDec*Math.cos(raRadians[i]);
+				v[1][i] = cosDec*Math.sin(raRadians[i]);
+				v[2][i] = Math.sin(decRadians[i]);
+				perm[i] = i;
+			}
+		});
+		splitDimension = new byte[count];
+		ForkJoinPool.commonPool().invoke(new BuildTask(v,perm,0,count));
+		x = new double[count];
+		y = new double[count];
+		z = new double[count];
+		index = perm;
+		for(int i = 0; i < count; i++)
+		{
+			x[i] = v[0][perm[i]];
+			y[i] = v[1][perm[i]];
+			z[i] = v[2][perm[i]];
+		}
+	}
+
+	/**
+	 * Return the number of points in the tree.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Return the object at a catalogue index.
+	 * @param i The catalogue index, as returned by a search.
+	 * @return The object, or null if the tree was built from coordinate arrays.
+	 */
+	public CelestialObject getObject(int i)
+	{
+		if(objectList == null)
+			return null;
+		return objectList.get(i);
+	}
+
+	/**
+	 * Find the K nearest objects to a position.
+	 * @param ra The right ascension to search around.
+	 * @param dec The declination to search around.
+	 * @param k The number of neighbours to find.
+	 * @return An array of up to k neighbours, nearest first.
+	 * @see #nearest(double,double,int,int[],double[],int)
+	 */
+	public CelestialObjectNeighbour[] nearest(RA ra,Dec dec,int k)
+	{
+		CelestialObjectNeighbour neighbours[] = null;
+		int indices[];
+		double distances[];
+		int found;
+
+		indices = new int[k];
+		distances = new double[k];
+		found = nearest(ra.toRadians(),dec.toRadians(),k,indices,distances,0);
+		neighbours = new CelestialObjectNeighbour[found];
+		for(int i = 0; i < found; i++)
+			neighbours[i] = new CelestialObjectNeighbour(getObject(indices[i]),indices[i],distances[i]);
+		return neighbours;
+	}
+
+	/**
+	 * Find the K nearest objects to a position, without allocating. On return the k slots starting at offset
+	 * hold the neighbours in increasing distance order. If the tree holds fewer than k points, the unused
+	 * slots have an index of -1 and a distance of Double.POSITIVE_INFINITY.
+	 * @param raRadians The right ascension to search around, in radians.
+	 * @param decRadians The declination to search around, in radians.
+	 * @param k The number of neighbours to find.
+	 * @param indices An array to put the catalogue indices of the neighbours into.
+	 * @param distances An array to put the distances of the neighbours into, in arc-seconds.
+	 * @param offset The index of the first slot in indices and distances to use.
+	 * @return The number of neighbours found, min(k,size).
+	 */
+	public int nearest(double raRadians,double decRadians,int k,int indices[],double distances[],int offset)
+	{
+		double cosDec;
+
+		cosDec = Math.cos(decRadians);
+		return nearest(cosDec*Math.cos(raRadians),cosDec*Math.sin(raRadians),Math.sin(decRadians),k,
+			       indices,distances,offset);
+	}
+
+	/**
+	 * Find the K nearest objects to a unit vector, without allocating.
+	 * @see #nearest(double,double,int,int[],double[],int)
+	 */
+	public int nearest(double qx,double qy,double qz,int k,int indices[],double distances[],int offset)
+	{
+		int found,tmpIndex;
+		double tmpDistance;
+		long startTime;
+
+		if(k < 1)
+			return 0;
+		startTime = AstrometryMetrics.start();
+		// the heap is kept full of infinite distances, so the root is always the current worst
+		for(int i = offset; i < offset+k; i++)
+		{
+			indices[i] = -1;
+			distances[i] = Double.POSITIVE_INFINITY;
+		}
+		search(0,size,qx,qy,qz,k,indices,distances,offset);
+		// heap sort the max-heap into ascending order
+		for(int end = k-1; end > 0; end--)
+		{
+			tmpIndex = indices[offset];
+			tmpDistance = distances[offset];
+			indices[offset] = indices[offset+end];
+			distances[offset] = distances[offset+end];
+			indices[offset+end] = tmpIndex;
+			distances[offset+end] = tmpDistance;
+			siftDown(indices,distances,offset,end,0);
+		}
+		found = 0;
+		for(int i = offset; i < offset+k; i++)
+		{
+			if(indices[i] > -1)
+			{
+				distances[i] = SphericalGeometry.chordSquaredToRadians(distances[i])*
+					SphericalGeometry.RADIANS_TO_ARCSECONDS;
+				found++;
+			}
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.KDTREE_SEARCH,startTime);
+		return found;
+	}
+
+	/**
+	 * Find the K nearest neighbours of many query positions. The results for query i are put in the k slots
+	 * starting at i*k of indices and distances. Apart from the parallel chunking, no allocation is done.
+	 * @param raRadians The query right ascensions, in radians.
+	 * @param decRadians The query declinations, in radians.
+	 * @param count The number of queries.
+	 * @param k The number of neighbours to find for each query.
+	 * @param indices An array of at least count*k elements, to put the neighbour catalogue indices into.
+	 * @param distances An array of at least count*k elements, to put the neighbour distances into (arc-seconds).
+	 * @param parallel If true, the queries are answered in parallel.
+	 * @exception IllegalArgumentException Thrown if the result arrays are too small.
+	 * @see #nearest(double,double,int,int[],double[],int)
+	 */
+	public void nearestBatch(final double raRadians[],final double decRadians[],int count,final int k,
+				 final int indices[],final double distances[],boolean parallel)
+		throws IllegalArgumentException
+	{
+		ParallelChunks.Task task = null;
+
+		if((indices.length < ((long)count)*k)||(distances.length < ((long)count)*k))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":nearestBatch:Result arrays too small for "+count+
+							   " queries of "+k+" neighbours.");
+		}
+		task = (from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				nearest(raRadians[i],decRadians[i],k,indices,distances,i*k);
+		};
+		if(parallel)
+			ParallelChunks.forEach(count,BATCH_CHUNK,task);
+		else
+			task.run(0,count);
+	}
+
+	/**
+	 * Find all objects within a radius of a position.
+	 * @param ra The right ascension to search around.
+	 * @param dec The declination to search around.
+	 * @param radius The search radius, in arc-seconds.
+	 * @param result A list to add the catalogue indices of the objects found to, in no particular order.
+	 * @see #withinRadius(double,double,double,double,IntArrayList)
+	 */
+	public void withinRadius(RA ra,Dec dec,double radius,IntArrayList result)
+	{
+		double v[] = new double[3];
+
+		SphericalGeometry.toUnitVector(ra,dec,v,0);
+		withinRadius(v[0],v[1],v[2],radius,result);
+	}
+
+	/**
+	 * Find all objects within a radius of a unit vector.
+	 * @param radius The search radius, in arc-seconds.
+	 * @param result A list to add the catalogue indices of the objects found to, in no particular order.
+	 */
+	public void withinRadius(double qx,double qy,double qz,double radius,IntArrayList result)
+	{
+		double chordSquared;
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		chordSquared = SphericalGeometry.radiansToChordSquared(radius*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		searchRadius(0,size,qx,qy,qz,chordSquared,result);
+		AstrometryMetrics.stop(AstrometryMetrics.KDTREE_SEARCH,startTime);
+	}
+
+	/**
+	 * Recursive range search of the subtree [lo,hi).
+	 */
+	private void searchRadius(int lo,int hi,double qx,double qy,double qz,double chordSquared,IntArrayList result)
+	{
+		int mid;
+		double dx,dy,dz,diff;
+
+		while(lo < hi)
+		{
+			mid = (lo+hi) >>> 1;
+			dx = x[mid]-qx;
+			dy = y[mid]-qy;
+			dz = z[mid]-qz;
+			if(((dx*dx)+(dy*dy)+(dz*dz)) <= chordSquared)
+				result.add(index[mid]);
+			switch(splitDimension[mid])
+			{
+				case 0:
+					diff = qx-x[mid];
+					break;
+				case 1:
+					diff = qy-y[mid];
+					break;
+				default:
+					diff = qz-z[mid];
+					break;
+			}
+			if(diff < 0.0)
+			{
+				searchRadius(lo,mid,qx,qy,qz,chordSquared,result);
+				if((diff*diff) > chordSquared)
+					return;
+				lo = mid+1;
+			}
+			else
+			{
+				searchRadius(mid+1,hi,qx,qy,qz,chordSquared,result);
+				if((diff*diff) > chordSquared)
+					return;
+				hi = mid;
+			}
+		}
+	}
+
+	/**
+	 * Recursive nearest neighbour search of the subtree [lo,hi).
+	 */
+	private void search(int lo,int hi,double qx,double qy,double qz,int k,int indices[],double distances[],
+			    int offset)
+	{
+		int mid;
+		double dx,dy,dz,d,diff;
+
+		while(lo < hi)
+		{
+			mid = (lo+hi) >>> 1;
+			dx = x[mid]-qx;
+			dy = y[mid]-qy;
+			dz = z[mid]-qz;
+			d = (dx*dx)+(dy*dy)+(dz*dz);
+			if(d < distances[offset])
+			{
+				indices[offset] = index[mid];
+				distances[offset] = d;
+				siftDown(indices,distances,offset,k,0);
+			}
+			switch(splitDimension[mid])
+			{
+				case 0:
+					diff = qx-x[mid];
+					break;
+				case 1:
+					diff = qy-y[mid];
+					break;
+				default:
+					diff = qz-z[mid];
+					break;
+			}
+			// search the near side first, then the far side only if the splitting plane is close enough
+			if(diff < 0.0)
+			{
+				search(lo,mid,qx,qy,qz,k,indices,distances,offset);
+				if((diff*diff) >= distances[offset])
+					return;
+				lo = mid+1;
+			}
+			else
+			{
+				search(mid+1,hi,qx,qy,qz,k,indices,distances,offset);
+				if((diff*diff) >= distances[offset])
+					return;
+				hi = mid;
+			}
+		}
+	}
+
+	/**
+	 * Restore the max-heap property of a heap stored in indices/distances from offset, of length n,
+	 * starting at heap position i.
+	 */
+	private static void siftDown(int indices[],double distances[],int offset,int n,int i)
+	{
+		int child,tmpIndex;
+		double tmpDistance;
+
+		while((child = (2*i)+1) < n)
+		{
+			if(((child+1) < n)&&(distances[offset+child+1] > distances[offset+child]))
+				child++;
+			if(distances[offset+i] >= distances[offset+child])
+				return;
+			tmpIndex = indices[offset+i];
+			tmpDistance = distances[offset+i];
+			indices[offset+i] = indices[offset+child];
+			distances[offset+i] = distances[offset+child];
+			indices[offset+child] = tmpIndex;
+			distances[offset+child] = tmpDistance;
+			i = child;
+		}
+	}
+
+	/**
+	 * Fork/join task that builds the subtree [lo,hi): choose the dimension with the widest extent, partition
+	 * the permutation about the median along it, and recurse either side.
+	 */
+	private class BuildTask extends RecursiveAction
+	{
+		/**
+		 * Serial version ID. Tasks are never serialized; this only quietens the serial lint.
+		 */
+		private static final long serialVersionUID = -3569915846645827297L;
+		private final double v[][];
+		private final int perm[];
+		private final int lo;
+		private final int hi;
+
+		BuildTask(double v[][],int perm[],int lo,int hi)
+		{
+			super();
+			this.v = v;
+			this.perm = perm;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute()
+		{
+			int mid,dim;
+
+			if(hi-lo < 1)
+				return;
+			mid = (lo+hi) >>> 1;
+			dim = widestDimension(v,perm,lo,hi);
+			select(v[dim],perm,lo,hi-1,mid);
+			splitDimension[mid] = (byte)dim;
+			if(hi-lo > PARALLEL_BUILD_THRESHOLD)
+			{
+				invokeAll(new BuildTask(v,perm,lo,mid),new BuildTask(v,perm,mid+1,hi));
+			}
+			else
+			{
+				new BuildTask(v,perm,lo,mid).compute();
+				new BuildTask(v,perm,mid+1,hi).compute();
+			}
+		}
+	}
+
+	/**
+	 * Return the dimension with the widest extent over the permutation range [lo,hi).
+	 */
+	private static int widestDimension(double v[][],int perm[],int lo,int hi)
+	{
+		double min,max,extent,bestExtent;
+		int best;
+
+		best = 0;
+		bestExtent = -1.0;
+		for(int d = 0; d < 3; d++)
+		{
+			min = Double.POSITIVE_INFINITY;
+			max = Double.NEGATIVE_INFINITY;
+			for(int i = lo; i < hi; i++)
+			{
+				if(v[d][perm[i]] < min)
+					min = v[d][perm[i]];
+				if(v[d][perm[i]] > max)
+					max = v[d][perm[i]];
+			}
+			extent = max-min;
+			if(extent > bestExtent)
+			{
+				bestExtent = extent;
+				best = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Quickselect: partially order perm[left..right] so that perm[n] holds the element with rank n
+	 * by key, with smaller keys before it and larger keys after it.
+	 */
+	private static void select(double key[],int perm[],int left,int right,int n)
+	{
+		int i,j,middle;
+		double pivot;
+
+		while(right > left)
+		{
+			middle = (left+right) >>> 1;
+			// median of three pivot
+			if(key[perm[middle]] < key[perm[left]])
+				swap(perm,middle,left);
+			if(key[perm[right]] < key[perm[left]])
+				swap(perm,right,left);
+			if(key[perm[right]] < key[perm[middle]])
+				swap(perm,right,middle);
+			pivot = key[perm[middle]];
+			i = left;
+			j = right;
+			while(i <= j)
+			{
+				while(key[perm[i]] < pivot)
+					i++;
+				while(key[perm[j]] > pivot)
+					j--;
+				if(i <= j)
+				{
+					swap(perm,i,j);
+					i++;
+					j--;
+				}
+			}
+			if(n <= j)
+				right = j;
+			else if(n >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Swap two elements of an int array.
+	 */
+	private static void swap(int a[],int i,int j)
+	{
+		int tmp;
+
+		tmp = a[i];
+		a[i] = a[j];
+		a[j] = tmp;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,494 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CelestialObjectMerger.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class finds duplicate CelestialObjects in a list and merges them. Two objects are linked if they are
+ * within the merge radius of each other, and a group is everything reachable through links (friends-of-friends),
+ * so unlike the tolerance compare in CelestialObjectRADecComparator the grouping is transitive and does not
+ * depend on list order.
+ * <p>
+ * Links are found with k-d tree radius searches, run in parallel over chunks of the tree's storage order
+ * (each chunk is a compact region of sky), and joined with a lock-free union-find. Each group is then merged
+ * into a single object using the configured field policies. Magnitudes that are NaN are treated as absent.
+ * Proper motion, parallax, radial velocity and epoch are carried over from one member, see mergeGroup.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectKDTree
+ */
+public class CelestialObjectMerger
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Position policy: use the normalised mean of the members' unit vectors, if they all have the same epoch.
+	 */
+	public final static int POSITION_MEAN = 0;
+	/**
+	 * Position policy: use the position of the first member in list order.
+	 */
+	public final static int POSITION_FIRST = 1;
+	/**
+	 * Position policy: use the position of the member with the brightest R magnitude.
+	 */
+	public final static int POSITION_BRIGHTEST = 2;
+	/**
+	 * Magnitude policy: use the brightest (smallest) magnitude in each band.
+	 */
+	public final static int MAGNITUDE_BRIGHTEST = 0;
+	/**
+	 * Magnitude policy: use the mean magnitude in each band.
+	 */
+	public final static int MAGNITUDE_MEAN = 1;
+	/**
+	 * Magnitude policy: use the first magnitude present in each band, in list order.
+	 */
+	public final static int MAGNITUDE_FIRST = 2;
+	/**
+	 * Name policy: use the first non-null name in list order.
+	 */
+	public final static int NAME_FIRST_NON_NULL = 0;
+	/**
+	 * Name policy: join the distinct non-null names, in list order, separated by NAME_SEPARATOR.
+	 */
+	public final static int NAME_ALL = 1;
+	/**
+	 * The separator used by NAME_ALL.
+	 */
+	public final static String NAME_SEPARATOR = ",";
+	/**
+	 * The minimum number of objects searched per parallel chunk.
+	 */
+	private final static int SEARCH_CHUNK = 1024;
+	/**
+	 * The merge radius, in arc-seconds.
+	 */
+	protected double radius = 0.0;
+	/**
+	 * How merged positions are chosen.
+	 */
+	protected int positionPolicy = POSITION_MEAN;
+	/**
+	 * How merged magnitudes are chosen.
+	 */
+	protected int magnitudePolicy = MAGNITUDE_BRIGHTEST;
+	/**
+	 * How merged names are chosen.
+	 */
+	protected int namePolicy = NAME_FIRST_NON_NULL;
+
+	/**
+	 * Constructor.
+	 * @param r The merge radius, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if the radius is negative.
+	 */
+	public CelestialObjectMerger(double r) throws IllegalArgumentException
+	{
+		super();
+		if(r < 0.0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal radius:"+r+
+							   ": Must be non-negative.");
+		}
+		radius = r;
+	}
+
+	/**
+	 * Set how merged positions are chosen.
+	 * @param p One of POSITION_MEAN, POSITION_FIRST or POSITION_BRIGHTEST.
+	 * @exception IllegalArgumentException Thrown if the policy is not known.
+	 */
+	public void setPositionPolicy(int p) throws IllegalArgumentException
+	{
+		if((p != POSITION_MEAN)&&(p != POSITION_FIRST)&&(p != POSITION_BRIGHTEST))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setPositionPolicy:Illegal policy:"+p);
+		}
+		positionPolicy = p;
+	}
+
+	/**
+	 * Set how merged magnitudes are chosen.
+	 * @param p One of MAGNITUDE_BRIGHTEST, MAGNITUDE_MEAN or MAGNITUDE_FIRST.
+	 * @exception IllegalArgumentException Thrown if the policy is not known.
+	 */
+	public void setMagnitudePolicy(int p) throws IllegalArgumentException
+	{
+		if((p != MAGNITUDE_BRIGHTEST)&&(p != MAGNITUDE_MEAN)&&(p != MAGNITUDE_FIRST))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setMagnitudePolicy:Illegal policy:"+p);
+		}
+		magnitudePolicy = p;
+	}
+
+	/**
+	 * Set how merged names are chosen.
+	 * @param p One of NAME_FIRST_NON_NULL or NAME_ALL.
+	 * @exception IllegalArgumentException Thrown if the policy is not known.
+	 */
+	public void setNamePolicy(int p) throws IllegalArgumentException
+	{
+		if((p != NAME_FIRST_NON_NULL)&&(p != NAME_ALL))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setNamePolicy:Illegal policy:"+p);
+		}
+		namePolicy = p;
+	}
+
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * Find the duplicate groups in a list.
+	 * @param list The list of objects, all of which must have an RA and Dec.
+	 * @return An array the same length as the list, holding the group number of each object. Groups are
+	 *         numbered from zero in order of their first member in the list.
+	 */
+	public int[] findGroups(List<CelestialObject> list)
+	{
+		final AtomicIntegerArray parent;
+		final int root[];
+		final int n;
+		int group[];
+		int groupCount;
+
+		n = list.size();
+		parent = link(list);
+		root = new int[n];
+		ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				root[i] = find(parent,i);
+		});
+		// roots are always the smallest index in their group, so they are met in first-member order
+		group = new int[n];
+		groupCount = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(root[i] == i)
+				group[i] = groupCount++;
+			else
+				group[i] = group[root[i]];
+		}
+		return group;
+	}
+
+	/**
+	 * Merge the duplicates in a list.
+	 * @param list The list of objects, all of which must have an RA and Dec.
+	 * @return A new list with one object per group, in order of each group's first member. Objects with no
+	 *         duplicates are returned as they are, merged groups are new objects.
+	 * @see #findGroups
+	 * @see #mergeGroup
+	 */
+	public List<CelestialObject> merge(final List<CelestialObject> list)
+	{
+		final CelestialObject result[];
+		final int members[];
+		final int start[];
+		int group[];
+		int groupCount,n;
+
+		n = list.size();
+		group = findGroups(list);
+		groupCount = 0;
+		for(int i = 0; i < n; i++)
+			groupCount = Math.max(groupCount,group[i]+1);
+		// compressed member lists, each in ascending list order
+		start = new int[groupCount+1];
+		for(int i = 0; i < n; i++)
+			start[group[i]+1]++;
+		for(int g = 0; g < groupCount; g++)
+			start[g+1] += start[g];
+		members = new int[n];
+		for(int i = 0; i < n; i++)
+			members[start[group[i]]++] = i;
+		for(int g = groupCount; g > 0; g--)
+			start[g] = start[g-1];
+		start[0] = 0;
+		result = new CelestialObject[groupCount];
+		ParallelChunks.forEach(groupCount,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int g = from; g < to; g++)
+			{
+				if(start[g+1]-start[g] == 1)
+					result[g] = list.get(members[start[g]]);
+				else
+					result[g] = mergeGroup(list,members,start[g],start[g+1]);
+			}
+		});
+		return new ArrayList<CelestialObject>(Arrays.asList(result));
+	}
+
+	/**
+	 * Merge one group of duplicates into a new object. Subclasses can override this to apply other policies.
+	 * Fields with no policy of their own (number, type, spectral type, comment) take the first non-null
+	 * (or non-zero) value in list order. The proper motion, parallax and radial velocity are taken together
+	 * from the brightest member if it has any of them, otherwise from the first member that does. The epoch
+	 * goes with the position: positions are only averaged (POSITION_MEAN) when every member has the same
+	 * epoch, otherwise the position and epoch of the member the astrometry came from (or the first member) are
+	 * used, as positions at different epochs cannot be mixed.
+	 * @param list The list of objects.
+	 * @param members The list indices of the group members, in ascending order.
+	 * @param from The index in members of the first member.
+	 * @param to The index in members after the last member.
+	 * @return A new CelestialObject.
+	 */
+	protected CelestialObject mergeGroup(List<CelestialObject> list,int members[],int from,int to)
+	{
+		CelestialObject merged = null;
+		CelestialObject co = null;
+		CelestialObject brightest = null;
+		CelestialObject astrometry = null;
+		StringBuilder names = null;
+		Set<String> seenNames = null;
+		RA ra = null;
+		Dec dec = null;
+		double v[] = new double[3];
+		double sx,sy,sz;
+		boolean sameEpoch;
+
+		merged = new CelestialObject();
+		sx = 0.0;
+		sy = 0.0;
+		sz = 0.0;
+		sameEpoch = true;
+		for(int i = from; i < to; i++)
+		{
+			co = list.get(members[i]);
+			if(Double.compare(co.getEpoch(),list.get(members[from]).getEpoch()) != 0)
+				sameEpoch = false;
+			if((astrometry == null)&&hasAstrometry(co))
+				astrometry = co;
+			SphericalGeometry.toUnitVector(co.getRA(),co.getDec(),v,0);
+			sx += v[0];
+			sy += v[1];
+			sz += v[2];
+			if((!Double.isNaN(co.getRMagnitude()))&&
+			   ((brightest == null)||(co.getRMagnitude() < brightest.getRMagnitude())))
+				brightest = co;
+			if((merged.getNumber() == 0)&&(co.getNumber() != 0))
+				merged.setNumber(co.getNumber());
+			if((merged.getType() == null)&&(co.getType() != null))
+				merged.setType(co.getType());
+			if((merged.getSpectralType() == null)&&(co.getSpectralType() != null))
+				merged.setSpectralType(co.getSpectralType());
+			if((merged.getComment() == null)&&(co.getComment() != null))
+				merged.setComment(co.getComment());
+			if(co.getName() != null)
+			{
+				if(namePolicy == NAME_ALL)
+				{
+					if(names == null)
+					{
+						names = new StringBuilder(co.getName());
+						seenNames = new HashSet<String>();
+						seenNames.add(co.getName());
+					}
+					else if(seenNames.add(co.getName()))
+						names.append(NAME_SEPARATOR).append(co.getName());
+				}
+				else if(merged.getName() == null)
+					merged.setName(co.getName());
+			}
+		}
+		if(names != null)
+			merged.setName(names.toString());
+		// astrometry
+		if((brightest != null)&&hasAstrometry(brightest))
+			astrometry = brightest;
+		if(astrometry != null)
+		{
+			merged.setProperMotion(astrometry.getPMRA(),astrometry.getPMDec());
+			merged.setParallax(astrometry.getParallax());
+			merged.setRadialVelocity(astrometry.getRadialVelocity());
+		}
+		// position
+		co = list.get(members[from]);
+		if((positionPolicy == POSITION_BRIGHTEST)&&(brightest != null))
+			co = brightest;
+		else if((positionPolicy == POSITION_MEAN)&&(!sameEpoch)&&(astrometry != null))
+			co = astrometry;
+		merged.setEpoch(co.getEpoch());
+		if((positionPolicy == POSITION_MEAN)&&sameEpoch)
+		{
+			ra = new RA();
+			dec = new Dec();
+			ra.fromRadians(SphericalGeometry.toRARadians(sx,sy,sz));
+			dec.fromRadians(SphericalGeometry.toDecRadians(sx,sy,sz));
+		}
+		else
+		{
+			ra = co.getRA();
+			dec = co.getDec();
+		}
+		merged.setRA(ra);
+		merged.setDec(dec);
+		merged.setBMagnitude(mergeMagnitude(list,members,from,to,0));
+		merged.setVMagnitude(mergeMagnitude(list,members,from,to,1));
+		merged.setRMagnitude(mergeMagnitude(list,members,from,to,2));
+		return merged;
+	}
+
+	/**
+	 * Return whether an object has a proper motion, parallax or radial velocity.
+	 */
+	private static boolean hasAstrometry(CelestialObject co)
+	{
+		return co.hasProperMotion()||co.hasParallax()||co.hasRadialVelocity();
+	}
+
+	/**
+	 * Merge one magnitude band of a group using the magnitude policy.
+	 * @param band 0 for B, 1 for V, 2 for R.
+	 * @return The merged magnitude, or NaN if no member has one.
+	 */
+	protected double mergeMagnitude(List<CelestialObject> list,int members[],int from,int to,int band)
+	{
+		CelestialObject co = null;
+		double m,result,sum;
+		int count;
+
+		result = Double.NaN;
+		sum = 0.0;
+		count = 0;
+		for(int i = from; i < to; i++)
+		{
+			co = list.get(members[i]);
+			if(band == 0)
+				m = co.getBMagnitude();
+			else if(band == 1)
+				m = co.getVMagnitude();
+			else
+				m = co.getRMagnitude();
+			if(Double.isNaN(m))
+				continue;
+			if(magnitudePolicy == MAGNITUDE_FIRST)
+				return m;
+			if((count == 0)||(m < result))
+				result = m;
+			sum += m;
+			count++;
+		}
+		if((magnitudePolicy == MAGNITUDE_MEAN)&&(count > 0))
+			result = sum/count;
+		return result;
+	}
+
+	/**
+	 * Link every pair of objects within the merge radius.
+	 * @return The union-find parent array.
+	 */
+	protected AtomicIntegerArray link(List<CelestialObject> list)
+	{
+		final CelestialObjectColumns columns;
+		final CelestialObjectKDTree tree;
+		final AtomicIntegerArray parent;
+		final int n;
+
+		n = list.size();
+		columns = CelestialObjectColumns.fromList(list);
+		tree = new CelestialObjectKDTree(columns.getRARadians(),columns.getDecRadians(),n);
+		parent = new AtomicIntegerArray(n);
+		for(int i = 0; i < n; i++)
+			parent.set(i,i);
+		// walk the tree in storage order, which keeps each chunk's searches in one part of the sky
+		ParallelChunks.forEach(n,SEARCH_CHUNK,(from,to) ->
+		{
+			IntArrayList found = new IntArrayList();
+			int i,j;
+
+			for(int slot = from; slot < to; slot++)
+			{
+				i = tree.index[slot];
+				found.clear();
+				tree.withinRadius(tree.x[slot],tree.y[slot],tree.z[slot],radius,found);
+				for(int f = 0; f < found.size(); f++)
+				{
+					j = found.get(f);
+					if(j > i)
+						union(parent,i,j);
+				}
+			}
+		});
+		return parent;
+	}
+
+	/**
+	 * Find the root of an element, halving the path as it goes. Safe to call concurrently with union.
+	 */
+	private static int find(AtomicIntegerArray parent,int i)
+	{
+		int p,gp;
+
+		while(true)
+		{
+			p = parent.get(i);
+			if(p == i)
+				return i;
+			gp = parent.get(p);
+			if(gp != p)
+				parent.compareAndSet(i,p,gp);
+			i = gp;
+		}
+	}
+
+	/**
+	 * Join the groups of two elements. The larger root is always linked under the smaller one, so every
+	 * root is the smallest index in its group and links never form a cycle.
+	 */
+	private static void union(AtomicIntegerArray parent,int a,int b)
+	{
+		int ra,rb;
+
+		while(true)
+		{
+			ra = find(parent,a);
+			rb = find(parent,b);
+			if(ra == rb)
+				return;
+			if(ra < rb)
+			{
+				if(parent.compareAndSet(rb,rb,ra))
+					return;
+			}
+			else
+			{
+				if(parent.compareAndSet(ra,ra,rb))
+					return;
+			}
+		}
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,104 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CelestialObjectNeighbour.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds one result of a nearest neighbour search: a catalogue object, its index in the
+ * catalogue, and its angular distance from the query position.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectKDTree
+ */
+public class CelestialObjectNeighbour implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so neighbour lists can be passed between JVMs.
+	 */
+	static final long serialVersionUID = -8058333973252413147L;
+	/**
+	 * The neighbouring object. This can be null if the index was built from coordinate arrays.
+	 */
+	protected CelestialObject object = null;
+	/**
+	 * The index of the neighbour in the list/arrays the index was built from.
+	 */
+	protected int index = -1;
+	/**
+	 * The angular distance from the query position, in arc-seconds.
+	 */
+	protected double distance = 0.0;
+
+	/**
+	 * Constructor.
+	 * @param o The neighbouring object.
+	 * @param i The catalogue index of the object.
+	 * @param d The distance from the query position, in arc-seconds.
+	 */
+	public CelestialObjectNeighbour(CelestialObject o,int i,double d)
+	{
+		super();
+		object = o;
+		index = i;
+		distance = d;
+	}
+
+	/**
+	 * Return the neighbouring object.
+	 * @return The object, or null if the index was built from coordinate arrays.
+	 */
+	public CelestialObject getObject()
+	{
+		return object;
+	}
+
+	/**
+	 * Return the catalogue index of the neighbour.
+	 * @return The index into the list/arrays the search index was built from.
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Return the distance from the query position.
+	 * @return The distance, in arc-seconds.
+	 */
+	public double getDistance()
+	{
+		return distance;
+	}
+
+	public String toString()
+	{
+		return new String(index+" "+object+" "+distance+"\"");
+	}
+};
+//
+// $Log$
+//
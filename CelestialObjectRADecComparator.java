@@ -66,6 +66,7 @@ public class CelestialObjectRADecComparator implements Comparator,Serializable
 		double co1RAArcseconds,co2RAArcseconds,co1DecArcseconds,co2DecArcseconds;
 		double raArcsecDiff,decArcsecDiff;
 
+		AstrometryMetrics.count(AstrometryMetrics.COMPARE);
 		co1 = (CelestialObject)o1;
 		co2 = (CelestialObject)o2;
 		co1RAArcseconds = co1.getRA().toArcSeconds();
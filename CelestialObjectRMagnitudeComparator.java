@@ -44,19 +44,32 @@ public class CelestialObjectRMagnitudeComparator implements Comparator
 	};
 
 	/**
-	 * Comparison routine
+	 * Comparison routine. Objects are ordered brightest first. Objects with no R magnitude
+	 * (CelestialObject.MAGNITUDE_ABSENT) sort after all others, and equal to each other.
 	 */
 	public int compare(Object o1,Object o2)
 	{
 		CelestialObject co1 = null;
 		CelestialObject co2 = null;
+		double m1,m2;
 
+		AstrometryMetrics.count(AstrometryMetrics.COMPARE);
 		co1 = (CelestialObject)o1;
 		co2 = (CelestialObject)o2;
-
-		if((co1.getRMagnitude() - co2.getRMagnitude()) < 0.0)
+		m1 = co1.getRMagnitude();
+		m2 = co2.getRMagnitude();
+		if(Double.isNaN(m1)||Double.isNaN(m2))
+		{
+			if(Double.isNaN(m1)&&Double.isNaN(m2))
+				return 0;
+			else if(Double.isNaN(m1))
+				return 1;
+			else
+				return -1;
+		}
+		if(m1 < m2)
 			return -1;
-		else if ((co1.getRMagnitude() - co2.getRMagnitude()) > 0.0)
+		else if (m1 > m2)
 			return 1;
 		else
 			return 0;
@@ -0,0 +1,462 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// ColourMagnitudeIndex.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class is a 2-D binned index over the colour-magnitude diagram (CMD) of a catalogue, so that box or
+ * polygon selections in CMD space only look at the bins they touch. Bins wholly inside a selection are taken
+ * without testing their rows; only rows in bins on the selection boundary are tested. Rows missing either the
+ * colour or the magnitude are not indexed.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectColumns#getBMinusV
+ * @see CelestialObjectColumns#getVMinusR
+ */
+public class ColourMagnitudeIndex
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Colour axis: B-V.
+	 */
+	public final static int COLOUR_B_MINUS_V = 0;
+	/**
+	 * Colour axis: V-R.
+	 */
+	public final static int COLOUR_V_MINUS_R = 1;
+	/**
+	 * The default number of bins along each axis.
+	 */
+	public final static int DEFAULT_BINS = 64;
+	/**
+	 * The number of bins along the colour axis.
+	 */
+	protected int colourBins = 0;
+	/**
+	 * The number of bins along the magnitude axis.
+	 */
+	protected int magnitudeBins = 0;
+	/**
+	 * The colour at the low edge of the first colour bin.
+	 */
+	protected double colourMin = 0.0;
+	/**
+	 * The width of a colour bin.
+	 */
+	protected double colourWidth = 1.0;
+	/**
+	 * The magnitude at the low edge of the first magnitude bin.
+	 */
+	protected double magnitudeMin = 0.0;
+	/**
+	 * The width of a magnitude bin.
+	 */
+	protected double magnitudeWidth = 1.0;
+	/**
+	 * The index in rows of the first row of each bin, colourBins*magnitudeBins+1 entries. Bin (c,m) is
+	 * number (m*colourBins)+c.
+	 */
+	protected int binStart[] = null;
+	/**
+	 * The indexed row numbers, grouped by bin, ascending within a bin.
+	 */
+	protected int rows[] = null;
+	/**
+	 * The colour of each entry of rows.
+	 */
+	protected double colour[] = null;
+	/**
+	 * The magnitude of each entry of rows.
+	 */
+	protected double magnitude[] = null;
+
+	/**
+	 * Constructor, using DEFAULT_BINS bins along each axis.
+	 * @see #ColourMagnitudeIndex(CelestialObjectColumns,int,int,int,int)
+	 */
+	public ColourMagnitudeIndex(CelestialObjectColumns columns,int colourAxis,int band)
+		throws IllegalArgumentException
+	{
+		this(columns,colourAxis,band,DEFAULT_BINS,DEFAULT_BINS);
+	}
+
+	/**
+	 * Constructor. The bins span the range of the indexed rows.
+	 * @param columns The catalogue.
+	 * @param colourAxis COLOUR_B_MINUS_V or COLOUR_V_MINUS_R.
+	 * @param band The magnitude axis: CataloguePredicate.BAND_B, BAND_V or BAND_R.
+	 * @param cBins The number of bins along the colour axis.
+	 * @param mBins The number of bins along the magnitude axis.
+	 * @exception IllegalArgumentException Thrown if an axis is not known, or a bin count is not positive.
+	 */
+	public ColourMagnitudeIndex(CelestialObjectColumns columns,int colourAxis,int band,int cBins,int mBins)
+		throws IllegalArgumentException
+	{
+		super();
+		double c[],m[];
+		int bin[];
+		int count[];
+		int n,indexed,j;
+		double cMax,mMax;
+
+		if(colourAxis == COLOUR_B_MINUS_V)
+			c = columns.getBMinusV();
+		else if(colourAxis == COLOUR_V_MINUS_R)
+			c = columns.getVMinusR();
+		else
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal colour axis:"+colourAxis);
+		}
+		if(band == CataloguePredicate.BAND_B)
+			m = columns.getBMagnitude();
+		else if(band == CataloguePredicate.BAND_V)
+			m = columns.getVMagnitude();
+		else if(band == CataloguePredicate.BAND_R)
+			m = columns.getRMagnitude();
+		else
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal band:"+band);
+		}
+		if((cBins < 1)||(mBins < 1))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal bin counts:"+cBins+"x"+mBins+
+							   ": Must be positive.");
+		}
+		colourBins = cBins;
+		magnitudeBins = mBins;
+		n = columns.getSize();
+		// range of the indexed rows
+		colourMin = Double.MAX_VALUE;
+		cMax = -Double.MAX_VALUE;
+		magnitudeMin = Double.MAX_VALUE;
+		mMax = -Double.MAX_VALUE;
+		indexed = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(Double.isNaN(c[i])||Double.isNaN(m[i]))
+				continue;
+			colourMin = Math.min(colourMin,c[i]);
+			cMax = Math.max(cMax,c[i]);
+			magnitudeMin = Math.min(magnitudeMin,m[i]);
+			mMax = Math.max(mMax,m[i]);
+			indexed++;
+		}
+		if(indexed == 0)
+		{
+			colourMin = 0.0;
+			cMax = 0.0;
+			magnitudeMin = 0.0;
+			mMax = 0.0;
+		}
+		// widen a zero range so every value falls in a bin
+		colourWidth = Math.max(cMax-colourMin,1.0e-9)/colourBins;
+		magnitudeWidth = Math.max(mMax-magnitudeMin,1.0e-9)/magnitudeBins;
+		// counting sort of the rows by bin
+		bin = new int[n];
+		count = new int[(colourBins*magnitudeBins)+1];
+		for(int i = 0; i < n; i++)
+		{
+			if(Double.isNaN(c[i])||Double.isNaN(m[i]))
+				bin[i] = -1;
+			else
+			{
+				bin[i] = (magnitudeBin(m[i])*colourBins)+colourBin(c[i]);
+				count[bin[i]+1]++;
+			}
+		}
+		for(int b = 0; b < colourBins*magnitudeBins; b++)
+			count[b+1] += count[b];
+		binStart = Arrays.copyOf(count,count.length);
+		rows = new int[indexed];
+		colour = new double[indexed];
+		magnitude = new double[indexed];
+		for(int i = 0; i < n; i++)
+		{
+			if(bin[i] < 0)
+				continue;
+			j = count[bin[i]]++;
+			rows[j] = i;
+			colour[j] = c[i];
+			magnitude[j] = m[i];
+		}
+	}
+
+	/**
+	 * Return the colour bin of a colour, clamped to the bins.
+	 */
+	protected int colourBin(double c)
+	{
+		return Math.max(0,Math.min(colourBins-1,(int)Math.floor((c-colourMin)/colourWidth)));
+	}
+
+	/**
+	 * Return the magnitude bin of a magnitude, clamped to the bins.
+	 */
+	protected int magnitudeBin(double m)
+	{
+		return Math.max(0,Math.min(magnitudeBins-1,(int)Math.floor((m-magnitudeMin)/magnitudeWidth)));
+	}
+
+	/**
+	 * Return the number of rows indexed, that is rows with both a colour and a magnitude.
+	 */
+	public int getSize()
+	{
+		return rows.length;
+	}
+
+	public int getColourBins()
+	{
+		return colourBins;
+	}
+
+	public int getMagnitudeBins()
+	{
+		return magnitudeBins;
+	}
+
+	/**
+	 * Return the number of rows in a bin, for CMD density plots.
+	 * @param c The colour bin, 0..getColourBins()-1.
+	 * @param m The magnitude bin, 0..getMagnitudeBins()-1.
+	 */
+	public int getBinCount(int c,int m)
+	{
+		int b;
+
+		b = (m*colourBins)+c;
+		return binStart[b+1]-binStart[b];
+	}
+
+	/**
+	 * Select the rows inside a box in CMD space, edges included.
+	 * @param cMin The smallest colour.
+	 * @param cMax The largest colour.
+	 * @param mMin The brightest magnitude.
+	 * @param mMax The faintest magnitude.
+	 * @param result A list to add the matching row numbers to, grouped by bin.
+	 * @return The number of rows added.
+	 */
+	public int selectBox(double cMin,double cMax,double mMin,double mMax,IntArrayList result)
+	{
+		double binCMin,binCMax,binMMin,binMMax;
+		int added,b;
+
+		if((cMin > cMax)||(mMin > mMax)||(rows.length == 0))
+			return 0;
+		added = 0;
+		for(int mb = magnitudeBin(mMin); mb <= magnitudeBin(mMax); mb++)
+		{
+			binMMin = magnitudeMin+(mb*magnitudeWidth);
+			binMMax = binMMin+magnitudeWidth;
+			for(int cb = colourBin(cMin); cb <= colourBin(cMax); cb++)
+			{
+				binCMin = colourMin+(cb*colourWidth);
+				binCMax = binCMin+colourWidth;
+				b = (mb*colourBins)+cb;
+				// edge bins are clamped, so only interior bins can be taken whole. The strict tests
+				// allow for values rounded into a neighbouring bin
+				if((cb > 0)&&(cb < colourBins-1)&&(mb > 0)&&(mb < magnitudeBins-1)&&
+				   (binCMin > cMin)&&(binCMax < cMax)&&(binMMin > mMin)&&(binMMax < mMax))
+				{
+					for(int j = binStart[b]; j < binStart[b+1]; j++)
+						result.add(rows[j]);
+					added += binStart[b+1]-binStart[b];
+				}
+				else
+				{
+					for(int j = binStart[b]; j < binStart[b+1]; j++)
+					{
+						if((colour[j] >= cMin)&&(colour[j] <= cMax)&&
+						   (magnitude[j] >= mMin)&&(magnitude[j] <= mMax))
+						{
+							result.add(rows[j]);
+							added++;
+						}
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Select the rows inside a polygon in CMD space. The polygon is given by its vertices in order, may be
+	 * concave, and is closed automatically.
+	 * @param polygonColour The colour of each vertex.
+	 * @param polygonMagnitude The magnitude of each vertex.
+	 * @param result A list to add the matching row numbers to, grouped by bin.
+	 * @return The number of rows added.
+	 * @exception IllegalArgumentException Thrown if there are fewer than 3 vertices or the arrays differ in length.
+	 */
+	public int selectPolygon(double polygonColour[],double polygonMagnitude[],IntArrayList result)
+		throws IllegalArgumentException
+	{
+		double cMin,cMax,mMin,mMax,binCMin,binMMin;
+		int added,b,n,state;
+
+		n = polygonColour.length;
+		if((n < 3)||(polygonMagnitude.length != n))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":selectPolygon:Illegal polygon:"+n+" colours and "+
+							   polygonMagnitude.length+" magnitudes: Need at least 3 vertices.");
+		}
+		if(rows.length == 0)
+			return 0;
+		cMin = Double.MAX_VALUE;
+		cMax = -Double.MAX_VALUE;
+		mMin = Double.MAX_VALUE;
+		mMax = -Double.MAX_VALUE;
+		for(int i = 0; i < n; i++)
+		{
+			cMin = Math.min(cMin,polygonColour[i]);
+			cMax = Math.max(cMax,polygonColour[i]);
+			mMin = Math.min(mMin,polygonMagnitude[i]);
+			mMax = Math.max(mMax,polygonMagnitude[i]);
+		}
+		added = 0;
+		for(int mb = magnitudeBin(mMin); mb <= magnitudeBin(mMax); mb++)
+		{
+			binMMin = magnitudeMin+(mb*magnitudeWidth);
+			for(int cb = colourBin(cMin); cb <= colourBin(cMax); cb++)
+			{
+				binCMin = colourMin+(cb*colourWidth);
+				b = (mb*colourBins)+cb;
+				if(binStart[b] == binStart[b+1])
+					continue;
+				// edge bins are clamped, so their rows may lie outside the nominal bin
+				if((cb == 0)||(cb == colourBins-1)||(mb == 0)||(mb == magnitudeBins-1))
+					state = SkyRegion.PARTIAL;
+				else
+				{
+					state = classifyRectangle(polygonColour,polygonMagnitude,binCMin,binCMin+colourWidth,
+								  binMMin,binMMin+magnitudeWidth);
+				}
+				if(state == SkyRegion.INSIDE)
+				{
+					for(int j = binStart[b]; j < binStart[b+1]; j++)
+						result.add(rows[j]);
+					added += binStart[b+1]-binStart[b];
+				}
+				else if(state == SkyRegion.PARTIAL)
+				{
+					for(int j = binStart[b]; j < binStart[b+1]; j++)
+					{
+						if(insidePolygon(polygonColour,polygonMagnitude,colour[j],magnitude[j]))
+						{
+							result.add(rows[j]);
+							added++;
+						}
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Classify a rectangle against a polygon.
+	 * @return SkyRegion.INSIDE, OUTSIDE or PARTIAL (which may be returned for rectangles that only touch
+	 *         the boundary).
+	 */
+	private static int classifyRectangle(double px[],double py[],double x0,double x1,double y0,double y1)
+	{
+		int n,j;
+
+		n = px.length;
+		for(int i = 0; i < n; i++)
+		{
+			j = (i+1) % n;
+			// a polygon vertex in the rectangle, or an edge crossing a rectangle side, means the boundary
+			// passes through it
+			if((px[i] >= x0)&&(px[i] <= x1)&&(py[i] >= y0)&&(py[i] <= y1))
+				return SkyRegion.PARTIAL;
+			if(segmentsCross(px[i],py[i],px[j],py[j],x0,y0,x1,y0)||
+			   segmentsCross(px[i],py[i],px[j],py[j],x1,y0,x1,y1)||
+			   segmentsCross(px[i],py[i],px[j],py[j],x1,y1,x0,y1)||
+			   segmentsCross(px[i],py[i],px[j],py[j],x0,y1,x0,y0))
+				return SkyRegion.PARTIAL;
+		}
+		// the boundary misses the rectangle, so it is all in or all out
+		if(insidePolygon(px,py,(x0+x1)/2.0,(y0+y1)/2.0))
+			return SkyRegion.INSIDE;
+		return SkyRegion.OUTSIDE;
+	}
+
+	/**
+	 * Return whether two line segments intersect, including touching.
+	 */
+	private static boolean segmentsCross(double ax,double ay,double bx,double by,
+					     double cx,double cy,double dx,double dy)
+	{
+		double d1,d2,d3,d4;
+
+		d1 = cross(cx,cy,dx,dy,ax,ay);
+		d2 = cross(cx,cy,dx,dy,bx,by);
+		d3 = cross(ax,ay,bx,by,cx,cy);
+		d4 = cross(ax,ay,bx,by,dx,dy);
+		if((((d1 > 0.0)&&(d2 < 0.0))||((d1 < 0.0)&&(d2 > 0.0)))&&
+		   (((d3 > 0.0)&&(d4 < 0.0))||((d3 < 0.0)&&(d4 > 0.0))))
+			return true;
+		// collinear or touching cases: be conservative
+		return ((d1 == 0.0)||(d2 == 0.0)||(d3 == 0.0)||(d4 == 0.0))&&
+			(Math.max(ax,bx) >= Math.min(cx,dx))&&(Math.max(cx,dx) >= Math.min(ax,bx))&&
+			(Math.max(ay,by) >= Math.min(cy,dy))&&(Math.max(cy,dy) >= Math.min(ay,by));
+	}
+
+	/**
+	 * Return the z component of (b-a) x (c-a).
+	 */
+	private static double cross(double ax,double ay,double bx,double by,double cx,double cy)
+	{
+		return ((bx-ax)*(cy-ay))-((by-ay)*(cx-ax));
+	}
+
+	/**
+	 * Even-odd crossing test of a point against a polygon.
+	 */
+	private static boolean insidePolygon(double px[],double py[],double x,double y)
+	{
+		boolean inside;
+		int n,j;
+
+		n = px.length;
+		inside = false;
+		j = n-1;
+		for(int i = 0; i < n; i++)
+		{
+			if(((py[i] > y) != (py[j] > y))&&
+			   (x < (((px[j]-px[i])*(y-py[i]))/(py[j]-py[i]))+px[i]))
+				inside = !inside;
+			j = i;
+		}
+		return inside;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,811 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CompressedCatalogue.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class holds a large reference catalogue in compressed form in memory.
+ * <ul>
+ * <li>Rows are sorted by HEALPix NESTED pixel, so rows near each other on the sky are near each other in
+ *     the catalogue, and cut into blocks of BLOCK_SIZE rows.
+ * <li>Positions are quantised to whole milli-arcseconds of RA and Dec. Within a block the first row is
+ *     stored absolutely and the rest as differences from the row before, as zig-zag variable length integers.
+ * <li>Magnitudes are quantised to milli-magnitudes in shorts. Absent (NaN) magnitudes are marked in a
+ *     presence bitmap per band and take no space in the short arrays.
+ * </ul>
+ * Blocks are decompressed one at a time into a CelestialObjectColumns buffer, for full scans (optionally in
+ * parallel) and for region queries, which only decompress blocks whose pixel range meets the region.
+ * Decoded positions are within 0.5 milli-arcseconds of the originals, and magnitudes within 0.0005.
+ * Rows are in sky order, not the order they were supplied in. The row each one was supplied as (its source
+ * row) is kept too, delta coded per block like the positions, so results can be joined back to the original
+ * catalogue: see getSourceRow, decodeSourceRows and query(SkyRegion,IntArrayList).
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectColumns
+ */
+public class CompressedCatalogue implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so a saved compressed catalogue can be reloaded by later builds.
+	 */
+	static final long serialVersionUID = 5834725505634496720L;
+	/**
+	 * The number of rows in each block (the last block may be shorter).
+	 */
+	public final static int BLOCK_SIZE = 256;
+	/**
+	 * How many milli-arcseconds in one radian.
+	 */
+	public final static double RADIANS_TO_MILLIARCSECONDS = SphericalGeometry.RADIANS_TO_ARCSECONDS*1000.0;
+	/**
+	 * How many radians in one milli-arcsecond.
+	 */
+	public final static double MILLIARCSECONDS_TO_RADIANS = SphericalGeometry.ARCSECONDS_TO_RADIANS/1000.0;
+	/**
+	 * The number of milli-arcseconds in a full circle of RA.
+	 */
+	private final static int FULL_CIRCLE_MILLIARCSECONDS = 360*60*60*1000;
+	/**
+	 * The number of bytes a row takes in double columns (RA, Dec and three magnitudes), used for the
+	 * compression ratio.
+	 */
+	private final static int UNCOMPRESSED_ROW_BYTES = 5*8;
+	/**
+	 * The number of magnitude bands: B, V and R.
+	 */
+	private final static int BANDS = 3;
+	/**
+	 * The number of rows.
+	 */
+	protected int size = 0;
+	/**
+	 * The number of blocks.
+	 */
+	protected int blockCount = 0;
+	/**
+	 * The HEALPix order rows are sorted at.
+	 */
+	protected int sortOrder = 0;
+	/**
+	 * The HEALPix order region queries are resolved to.
+	 */
+	protected int queryOrder = 0;
+	/**
+	 * The sort pixel of the first row of each block.
+	 */
+	protected long blockPixel[] = null;
+	/**
+	 * The offset in positions of each block's data, blockCount+1 entries.
+	 */
+	protected int blockOffset[] = null;
+	/**
+	 * The encoded positions.
+	 */
+	protected byte positions[] = null;
+	/**
+	 * The encoded source rows.
+	 */
+	protected byte sourceRows[] = null;
+	/**
+	 * The offset in sourceRows of each block's data, blockCount+1 entries.
+	 */
+	protected int sourceRowOffset[] = null;
+	/**
+	 * The present magnitudes of each band in milli-magnitudes, packed in row order.
+	 */
+	protected short magnitudes[][] = null;
+	/**
+	 * The index in magnitudes of each block's first present magnitude, per band, blockCount+1 entries.
+	 */
+	protected int magnitudeOffset[][] = null;
+	/**
+	 * A bit per row per band, set if the magnitude is present.
+	 */
+	protected long present[][] = null;
+
+	/**
+	 * Constructor.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 * @exception IllegalArgumentException Thrown if a magnitude cannot be stored.
+	 * @see #CompressedCatalogue(CelestialObjectColumns)
+	 */
+	public CompressedCatalogue(List<CelestialObject> list) throws IllegalArgumentException
+	{
+		this(CelestialObjectColumns.fromList(list));
+	}
+
+	/**
+	 * Constructor. Sorts, quantises and encodes the columns, in parallel.
+	 * @param columns The catalogue. Magnitudes that are NaN are stored as absent.
+	 * @exception IllegalArgumentException Thrown if a magnitude is infinite or not between -32.767 and 32.767.
+	 */
+	public CompressedCatalogue(CelestialObjectColumns columns) throws IllegalArgumentException
+	{
+		super();
+		final double raRadians[],decRadians[];
+		final double bands[][];
+		final int raMas[],decMas[];
+		final long keys[];
+		final int indexBits;
+
+		size = columns.getSize();
+		raRadians = columns.getRARadians();
+		decRadians = columns.getDecRadians();
+		bands = new double[][] {columns.getBMagnitude(),columns.getVMagnitude(),columns.getRMagnitude()};
+		for(int band = 0; band < BANDS; band++)
+			checkMagnitudes(bands[band],size);
+		// sort key: the pixel in the high bits, the row in the low bits
+		indexBits = Math.max(1,32-Integer.numberOfLeadingZeros(Math.max(1,size-1)));
+		sortOrder = Math.min(HEALPix.MAX_ORDER,(63-4-indexBits)/2);
+		raMas = new int[size];
+		decMas = new int[size];
+		keys = new long[size];
+		ParallelChunks.forEach(size,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			double v[] = new double[3];
+			long ra;
+
+			for(int i = from; i < to; i++)
+			{
+				ra = Math.round(raRadians[i]*RADIANS_TO_MILLIARCSECONDS) % FULL_CIRCLE_MILLIARCSECONDS;
+				if(ra < 0)
+					ra += FULL_CIRCLE_MILLIARCSECONDS;
+				raMas[i] = (int)ra;
+				decMas[i] = (int)Math.round(decRadians[i]*RADIANS_TO_MILLIARCSECONDS);
+				// key on the quantised position, so decoded rows lie in their block's pixel range
+				SphericalGeometry.toUnitVector(raMas[i]*MILLIARCSECONDS_TO_RADIANS,
+							       decMas[i]*MILLIARCSECONDS_TO_RADIANS,v,0);
+				keys[i] = (HEALPix.vecToPixel(sortOrder,v[0],v[1],v[2]) << indexBits)|i;
+			}
+		});
+		Arrays.parallelSort(keys);
+		blockCount = (size+BLOCK_SIZE-1)/BLOCK_SIZE;
+		queryOrder = sortOrder;
+		while((queryOrder > 0)&&(HEALPix.pixelCount(queryOrder-1) >= 16L*blockCount))
+			queryOrder--;
+		blockPixel = new long[blockCount];
+		for(int b = 0; b < blockCount; b++)
+			blockPixel[b] = keys[b*BLOCK_SIZE] >>> indexBits;
+		encodePositions(keys,indexBits,raMas,decMas);
+		encodeSourceRows(keys,indexBits);
+		encodeMagnitudes(keys,indexBits,bands);
+	}
+
+	/**
+	 * Check a magnitude column can be quantised into shorts.
+	 */
+	private static void checkMagnitudes(double m[],int n) throws IllegalArgumentException
+	{
+		for(int i = 0; i < n; i++)
+		{
+			if((!Double.isNaN(m[i]))&&(!(Math.abs(m[i]) <= (Short.MAX_VALUE/1000.0))))
+			{
+				throw new IllegalArgumentException("CompressedCatalogue:checkMagnitudes:Illegal magnitude:"+
+								   m[i]+":row:"+i+": Must be between -32.767 and 32.767.");
+			}
+		}
+	}
+
+	/**
+	 * Encode the positions, sizing the blocks in one parallel pass and writing them in a second.
+	 */
+	private void encodePositions(final long keys[],final int indexBits,final int raMas[],final int decMas[])
+	{
+		final int length[];
+		final long mask;
+
+		mask = (1L << indexBits)-1;
+		length = new int[blockCount];
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			for(int b = from; b < to; b++)
+				length[b] = encodeBlock(b,keys,mask,raMas,decMas,null,0);
+		});
+		blockOffset = new int[blockCount+1];
+		for(int b = 0; b < blockCount; b++)
+		{
+			if(((long)blockOffset[b])+length[b] > Integer.MAX_VALUE)
+			{
+				throw new IllegalArgumentException(this.getClass().getName()+
+								   ":encodePositions:Catalogue too large:"+size+" rows.");
+			}
+			blockOffset[b+1] = blockOffset[b]+length[b];
+		}
+		positions = new byte[blockOffset[blockCount]];
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			for(int b = from; b < to; b++)
+				encodeBlock(b,keys,mask,raMas,decMas,positions,blockOffset[b]);
+		});
+	}
+
+	/**
+	 * Encode (or just measure) one block of positions.
+	 * @param out Where to write the encoding, or null to just measure it.
+	 * @return The number of bytes in the encoding.
+	 */
+	private int encodeBlock(int block,long keys[],long mask,int raMas[],int decMas[],byte out[],int offset)
+	{
+		int start,end,row,lastRA,lastDec,position;
+
+		start = block*BLOCK_SIZE;
+		end = Math.min(size,start+BLOCK_SIZE);
+		position = offset;
+		lastRA = 0;
+		lastDec = 0;
+		for(int i = start; i < end; i++)
+		{
+			row = (int)(keys[i] & mask);
+			position = writeVarInt(out,position,zigzag(raMas[row]-lastRA));
+			position = writeVarInt(out,position,zigzag(decMas[row]-lastDec));
+			lastRA = raMas[row];
+			lastDec = decMas[row];
+		}
+		return position-offset;
+	}
+
+	/**
+	 * Encode the source rows, sizing the blocks in one parallel pass and writing them in a second. Within a
+	 * pixel the source rows ascend, so the differences are mostly small.
+	 */
+	private void encodeSourceRows(final long keys[],final int indexBits)
+	{
+		final int length[];
+		final long mask;
+
+		mask = (1L << indexBits)-1;
+		length = new int[blockCount];
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			for(int b = from; b < to; b++)
+				length[b] = encodeSourceBlock(b,keys,mask,null,0);
+		});
+		sourceRowOffset = new int[blockCount+1];
+		for(int b = 0; b < blockCount; b++)
+		{
+			if(((long)sourceRowOffset[b])+length[b] > Integer.MAX_VALUE)
+			{
+				throw new IllegalArgumentException(this.getClass().getName()+
+								   ":encodeSourceRows:Catalogue too large:"+size+" rows.");
+			}
+			sourceRowOffset[b+1] = sourceRowOffset[b]+length[b];
+		}
+		sourceRows = new byte[sourceRowOffset[blockCount]];
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			for(int b = from; b < to; b++)
+				encodeSourceBlock(b,keys,mask,sourceRows,sourceRowOffset[b]);
+		});
+	}
+
+	/**
+	 * Encode (or just measure) one block of source rows.
+	 * @param out Where to write the encoding, or null to just measure it.
+	 * @return The number of bytes in the encoding.
+	 */
+	private int encodeSourceBlock(int block,long keys[],long mask,byte out[],int offset)
+	{
+		int start,end,row,lastRow,position;
+
+		start = block*BLOCK_SIZE;
+		end = Math.min(size,start+BLOCK_SIZE);
+		position = offset;
+		lastRow = 0;
+		for(int i = start; i < end; i++)
+		{
+			row = (int)(keys[i] & mask);
+			position = writeVarInt(out,position,zigzag(row-lastRow));
+			lastRow = row;
+		}
+		return position-offset;
+	}
+
+	/**
+	 * Encode the magnitude presence bitmaps and pack the present magnitudes.
+	 */
+	private void encodeMagnitudes(final long keys[],final int indexBits,final double bands[][])
+	{
+		final int counts[][];
+		final long mask;
+
+		mask = (1L << indexBits)-1;
+		present = new long[BANDS][(size+63)/64];
+		counts = new int[BANDS][blockCount];
+		// a block is four whole longs of the bitmap, so blocks can be written in parallel
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			int row;
+
+			for(int b = from; b < to; b++)
+			{
+				for(int i = b*BLOCK_SIZE; i < Math.min(size,(b+1)*BLOCK_SIZE); i++)
+				{
+					row = (int)(keys[i] & mask);
+					for(int band = 0; band < BANDS; band++)
+					{
+						if(!Double.isNaN(bands[band][row]))
+						{
+							present[band][i >>> 6] |= 1L << i;
+							counts[band][b]++;
+						}
+					}
+				}
+			}
+		});
+		magnitudes = new short[BANDS][];
+		magnitudeOffset = new int[BANDS][blockCount+1];
+		for(int band = 0; band < BANDS; band++)
+		{
+			for(int b = 0; b < blockCount; b++)
+				magnitudeOffset[band][b+1] = magnitudeOffset[band][b]+counts[band][b];
+			magnitudes[band] = new short[magnitudeOffset[band][blockCount]];
+		}
+		ParallelChunks.forEach(blockCount,1,(from,to) ->
+		{
+			int row,j;
+
+			for(int b = from; b < to; b++)
+			{
+				for(int band = 0; band < BANDS; band++)
+				{
+					j = magnitudeOffset[band][b];
+					for(int i = b*BLOCK_SIZE; i < Math.min(size,(b+1)*BLOCK_SIZE); i++)
+					{
+						row = (int)(keys[i] & mask);
+						if(!Double.isNaN(bands[band][row]))
+							magnitudes[band][j++] = (short)Math.round(bands[band][row]*1000.0);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Return the number of rows.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Return the number of blocks.
+	 */
+	public int getBlockCount()
+	{
+		return blockCount;
+	}
+
+	/**
+	 * Return the approximate number of bytes of heap the compressed catalogue uses.
+	 */
+	public long getMemoryBytes()
+	{
+		long bytes;
+
+		bytes = positions.length+(8L*blockPixel.length)+(4L*blockOffset.length)+sourceRows.length+
+			(4L*sourceRowOffset.length);
+		for(int band = 0; band < BANDS; band++)
+			bytes += (2L*magnitudes[band].length)+(8L*present[band].length)+(4L*magnitudeOffset[band].length);
+		return bytes;
+	}
+
+	/**
+	 * Return how many times smaller the compressed catalogue is than the same rows in double columns.
+	 */
+	public double getCompressionRatio()
+	{
+		return (((double)size)*UNCOMPRESSED_ROW_BYTES)/getMemoryBytes();
+	}
+
+	/**
+	 * Create a buffer big enough to decompress any block into.
+	 * @see #decodeBlock
+	 */
+	public CelestialObjectColumns newBlockBuffer()
+	{
+		return new CelestialObjectColumns(BLOCK_SIZE);
+	}
+
+	/**
+	 * Decompress a block. Absent magnitudes are returned as NaN.
+	 * @param block The block, 0..getBlockCount()-1.
+	 * @param buffer The columns to decompress into, at least BLOCK_SIZE rows.
+	 * @return The number of rows in the block. Block b holds rows b*BLOCK_SIZE onwards.
+	 * @see #newBlockBuffer
+	 */
+	public int decodeBlock(int block,CelestialObjectColumns buffer)
+	{
+		double ra[],dec[],m[];
+		long bits[];
+		short packed[];
+		int start,count,position,raMas,decMas,j,value,shift;
+		byte b;
+
+		start = block*BLOCK_SIZE;
+		count = Math.min(size-start,BLOCK_SIZE);
+		ra = buffer.getRARadians();
+		dec = buffer.getDecRadians();
+		position = blockOffset[block];
+		raMas = 0;
+		decMas = 0;
+		for(int i = 0; i < count; i++)
+		{
+			// two zig-zag varints, inlined
+			value = 0;
+			shift = 0;
+			do
+			{
+				b = positions[position++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+			raMas += (value >>> 1)^(-(value & 1));
+			value = 0;
+			shift = 0;
+			do
+			{
+				b = positions[position++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+			decMas += (value >>> 1)^(-(value & 1));
+			ra[i] = raMas*MILLIARCSECONDS_TO_RADIANS;
+			dec[i] = decMas*MILLIARCSECONDS_TO_RADIANS;
+		}
+		for(int band = 0; band < BANDS; band++)
+		{
+			if(band == 0)
+				m = buffer.getBMagnitude();
+			else if(band == 1)
+				m = buffer.getVMagnitude();
+			else
+				m = buffer.getRMagnitude();
+			bits = present[band];
+			packed = magnitudes[band];
+			j = magnitudeOffset[band][block];
+			for(int i = 0; i < count; i++)
+			{
+				if((bits[(start+i) >>> 6] & (1L << (start+i))) != 0)
+					m[i] = packed[j++]/1000.0;
+				else
+					m[i] = Double.NaN;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Decompress the source rows of a block: the row in the list or columns the catalogue was made from that
+	 * each row of the block was supplied as.
+	 * @param block The block, 0..getBlockCount()-1.
+	 * @param out The array to put the source rows in, at least BLOCK_SIZE long.
+	 * @return The number of rows in the block.
+	 * @see #decodeBlock
+	 */
+	public int decodeSourceRows(int block,int out[])
+	{
+		int count,position,row,value,shift;
+		byte b;
+
+		count = Math.min(size-(block*BLOCK_SIZE),BLOCK_SIZE);
+		position = sourceRowOffset[block];
+		row = 0;
+		for(int i = 0; i < count; i++)
+		{
+			value = 0;
+			shift = 0;
+			do
+			{
+				b = sourceRows[position++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+			row += (value >>> 1)^(-(value & 1));
+			out[i] = row;
+		}
+		return count;
+	}
+
+	/**
+	 * Return the source row of a row: the row in the list or columns the catalogue was made from that it
+	 * was supplied as. This decompresses the row's whole block of source rows.
+	 * @param row The row, 0..getSize()-1.
+	 * @return The source row.
+	 */
+	public int getSourceRow(int row)
+	{
+		int out[] = new int[BLOCK_SIZE];
+
+		decodeSourceRows(row/BLOCK_SIZE,out);
+		return out[row % BLOCK_SIZE];
+	}
+
+	/**
+	 * Interface for visiting the catalogue a block at a time.
+	 * @see #scan
+	 */
+	public interface BlockVisitor
+	{
+		/**
+		 * Called once per block.
+		 * @param firstRow The catalogue row of the first row in the buffer. The block is firstRow/BLOCK_SIZE,
+		 *        for decodeSourceRows.
+		 * @param rows The decompressed rows. The buffer is reused for the next block.
+		 * @param count The number of rows in the buffer.
+		 */
+		void block(int firstRow,CelestialObjectColumns rows,int count);
+	}
+
+	/**
+	 * Decompress and visit every block.
+	 * @param visitor The visitor. If parallel is true it is called concurrently from several threads,
+	 *        each with its own buffer, and blocks are visited in no particular order.
+	 * @param parallel Whether to decompress blocks in parallel.
+	 */
+	public void scan(final BlockVisitor visitor,boolean parallel)
+	{
+		ParallelChunks.Task task = null;
+
+		task = (from,to) ->
+		{
+			CelestialObjectColumns buffer = newBlockBuffer();
+			int count;
+
+			for(int b = from; b < to; b++)
+			{
+				count = decodeBlock(b,buffer);
+				visitor.block(b*BLOCK_SIZE,buffer,count);
+			}
+		};
+		if(parallel)
+			ParallelChunks.forEach(blockCount,16,task);
+		else
+			task.run(0,blockCount);
+	}
+
+	/**
+	 * Find all rows in a cone.
+	 * @param ra The right ascension of the centre.
+	 * @param dec The declination of the centre.
+	 * @param radius The radius, in arc-seconds.
+	 * @return A new set of columns holding the matching rows, in sky order.
+	 * @see #query(SkyRegion)
+	 */
+	public CelestialObjectColumns query(RA ra,Dec dec,double radius)
+	{
+		return query(new SkyCone(ra,dec,radius));
+	}
+
+	/**
+	 * Find all rows in a region. Only blocks whose pixel range meets the region's HEALPix coverage are
+	 * decompressed.
+	 * @param region The region.
+	 * @return A new set of columns holding the matching rows, in sky order.
+	 * @see #query(SkyRegion,IntArrayList)
+	 */
+	public CelestialObjectColumns query(SkyRegion region)
+	{
+		return query(region,null);
+	}
+
+	/**
+	 * Find all rows in a region, and their source rows. Only blocks whose pixel range meets the region's
+	 * HEALPix coverage are decompressed.
+	 * @param region The region.
+	 * @param sourceRowList A list to add the source row of each matching row to, in the same order as the
+	 *        returned columns, or null.
+	 * @return A new set of columns holding the matching rows, in sky order.
+	 * @see #getSourceRow
+	 */
+	public CelestialObjectColumns query(final SkyRegion region,IntArrayList sourceRowList)
+	{
+		final BitSet blocks;
+		CelestialObjectColumns buffer = null;
+		ColumnsBuilder result = null;
+		double ra[],dec[];
+		double v[] = new double[3];
+		int blockSourceRows[] = null;
+		int count;
+
+		blocks = new BitSet(blockCount);
+		HEALPix.coverage(region,queryOrder,(cellOrder,cellPixel,inside) ->
+		{
+			long first,last;
+			int b;
+
+			first = cellPixel << (2*(sortOrder-cellOrder));
+			last = ((cellPixel+1) << (2*(sortOrder-cellOrder)))-1;
+			// the block before the first block starting at or after first may also hold pixel first
+			b = lowerBound(first);
+			if(b > 0)
+				b--;
+			for(; (b < blockCount)&&(blockPixel[b] <= last); b++)
+			{
+				if((b+1 == blockCount)||(blockPixel[b+1] >= first))
+					blocks.set(b);
+			}
+		});
+		buffer = newBlockBuffer();
+		result = new ColumnsBuilder();
+		ra = buffer.getRARadians();
+		dec = buffer.getDecRadians();
+		if(sourceRowList != null)
+			blockSourceRows = new int[BLOCK_SIZE];
+		for(int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b+1))
+		{
+			count = decodeBlock(b,buffer);
+			if(sourceRowList != null)
+				decodeSourceRows(b,blockSourceRows);
+			for(int i = 0; i < count; i++)
+			{
+				SphericalGeometry.toUnitVector(ra[i],dec[i],v,0);
+				if(region.contains(v[0],v[1],v[2]))
+				{
+					result.add(buffer,i);
+					if(sourceRowList != null)
+						sourceRowList.add(blockSourceRows[i]);
+				}
+			}
+		}
+		return result.toColumns();
+	}
+
+	/**
+	 * Return a row as a new CelestialObject. This decompresses the row's whole block, so use scan for bulk access.
+	 * @param row The row, 0..getSize()-1.
+	 * @return A new CelestialObject, with absent magnitudes as NaN. Names are not stored, so it has none; use
+	 *         getSourceRow to find the original object.
+	 * @see #getSourceRow
+	 */
+	public CelestialObject getObject(int row)
+	{
+		CelestialObjectColumns buffer = null;
+		CelestialObject co = null;
+		RA ra = null;
+		Dec dec = null;
+		int i;
+
+		buffer = newBlockBuffer();
+		decodeBlock(row/BLOCK_SIZE,buffer);
+		i = row % BLOCK_SIZE;
+		co = new CelestialObject();
+		ra = new RA();
+		dec = new Dec();
+		ra.fromRadians(buffer.getRARadians()[i]);
+		dec.fromRadians(buffer.getDecRadians()[i]);
+		co.setRA(ra);
+		co.setDec(dec);
+		co.setBMagnitude(buffer.getBMagnitude()[i]);
+		co.setVMagnitude(buffer.getVMagnitude()[i]);
+		co.setRMagnitude(buffer.getRMagnitude()[i]);
+		return co;
+	}
+
+	/**
+	 * Return the index of the first block whose first pixel is at least p, or blockCount if there is none.
+	 */
+	private int lowerBound(long p)
+	{
+		int lo,hi,mid;
+
+		lo = 0;
+		hi = blockCount;
+		while(lo < hi)
+		{
+			mid = (lo+hi) >>> 1;
+			if(blockPixel[mid] < p)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Zig-zag encode a signed int, so small magnitudes of either sign encode short.
+	 */
+	private static int zigzag(int v)
+	{
+		return (v << 1)^(v >> 31);
+	}
+
+	/**
+	 * Write an unsigned variable length int, 7 bits per byte, low bits first.
+	 * @param out Where to write it, or null to just count the bytes.
+	 * @return The position after the last byte.
+	 */
+	private static int writeVarInt(byte out[],int position,int v)
+	{
+		while((v & ~0x7f) != 0)
+		{
+			if(out != null)
+				out[position] = (byte)((v & 0x7f)|0x80);
+			position++;
+			v >>>= 7;
+		}
+		if(out != null)
+			out[position] = (byte)v;
+		return position+1;
+	}
+
+	/**
+	 * Growable set of columns used to collect query results.
+	 */
+	private static class ColumnsBuilder
+	{
+		/**
+		 * The columns, in the order RA, Dec, B, V, R.
+		 */
+		private double data[][] = new double[5][16];
+		/**
+		 * The number of rows added.
+		 */
+		private int count = 0;
+
+		/**
+		 * Add row i of some columns.
+		 */
+		void add(CelestialObjectColumns columns,int i)
+		{
+			if(count == data[0].length)
+			{
+				for(int c = 0; c < data.length; c++)
+					data[c] = Arrays.copyOf(data[c],2*count);
+			}
+			data[0][count] = columns.getRARadians()[i];
+			data[1][count] = columns.getDecRadians()[i];
+			data[2][count] = columns.getBMagnitude()[i];
+			data[3][count] = columns.getVMagnitude()[i];
+			data[4][count] = columns.getRMagnitude()[i];
+			count++;
+		}
+
+		/**
+		 * Return the rows added as a new set of columns.
+		 */
+		CelestialObjectColumns toColumns()
+		{
+			CelestialObjectColumns columns = null;
+
+			columns = new CelestialObjectColumns(count);
+			System.arraycopy(data[0],0,columns.getRARadians(),0,count);
+			System.arraycopy(data[1],0,columns.getDecRadians(),0,count);
+			System.arraycopy(data[2],0,columns.getBMagnitude(),0,count);
+			System.arraycopy(data[3],0,columns.getVMagnitude(),0,count);
+			System.arraycopy(data[4],0,columns.getRMagnitude(),0,count);
+			return columns;
+		}
+	}
+};
+//
+// $Log$
+//
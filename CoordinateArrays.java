@@ -0,0 +1,479 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CoordinateArrays.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * This class holds static bulk versions of the RA and Dec conversions, working on primitive arrays rather than
+ * one RA or Dec object per value:
+ * <pre>
+ * radians &lt;-&gt; arc-seconds &lt;-&gt; fields (hours/degrees, minutes, seconds) -&gt; fixed width ASCII bytes
+ * </pre>
+ * Each method gives the same results as the matching RA or Dec method would for every element. The whole input
+ * is range checked in one branch-free pass before anything is written, so a bad element leaves the output
+ * untouched; the exception names the first bad index. Every method has a parallel flag, which splits the
+ * conversion into chunks with ParallelChunks; it is worth setting for arrays of around 10^5 elements or more.
+ * Input and output arrays may be the same array where their types match.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see RA
+ * @see Dec
+ */
+public class CoordinateArrays
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of bytes formatRA writes per element: HH:MM:SS.ss.
+	 */
+	public final static int RA_FORMAT_WIDTH = 11;
+	/**
+	 * The number of bytes formatDec writes per element: [+|-]DD:MM:SS.ss.
+	 */
+	public final static int DEC_FORMAT_WIDTH = 12;
+	/**
+	 * The number of arc-seconds in 90 degrees.
+	 */
+	private final static double ARCSECONDS_PER_QUARTER = 90.0*60.0*60.0;
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private CoordinateArrays()
+	{
+		super();
+	}
+
+	/**
+	 * Convert right ascensions from radians to arc-seconds.
+	 * @param radians The right ascensions, 0 &lt;= r &lt; 2PI.
+	 * @param arcSeconds The array to put the arc-seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see RA#fromRadians
+	 */
+	public static void raRadiansToArcSeconds(final double radians[],final double arcSeconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("raRadiansToArcSeconds",n,radians.length,arcSeconds.length);
+		checkRange("raRadiansToArcSeconds","radians",radians,n,0.0,2*Math.PI,false);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				arcSeconds[i] = (RA.ARCSECONDS_PER_DAY*radians[i])/(2*Math.PI);
+		});
+	}
+
+	/**
+	 * Convert right ascensions from arc-seconds to radians.
+	 * @param arcSeconds The right ascensions, 0 &lt;= as &lt; RA.ARCSECONDS_PER_DAY.
+	 * @param radians The array to put the radians into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see RA#toRadians
+	 */
+	public static void raArcSecondsToRadians(final double arcSeconds[],final double radians[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("raArcSecondsToRadians",n,arcSeconds.length,radians.length);
+		checkRange("raArcSecondsToRadians","arc-seconds",arcSeconds,n,0.0,RA.ARCSECONDS_PER_DAY,false);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				radians[i] = (arcSeconds[i]*(2*Math.PI))/RA.ARCSECONDS_PER_DAY;
+		});
+	}
+
+	/**
+	 * Split right ascensions in arc-seconds into hours, minutes and seconds.
+	 * @param arcSeconds The right ascensions, 0 &lt;= as &lt; RA.ARCSECONDS_PER_DAY.
+	 * @param hours The array to put the hours into.
+	 * @param minutes The array to put the minutes into.
+	 * @param seconds The array to put the seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see RA#fromArcSeconds
+	 */
+	public static void raArcSecondsToFields(final double arcSeconds[],final int hours[],final int minutes[],
+						final double seconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("raArcSecondsToFields",n,arcSeconds.length,hours.length,minutes.length,seconds.length);
+		checkRange("raArcSecondsToFields","arc-seconds",arcSeconds,n,0.0,RA.ARCSECONDS_PER_DAY,false);
+		run(n,parallel,(from,to) ->
+		{
+			double as;
+			int h,m;
+
+			for(int i = from; i < to; i++)
+			{
+				as = arcSeconds[i];
+				h = ((int)as)/(60*60*15);
+				m = (((int)as)-(h*3600*15))/(60*15);
+				hours[i] = h;
+				minutes[i] = m;
+				seconds[i] = (as-((h*3600.0*RA.SECONDS_TO_ARCSECONDS)+(m*60.0*RA.SECONDS_TO_ARCSECONDS)))/
+					RA.SECONDS_TO_ARCSECONDS;
+			}
+		});
+	}
+
+	/**
+	 * Combine right ascension hours, minutes and seconds into arc-seconds.
+	 * @param hours The hours, 0..23.
+	 * @param minutes The minutes, 0..59.
+	 * @param seconds The seconds, 0..60.
+	 * @param arcSeconds The array to put the arc-seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see RA#toArcSeconds
+	 */
+	public static void raFieldsToArcSeconds(final int hours[],final int minutes[],final double seconds[],
+						final double arcSeconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("raFieldsToArcSeconds",n,hours.length,minutes.length,seconds.length,arcSeconds.length);
+		checkRange("raFieldsToArcSeconds","hours",hours,n,0,23);
+		checkRange("raFieldsToArcSeconds","minutes",minutes,n,0,59);
+		checkRange("raFieldsToArcSeconds","seconds",seconds,n,0.0,60.0,true);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				arcSeconds[i] = ((((((double)hours[i])*60.0)+((double)minutes[i]))*60.0)+seconds[i])*
+					RA.SECONDS_TO_ARCSECONDS;
+			}
+		});
+	}
+
+	/**
+	 * Format right ascensions as fixed width ASCII, HH&lt;separator&gt;MM&lt;separator&gt;SS.ss, the same text as
+	 * RA.toString(char).
+	 * @param hours The hours, 0..23.
+	 * @param minutes The minutes, 0..59.
+	 * @param seconds The seconds, 0..60.
+	 * @param n The number of elements to format.
+	 * @param separator The separator, an ASCII character.
+	 * @param out The array to write to. Element i is written at offset+(i*stride).
+	 * @param offset Where in out to write the first element.
+	 * @param stride The distance between elements in out, at least RA_FORMAT_WIDTH. Use a larger stride to
+	 *        write into fixed width records.
+	 * @param parallel Whether to format in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, the separator is not ASCII, the
+	 *        stride is too small or an array is too short.
+	 * @see RA#toString(char)
+	 */
+	public static void formatRA(final int hours[],final int minutes[],final double seconds[],int n,
+				    final char separator,final byte out[],final int offset,final int stride,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkFormat("formatRA",n,separator,out.length,offset,stride,RA_FORMAT_WIDTH);
+		checkLength("formatRA",n,hours.length,minutes.length,seconds.length);
+		checkRange("formatRA","hours",hours,n,0,23);
+		checkRange("formatRA","minutes",minutes,n,0,59);
+		checkRange("formatRA","seconds",seconds,n,0.0,60.0,true);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				SexagesimalFormat.formatFields(out,offset+(i*stride),separator,hours[i],minutes[i],seconds[i]);
+		});
+	}
+
+	/**
+	 * Convert declinations from radians to arc-seconds.
+	 * @param radians The declinations, -PI/2 &lt;= r &lt;= PI/2.
+	 * @param arcSeconds The array to put the arc-seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see Dec#fromRadians
+	 */
+	public static void decRadiansToArcSeconds(final double radians[],final double arcSeconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("decRadiansToArcSeconds",n,radians.length,arcSeconds.length);
+		checkRange("decRadiansToArcSeconds","radians",radians,n,-Math.PI/2.0,Math.PI/2.0,true);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				arcSeconds[i] = (ARCSECONDS_PER_QUARTER*radians[i])/(Math.PI/2.0);
+		});
+	}
+
+	/**
+	 * Convert declinations from arc-seconds to radians.
+	 * @param arcSeconds The declinations, -324000 &lt;= as &lt;= 324000.
+	 * @param radians The array to put the radians into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see Dec#toRadians
+	 */
+	public static void decArcSecondsToRadians(final double arcSeconds[],final double radians[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("decArcSecondsToRadians",n,arcSeconds.length,radians.length);
+		checkRange("decArcSecondsToRadians","arc-seconds",arcSeconds,n,-ARCSECONDS_PER_QUARTER,
+			   ARCSECONDS_PER_QUARTER,true);
+		run(n,parallel,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				radians[i] = (arcSeconds[i]*(Math.PI/2.0))/ARCSECONDS_PER_QUARTER;
+		});
+	}
+
+	/**
+	 * Split declinations in arc-seconds into sign, degrees, minutes and seconds.
+	 * @param arcSeconds The declinations, -324000 &lt;= as &lt;= 324000.
+	 * @param negative The array to put the signs into, true for negative.
+	 * @param degrees The array to put the degrees into.
+	 * @param minutes The array to put the minutes into.
+	 * @param seconds The array to put the seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see Dec#fromArcSeconds
+	 */
+	public static void decArcSecondsToFields(final double arcSeconds[],final boolean negative[],final int degrees[],
+						 final int minutes[],final double seconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("decArcSecondsToFields",n,arcSeconds.length,negative.length,degrees.length,minutes.length,
+			    seconds.length);
+		checkRange("decArcSecondsToFields","arc-seconds",arcSeconds,n,-ARCSECONDS_PER_QUARTER,
+			   ARCSECONDS_PER_QUARTER,true);
+		run(n,parallel,(from,to) ->
+		{
+			double as;
+			int d,m;
+
+			for(int i = from; i < to; i++)
+			{
+				as = arcSeconds[i];
+				negative[i] = (as < 0.0);
+				as = Math.abs(as);
+				d = ((int)as)/(60*60);
+				m = (((int)as)-(d*3600))/60;
+				degrees[i] = d;
+				minutes[i] = m;
+				seconds[i] = as-((d*3600.0)+(m*60.0));
+			}
+		});
+	}
+
+	/**
+	 * Combine declination signs, degrees, minutes and seconds into arc-seconds.
+	 * @param negative The signs, true for negative.
+	 * @param degrees The degrees, 0..90.
+	 * @param minutes The minutes, 0..59.
+	 * @param seconds The seconds, 0..60.
+	 * @param arcSeconds The array to put the arc-seconds into.
+	 * @param n The number of elements to convert.
+	 * @param parallel Whether to convert in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, or an array is too short.
+	 * @see Dec#toArcSeconds
+	 */
+	public static void decFieldsToArcSeconds(final boolean negative[],final int degrees[],final int minutes[],
+						 final double seconds[],final double arcSeconds[],int n,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkLength("decFieldsToArcSeconds",n,negative.length,degrees.length,minutes.length,seconds.length,
+			    arcSeconds.length);
+		checkRange("decFieldsToArcSeconds","degrees",degrees,n,0,90);
+		checkRange("decFieldsToArcSeconds","minutes",minutes,n,0,59);
+		checkRange("decFieldsToArcSeconds","seconds",seconds,n,0.0,60.0,true);
+		run(n,parallel,(from,to) ->
+		{
+			double d;
+
+			for(int i = from; i < to; i++)
+			{
+				d = (((((double)degrees[i])*60.0)+((double)minutes[i]))*60.0)+seconds[i];
+				arcSeconds[i] = negative[i] ? -d : d;
+			}
+		});
+	}
+
+	/**
+	 * Format declinations as fixed width ASCII, [+|-]DD&lt;separator&gt;MM&lt;separator&gt;SS.ss, the same text as
+	 * Dec.toString(char).
+	 * @param negative The signs, true for negative.
+	 * @param degrees The degrees, 0..90.
+	 * @param minutes The minutes, 0..59.
+	 * @param seconds The seconds, 0..60.
+	 * @param n The number of elements to format.
+	 * @param separator The separator, an ASCII character.
+	 * @param out The array to write to. Element i is written at offset+(i*stride).
+	 * @param offset Where in out to write the first element.
+	 * @param stride The distance between elements in out, at least DEC_FORMAT_WIDTH.
+	 * @param parallel Whether to format in parallel.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, the separator is not ASCII, the
+	 *        stride is too small or an array is too short.
+	 * @see Dec#toString(char)
+	 */
+	public static void formatDec(final boolean negative[],final int degrees[],final int minutes[],
+				     final double seconds[],int n,final char separator,final byte out[],final int offset,
+				     final int stride,boolean parallel)
+		throws IllegalArgumentException
+	{
+		checkFormat("formatDec",n,separator,out.length,offset,stride,DEC_FORMAT_WIDTH);
+		checkLength("formatDec",n,negative.length,degrees.length,minutes.length,seconds.length);
+		checkRange("formatDec","degrees",degrees,n,0,90);
+		checkRange("formatDec","minutes",minutes,n,0,59);
+		checkRange("formatDec","seconds",seconds,n,0.0,60.0,true);
+		run(n,parallel,(from,to) ->
+		{
+			int p;
+
+			for(int i = from; i < to; i++)
+			{
+				p = offset+(i*stride);
+				out[p] = (byte)(negative[i] ? '-' : '+');
+				SexagesimalFormat.formatFields(out,p+1,separator,degrees[i],minutes[i],seconds[i]);
+			}
+		});
+	}
+
+	/**
+	 * Run a conversion loop, in parallel chunks or all at once.
+	 */
+	private static void run(int n,boolean parallel,ParallelChunks.Task task)
+	{
+		if(parallel)
+			ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,task);
+		else
+			task.run(0,n);
+	}
+
+	/**
+	 * Check n is non-negative and no longer than any of the arrays.
+	 */
+	private static void checkLength(String method,int n,int... lengths) throws IllegalArgumentException
+	{
+		boolean tooLong;
+
+		tooLong = (n < 0);
+		for(int i = 0; i < lengths.length; i++)
+			tooLong |= (n > lengths[i]);
+		if(tooLong)
+		{
+			throw new IllegalArgumentException("CoordinateArrays:"+method+":Illegal count:"+n+
+							   ": Must be positive and no more than the array lengths.");
+		}
+	}
+	/**
+	 * Check the formatting arguments.
+	 */
+	private static void checkFormat(String method,int n,char separator,int length,int offset,int stride,int width)
+		throws IllegalArgumentException
+	{
+		if(separator > 127)
+		{
+			throw new IllegalArgumentException("CoordinateArrays:"+method+":Illegal separator:"+separator+
+							   ": Must be ASCII.");
+		}
+		if(stride < width)
+		{
+			throw new IllegalArgumentException("CoordinateArrays:"+method+":Illegal stride:"+stride+
+							   ": Must be at least "+width+".");
+		}
+		if((n < 0)||(offset < 0)||((n > 0)&&(offset+((long)(n-1)*stride)+width > length)))
+		{
+			throw new IllegalArgumentException("CoordinateArrays:"+method+":Output array of length "+length+
+							   " too short for "+n+" elements at offset "+offset+
+							   " and stride "+stride+".");
+		}
+	}
+
+	/**
+	 * Check every element of an array is in a range, in one branch-free pass. NaN is out of range.
+	 * @param method The calling method, for the exception message.
+	 * @param name The name of the values, for the exception message.
+	 * @param a The array.
+	 * @param n The number of elements to check.
+	 * @param min The smallest legal value.
+	 * @param max The largest legal value, or the first illegal one if maxInclusive is false.
+	 * @param maxInclusive Whether max itself is legal.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, naming the first.
+	 */
+	private static void checkRange(String method,String name,double a[],int n,double min,double max,
+				       boolean maxInclusive) throws IllegalArgumentException
+	{
+		boolean bad;
+
+		bad = false;
+		if(maxInclusive)
+		{
+			for(int i = 0; i < n; i++)
+				bad |= !((a[i] >= min)&(a[i] <= max));
+		}
+		else
+		{
+			for(int i = 0; i < n; i++)
+				bad |= !((a[i] >= min)&(a[i] < max));
+		}
+		if(!bad)
+			return;
+		for(int i = 0; i < n; i++)
+		{
+			if(!((a[i] >= min)&&(maxInclusive ? (a[i] <= max) : (a[i] < max))))
+			{
+				throw new IllegalArgumentException("CoordinateArrays:"+method+":Illegal "+name+" at index "+i+
+								   ":"+a[i]+": Must be "+min+(maxInclusive ? ".." : " up to ")+
+								   max+".");
+			}
+		}
+	}
+
+	/**
+	 * Check every element of an int array is in a range, in one branch-free pass.
+	 * @exception IllegalArgumentException Thrown if an element is out of range, naming the first.
+	 */
+	private static void checkRange(String method,String name,int a[],int n,int min,int max)
+		throws IllegalArgumentException
+	{
+		boolean bad;
+
+		bad = false;
+		for(int i = 0; i < n; i++)
+			bad |= (a[i] < min)|(a[i] > max);
+		if(!bad)
+			return;
+		for(int i = 0; i < n; i++)
+		{
+			if((a[i] < min)||(a[i] > max))
+			{
+				throw new IllegalArgumentException("CoordinateArrays:"+method+":Illegal "+name+" at index "+i+
+								   ":"+a[i]+": Must be "+min+".."+max+".");
+			}
+		}
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,395 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// CrossMatchPrefilter.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * A compact probabilistic prefilter for cross-matching detections against a large reference catalogue. Every
+ * HEALPix pixel that overlaps a cone of the match radius around a catalogue position is marked. A detection
+ * whose pixel is not marked cannot have a catalogue object within the match radius, so a "false" answer from
+ * mightMatch is guaranteed; a "true" answer means the full index must be probed.
+ * <p>
+ * If a dense bitmap of all pixels at the chosen order fits in the memory budget, one bit per pixel is used.
+ * A dense bitmap has no hash collisions, so the requested false positive rate is not used: its false positives
+ * come only from marking whole pixels, and so from the pixel size. Otherwise the marked pixel numbers are stored
+ * in a Bloom filter, sized from the requested false positive rate and capped by the memory budget. Either way
+ * the filter is at most MAX_BITS bits (8 GiB), the most a long array can hold in whole powers of two.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see HEALPix
+ */
+public class CrossMatchPrefilter
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * How many pixel orders finer than the match radius the filter may go, if the memory budget allows.
+	 * Finer pixels reduce the false positives caused by dilating whole pixels.
+	 */
+	private final static int MAX_EXTRA_ORDERS = 2;
+	/**
+	 * The largest number of hash functions a Bloom filter will use.
+	 */
+	private final static int MAX_HASH_COUNT = 16;
+	/**
+	 * The largest filter, in bits. This is 2^30 longs, the largest power of two a long array can hold.
+	 */
+	public final static long MAX_BITS = 1L << 36;
+	/**
+	 * Handle used to set bits in the bit array atomically during the parallel build.
+	 */
+	private final static VarHandle BITS_HANDLE = MethodHandles.arrayElementVarHandle(long[].class);
+	/**
+	 * The HEALPix order of the pixels.
+	 */
+	protected int order = 0;
+	/**
+	 * The match radius, in arc-seconds.
+	 */
+	protected double radius = 0.0;
+	/**
+	 * Whether the bits are a Bloom filter (true) or a dense bitmap indexed by pixel (false).
+	 */
+	protected boolean bloom = false;
+	/**
+	 * The bits.
+	 */
+	protected long bits[] = null;
+	/**
+	 * The number of bits minus one. The number of bits is always a power of two.
+	 */
+	protected long bitMask = 0;
+	/**
+	 * The number of Bloom filter hash functions.
+	 */
+	protected int hashCount = 0;
+
+	/**
+	 * Constructor. Use one of the build methods to create a filter.
+	 */
+	protected CrossMatchPrefilter()
+	{
+		super();
+	}
+
+	/**
+	 * Build a prefilter from a list of CelestialObjects.
+	 * @param list The catalogue objects, all of which must have an RA and Dec.
+	 * @param radius The match radius, in arc-seconds.
+	 * @param falsePositiveRate The target false positive rate of the Bloom filter, between 0 and 1. It is
+	 *        checked but not used if a dense bitmap fits the memory budget.
+	 * @param memoryBudget The maximum size of the filter, in bytes.
+	 * @return A new prefilter.
+	 * @see #build(CelestialObjectColumns,double,double,long)
+	 */
+	public static CrossMatchPrefilter build(List<CelestialObject> list,double radius,double falsePositiveRate,
+						long memoryBudget)
+	{
+		return build(CelestialObjectColumns.fromList(list),radius,falsePositiveRate,memoryBudget);
+	}
+
+	/**
+	 * Build a prefilter from columnar catalogue data, in parallel.
+	 * @param columns The catalogue positions.
+	 * @param radius The match radius, in arc-seconds.
+	 * @param falsePositiveRate The target false positive rate of the Bloom filter, between 0 and 1. It is
+	 *        checked but not used if a dense bitmap fits the memory budget.
+	 * @param memoryBudget The maximum size of the filter, in bytes. Budgets over MAX_BITS/8 are treated as
+	 *        MAX_BITS/8.
+	 * @return A new prefilter.
+	 * @exception IllegalArgumentException Thrown if the arguments are out of range.
+	 */
+	public static CrossMatchPrefilter build(CelestialObjectColumns columns,double radius,double falsePositiveRate,
+						long memoryBudget) throws IllegalArgumentException
+	{
+		final CrossMatchPrefilter filter;
+		final double ra[],dec[];
+		long budgetBits,bloomBits,expectedEntries;
+		int radiusOrder,o;
+
+		if(radius <= 0.0)
+			throw new IllegalArgumentException("CrossMatchPrefilter:build:Illegal radius:"+radius);
+		if((falsePositiveRate <= 0.0)||(falsePositiveRate >= 1.0))
+		{
+			throw new IllegalArgumentException("CrossMatchPrefilter:build:Illegal false positive rate:"+
+							   falsePositiveRate);
+		}
+		if(memoryBudget < 8)
+			throw new IllegalArgumentException("CrossMatchPrefilter:build:Illegal memory budget:"+memoryBudget);
+		filter = new CrossMatchPrefilter();
+		filter.radius = radius;
+		budgetBits = Long.highestOneBit(Math.min(memoryBudget,MAX_BITS/8L)*8L);
+		radiusOrder = HEALPix.orderForResolution(radius*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		// use the finest order whose dense bitmap fits the budget
+		o = Math.min(HEALPix.MAX_ORDER,radiusOrder+MAX_EXTRA_ORDERS);
+		while((o > radiusOrder)&&(HEALPix.pixelCount(o) > budgetBits))
+			o--;
+		if(HEALPix.pixelCount(o) <= budgetBits)
+		{
+			filter.order = o;
+			filter.bloom = false;
+			filter.bitMask = Long.highestOneBit(HEALPix.pixelCount(o)-1)*2-1;
+			filter.hashCount = 1;
+		}
+		else
+		{
+			// hash the coarsest useful pixels, to keep the number of Bloom filter entries down
+			filter.order = radiusOrder;
+			expectedEntries = Math.max(1L,columns.getSize()*pixelsPerPosition(radius,radiusOrder));
+			bloomBits = (long)Math.ceil((-expectedEntries*Math.log(falsePositiveRate))/(Math.log(2.0)*Math.log(2.0)));
+			bloomBits = Math.max(64L,Math.min(budgetBits,Long.highestOneBit(bloomBits-1)*2));
+			filter.bloom = true;
+			filter.bitMask = bloomBits-1;
+			filter.hashCount = (int)Math.round(((double)bloomBits/expectedEntries)*Math.log(2.0));
+			filter.hashCount = Math.max(1,Math.min(MAX_HASH_COUNT,filter.hashCount));
+		}
+		filter.bits = new long[(int)Math.max(1L,(filter.bitMask+1) >>> 6)];
+		ra = columns.getRARadians();
+		dec = columns.getDecRadians();
+		ParallelChunks.forEach(columns.getSize(),1024,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				filter.mark(ra[i],dec[i]);
+		});
+		return filter;
+	}
+
+	/**
+	 * Estimate how many pixels are marked for one catalogue position: the area of the match radius cone
+	 * grown by a pixel radius, divided by the pixel area.
+	 * @param radius The match radius, in arc-seconds.
+	 * @param o The pixel order.
+	 * @return The estimated number of pixels, at least 1.
+	 */
+	private static long pixelsPerPosition(double radius,int o)
+	{
+		double r;
+
+		r = (radius*SphericalGeometry.ARCSECONDS_TO_RADIANS)+HEALPix.maxPixelRadius(o);
+		return Math.max(1L,(long)Math.ceil((Math.PI*r*r)/HEALPix.pixelArea(o)));
+	}
+
+	/**
+	 * Mark every pixel that overlaps the match radius cone around a position.
+	 */
+	protected void mark(double raRadians,double decRadians)
+	{
+		HEALPix.coneCoverage(new SkyCone(raRadians,decRadians,radius),order,(cellOrder,cellPixel,inside) ->
+		{
+			int shift;
+			long lo,hi;
+
+			shift = 2*(order-cellOrder);
+			lo = cellPixel << shift;
+			hi = (cellPixel+1) << shift;
+			for(long p = lo; p < hi; p++)
+				markPixel(p);
+		});
+	}
+
+	/**
+	 * Set the bit(s) for a pixel, atomically.
+	 */
+	protected void markPixel(long p)
+	{
+		long h,h1,h2,bit;
+
+		if(!bloom)
+		{
+			setBit(p);
+			return;
+		}
+		h = mix(p);
+		h1 = h;
+		h2 = (h >>> 32)|1;
+		for(int i = 0; i < hashCount; i++)
+		{
+			bit = (h1+(i*h2)) & bitMask;
+			setBit(bit);
+		}
+	}
+
+	/**
+	 * Atomically set one bit.
+	 */
+	private void setBit(long bit)
+	{
+		BITS_HANDLE.getAndBitwiseOr(bits,(int)(bit >>> 6),1L << (bit & 63));
+	}
+
+	/**
+	 * Return whether a detection might have a catalogue match.
+	 * @param ra The right ascension of the detection.
+	 * @param dec The declination of the detection.
+	 * @return false if there is definitely no catalogue object within the match radius, true otherwise.
+	 */
+	public boolean mightMatch(RA ra,Dec dec)
+	{
+		return mightMatch(ra.toRadians(),dec.toRadians());
+	}
+
+	/**
+	 * Return whether a detection might have a catalogue match.
+	 * @param raRadians The right ascension of the detection, in radians.
+	 * @param decRadians The declination of the detection, in radians.
+	 * @return false if there is definitely no catalogue object within the match radius, true otherwise.
+	 */
+	public boolean mightMatch(double raRadians,double decRadians)
+	{
+		return mightMatchPixel(HEALPix.angToPixel(order,raRadians,decRadians));
+	}
+
+	/**
+	 * Return whether a detection unit vector might have a catalogue match.
+	 * @return false if there is definitely no catalogue object within the match radius, true otherwise.
+	 */
+	public boolean mightMatch(double x,double y,double z)
+	{
+		return mightMatchPixel(HEALPix.vecToPixel(order,x,y,z));
+	}
+
+	/**
+	 * Return whether a pixel at the filter order is marked.
+	 */
+	protected boolean mightMatchPixel(long p)
+	{
+		long h,h1,h2,bit;
+
+		if(!bloom)
+			return (bits[(int)(p >>> 6)] & (1L << (p & 63))) != 0;
+		h = mix(p);
+		h1 = h;
+		h2 = (h >>> 32)|1;
+		for(int i = 0; i < hashCount; i++)
+		{
+			bit = (h1+(i*h2)) & bitMask;
+			if((bits[(int)(bit >>> 6)] & (1L << (bit & 63))) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Filter many detections, in parallel.
+	 * @param raRadians The detection right ascensions, in radians.
+	 * @param decRadians The detection declinations, in radians.
+	 * @param count The number of detections.
+	 * @param result An array of at least count elements, set to the mightMatch result for each detection.
+	 * @return The number of detections that might match.
+	 */
+	public int mightMatchBatch(final double raRadians[],final double decRadians[],int count,final boolean result[])
+	{
+		int matches;
+
+		ParallelChunks.forEach(count,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				result[i] = mightMatch(raRadians[i],decRadians[i]);
+		});
+		matches = 0;
+		for(int i = 0; i < count; i++)
+		{
+			if(result[i])
+				matches++;
+		}
+		return matches;
+	}
+
+	/**
+	 * Return the HEALPix order of the filter pixels.
+	 */
+	public int getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Return whether the filter is a Bloom filter rather than a dense bitmap.
+	 */
+	public boolean isBloomFilter()
+	{
+		return bloom;
+	}
+
+	/**
+	 * Return the memory used by the filter bits.
+	 * @return The size in bytes.
+	 */
+	public long getMemoryBytes()
+	{
+		return 8L*bits.length;
+	}
+
+	/**
+	 * Return the fraction of filter bits that are set.
+	 * @return A number between 0 and 1.
+	 */
+	public double getFillFraction()
+	{
+		long set;
+
+		set = 0;
+		for(int i = 0; i < bits.length; i++)
+			set += Long.bitCount(bits[i]);
+		return ((double)set)/(64.0*bits.length);
+	}
+
+	/**
+	 * Estimate the probability that a detection in an unmarked pixel passes the filter. For the dense
+	 * bitmap this is the fraction of pixels that are marked; for the Bloom filter it is the fill fraction
+	 * raised to the number of hash functions. Detections in marked pixels but outside the match radius
+	 * (from dilating whole pixels) pass in either case.
+	 * @return A number between 0 and 1.
+	 */
+	public double getFalsePositiveEstimate()
+	{
+		double fill;
+
+		fill = getFillFraction();
+		if(!bloom)
+			return fill*(bits.length*64.0)/HEALPix.pixelCount(order);
+		return Math.pow(fill,hashCount);
+	}
+
+	/**
+	 * 64-bit finaliser (from SplitMix64), used to hash pixel numbers.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public String toString()
+	{
+		return new String(this.getClass().getName()+":order="+order+":radius="+radius+":bloom="+bloom+
+				  ":bytes="+getMemoryBytes()+":hashCount="+hashCount);
+	}
+};
+//
+// $Log$
+//
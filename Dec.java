@@ -303,6 +303,26 @@ public class Dec implements Serializable
 	 * @see #SIGN_CHAR_NEGATIVE
 	 */
 	public void parseSeparator(String s,String separator,boolean checkSignChar) throws IllegalArgumentException
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		try
+		{
+			parseSeparatorImpl(s,separator,checkSignChar);
+		}
+		catch(RuntimeException e)
+		{
+			AstrometryMetrics.reject(AstrometryMetrics.DEC_PARSE);
+			throw e;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.DEC_PARSE,startTime);
+	}
+
+	/**
+	 * The body of parseSeparator, timed by it.
+	 */
+	private void parseSeparatorImpl(String s,String separator,boolean checkSignChar) throws IllegalArgumentException
 	{
 		StringTokenizer st = null;
 		Number number = null;
@@ -423,6 +443,26 @@ public class Dec implements Serializable
 	 * @see #fromArcSeconds
 	 */
 	public void fromRadians(double radians)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		try
+		{
+			fromRadiansImpl(radians);
+		}
+		catch(RuntimeException e)
+		{
+			AstrometryMetrics.reject(AstrometryMetrics.DEC_CONVERT);
+			throw e;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.DEC_CONVERT,startTime);
+	}
+
+	/**
+	 * The body of fromRadians, timed by it.
+	 */
+	private void fromRadiansImpl(double radians)
 	{
 		double as;
 
@@ -450,7 +490,13 @@ public class Dec implements Serializable
 	 */
 	public double toRadians()
 	{
-		return (toArcSeconds()*(Math.PI/2.0))/(90.0*60.0*60.0);
+		double radians;
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		radians = (toArcSeconds()*(Math.PI/2.0))/(90.0*60.0*60.0);
+		AstrometryMetrics.stop(AstrometryMetrics.DEC_CONVERT,startTime);
+		return radians;
 	}
 
 	/**
@@ -474,7 +520,9 @@ public class Dec implements Serializable
 		DecimalFormat df = null;
 		DecimalFormat dfd = null;
 		StringBuffer sb = null;
+		long startTime;
 		
+		startTime = AstrometryMetrics.start();
 		df = new DecimalFormat("00");
 		dfd = new DecimalFormat("00.00");
 		sb = new StringBuffer();
@@ -487,8 +535,31 @@ public class Dec implements Serializable
 		sb.append(df.format(minutes));
 		sb.append(separator);
 		sb.append(dfd.format(seconds));
+		AstrometryMetrics.stop(AstrometryMetrics.DEC_FORMAT,startTime);
 		return sb.toString();
 	}
+
+	/**
+	 * Append the declination to a StringBuilder, in the same form as toString(char), without
+	 * creating any intermediate objects. Used when streaming many positions.
+	 * @param sb The StringBuilder to append to.
+	 * @param separator A character to use as the separator.
+	 * @return sb, so calls can be chained.
+	 * @see #toString(char)
+	 */
+	public StringBuilder appendTo(StringBuilder sb,char separator)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		if(negative)
+			sb.append('-');
+		else
+			sb.append('+');
+		SexagesimalFormat.appendFields(sb,degrees,separator,minutes,seconds);
+		AstrometryMetrics.stop(AstrometryMetrics.DEC_FORMAT,startTime);
+		return sb;
+	}
 };
 //
 // $Log: not supported by cvs2svn $
@@ -0,0 +1,448 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// EpochPropagator.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class moves catalogue positions from their catalogue epoch to another epoch, using each object's
+ * proper motion, parallax and radial velocity. The motion is the rigorous straight-line space motion of the
+ * Hipparcos catalogue (volume 1, section 1.5.5): with radial velocity and parallax known, the perspective
+ * acceleration is included; without them the star moves along a great circle at its catalogue proper motion.
+ * Rows without a proper motion do not move. Rows without an epoch are taken to be at the default epoch.
+ * <p>
+ * The static methods propagate one object, or whole columnar catalogues in one pass over the primitive
+ * columns, in parallel chunks. The propagated proper motion, parallax and radial velocity are also
+ * returned, so a propagated catalogue can be propagated again.
+ * <p>
+ * An instance wraps one catalogue and caches its propagations by target epoch, so every user of a nightly
+ * epoch shares one propagation. Concurrent requests for the same epoch wait for a single computation. Target
+ * epochs can be rounded to a resolution (e.g. one day), so slightly different requests share a result.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObject
+ * @see CelestialObjectColumns
+ */
+public class EpochPropagator
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The epoch of rows that have none, as a Julian year.
+	 */
+	public final static double DEFAULT_EPOCH = 2000.0;
+	/**
+	 * The default number of propagated catalogues cached.
+	 */
+	public final static int DEFAULT_CACHE_SIZE = 4;
+	/**
+	 * The number of days in a Julian year.
+	 */
+	public final static double DAYS_PER_YEAR = 365.25;
+	/**
+	 * The astronomical unit in km/s per year: a radial velocity in km/s times the parallax, divided by this,
+	 * is the radial "proper motion" in the parallax's units per year.
+	 */
+	private final static double AU_KM_S_YEAR = 4.740470446;
+	/**
+	 * Milli-arcseconds to radians.
+	 */
+	private final static double MAS_TO_RADIANS = SphericalGeometry.ARCSECONDS_TO_RADIANS/1000.0;
+	/**
+	 * The catalogue to propagate.
+	 */
+	protected CelestialObjectColumns source = null;
+	/**
+	 * The epoch of rows that have none, as a Julian year.
+	 */
+	protected double defaultEpoch = DEFAULT_EPOCH;
+	/**
+	 * The resolution target epochs are rounded to, in days, or 0 for none.
+	 */
+	protected double epochResolution = 0.0;
+	/**
+	 * Whether to propagate in parallel.
+	 */
+	protected boolean parallel = true;
+	/**
+	 * The number of propagated catalogues cached.
+	 */
+	protected int cacheSize = DEFAULT_CACHE_SIZE;
+	/**
+	 * The propagated catalogues (finished or in progress), keyed by target epoch, least recently used first.
+	 */
+	protected LinkedHashMap<Double,CompletableFuture<CelestialObjectColumns>> cache = null;
+
+	/**
+	 * Constructor.
+	 * @param c The catalogue to propagate. It should not be changed while this propagator is in use, or the
+	 *        cache should be cleared after a change.
+	 */
+	public EpochPropagator(CelestialObjectColumns c)
+	{
+		super();
+		source = c;
+		cache = new LinkedHashMap<Double,CompletableFuture<CelestialObjectColumns>>(16,0.75f,true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<Double,CompletableFuture<CelestialObjectColumns>>
+							    eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Set the epoch of rows that have none. This clears the cache.
+	 * @param e The epoch, as a Julian year.
+	 */
+	public void setDefaultEpoch(double e)
+	{
+		defaultEpoch = e;
+		clearCache();
+	}
+
+	/**
+	 * Return the epoch of rows that have none, as a Julian year.
+	 */
+	public double getDefaultEpoch()
+	{
+		return defaultEpoch;
+	}
+
+	/**
+	 * Set the resolution target epochs are rounded to before propagating, so requests within it share one
+	 * propagation. A star moving 10 arc-seconds per year moves 0.03 arc-seconds in a day.
+	 * @param days The resolution, in days, or 0 to propagate to exactly the requested epoch.
+	 * @exception IllegalArgumentException Thrown if days is negative.
+	 */
+	public void setEpochResolution(double days) throws IllegalArgumentException
+	{
+		if((days < 0.0)||Double.isNaN(days))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setEpochResolution:Illegal resolution:"+days+
+							   ": Must be 0 or more.");
+		}
+		epochResolution = days;
+	}
+
+	/**
+	 * Return the resolution target epochs are rounded to, in days, or 0 for none.
+	 */
+	public double getEpochResolution()
+	{
+		return epochResolution;
+	}
+
+	/**
+	 * Set the number of propagated catalogues cached.
+	 * @param n The number of catalogues, 0 to disable caching.
+	 * @exception IllegalArgumentException Thrown if n is negative.
+	 */
+	public void setCacheSize(int n) throws IllegalArgumentException
+	{
+		if(n < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCacheSize:Illegal size:"+n+
+							   ": Must be 0 or more.");
+		}
+		cacheSize = n;
+	}
+
+	/**
+	 * Return the number of propagated catalogues cached.
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * Set whether to propagate in parallel.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Remove every cached propagation.
+	 */
+	public void clearCache()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Return the catalogue propagated to an epoch, from the cache if it is there. The returned columns are
+	 * shared with other callers and must not be changed.
+	 * @param targetEpoch The epoch, as a Julian year. It is rounded to the epoch resolution.
+	 * @return The propagated catalogue, with the epoch of every row set to the (rounded) target epoch if the
+	 *         source has astrometric columns.
+	 * @see #setEpochResolution
+	 */
+	public CelestialObjectColumns propagate(double targetEpoch)
+	{
+		CompletableFuture<CelestialObjectColumns> future = null;
+		Double key = null;
+		boolean owner;
+
+		if(epochResolution > 0.0)
+		{
+			targetEpoch = (Math.rint((targetEpoch*DAYS_PER_YEAR)/epochResolution)*epochResolution)/
+				DAYS_PER_YEAR;
+		}
+		key = Double.valueOf(targetEpoch);
+		owner = false;
+		synchronized(cache)
+		{
+			future = cache.get(key);
+			if(future == null)
+			{
+				future = new CompletableFuture<CelestialObjectColumns>();
+				owner = true;
+				if(cacheSize > 0)
+					cache.put(key,future);
+			}
+		}
+		if(owner)
+		{
+			try
+			{
+				future.complete(propagate(source,targetEpoch,defaultEpoch,parallel));
+			}
+			catch(RuntimeException e)
+			{
+				synchronized(cache)
+				{
+					cache.remove(key,future);
+				}
+				future.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try
+		{
+			return future.join();
+		}
+		catch(CompletionException e)
+		{
+			// another caller's propagation failed
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Propagate a whole catalogue to an epoch.
+	 * @param in The catalogue.
+	 * @param targetEpoch The epoch, as a Julian year.
+	 * @param defaultEpoch The epoch of rows that have none, as a Julian year.
+	 * @param parallel Whether to propagate in parallel.
+	 * @return A new catalogue holding the propagated positions, copies of the magnitudes and, if the input
+	 *         has astrometric columns, the propagated proper motions, parallaxes and radial velocities, with
+	 *         every row's epoch set to the target epoch.
+	 */
+	public static CelestialObjectColumns propagate(final CelestialObjectColumns in,final double targetEpoch,
+						       final double defaultEpoch,boolean parallel)
+	{
+		final CelestialObjectColumns out;
+		ParallelChunks.Task task = null;
+		int n;
+
+		n = in.getSize();
+		out = new CelestialObjectColumns(n);
+		System.arraycopy(in.bMagnitude,0,out.bMagnitude,0,n);
+		System.arraycopy(in.vMagnitude,0,out.vMagnitude,0,n);
+		System.arraycopy(in.rMagnitude,0,out.rMagnitude,0,n);
+		if(!in.hasAstrometry())
+		{
+			System.arraycopy(in.raRadians,0,out.raRadians,0,n);
+			System.arraycopy(in.decRadians,0,out.decRadians,0,n);
+			return out;
+		}
+		out.allocateAstrometry();
+		task = (from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				propagateRow(in,i,targetEpoch,defaultEpoch,out);
+		};
+		if(parallel)
+			ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,task);
+		else
+			task.run(0,n);
+		return out;
+	}
+
+	/**
+	 * Propagate one object to an epoch, in place: its position, proper motion, parallax, radial velocity
+	 * and epoch are changed. An object without a proper motion only has its epoch changed.
+	 * @param co The object, which must have an RA and Dec.
+	 * @param targetEpoch The epoch, as a Julian year.
+	 * @param defaultEpoch The epoch to use if the object has none, as a Julian year.
+	 */
+	public static void propagate(CelestialObject co,double targetEpoch,double defaultEpoch)
+	{
+		CelestialObjectColumns in = null;
+		CelestialObjectColumns out = null;
+		RA ra = null;
+		Dec dec = null;
+
+		in = new CelestialObjectColumns(1);
+		in.allocateAstrometry();
+		in.set(0,co);
+		out = new CelestialObjectColumns(1);
+		out.allocateAstrometry();
+		propagateRow(in,0,targetEpoch,defaultEpoch,out);
+		ra = new RA();
+		ra.fromRadians(out.raRadians[0]);
+		dec = new Dec();
+		dec.fromRadians(out.decRadians[0]);
+		co.setRA(ra);
+		co.setDec(dec);
+		co.setProperMotion(out.pmRA[0],out.pmDec[0]);
+		co.setParallax(out.parallax[0]);
+		co.setRadialVelocity(out.radialVelocity[0]);
+		co.setEpoch(out.epoch[0]);
+	}
+
+	/**
+	 * Return the Julian year of a Julian date.
+	 * @param jd The Julian date.
+	 * @return The Julian year, e.g. 2000.0 for 2000 January 1 12h.
+	 */
+	public static double julianYear(double jd)
+	{
+		return DEFAULT_EPOCH+((jd-SolarSystemEphemeris.J2000)/DAYS_PER_YEAR);
+	}
+
+	/**
+	 * Return the Julian year of a time.
+	 * @param d The time.
+	 * @return The Julian year.
+	 */
+	public static double julianYear(Date d)
+	{
+		return julianYear(SolarSystemEphemeris.julianDate(d));
+	}
+
+	/**
+	 * Propagate one row. Absent proper motions, parallaxes and radial velocities are taken as 0 in the
+	 * motion, and stay absent in the output.
+	 * @param in The input catalogue, which must have astrometric columns.
+	 * @param i The row, in both catalogues.
+	 * @param targetEpoch The epoch, as a Julian year.
+	 * @param defaultEpoch The epoch of a row with none.
+	 * @param out The output catalogue, which must have astrometric columns.
+	 */
+	private static void propagateRow(CelestialObjectColumns in,int i,double targetEpoch,double defaultEpoch,
+					 CelestialObjectColumns out)
+	{
+		double ra,dec,pmRA,pmDec,plx,rv,t,sa,ca,sd,cd;
+		double rx,ry,rz,mx,my,mz,ux,uy,uz,vx,vy,vz;
+		double muR,mu2,f,f2,f3,newMuR,newPlx;
+
+		ra = in.raRadians[i];
+		dec = in.decRadians[i];
+		pmRA = in.pmRA[i];
+		pmDec = in.pmDec[i];
+		plx = in.parallax[i];
+		rv = in.radialVelocity[i];
+		t = Double.isNaN(in.epoch[i]) ? targetEpoch-defaultEpoch : targetEpoch-in.epoch[i];
+		out.epoch[i] = targetEpoch;
+		out.parallax[i] = plx;
+		out.radialVelocity[i] = rv;
+		out.pmRA[i] = pmRA;
+		out.pmDec[i] = pmDec;
+		if(Double.isNaN(pmRA)||Double.isNaN(pmDec))
+		{
+			out.raRadians[i] = ra;
+			out.decRadians[i] = dec;
+			return;
+		}
+		pmRA *= MAS_TO_RADIANS;
+		pmDec *= MAS_TO_RADIANS;
+		// the radial proper motion needs both parallax and radial velocity
+		if(Double.isNaN(plx)||Double.isNaN(rv)||(plx <= 0.0))
+			muR = 0.0;
+		else
+			muR = (rv*plx*MAS_TO_RADIANS)/AU_KM_S_YEAR;
+		sa = Math.sin(ra);
+		ca = Math.cos(ra);
+		sd = Math.sin(dec);
+		cd = Math.cos(dec);
+		// position r and proper motion vector m = p*pmRA + q*pmDec, with p towards east and q towards north
+		rx = cd*ca;
+		ry = cd*sa;
+		rz = sd;
+		mx = (-sa*pmRA)-(sd*ca*pmDec);
+		my = (ca*pmRA)-(sd*sa*pmDec);
+		mz = cd*pmDec;
+		mu2 = (pmRA*pmRA)+(pmDec*pmDec);
+		f2 = 1.0/(1.0+(2.0*muR*t)+((mu2+(muR*muR))*t*t));
+		f = Math.sqrt(f2);
+		f3 = f*f2;
+		ux = ((rx*(1.0+(muR*t)))+(mx*t))*f;
+		uy = ((ry*(1.0+(muR*t)))+(my*t))*f;
+		uz = ((rz*(1.0+(muR*t)))+(mz*t))*f;
+		ra = Math.atan2(uy,ux);
+		if(ra < 0.0)
+			ra += 2.0*Math.PI;
+		out.raRadians[i] = ra;
+		cd = Math.sqrt((ux*ux)+(uy*uy));
+		out.decRadians[i] = Math.atan2(uz,cd);
+		// the proper motion vector at the target epoch, resolved along the new p and q
+		vx = ((mx*(1.0+(muR*t)))-(rx*mu2*t))*f3;
+		vy = ((my*(1.0+(muR*t)))-(ry*mu2*t))*f3;
+		vz = ((mz*(1.0+(muR*t)))-(rz*mu2*t))*f3;
+		sd = uz;
+		// at a pole the old p and q are kept
+		if(cd > 0.0)
+		{
+			sa = uy/cd;
+			ca = ux/cd;
+		}
+		out.pmRA[i] = ((-sa*vx)+(ca*vy))/MAS_TO_RADIANS;
+		out.pmDec[i] = ((-sd*ca*vx)-(sd*sa*vy)+(cd*vz))/MAS_TO_RADIANS;
+		if(!Double.isNaN(plx))
+		{
+			newPlx = plx*f;
+			out.parallax[i] = newPlx;
+			if((muR != 0.0)&&(newPlx > 0.0))
+			{
+				newMuR = (muR+((mu2+(muR*muR))*t))*f2;
+				out.radialVelocity[i] = (newMuR*AU_KM_S_YEAR)/(newPlx*MAS_TO_RADIANS);
+			}
+		}
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,103 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// GuideStarCandidate.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds a ranked guide star candidate returned by the GuideStarSelector.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see GuideStarSelector
+ */
+public class GuideStarCandidate implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as candidates are returned across JVMs.
+	 */
+	static final long serialVersionUID = 7144771266187311718L;
+	/**
+	 * The candidate star.
+	 */
+	protected CelestialObject object = null;
+	/**
+	 * The ranking score, higher is better.
+	 */
+	protected double score = 0.0;
+	/**
+	 * The distance to the nearest catalogue neighbour of any brightness, in arc-seconds. If no neighbour was found
+	 * within the isolation radius, this is the isolation radius.
+	 */
+	protected double neighbourDistance = 0.0;
+	/**
+	 * The distance to the nearest guider field edge, in arc-seconds.
+	 */
+	protected double edgeDistance = 0.0;
+
+	/**
+	 * Constructor.
+	 * @param o The candidate star.
+	 * @param s The ranking score.
+	 * @param n The nearest neighbour distance, in arc-seconds.
+	 * @param e The distance to the guider field edge, in arc-seconds.
+	 */
+	public GuideStarCandidate(CelestialObject o,double s,double n,double e)
+	{
+		super();
+		object = o;
+		score = s;
+		neighbourDistance = n;
+		edgeDistance = e;
+	}
+
+	public CelestialObject getObject()
+	{
+		return object;
+	}
+
+	public double getScore()
+	{
+		return score;
+	}
+
+	public double getNeighbourDistance()
+	{
+		return neighbourDistance;
+	}
+
+	public double getEdgeDistance()
+	{
+		return edgeDistance;
+	}
+
+	public String toString()
+	{
+		return new String(object+" score:"+score+" neighbour:"+neighbourDistance+"\" edge:"+edgeDistance+"\"");
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,273 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// GuideStarCriteria.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds the guider geometry and selection criteria used to pick autoguider stars.
+ * The guider field is a rectangle whose centre is offset from the telescope field centre; offsets are
+ * measured on the tangent plane, east and north, in arc-seconds.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see GuideStarSelector
+ */
+public class GuideStarCriteria implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as criteria are sent with guide star requests.
+	 */
+	static final long serialVersionUID = 7234272695462293266L;
+	/**
+	 * Offset of the guider field centre east of the field centre, in arc-seconds.
+	 */
+	protected double offsetEast = 0.0;
+	/**
+	 * Offset of the guider field centre north of the field centre, in arc-seconds.
+	 */
+	protected double offsetNorth = 0.0;
+	/**
+	 * Width of the guider field, in arc-seconds.
+	 */
+	protected double width = 300.0;
+	/**
+	 * Height of the guider field, in arc-seconds.
+	 */
+	protected double height = 300.0;
+	/**
+	 * Position angle of the guider height axis, in degrees from north through east.
+	 */
+	protected double positionAngle = 0.0;
+	/**
+	 * The brightest R magnitude allowed.
+	 */
+	protected double minRMagnitude = 8.0;
+	/**
+	 * The faintest R magnitude allowed.
+	 */
+	protected double maxRMagnitude = 15.0;
+	/**
+	 * Radius within which neighbours spoil a guide star, in arc-seconds.
+	 */
+	protected double isolationRadius = 10.0;
+	/**
+	 * A neighbour within the isolation radius spoils a guide star if it is brighter than the
+	 * candidate's R magnitude plus this many magnitudes.
+	 */
+	protected double isolationMagnitudeDelta = 3.0;
+	/**
+	 * Candidates closer than this to the guider field edge are rejected, in arc-seconds.
+	 */
+	protected double edgeMargin = 10.0;
+	/**
+	 * The maximum number of candidates returned.
+	 */
+	protected int maxCandidates = 10;
+
+	/**
+	 * Default constructor.
+	 */
+	public GuideStarCriteria()
+	{
+		super();
+	}
+
+	/**
+	 * Set the offset of the guider field centre from the telescope field centre.
+	 * @param east The offset east, in arc-seconds.
+	 * @param north The offset north, in arc-seconds.
+	 */
+	public void setOffset(double east,double north)
+	{
+		offsetEast = east;
+		offsetNorth = north;
+	}
+
+	public double getOffsetEast()
+	{
+		return offsetEast;
+	}
+
+	public double getOffsetNorth()
+	{
+		return offsetNorth;
+	}
+
+	/**
+	 * Set the size of the guider field.
+	 * @param w The width, in arc-seconds.
+	 * @param h The height, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if either is not positive.
+	 */
+	public void setSize(double w,double h) throws IllegalArgumentException
+	{
+		if((w <= 0.0)||(h <= 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setSize:Illegal size:"+w+"x"+h+
+							   ": Must be positive.");
+		}
+		width = w;
+		height = h;
+	}
+
+	public double getWidth()
+	{
+		return width;
+	}
+
+	public double getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Set the position angle of the guider field.
+	 * @param pa The position angle of the height axis, in degrees from north through east.
+	 */
+	public void setPositionAngle(double pa)
+	{
+		positionAngle = pa;
+	}
+
+	public double getPositionAngle()
+	{
+		return positionAngle;
+	}
+
+	/**
+	 * Set the R magnitude window.
+	 * @param min The brightest magnitude allowed.
+	 * @param max The faintest magnitude allowed.
+	 * @exception IllegalArgumentException Thrown if min is greater than max.
+	 */
+	public void setRMagnitudeRange(double min,double max) throws IllegalArgumentException
+	{
+		if(min > max)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setRMagnitudeRange:Illegal range:"+min+" to "+max);
+		}
+		minRMagnitude = min;
+		maxRMagnitude = max;
+	}
+
+	public double getMinRMagnitude()
+	{
+		return minRMagnitude;
+	}
+
+	public double getMaxRMagnitude()
+	{
+		return maxRMagnitude;
+	}
+
+	/**
+	 * Set the isolation criterion: no neighbour within radius arc-seconds that is brighter than the
+	 * candidate's magnitude plus delta.
+	 * @param radius The isolation radius, in arc-seconds. Zero turns the isolation check off.
+	 * @param delta The magnitude difference.
+	 * @exception IllegalArgumentException Thrown if the radius is negative, or either is not a number.
+	 */
+	public void setIsolation(double radius,double delta) throws IllegalArgumentException
+	{
+		if(!(radius >= 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setIsolation:Illegal radius:"+
+							   radius+": Must be positive or zero.");
+		}
+		if(Double.isNaN(delta))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setIsolation:Illegal magnitude difference:"+delta);
+		}
+		isolationRadius = radius;
+		isolationMagnitudeDelta = delta;
+	}
+
+	public double getIsolationRadius()
+	{
+		return isolationRadius;
+	}
+
+	public double getIsolationMagnitudeDelta()
+	{
+		return isolationMagnitudeDelta;
+	}
+
+	/**
+	 * Set how far candidates must be from the guider field edge.
+	 * @param m The margin, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if the margin is negative or not a number.
+	 */
+	public void setEdgeMargin(double m) throws IllegalArgumentException
+	{
+		if(!(m >= 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setEdgeMargin:Illegal margin:"+m+
+							   ": Must be positive or zero.");
+		}
+		edgeMargin = m;
+	}
+
+	public double getEdgeMargin()
+	{
+		return edgeMargin;
+	}
+
+	/**
+	 * Set the maximum number of candidates returned.
+	 * @param n The number of candidates.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setMaxCandidates(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setMaxCandidates:Illegal number of candidates:"+n+
+							   ": Must be at least 1.");
+		}
+		maxCandidates = n;
+	}
+
+	public int getMaxCandidates()
+	{
+		return maxCandidates;
+	}
+
+	/**
+	 * Return a string uniquely identifying these criteria, used as part of a cache key.
+	 */
+	public String toString()
+	{
+		return new String(offsetEast+","+offsetNorth+","+width+","+height+","+positionAngle+","+
+				  minRMagnitude+","+maxRMagnitude+","+isolationRadius+","+isolationMagnitudeDelta+","+
+				  edgeMargin+","+maxCandidates);
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,255 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// GuideStarSelector.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class selects and ranks autoguider stars from a catalogue. Candidates are found with a footprint query
+ * of the guider field, filtered by R magnitude, checked for brighter neighbours with a k-d tree radius search,
+ * and ranked by brightness, isolation and distance from the guider field edge. Results are cached per field
+ * and criteria, so repeated visits to a field are answered from the cache.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see GuideStarCriteria
+ * @see GuideStarCandidate
+ */
+public class GuideStarSelector
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default number of fields to cache results for.
+	 */
+	public final static int DEFAULT_CACHE_SIZE = 256;
+	/**
+	 * Weight of the brightness term in the ranking score.
+	 */
+	private final static double BRIGHTNESS_WEIGHT = 0.5;
+	/**
+	 * Weight of the isolation term in the ranking score.
+	 */
+	private final static double ISOLATION_WEIGHT = 0.3;
+	/**
+	 * Weight of the edge distance term in the ranking score.
+	 */
+	private final static double EDGE_WEIGHT = 0.2;
+	/**
+	 * Field centres are rounded to this many radians when making cache keys (about 0.02 arc-seconds).
+	 */
+	private final static double CACHE_KEY_RESOLUTION = 1.0e-7;
+	/**
+	 * The catalogue.
+	 */
+	protected List<CelestialObject> catalogue = null;
+	/**
+	 * Footprint index used to find stars in the guider field.
+	 */
+	protected CelestialObjectFootprintIndex footprintIndex = null;
+	/**
+	 * K-d tree used for the isolation checks.
+	 */
+	protected CelestialObjectKDTree tree = null;
+	/**
+	 * LRU cache of results, keyed by field centre and criteria.
+	 */
+	protected Map<String,List<GuideStarCandidate>> cache = null;
+
+	/**
+	 * Constructor.
+	 * @param list The catalogue of stars, all of which must have an RA and Dec.
+	 * @see #DEFAULT_CACHE_SIZE
+	 */
+	public GuideStarSelector(List<CelestialObject> list)
+	{
+		this(list,DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param list The catalogue of stars, all of which must have an RA and Dec.
+	 * @param cacheSize The number of fields to cache results for.
+	 */
+	public GuideStarSelector(List<CelestialObject> list,final int cacheSize)
+	{
+		super();
+		catalogue = list;
+		footprintIndex = new CelestialObjectFootprintIndex(list);
+		tree = new CelestialObjectKDTree(list);
+		cache = Collections.synchronizedMap(new LinkedHashMap<String,List<GuideStarCandidate>>(16,0.75f,true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String,List<GuideStarCandidate>> eldest)
+			{
+				return size() > cacheSize;
+			}
+		});
+	}
+
+	/**
+	 * Select guide stars for a field.
+	 * @param ra The right ascension of the telescope field centre.
+	 * @param dec The declination of the telescope field centre.
+	 * @param criteria The guider geometry and selection criteria.
+	 * @return A list of up to criteria.getMaxCandidates() candidates, best first. The list is unmodifiable,
+	 *         and is shared with the cache.
+	 */
+	public List<GuideStarCandidate> select(RA ra,Dec dec,GuideStarCriteria criteria)
+	{
+		return select(ra.toRadians(),dec.toRadians(),criteria);
+	}
+
+	/**
+	 * Select guide stars for a field.
+	 * @param raRadians The right ascension of the telescope field centre, in radians.
+	 * @param decRadians The declination of the telescope field centre, in radians.
+	 * @param criteria The guider geometry and selection criteria.
+	 * @return A list of up to criteria.getMaxCandidates() candidates, best first.
+	 * @see #select(RA,Dec,GuideStarCriteria)
+	 */
+	public List<GuideStarCandidate> select(double raRadians,double decRadians,GuideStarCriteria criteria)
+	{
+		List<GuideStarCandidate> result = null;
+		String key = null;
+
+		key = Math.round(raRadians/CACHE_KEY_RESOLUTION)+":"+Math.round(decRadians/CACHE_KEY_RESOLUTION)+":"+
+			criteria;
+		result = cache.get(key);
+		if(result != null)
+			return result;
+		result = Collections.unmodifiableList(compute(raRadians,decRadians,criteria));
+		cache.put(key,result);
+		return result;
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clearCache()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Compute the ranked candidates for a field.
+	 */
+	protected List<GuideStarCandidate> compute(double raRadians,double decRadians,GuideStarCriteria criteria)
+	{
+		List<GuideStarCandidate> candidates = null;
+		SphericalPolygon footprint = null;
+		IntArrayList inField = null;
+		IntArrayList neighbours = null;
+		CelestialObject co = null;
+		CelestialObject neighbour = null;
+		double v[] = new double[3];
+		double tangent[] = new double[2];
+		double guiderRA,guiderDec,sinPA,cosPA,halfWidth,halfHeight,u,w,edgeDistance,rMagnitude,magnitudeRange;
+		double searchRadius,neighbourDistance,neighbourMagnitude,d,brightness,isolation,edge,score;
+		boolean spoilt;
+		int ci;
+
+		// guider field centre
+		SphericalGeometry.tangentPlaneToUnitVector(raRadians,decRadians,
+							   criteria.getOffsetEast()*SphericalGeometry.ARCSECONDS_TO_RADIANS,
+							   criteria.getOffsetNorth()*SphericalGeometry.ARCSECONDS_TO_RADIANS,v,0);
+		guiderRA = SphericalGeometry.toRARadians(v[0],v[1],v[2]);
+		guiderDec = SphericalGeometry.toDecRadians(v[0],v[1],v[2]);
+		footprint = SphericalPolygon.rectangle(guiderRA,guiderDec,criteria.getWidth(),criteria.getHeight(),
+						       criteria.getPositionAngle());
+		inField = new IntArrayList();
+		footprintIndex.queryIndices(footprint,inField);
+		sinPA = Math.sin(Math.toRadians(criteria.getPositionAngle()));
+		cosPA = Math.cos(Math.toRadians(criteria.getPositionAngle()));
+		halfWidth = Math.tan((criteria.getWidth()/2.0)*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		halfHeight = Math.tan((criteria.getHeight()/2.0)*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		magnitudeRange = criteria.getMaxRMagnitude()-criteria.getMinRMagnitude();
+		searchRadius = 2.0*criteria.getIsolationRadius();
+		candidates = new ArrayList<GuideStarCandidate>();
+		neighbours = new IntArrayList();
+		for(int i = 0; i < inField.size(); i++)
+		{
+			ci = inField.get(i);
+			co = catalogue.get(ci);
+			rMagnitude = co.getRMagnitude();
+			// written so that stars with no R magnitude (NaN) are rejected
+			if(!((rMagnitude >= criteria.getMinRMagnitude())&&(rMagnitude <= criteria.getMaxRMagnitude())))
+				continue;
+			// distance from the guider field edge, on the guider tangent plane
+			SphericalGeometry.toUnitVector(co.getRA(),co.getDec(),v,0);
+			SphericalGeometry.unitVectorToTangentPlane(guiderRA,guiderDec,v[0],v[1],v[2],tangent);
+			u = (tangent[0]*cosPA)-(tangent[1]*sinPA);
+			w = (tangent[0]*sinPA)+(tangent[1]*cosPA);
+			edgeDistance = Math.min(halfWidth-Math.abs(u),halfHeight-Math.abs(w))*
+				SphericalGeometry.RADIANS_TO_ARCSECONDS;
+			if(edgeDistance < criteria.getEdgeMargin())
+				continue;
+			// isolation
+			neighbours.clear();
+			tree.withinRadius(v[0],v[1],v[2],searchRadius,neighbours);
+			spoilt = false;
+			neighbourDistance = searchRadius;
+			for(int j = 0; (j < neighbours.size())&&(!spoilt); j++)
+			{
+				if(neighbours.get(j) == ci)
+					continue;
+				neighbour = catalogue.get(neighbours.get(j));
+				d = SphericalGeometry.separationArcSeconds(co.getRA(),co.getDec(),neighbour.getRA(),
+									   neighbour.getDec());
+				if(d < neighbourDistance)
+					neighbourDistance = d;
+				// a neighbour with no R magnitude is judged by its V magnitude, and with neither it
+				// might be bright, so it spoils the candidate
+				neighbourMagnitude = neighbour.getRMagnitude();
+				if(Double.isNaN(neighbourMagnitude))
+					neighbourMagnitude = neighbour.getVMagnitude();
+				if((d <= criteria.getIsolationRadius())&&
+				   (!(neighbourMagnitude >= (rMagnitude+criteria.getIsolationMagnitudeDelta()))))
+					spoilt = true;
+			}
+			if(spoilt)
+				continue;
+			// rank
+			if(magnitudeRange > 0.0)
+				brightness = (criteria.getMaxRMagnitude()-rMagnitude)/magnitudeRange;
+			else
+				brightness = 1.0;
+			if(searchRadius > 0.0)
+				isolation = neighbourDistance/searchRadius;
+			else
+				isolation = 1.0;
+			if(criteria.getEdgeMargin() > 0.0)
+				edge = Math.min(1.0,edgeDistance/(4.0*criteria.getEdgeMargin()));
+			else
+				edge = 1.0;
+			score = (BRIGHTNESS_WEIGHT*brightness)+(ISOLATION_WEIGHT*isolation)+(EDGE_WEIGHT*edge);
+			candidates.add(new GuideStarCandidate(co,score,neighbourDistance,edgeDistance));
+		}
+		candidates.sort((a,b) -> Double.compare(b.getScore(),a.getScore()));
+		if(candidates.size() > criteria.getMaxCandidates())
+			candidates = new ArrayList<GuideStarCandidate>(candidates.subList(0,criteria.getMaxCandidates()));
+		return candidates;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,469 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// HEALPix.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * Static routines for the HEALPix sky pixelisation, in the NESTED numbering scheme. The pixelisation at
+ * order o has nside = 2^o and 12*4^o equal area pixels. In the NESTED scheme the four children of
+ * pixel p at order o are pixels 4p..4p+3 at order o+1, so a pixel at a coarse order covers a contiguous
+ * range of pixels at any finer order.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SkyRegion
+ */
+public final class HEALPix
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The maximum order supported. Pixel numbers at this order fit in a long.
+	 */
+	public final static int MAX_ORDER = 29;
+	/**
+	 * Safety factor applied to sqrt(pixel area) to bound the largest distance from a pixel centre
+	 * to any point within the pixel. The true worst case ratio is less than 1.05 at every order.
+	 */
+	private final static double MAX_RADIUS_FACTOR = 1.25;
+	/**
+	 * Ring index of the southern-most corner of each base pixel (in units of nside).
+	 */
+	private final static int JRLL[] = {2,2,2,2,3,3,3,3,4,4,4,4};
+	/**
+	 * Longitude index of the centre of each base pixel (in units of nside/2 * PI/4).
+	 */
+	private final static int JPLL[] = {1,3,5,7,0,2,4,6,1,3,5,7};
+	/**
+	 * X offsets of the 8 neighbours of a pixel, in the order SW,W,NW,N,NE,E,SE,S.
+	 */
+	private final static int NEIGHBOUR_X_OFFSET[] = {-1,-1,0,1,1,1,0,-1};
+	/**
+	 * Y offsets of the 8 neighbours of a pixel, in the order SW,W,NW,N,NE,E,SE,S.
+	 */
+	private final static int NEIGHBOUR_Y_OFFSET[] = {0,1,1,1,0,-1,-1,-1};
+	/**
+	 * The face a neighbour lies on, indexed by the direction the face edge was crossed in and the
+	 * face of the pixel. -1 means there is no neighbour in that direction.
+	 */
+	private final static int NEIGHBOUR_FACE[][] =
+	{
+		{8,9,10,11,-1,-1,-1,-1,10,11,8,9},
+		{5,6,7,4,8,9,10,11,9,10,11,8},
+		{-1,-1,-1,-1,5,6,7,4,-1,-1,-1,-1},
+		{4,5,6,7,11,8,9,10,11,8,9,10},
+		{0,1,2,3,4,5,6,7,8,9,10,11},
+		{1,2,3,0,0,1,2,3,5,6,7,4},
+		{-1,-1,-1,-1,7,4,5,6,-1,-1,-1,-1},
+		{3,0,1,2,3,0,1,2,4,5,6,7},
+		{2,3,0,1,-1,-1,-1,-1,0,1,2,3}
+	};
+	/**
+	 * How the x,y coordinates are transformed when crossing onto a neighbouring face, indexed by the crossing
+	 * direction and the face row (north, equatorial, south). Bit 1 flips x, bit 2 flips y and bit 4 swaps x and y.
+	 */
+	private final static int NEIGHBOUR_SWAP[][] =
+	{
+		{0,0,3},
+		{0,0,6},
+		{0,0,0},
+		{0,0,5},
+		{0,0,0},
+		{5,0,0},
+		{0,0,0},
+		{6,0,0},
+		{3,0,0}
+	};
+
+	/**
+	 * Interface implemented by objects receiving the cells of a region coverage.
+	 * @see HEALPix#coverage
+	 */
+	public interface CoverageCollector
+	{
+		/**
+		 * Called for each cell of a coverage.
+		 * @param order The order of the cell. Cells entirely inside the region can be coarser than the
+		 *        requested order.
+		 * @param pixel The NESTED pixel number of the cell at that order.
+		 * @param inside True if the cell is entirely inside the region, false if it only overlaps it.
+		 */
+		void cell(int order,long pixel,boolean inside);
+	};
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private HEALPix()
+	{
+		super();
+	}
+
+	/**
+	 * Return the number of pixels at an order.
+	 * @param order The order, 0..MAX_ORDER.
+	 * @return 12*4^order.
+	 */
+	public static long pixelCount(int order)
+	{
+		return 12L << (2*order);
+	}
+
+	/**
+	 * Return the area of one pixel.
+	 * @param order The order.
+	 * @return The area, in steradians.
+	 */
+	public static double pixelArea(int order)
+	{
+		return (4.0*Math.PI)/pixelCount(order);
+	}
+
+	/**
+	 * Return an upper bound on the angular distance from a pixel centre to any point in that pixel.
+	 * @param order The order.
+	 * @return The distance, in radians.
+	 */
+	public static double maxPixelRadius(int order)
+	{
+		return MAX_RADIUS_FACTOR*Math.sqrt(pixelArea(order));
+	}
+
+	/**
+	 * Return the finest order whose pixels have a side at least as long as an angle.
+	 * @param radians The angle, in radians.
+	 * @return An order between 0 and MAX_ORDER.
+	 */
+	public static int orderForResolution(double radians)
+	{
+		int order;
+
+		order = 0;
+		while((order < MAX_ORDER)&&(Math.sqrt(pixelArea(order+1)) >= radians))
+			order++;
+		return order;
+	}
+
+	/**
+	 * Return the NESTED pixel containing an RA and Dec.
+	 * @param order The order.
+	 * @param raRadians The right ascension, in radians.
+	 * @param decRadians The declination, in radians.
+	 * @return The pixel number.
+	 */
+	public static long angToPixel(int order,double raRadians,double decRadians)
+	{
+		double cosDec;
+
+		cosDec = Math.cos(decRadians);
+		return vecToPixel(order,cosDec*Math.cos(raRadians),cosDec*Math.sin(raRadians),Math.sin(decRadians));
+	}
+
+	/**
+	 * Return the NESTED pixel containing a unit vector.
+	 * @param order The order.
+	 * @return The pixel number.
+	 */
+	public static long vecToPixel(int order,double x,double y,double z)
+	{
+		long nside,jp,jm,ifp,ifm,ix,iy;
+		int face,ntt;
+		double za,tt,temp1,temp2,tp,tmp;
+
+		nside = 1L << order;
+		za = Math.abs(z);
+		tt = Math.atan2(y,x)*(2.0/Math.PI);
+		if(tt < 0.0)
+			tt += 4.0;
+		if(tt >= 4.0)
+			tt = 0.0;
+		if(za <= (2.0/3.0))
+		{
+			// equatorial region
+			temp1 = nside*(0.5+tt);
+			temp2 = nside*z*0.75;
+			jp = (long)(temp1-temp2);
+			jm = (long)(temp1+temp2);
+			ifp = jp >>> order;
+			ifm = jm >>> order;
+			if(ifp == ifm)
+				face = (int)(ifp|4);
+			else if(ifp < ifm)
+				face = (int)ifp;
+			else
+				face = (int)(ifm+8);
+			ix = jm & (nside-1);
+			iy = nside-(jp & (nside-1))-1;
+		}
+		else
+		{
+			// polar caps, 1-|z| computed from x,y to keep precision near the poles
+			ntt = Math.min(3,(int)tt);
+			tp = tt-ntt;
+			tmp = nside*Math.sqrt(3.0*((x*x)+(y*y))/(1.0+za));
+			jp = Math.min((long)(tp*tmp),nside-1);
+			jm = Math.min((long)((1.0-tp)*tmp),nside-1);
+			if(z >= 0.0)
+			{
+				face = ntt;
+				ix = nside-jm-1;
+				iy = nside-jp-1;
+			}
+			else
+			{
+				face = ntt+8;
+				ix = jp;
+				iy = jm;
+			}
+		}
+		return (((long)face) << (2*order))+spread(ix)+(spread(iy) << 1);
+	}
+
+	/**
+	 * Return the unit vector of the centre of a NESTED pixel.
+	 * @param order The order.
+	 * @param pixel The pixel number.
+	 * @param v An array to put the vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public static void pixelToVec(int order,long pixel,double v[],int offset)
+	{
+		long nside,npface,ipf,ix,iy,jr,nr,jp,kshift;
+		int face;
+		double z,phi,fact2,sinTheta;
+
+		nside = 1L << order;
+		npface = nside*nside;
+		face = (int)(pixel >>> (2*order));
+		ipf = pixel & (npface-1);
+		ix = compress(ipf);
+		iy = compress(ipf >>> 1);
+		jr = (JRLL[face]*nside)-ix-iy-1;
+		fact2 = 4.0/pixelCount(order);
+		if(jr < nside)
+		{
+			nr = jr;
+			z = 1.0-(nr*nr*fact2);
+			kshift = 0;
+		}
+		else if(jr > 3*nside)
+		{
+			nr = (4*nside)-jr;
+			z = (nr*nr*fact2)-1.0;
+			kshift = 0;
+		}
+		else
+		{
+			nr = nside;
+			z = ((2*nside)-jr)*(2*nside)*fact2;
+			kshift = (jr-nside) & 1;
+		}
+		jp = ((JPLL[face]*nr)+ix-iy+1+kshift)/2;
+		if(jp > 4*nside)
+			jp -= 4*nside;
+		if(jp < 1)
+			jp += 4*nside;
+		phi = (jp-((kshift+1)*0.5))*((Math.PI/2.0)/nr);
+		sinTheta = Math.sqrt((1.0-z)*(1.0+z));
+		v[offset] = sinTheta*Math.cos(phi);
+		v[offset+1] = sinTheta*Math.sin(phi);
+		v[offset+2] = z;
+	}
+
+	/**
+	 * Return the 8 neighbours of a NESTED pixel.
+	 * @param order The order.
+	 * @param pixel The pixel number.
+	 * @param result An array of at least 8 elements, set to the neighbours in the order SW,W,NW,N,NE,E,SE,S.
+	 *        Some pixels at the corners of base pixels only have 7 neighbours, the missing one is set to -1.
+	 */
+	public static void neighbours(int order,long pixel,long result[])
+	{
+		long nside,ipf,ix,iy,x,y,tmp;
+		int face,direction,f,bits;
+
+		nside = 1L << order;
+		face = (int)(pixel >>> (2*order));
+		ipf = pixel & ((nside*nside)-1);
+		ix = compress(ipf);
+		iy = compress(ipf >>> 1);
+		for(int i = 0; i < 8; i++)
+		{
+			x = ix+NEIGHBOUR_X_OFFSET[i];
+			y = iy+NEIGHBOUR_Y_OFFSET[i];
+			direction = 4;
+			if(x < 0)
+			{
+				x += nside;
+				direction -= 1;
+			}
+			else if(x >= nside)
+			{
+				x -= nside;
+				direction += 1;
+			}
+			if(y < 0)
+			{
+				y += nside;
+				direction -= 3;
+			}
+			else if(y >= nside)
+			{
+				y -= nside;
+				direction += 3;
+			}
+			f = NEIGHBOUR_FACE[direction][face];
+			if(f < 0)
+			{
+				result[i] = -1;
+				continue;
+			}
+			bits = NEIGHBOUR_SWAP[direction][face >> 2];
+			if((bits & 1) != 0)
+				x = nside-x-1;
+			if((bits & 2) != 0)
+				y = nside-y-1;
+			if((bits & 4) != 0)
+			{
+				tmp = x;
+				x = y;
+				y = tmp;
+			}
+			result[i] = (((long)f) << (2*order))+spread(x)+(spread(y) << 1);
+		}
+	}
+
+	/**
+	 * Compute the cells covering a cone. Small cones start the recursion from the pixel containing the cone
+	 * centre and its neighbours at an order a few levels above maxOrder, rather than from the 12 base pixels.
+	 * Every cell that overlaps the cone is reported, but some of the cells coverage() would only report because
+	 * of its conservative pixel radius bound can be left out.
+	 * @param cone The cone to cover.
+	 * @param maxOrder The finest order to refine to.
+	 * @param collector The object to report the cells to.
+	 * @see #coverage
+	 */
+	public static void coneCoverage(SkyCone cone,int maxOrder,CoverageCollector collector)
+	{
+		double v[] = new double[3];
+		long start[] = new long[9];
+		int startOrder,count;
+
+		// the 3x3 block of pixels about the centre contains the cone if pixels are wide enough
+		startOrder = maxOrder;
+		while((startOrder > 0)&&(Math.sqrt(pixelArea(startOrder)) < 4.0*cone.getRadius()))
+			startOrder--;
+		if(startOrder < 2)
+		{
+			coverage(cone,maxOrder,collector);
+			return;
+		}
+		cone.getCentre(v,0);
+		start[8] = vecToPixel(startOrder,v[0],v[1],v[2]);
+		neighbours(startOrder,start[8],start);
+		java.util.Arrays.sort(start);
+		count = 0;
+		for(int i = 0; i < 9; i++)
+		{
+			if((start[i] >= 0)&&((count == 0)||(start[i] != start[count-1])))
+				start[count++] = start[i];
+		}
+		for(int i = 0; i < count; i++)
+			coverage(cone,startOrder,start[i],maxOrder,collector,v);
+	}
+
+	/**
+	 * Compute the cells covering a region. The recursion starts at the 12 base pixels; cells entirely outside
+	 * the region are dropped, cells entirely inside are reported at whatever order they were found, and cells
+	 * that straddle the boundary are refined down to maxOrder and reported as partial. Because the region
+	 * classification is conservative, partial cells may not actually overlap the region.
+	 * @param region The region to cover.
+	 * @param maxOrder The finest order to refine to.
+	 * @param collector The object to report the cells to.
+	 * @see SkyRegion#classifyCap
+	 */
+	public static void coverage(SkyRegion region,int maxOrder,CoverageCollector collector)
+	{
+		double v[] = new double[3];
+
+		for(int face = 0; face < 12; face++)
+			coverage(region,0,face,maxOrder,collector,v);
+	}
+
+	/**
+	 * Recursive part of the region coverage.
+	 */
+	private static void coverage(SkyRegion region,int order,long pixel,int maxOrder,
+				     CoverageCollector collector,double v[])
+	{
+		int classification;
+
+		pixelToVec(order,pixel,v,0);
+		classification = region.classifyCap(v[0],v[1],v[2],maxPixelRadius(order));
+		if(classification == SkyRegion.OUTSIDE)
+			return;
+		if(classification == SkyRegion.INSIDE)
+		{
+			collector.cell(order,pixel,true);
+			return;
+		}
+		if(order == maxOrder)
+		{
+			collector.cell(order,pixel,false);
+			return;
+		}
+		for(int child = 0; child < 4; child++)
+			coverage(region,order+1,(pixel << 2)+child,maxOrder,collector,v);
+	}
+
+	/**
+	 * Spread the low 32 bits of a value into the even bits of a long.
+	 */
+	private static long spread(long v)
+	{
+		v &= 0xffffffffL;
+		v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+		v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * Compress the even bits of a long into the low 32 bits.
+	 */
+	private static long compress(long v)
+	{
+		v &= 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+		v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+		return v;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,111 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// IntArrayList.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * A growable list of primitive ints, used to collect search results without boxing.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+public class IntArrayList
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The elements.
+	 */
+	protected int data[] = null;
+	/**
+	 * The number of elements in use.
+	 */
+	protected int size = 0;
+
+	/**
+	 * Default constructor.
+	 */
+	public IntArrayList()
+	{
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity The initial capacity.
+	 */
+	public IntArrayList(int capacity)
+	{
+		super();
+		data = new int[Math.max(1,capacity)];
+		size = 0;
+	}
+
+	/**
+	 * Add an element to the end of the list.
+	 * @param v The value to add.
+	 */
+	public void add(int v)
+	{
+		if(size == data.length)
+			data = Arrays.copyOf(data,data.length*2);
+		data[size++] = v;
+	}
+
+	/**
+	 * Return an element.
+	 * @param i The index, 0..size-1.
+	 */
+	public int get(int i)
+	{
+		return data[i];
+	}
+
+	/**
+	 * Return the number of elements.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Remove all elements. The storage is kept for re-use.
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Return a copy of the elements as an array.
+	 */
+	public int[] toArray()
+	{
+		return Arrays.copyOf(data,size);
+	}
+};
+//
+// $Log$
+//
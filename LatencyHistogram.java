@@ -0,0 +1,211 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// LatencyHistogram.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a lock-free histogram of durations (or any non-negative long values), with log-linear buckets:
+ * 8 buckets per power of two, so any percentile is reported to within 12.5%. Recording is a couple of atomic
+ * increments and is safe from any number of threads.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+public class LatencyHistogram
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of bits of sub-bucket within each power of two.
+	 */
+	private final static int SUB_BUCKET_BITS = 3;
+	/**
+	 * The number of sub-buckets within each power of two.
+	 */
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * The number of buckets needed to cover every non-negative long.
+	 */
+	private final static int BUCKETS = ((63-SUB_BUCKET_BITS+1)*SUB_BUCKETS)+SUB_BUCKETS;
+	/**
+	 * The count in each bucket.
+	 */
+	protected AtomicLongArray buckets = null;
+	/**
+	 * The number of values recorded.
+	 */
+	protected LongAdder count = null;
+	/**
+	 * The sum of the values recorded.
+	 */
+	protected LongAdder sum = null;
+	/**
+	 * The largest value recorded.
+	 */
+	protected AtomicLong max = null;
+
+	/**
+	 * Default constructor.
+	 */
+	public LatencyHistogram()
+	{
+		super();
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * Record a value. Negative values are recorded as 0.
+	 * @param value The value, usually a duration in nanoseconds.
+	 */
+	public void record(long value)
+	{
+		long m;
+
+		if(value < 0)
+			value = 0;
+		buckets.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		m = max.get();
+		while((value > m)&&(!max.compareAndSet(m,value)))
+			m = max.get();
+	}
+
+	/**
+	 * Return the bucket of a non-negative value.
+	 */
+	private static int bucket(long value)
+	{
+		int exponent;
+
+		if(value < SUB_BUCKETS)
+			return (int)value;
+		exponent = 63-Long.numberOfLeadingZeros(value);
+		return ((exponent-SUB_BUCKET_BITS+1)*SUB_BUCKETS)+
+			(int)((value >>> (exponent-SUB_BUCKET_BITS)) & (SUB_BUCKETS-1));
+	}
+
+	/**
+	 * Return the smallest value that falls in a bucket.
+	 */
+	private static long bucketLowerBound(int bucket)
+	{
+		int exponent,sub;
+
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		exponent = (bucket/SUB_BUCKETS)+SUB_BUCKET_BITS-1;
+		sub = bucket % SUB_BUCKETS;
+		return ((long)(SUB_BUCKETS+sub)) << (exponent-SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Return the number of values recorded.
+	 */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * Return the mean of the values recorded, or 0 if there are none.
+	 */
+	public double getMean()
+	{
+		long n;
+
+		n = count.sum();
+		if(n == 0)
+			return 0.0;
+		return ((double)sum.sum())/n;
+	}
+
+	/**
+	 * Return the largest value recorded.
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Return a percentile of the values recorded.
+	 * @param percentile The percentile, 0..100.
+	 * @return The upper bound of the bucket holding the percentile (so a slight over-estimate), capped at
+	 *         the largest value recorded, or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile)
+	{
+		long total,target,seen;
+
+		total = 0;
+		for(int b = 0; b < BUCKETS; b++)
+			total += buckets.get(b);
+		if(total == 0)
+			return 0;
+		target = (long)Math.ceil((percentile/100.0)*total);
+		if(target < 1)
+			target = 1;
+		seen = 0;
+		for(int b = 0; b < BUCKETS; b++)
+		{
+			seen += buckets.get(b);
+			if(seen >= target)
+			{
+				if(b+1 < BUCKETS)
+					return Math.min(max.get(),bucketLowerBound(b+1)-1);
+				return max.get();
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clear the histogram. Values recorded concurrently with a reset may or may not be kept.
+	 */
+	public void reset()
+	{
+		for(int b = 0; b < BUCKETS; b++)
+			buckets.set(b,0);
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	/**
+	 * Return a one line summary, treating values as nanoseconds and printing microseconds.
+	 */
+	public String toString()
+	{
+		return new String("count="+getCount()+" mean="+(long)(getMean()/1000.0)+"us p50="+
+				  (getPercentile(50.0)/1000)+"us p99="+(getPercentile(99.0)/1000)+"us p99.9="+
+				  (getPercentile(99.9)/1000)+"us max="+(getMax()/1000)+"us");
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,387 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// LazyCelestialObject.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class is a CelestialObject that is decoded from a raw catalogue line on demand. The line is kept, and
+ * each field is parsed the first time its getter is called and remembered after that, so a filter on a cheap
+ * field (a magnitude, say) can reject a row before its position is ever parsed. Setters override the line.
+ * <p>
+ * The public fields inherited from CelestialObject are only filled in as fields are decoded; code that reads
+ * them directly should call decodeAll first. Like CelestialObject, instances are not thread safe.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CatalogueRecordFormat
+ */
+public class LazyCelestialObject extends CelestialObject
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed like CelestialObject's, as instances are passed between JVMs.
+	 */
+	static final long serialVersionUID = 3844067286677268640L;
+	/**
+	 * The raw line. Set to null once every field is decoded.
+	 */
+	protected transient String line = null;
+	/**
+	 * The layout of the line.
+	 */
+	protected transient CatalogueRecordFormat format = null;
+	/**
+	 * The start of each column in the line, found on first access to any field.
+	 */
+	protected transient int columnStart[] = null;
+	/**
+	 * The end (exclusive) of each column in the line.
+	 */
+	protected transient int columnEnd[] = null;
+	/**
+	 * A bit per field (by CatalogueRecordFormat field number), set once the field is decoded or set.
+	 */
+	protected int decoded = 0;
+
+	/**
+	 * Constructor. Nothing is parsed until a field is asked for.
+	 * @param l The raw catalogue line.
+	 * @param f The layout of the line.
+	 */
+	public LazyCelestialObject(String l,CatalogueRecordFormat f)
+	{
+		super();
+		line = l;
+		format = f;
+	}
+
+	/**
+	 * Find the start and end of every column the format uses.
+	 */
+	protected void findColumns()
+	{
+		char delimiter;
+		int count,c,start,length;
+
+		count = format.getColumnCount();
+		columnStart = new int[count];
+		columnEnd = new int[count];
+		delimiter = format.getDelimiter();
+		length = line.length();
+		start = 0;
+		c = 0;
+		for(int i = 0; (i < length)&&(c < count); i++)
+		{
+			if(line.charAt(i) == delimiter)
+			{
+				columnStart[c] = start;
+				columnEnd[c] = i;
+				c++;
+				start = i+1;
+			}
+		}
+		if(c < count)
+		{
+			columnStart[c] = start;
+			columnEnd[c] = length;
+			c++;
+		}
+		// missing trailing columns are empty
+		for(; c < count; c++)
+		{
+			columnStart[c] = length;
+			columnEnd[c] = length;
+		}
+	}
+
+	/**
+	 * Return a field's text, trimmed, or null if the field is not in the format or is empty.
+	 */
+	protected String field(int field)
+	{
+		int c,start,end;
+
+		c = format.getColumn(field);
+		if((c < 0)||(line == null))
+			return null;
+		if(columnStart == null)
+			findColumns();
+		start = columnStart[c];
+		end = columnEnd[c];
+		while((start < end)&&(line.charAt(start) <= ' '))
+			start++;
+		while((end > start)&&(line.charAt(end-1) <= ' '))
+			end--;
+		if(start == end)
+			return null;
+		return line.substring(start,end);
+	}
+
+	/**
+	 * Return whether a field has been decoded (or set).
+	 */
+	private boolean isDecoded(int field)
+	{
+		return (decoded & (1 << field)) != 0;
+	}
+
+	/**
+	 * Mark a field as decoded. This is done after parsing, so a field that fails to parse throws again
+	 * on the next access rather than silently returning a default.
+	 */
+	private void markDecoded(int field)
+	{
+		decoded |= 1 << field;
+	}
+
+	/**
+	 * Parse a magnitude field.
+	 * @return The magnitude, or the current value if the field is empty.
+	 */
+	private double parseMagnitude(int field,double current)
+	{
+		String s = null;
+
+		s = field(field);
+		if(s == null)
+			return current;
+		return Double.parseDouble(s);
+	}
+
+	/**
+	 * Decode every field not yet decoded, and release the line.
+	 */
+	public void decodeAll()
+	{
+		getName();
+		getNumber();
+		getRA();
+		getType();
+		getSpectralType();
+		getBMagnitude();
+		getVMagnitude();
+		getRMagnitude();
+		getComment();
+		line = null;
+		columnStart = null;
+		columnEnd = null;
+	}
+
+	public void setName(String s)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_NAME);
+		super.setName(s);
+	}
+
+	public String getName()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_NAME))
+		{
+			name = field(CatalogueRecordFormat.FIELD_NAME);
+			markDecoded(CatalogueRecordFormat.FIELD_NAME);
+		}
+		return name;
+	}
+
+	public void setNumber(int n)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_NUMBER);
+		super.setNumber(n);
+	}
+
+	public int getNumber()
+	{
+		String s = null;
+
+		if(!isDecoded(CatalogueRecordFormat.FIELD_NUMBER))
+		{
+			s = field(CatalogueRecordFormat.FIELD_NUMBER);
+			if(s != null)
+				number = Integer.parseInt(s);
+			markDecoded(CatalogueRecordFormat.FIELD_NUMBER);
+		}
+		return number;
+	}
+
+	/**
+	 * Decode the position, which sets both RA and Dec.
+	 */
+	private void decodePosition()
+	{
+		String s = null;
+
+		if(!isDecoded(CatalogueRecordFormat.FIELD_RA_DEC))
+		{
+			s = field(CatalogueRecordFormat.FIELD_RA_DEC);
+			if(s != null)
+				parseSimbadRADec(s);
+			markDecoded(CatalogueRecordFormat.FIELD_RA_DEC);
+		}
+	}
+
+	/**
+	 * Set the RA. Any position still in the line is decoded first, so the Dec is kept.
+	 */
+	public void setRA(RA r)
+	{
+		decodePosition();
+		super.setRA(r);
+	}
+
+	public RA getRA()
+	{
+		decodePosition();
+		return ra;
+	}
+
+	/**
+	 * Set the Dec. Any position still in the line is decoded first, so the RA is kept.
+	 */
+	public void setDec(Dec d)
+	{
+		decodePosition();
+		super.setDec(d);
+	}
+
+	public Dec getDec()
+	{
+		decodePosition();
+		return dec;
+	}
+
+	public void setType(String s)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_TYPE);
+		super.setType(s);
+	}
+
+	public String getType()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_TYPE))
+		{
+			type = field(CatalogueRecordFormat.FIELD_TYPE);
+			markDecoded(CatalogueRecordFormat.FIELD_TYPE);
+		}
+		return type;
+	}
+
+	public void setSpectralType(String s)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_SPECTRAL_TYPE);
+		super.setSpectralType(s);
+	}
+
+	public String getSpectralType()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_SPECTRAL_TYPE))
+		{
+			spectralType = field(CatalogueRecordFormat.FIELD_SPECTRAL_TYPE);
+			markDecoded(CatalogueRecordFormat.FIELD_SPECTRAL_TYPE);
+		}
+		return spectralType;
+	}
+
+	public void setBMagnitude(double m)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_B_MAGNITUDE);
+		super.setBMagnitude(m);
+	}
+
+	public double getBMagnitude()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_B_MAGNITUDE))
+		{
+			bMagnitude = parseMagnitude(CatalogueRecordFormat.FIELD_B_MAGNITUDE,bMagnitude);
+			markDecoded(CatalogueRecordFormat.FIELD_B_MAGNITUDE);
+		}
+		return bMagnitude;
+	}
+
+	public void setVMagnitude(double m)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_V_MAGNITUDE);
+		super.setVMagnitude(m);
+	}
+
+	public double getVMagnitude()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_V_MAGNITUDE))
+		{
+			vMagnitude = parseMagnitude(CatalogueRecordFormat.FIELD_V_MAGNITUDE,vMagnitude);
+			markDecoded(CatalogueRecordFormat.FIELD_V_MAGNITUDE);
+		}
+		return vMagnitude;
+	}
+
+	public void setRMagnitude(double m)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_R_MAGNITUDE);
+		super.setRMagnitude(m);
+	}
+
+	public double getRMagnitude()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_R_MAGNITUDE))
+		{
+			rMagnitude = parseMagnitude(CatalogueRecordFormat.FIELD_R_MAGNITUDE,rMagnitude);
+			markDecoded(CatalogueRecordFormat.FIELD_R_MAGNITUDE);
+		}
+		return rMagnitude;
+	}
+
+	public void setComment(String s)
+	{
+		markDecoded(CatalogueRecordFormat.FIELD_COMMENT);
+		super.setComment(s);
+	}
+
+	public String getComment()
+	{
+		if(!isDecoded(CatalogueRecordFormat.FIELD_COMMENT))
+		{
+			comment = field(CatalogueRecordFormat.FIELD_COMMENT);
+			markDecoded(CatalogueRecordFormat.FIELD_COMMENT);
+		}
+		return comment;
+	}
+
+	public String toString()
+	{
+		decodeAll();
+		return super.toString();
+	}
+
+	/**
+	 * Decode everything before serializing, as the line is not serialized.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		decodeAll();
+		out.defaultWriteObject();
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,1061 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// MosaicPlanner.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class plans a mosaic of telescope pointings covering a region of the sky, such as the error region of a
+ * target of opportunity. The region is a SkyRegion (polygon or cone), or the credible region of a NESTED
+ * HEALPix probability map. The field of view is a rectangle (aligned with north) or a circle.
+ * <ul>
+ * <li>The region is rasterised into HEALPix pixels about a tenth of the field across, each with a weight: its
+ *     probability for a map, the number of catalogue objects in it if a catalogue is given, or else 1 (area).
+ *     A pixel is inside the region, and is covered by a tile, when its centre is.
+ * <li>Candidate tiles are laid out in rows of declination. Each row's tiles abut along the row, spaced by the
+ *     narrowest part of the field at that declination, and each row starts where the last one ended, so
+ *     tiles only overlap where the sphere forces them to. Within a row, tiles only span the arc of right
+ *     ascension the region occupies, which may cross 0h. Regions reaching close to a pole get one tile
+ *     centred on the pole.
+ * <li>Tiles are chosen greedily by the uncovered weight they add, tracked in a coverage bitmap over the region
+ *     pixels. Gains only fall as tiles are chosen, so a stale gain is only recomputed when it reaches the top
+ *     of the queue. The result is therefore ranked by contained probability (or object count or area), and
+ *     tiles adding nothing are dropped.
+ * <li>Any weight left uncovered is covered by extra tiles centred on the uncovered pixels.
+ * </ul>
+ * Planning stops when the coverage target or the tile limit is reached.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see MosaicTile
+ * @see HEALPix
+ */
+public class MosaicPlanner
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of coverage pixels across the narrowest part of the field of view, at most.
+	 */
+	public final static int PIXELS_ACROSS = 10;
+	/**
+	 * The largest number of pixels the region is rasterised into. Larger regions use coarser pixels.
+	 */
+	public final static int MAX_REGION_PIXELS = 1 << 22;
+	/**
+	 * The number of samples along each edge of the field when finding the part of it a row can rely on.
+	 */
+	private final static int EDGE_SAMPLES = 8;
+	/**
+	 * A small angle, in radians, the fields are shrunk by so pixels on a shared edge are covered.
+	 */
+	private final static double EPSILON = 1e-9;
+	/**
+	 * The minimum number of candidate tiles in a parallel chunk.
+	 */
+	private final static int MIN_CHUNK = 8;
+	/**
+	 * The number of buckets the probabilities are split into when finding the credible region.
+	 */
+	private final static int BUCKETS = 1 << 16;
+	/**
+	 * The region to cover, or null if a probability map is used.
+	 */
+	protected SkyRegion region = null;
+	/**
+	 * The probability map's order.
+	 */
+	protected int mapOrder = 0;
+	/**
+	 * The pixels of the probability map's credible region, in increasing order, or null.
+	 */
+	protected long mapPixels[] = null;
+	/**
+	 * The probability of each credible region pixel.
+	 */
+	protected double mapWeights[] = null;
+	/**
+	 * The catalogue right ascensions, in radians, or null if tiles are not ranked by object count.
+	 */
+	protected double catalogueRA[] = null;
+	/**
+	 * The catalogue declinations, in radians.
+	 */
+	protected double catalogueDec[] = null;
+	/**
+	 * The number of catalogue objects.
+	 */
+	protected int catalogueCount = 0;
+	/**
+	 * The width of a rectangular field, in radians.
+	 */
+	protected double fieldWidth = 0.0;
+	/**
+	 * The height of a rectangular field, in radians.
+	 */
+	protected double fieldHeight = 0.0;
+	/**
+	 * The radius of a circular field, in radians, or 0 if the field is rectangular.
+	 */
+	protected double fieldRadius = 0.0;
+	/**
+	 * The fraction of the field's width and height neighbouring tiles overlap by.
+	 */
+	protected double overlap = 0.0;
+	/**
+	 * The fraction of the region's weight to cover.
+	 */
+	protected double coverageTarget = 1.0;
+	/**
+	 * The largest number of tiles to return.
+	 */
+	protected int maxTiles = Integer.MAX_VALUE;
+	/**
+	 * Whether to compute the tile footprints in parallel.
+	 */
+	protected boolean parallel = true;
+	/**
+	 * The HEALPix order of the region pixels of the last plan.
+	 */
+	protected int order = 0;
+	/**
+	 * The region pixels of the last plan, in increasing order.
+	 */
+	protected long pixels[] = null;
+	/**
+	 * The number of region pixels.
+	 */
+	protected int pixelCount = 0;
+	/**
+	 * The weight of each region pixel.
+	 */
+	protected double weights[] = null;
+	/**
+	 * The unit vector of each region pixel centre, x y z for each pixel in turn.
+	 */
+	protected double centres[] = null;
+	/**
+	 * The declination of each region pixel centre, in radians.
+	 */
+	protected double pixelDec[] = null;
+	/**
+	 * The right ascension of each region pixel centre, in radians.
+	 */
+	protected double pixelRA[] = null;
+	/**
+	 * One bit per region pixel, set once a chosen tile covers it.
+	 */
+	protected long covered[] = null;
+	/**
+	 * The total weight of the region of the last plan.
+	 */
+	protected double totalWeight = 0.0;
+	/**
+	 * The weight covered by the last plan.
+	 */
+	protected double coveredWeight = 0.0;
+
+	/**
+	 * Constructor, to cover a region.
+	 * @param r The region.
+	 */
+	public MosaicPlanner(SkyRegion r)
+	{
+		super();
+		region = r;
+	}
+
+	/**
+	 * Constructor, to cover the credible region of a probability map: the most probable pixels holding the
+	 * given fraction of the total probability.
+	 * @param probability The probability of each NESTED pixel. Negative and NaN values are taken as 0.
+	 * @param o The HEALPix order of the map.
+	 * @param credibleLevel The fraction of the probability the region holds, e.g. 0.9.
+	 * @exception IllegalArgumentException Thrown if the order does not match the map, the credible level is
+	 *            out of range, or the map has no positive probability.
+	 */
+	public MosaicPlanner(double probability[],int o,double credibleLevel) throws IllegalArgumentException
+	{
+		super();
+		if((o < 0)||(o > HEALPix.MAX_ORDER)||(HEALPix.pixelCount(o) > probability.length))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal order:"+o+
+							   ": Must have no more pixels than the map's "+
+							   probability.length+".");
+		}
+		if(!((credibleLevel > 0.0)&&(credibleLevel <= 1.0)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal credible level:"+
+							   credibleLevel+": Must be more than 0 and at most 1.");
+		}
+		mapOrder = o;
+		credibleRegion(probability,(int)HEALPix.pixelCount(o),credibleLevel);
+	}
+
+	/**
+	 * Set a rectangular field of view, aligned with north.
+	 * @param width The width (east-west), in arc-seconds.
+	 * @param height The height (north-south), in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if either side is not positive or is more than 90 degrees.
+	 */
+	public void setRectangularField(double width,double height) throws IllegalArgumentException
+	{
+		checkField("setRectangularField","width",width,324000.0);
+		checkField("setRectangularField","height",height,324000.0);
+		fieldWidth = width*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		fieldHeight = height*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		fieldRadius = 0.0;
+	}
+
+	/**
+	 * Set a circular field of view. Rows of circular tiles are spaced by the square inscribed in the circle,
+	 * so they overlap more than rectangular tiles do.
+	 * @param radius The radius, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if the radius is not positive or is more than 45 degrees.
+	 */
+	public void setCircularField(double radius) throws IllegalArgumentException
+	{
+		checkField("setCircularField","radius",radius,162000.0);
+		fieldRadius = radius*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		fieldWidth = 0.0;
+		fieldHeight = 0.0;
+	}
+
+	/**
+	 * Set how much neighbouring tiles overlap, for instance to tie their photometry together.
+	 * @param fraction The fraction of the field's width and height, 0 &lt;= fraction &lt; 0.5.
+	 * @exception IllegalArgumentException Thrown if the fraction is out of range.
+	 */
+	public void setOverlap(double fraction) throws IllegalArgumentException
+	{
+		if(!((fraction >= 0.0)&&(fraction < 0.5)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setOverlap:Illegal overlap:"+
+							   fraction+": Must be at least 0 and less than 0.5.");
+		}
+		overlap = fraction;
+	}
+
+	/**
+	 * Set the fraction of the region's weight to cover. Planning stops as soon as it is covered.
+	 * @param fraction The fraction, more than 0 and at most 1.
+	 * @exception IllegalArgumentException Thrown if the fraction is out of range.
+	 */
+	public void setCoverageTarget(double fraction) throws IllegalArgumentException
+	{
+		if(!((fraction > 0.0)&&(fraction <= 1.0)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setCoverageTarget:Illegal target:"+fraction+
+							   ": Must be more than 0 and at most 1.");
+		}
+		coverageTarget = fraction;
+	}
+
+	/**
+	 * Set the largest number of tiles to return.
+	 * @param n The number of tiles, at least 1.
+	 * @exception IllegalArgumentException Thrown if n is less than 1.
+	 */
+	public void setMaxTiles(int n) throws IllegalArgumentException
+	{
+		if(n < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxTiles:Illegal count:"+n+
+							   ": Must be at least 1.");
+		}
+		maxTiles = n;
+	}
+
+	/**
+	 * Rank tiles by the number of catalogue objects they contain, rather than by area or probability. The
+	 * arrays are not copied.
+	 * @param raRadians The object right ascensions, in radians.
+	 * @param decRadians The object declinations, in radians.
+	 * @param n The number of objects.
+	 * @exception IllegalArgumentException Thrown if n is negative or longer than the arrays.
+	 */
+	public void setCatalogue(double raRadians[],double decRadians[],int n) throws IllegalArgumentException
+	{
+		if((n < 0)||(n > raRadians.length)||(n > decRadians.length))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCatalogue:Illegal count:"+n+
+							   ": Must be positive and no more than the array lengths.");
+		}
+		catalogueRA = raRadians;
+		catalogueDec = decRadians;
+		catalogueCount = n;
+	}
+
+	/**
+	 * Rank tiles by the number of catalogue objects they contain.
+	 * @param c The catalogue, whose position columns are not copied.
+	 */
+	public void setCatalogue(CelestialObjectColumns c)
+	{
+		setCatalogue(c.getRARadians(),c.getDecRadians(),c.getSize());
+	}
+
+	/**
+	 * Stop ranking tiles by catalogue objects.
+	 */
+	public void clearCatalogue()
+	{
+		catalogueRA = null;
+		catalogueDec = null;
+		catalogueCount = 0;
+	}
+
+	/**
+	 * Set whether to compute the tile footprints in parallel.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Plan the mosaic.
+	 * @return The tiles, best first.
+	 * @exception IllegalArgumentException Thrown if no field of view has been set.
+	 */
+	public synchronized List<MosaicTile> plan() throws IllegalArgumentException
+	{
+		List<MosaicTile> tiles = null;
+		Candidates candidates = null;
+
+		if((fieldRadius == 0.0)&&(fieldWidth == 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":plan:No field of view has been set.");
+		}
+		if(region != null)
+			rasteriseRegion();
+		else
+			rasteriseMap();
+		if(catalogueRA != null)
+			countObjects();
+		computeCentres();
+		covered = new long[(pixelCount+63)/64];
+		totalWeight = 0.0;
+		for(int i = 0; i < pixelCount; i++)
+			totalWeight += weights[i];
+		coveredWeight = 0.0;
+		tiles = new ArrayList<MosaicTile>();
+		if(totalWeight <= 0.0)
+			return tiles;
+		candidates = layOut();
+		select(candidates,tiles);
+		if((!targetReached())&&(tiles.size() < maxTiles))
+			select(fillGaps(),tiles);
+		return tiles;
+	}
+
+	/**
+	 * Return the HEALPix order of the region pixels of the last plan.
+	 */
+	public int getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Return the number of region pixels of the last plan.
+	 */
+	public int getPixelCount()
+	{
+		return pixelCount;
+	}
+
+	/**
+	 * Return the total weight of the region of the last plan.
+	 */
+	public double getTotalWeight()
+	{
+		return totalWeight;
+	}
+
+	/**
+	 * Return the weight covered by the last plan.
+	 */
+	public double getCoveredWeight()
+	{
+		return coveredWeight;
+	}
+
+	/**
+	 * Find the pixels of a probability map's credible region. The probabilities are bucketed by the top bits
+	 * of their floating point representation (which orders positive doubles), so only the bucket holding the
+	 * threshold has to be sorted.
+	 */
+	protected void credibleRegion(double probability[],int n,double credibleLevel)
+		throws IllegalArgumentException
+	{
+		double bucketSum[] = new double[BUCKETS];
+		double values[] = null;
+		double total,target,sum,threshold,p;
+		int bucket,count;
+
+		total = 0.0;
+		for(int i = 0; i < n; i++)
+		{
+			p = probability[i];
+			if(p > 0.0)
+			{
+				total += p;
+				bucketSum[(int)(Double.doubleToRawLongBits(p) >>> 48)] += p;
+			}
+		}
+		if(total <= 0.0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":credibleRegion:The map has no positive probability.");
+		}
+		target = credibleLevel*total;
+		sum = 0.0;
+		bucket = BUCKETS-1;
+		while(bucket > 0)
+		{
+			if((bucketSum[bucket] > 0.0)&&(sum+bucketSum[bucket] >= target))
+				break;
+			sum += bucketSum[bucket];
+			bucket--;
+		}
+		count = 0;
+		values = new double[16];
+		for(int i = 0; i < n; i++)
+		{
+			p = probability[i];
+			if((p > 0.0)&&((int)(Double.doubleToRawLongBits(p) >>> 48) == bucket))
+			{
+				if(count == values.length)
+					values = Arrays.copyOf(values,count*2);
+				values[count++] = p;
+			}
+		}
+		Arrays.sort(values,0,count);
+		// rounding can leave the sum short of the target, in which case every positive pixel is kept
+		threshold = Double.MIN_VALUE;
+		for(int i = count-1; i >= 0; i--)
+		{
+			sum += values[i];
+			if(sum >= target)
+			{
+				threshold = values[i];
+				break;
+			}
+		}
+		count = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(probability[i] >= threshold)
+				count++;
+		}
+		mapPixels = new long[count];
+		mapWeights = new double[count];
+		count = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(probability[i] >= threshold)
+			{
+				mapPixels[count] = i;
+				mapWeights[count] = probability[i];
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Rasterise the region into pixels of weight 1, at the order the field of view asks for or coarser if
+	 * that would be too many pixels.
+	 */
+	protected void rasteriseRegion()
+	{
+		final List<long[]> cells = new ArrayList<long[]>();
+		double v[] = new double[3];
+		long first,last,total;
+		int shift,count;
+
+		order = fieldOrder();
+		while(true)
+		{
+			cells.clear();
+			HEALPix.coverage(region,order,(cellOrder,cellPixel,inside) ->
+					 cells.add(new long[] {cellOrder,cellPixel,inside ? 1 : 0}));
+			total = 0;
+			for(long cell[] : cells)
+				total += 1L << (2*(order-(int)cell[0]));
+			if((total <= MAX_REGION_PIXELS)||(order == 0))
+				break;
+			order--;
+		}
+		pixels = new long[(int)total];
+		count = 0;
+		for(long cell[] : cells)
+		{
+			shift = 2*(order-(int)cell[0]);
+			first = cell[1] << shift;
+			last = (cell[1]+1) << shift;
+			if(cell[2] != 0)
+			{
+				for(long p = first; p < last; p++)
+					pixels[count++] = p;
+			}
+			else
+			{
+				// partial cells are at the requested order
+				HEALPix.pixelToVec(order,first,v,0);
+				if(region.contains(v[0],v[1],v[2]))
+					pixels[count++] = first;
+			}
+		}
+		pixelCount = count;
+		sortPixels();
+		weights = new double[pixelCount];
+		Arrays.fill(weights,1.0);
+	}
+
+	/**
+	 * Rasterise the credible region of the probability map at the order the field of view asks for, splitting
+	 * or merging map pixels and their probability as needed.
+	 */
+	protected void rasteriseMap()
+	{
+		long total,parent;
+		int shift,count,children;
+
+		order = fieldOrder();
+		while((order > mapOrder)&&(((long)mapPixels.length) << (2*(order-mapOrder))) > MAX_REGION_PIXELS)
+			order--;
+		if(order >= mapOrder)
+		{
+			shift = 2*(order-mapOrder);
+			children = 1 << shift;
+			total = ((long)mapPixels.length) << shift;
+			pixels = new long[(int)total];
+			weights = new double[(int)total];
+			count = 0;
+			for(int i = 0; i < mapPixels.length; i++)
+			{
+				for(int c = 0; c < children; c++)
+				{
+					pixels[count] = (mapPixels[i] << shift)+c;
+					weights[count] = mapWeights[i]/children;
+					count++;
+				}
+			}
+		}
+		else
+		{
+			// map pixels are in increasing order, so the children of a parent are consecutive
+			shift = 2*(mapOrder-order);
+			pixels = new long[mapPixels.length];
+			weights = new double[mapPixels.length];
+			count = 0;
+			for(int i = 0; i < mapPixels.length; i++)
+			{
+				parent = mapPixels[i] >>> shift;
+				if((count == 0)||(pixels[count-1] != parent))
+				{
+					pixels[count] = parent;
+					weights[count] = 0.0;
+					count++;
+				}
+				weights[count-1] += mapWeights[i];
+			}
+		}
+		pixelCount = count;
+	}
+
+	/**
+	 * Replace the pixel weights with the number of catalogue objects in each pixel.
+	 */
+	protected void countObjects()
+	{
+		final int index[];
+		int j;
+
+		index = new int[catalogueCount];
+		run(catalogueCount,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				index[i] = Arrays.binarySearch(pixels,0,pixelCount,
+							       HEALPix.angToPixel(order,catalogueRA[i],catalogueDec[i]));
+			}
+		});
+		weights = new double[pixelCount];
+		for(int i = 0; i < catalogueCount; i++)
+		{
+			j = index[i];
+			if(j >= 0)
+				weights[j] += 1.0;
+		}
+	}
+
+	/**
+	 * Compute the centre of every region pixel.
+	 */
+	protected void computeCentres()
+	{
+		centres = new double[3*pixelCount];
+		pixelRA = new double[pixelCount];
+		pixelDec = new double[pixelCount];
+		run(pixelCount,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				HEALPix.pixelToVec(order,pixels[i],centres,3*i);
+				pixelRA[i] = SphericalGeometry.toRARadians(centres[3*i],centres[(3*i)+1],centres[(3*i)+2]);
+				pixelDec[i] = SphericalGeometry.toDecRadians(centres[3*i],centres[(3*i)+1],
+									     centres[(3*i)+2]);
+			}
+		});
+	}
+
+	/**
+	 * Lay out candidate tiles in rows of declination, with a tile on each pole the region comes close to.
+	 */
+	protected Candidates layOut()
+	{
+		Candidates candidates = null;
+		double box[] = new double[3];
+		double ra[] = null;
+		long byDec[] = null;
+		double capRadius,lowLimit,highLimit,bottom,top,centre,residual,arcStart,arcLength,gap,step;
+		double decScale,pixelSize;
+		int first,end,n,largestGap;
+
+		candidates = new Candidates();
+		// sort the pixels by declination, quantised finely enough to keep the order of distinct centres
+		decScale = (double)(1L << 30)/Math.PI;
+		byDec = new long[pixelCount];
+		for(int i = 0; i < pixelCount; i++)
+			byDec[i] = (((long)((pixelDec[i]+(Math.PI/2.0))*decScale)) << 32)|i;
+		Arrays.sort(byDec);
+		// a field centred on a pole covers a cap of its inscribed radius
+		if(fieldRadius > 0.0)
+			capRadius = fieldRadius*(1.0-overlap);
+		else
+			capRadius = (Math.min(fieldWidth,fieldHeight)/2.0)*(1.0-overlap);
+		capRadius -= EPSILON;
+		lowLimit = -Math.PI/2.0;
+		highLimit = Math.PI/2.0;
+		if(pixelDec[(int)byDec[0]] < capRadius-(Math.PI/2.0))
+		{
+			candidates.add(0.0,-Math.PI/2.0);
+			lowLimit = capRadius-(Math.PI/2.0);
+		}
+		if(pixelDec[(int)byDec[pixelCount-1]] > (Math.PI/2.0)-capRadius)
+		{
+			candidates.add(0.0,Math.PI/2.0);
+			highLimit = (Math.PI/2.0)-capRadius;
+		}
+		first = 0;
+		while((first < pixelCount)&&(pixelDec[(int)byDec[first]] < lowLimit))
+			first++;
+		ra = new double[pixelCount];
+		pixelSize = Math.sqrt(HEALPix.pixelArea(order));
+		top = lowLimit;
+		while((first < pixelCount)&&(pixelDec[(int)byDec[first]] <= highLimit))
+		{
+			// a row starts where the last one (or the south cap) ended, unless the region has a gap in
+			// declination, as pixel centres are too sparse to show the thin strips between rows
+			bottom = pixelDec[(int)byDec[first]];
+			if(bottom-top < pixelSize)
+				bottom = top;
+			centre = bottom;
+			for(int iteration = 0; iteration < 50; iteration++)
+			{
+				centre = Math.max(-Math.PI/2.0,Math.min(Math.PI/2.0,centre));
+				rowBox(centre,box);
+				residual = box[0]-bottom;
+				centre -= residual;
+				if(Math.abs(residual) < EPSILON/10.0)
+					break;
+			}
+			centre = Math.max(-Math.PI/2.0,Math.min(Math.PI/2.0,centre));
+			rowBox(centre,box);
+			top = box[1];
+			end = first;
+			while((end < pixelCount)&&(pixelDec[(int)byDec[end]] < box[1]))
+				end++;
+			if(end == first)
+				end++;
+			// the arc of right ascension the row's pixels occupy is the complement of the largest gap
+			n = end-first;
+			for(int i = 0; i < n; i++)
+				ra[i] = pixelRA[(int)byDec[first+i]];
+			Arrays.sort(ra,0,n);
+			largestGap = n-1;
+			gap = (ra[0]+(2.0*Math.PI))-ra[n-1];
+			for(int i = 0; i < n-1; i++)
+			{
+				if(ra[i+1]-ra[i] > gap)
+				{
+					gap = ra[i+1]-ra[i];
+					largestGap = i;
+				}
+			}
+			arcStart = ra[(largestGap+1) % n];
+			arcLength = (2.0*Math.PI)-gap;
+			step = 2.0*box[2];
+			if(box[2] >= Math.PI)
+				candidates.add(arcStart,centre);
+			else if(gap <= step)
+			{
+				n = (int)Math.ceil((2.0*Math.PI)/step);
+				for(int i = 0; i < n; i++)
+					candidates.add(arcStart+((i*2.0*Math.PI)/n),centre);
+			}
+			else
+			{
+				// one more tile than strictly needed unless the arc divides exactly, so the ends have slack
+				n = ((int)Math.floor(arcLength/step))+1;
+				for(int i = 0; i < n; i++)
+					candidates.add(arcStart+(arcLength/2.0)+((i-((n-1)/2.0))*step),centre);
+			}
+			first = end;
+		}
+		candidates.computeFootprints();
+		return candidates;
+	}
+
+	/**
+	 * Find the part of a field centred at a declination that a row can rely on: the declination band between
+	 * the highest point of its south edge and the lowest point of its north edge, and the right ascension
+	 * half-width it covers throughout that band. The field is shrunk by the overlap; a circular field is
+	 * replaced by its inscribed square.
+	 * @param dec The declination of the field centre, in radians.
+	 * @param box An array to put the band's lower and upper declinations and the half-width into, in radians.
+	 */
+	protected void rowBox(double dec,double box[])
+	{
+		double v[] = new double[3];
+		double a,b,s;
+
+		if(fieldRadius > 0.0)
+		{
+			a = Math.tan((fieldRadius*(1.0-overlap))-EPSILON)/Math.sqrt(2.0);
+			b = a;
+		}
+		else
+		{
+			a = Math.tan(((fieldWidth*(1.0-overlap))/2.0)-EPSILON);
+			b = Math.tan(((fieldHeight*(1.0-overlap))/2.0)-EPSILON);
+		}
+		box[0] = -Math.PI/2.0;
+		box[1] = Math.PI/2.0;
+		box[2] = Math.PI;
+		for(int i = 0; i <= EDGE_SAMPLES; i++)
+		{
+			s = ((2.0*i)/EDGE_SAMPLES)-1.0;
+			// south and north edges
+			SphericalGeometry.tangentPlaneToUnitVector(0.0,dec,s*a,-b,v,0);
+			box[0] = Math.max(box[0],SphericalGeometry.toDecRadians(v[0],v[1],v[2]));
+			SphericalGeometry.tangentPlaneToUnitVector(0.0,dec,s*a,b,v,0);
+			box[1] = Math.min(box[1],SphericalGeometry.toDecRadians(v[0],v[1],v[2]));
+			// east edge, the west edge is its mirror image
+			SphericalGeometry.tangentPlaneToUnitVector(0.0,dec,a,s*b,v,0);
+			box[2] = Math.min(box[2],Math.abs(Math.atan2(v[1],v[0])));
+		}
+	}
+
+	/**
+	 * Make candidate tiles centred on uncovered pixels, each claiming the uncovered pixels it contains, until
+	 * every uncovered pixel with weight is claimed.
+	 */
+	protected Candidates fillGaps()
+	{
+		Candidates candidates = null;
+		boolean claimed[] = null;
+		IntArrayList list = null;
+
+		candidates = new Candidates();
+		claimed = new boolean[pixelCount];
+		for(int i = 0; i < pixelCount; i++)
+		{
+			if(claimed[i]||isCovered(i)||(weights[i] <= 0.0))
+				continue;
+			candidates.add(pixelRA[i],pixelDec[i]);
+			list = pixelsInside(footprint(pixelRA[i],pixelDec[i]),pixelRA[i],pixelDec[i]);
+			for(int j = 0; j < list.size(); j++)
+				claimed[list.get(j)] = true;
+			// a centre pixel may be missed by its own footprint only through rounding
+			claimed[i] = true;
+		}
+		candidates.computeFootprints();
+		return candidates;
+	}
+
+	/**
+	 * Choose tiles from candidates greedily by the uncovered weight they add, until the coverage target or
+	 * tile limit is reached or no candidate adds anything. A candidate's gain can only fall as tiles are
+	 * chosen, so a candidate is only re-evaluated when it reaches the top of the queue, and is chosen if its
+	 * new gain still beats every other candidate's old gain.
+	 */
+	protected void select(final Candidates candidates,List<MosaicTile> tiles)
+	{
+		PriorityQueue<Integer> queue = null;
+		IntArrayList list = null;
+		double gain;
+		int c,p;
+
+		queue = new PriorityQueue<Integer>(Math.max(1,candidates.count),(i,j) ->
+						   Double.compare(candidates.gain[j],candidates.gain[i]));
+		for(int i = 0; i < candidates.count; i++)
+		{
+			candidates.gain[i] = candidates.contained[i];
+			if(candidates.gain[i] > 0.0)
+				queue.add(i);
+		}
+		while((!queue.isEmpty())&&(tiles.size() < maxTiles)&&(!targetReached()))
+		{
+			c = queue.poll();
+			list = candidates.pixelLists[c];
+			gain = 0.0;
+			for(int i = 0; i < list.size(); i++)
+			{
+				p = list.get(i);
+				if(!isCovered(p))
+					gain += weights[p];
+			}
+			if(gain <= 0.0)
+				continue;
+			if((!queue.isEmpty())&&(gain < candidates.gain[queue.peek()]))
+			{
+				candidates.gain[c] = gain;
+				queue.add(c);
+				continue;
+			}
+			for(int i = 0; i < list.size(); i++)
+			{
+				p = list.get(i);
+				covered[p >>> 6] |= 1L << (p & 63);
+			}
+			coveredWeight += gain;
+			tiles.add(new MosaicTile(candidates.ra[c],candidates.dec[c],candidates.footprints[c],gain,
+						 candidates.contained[c],Math.min(1.0,coveredWeight/totalWeight)));
+		}
+	}
+
+	/**
+	 * Return whether the coverage target has been reached, allowing for rounding in the sums.
+	 */
+	protected boolean targetReached()
+	{
+		return coveredWeight >= coverageTarget*totalWeight*(1.0-1e-12);
+	}
+
+	/**
+	 * Return whether a region pixel is covered by a chosen tile.
+	 */
+	protected boolean isCovered(int p)
+	{
+		return (covered[p >>> 6] & (1L << (p & 63))) != 0;
+	}
+
+	/**
+	 * Return the footprint of the field of view at a pointing.
+	 */
+	protected SkyRegion footprint(double ra,double dec)
+	{
+		if(fieldRadius > 0.0)
+			return new SkyCone(ra,dec,fieldRadius*SphericalGeometry.RADIANS_TO_ARCSECONDS);
+		return SphericalPolygon.rectangle(ra,dec,fieldWidth*SphericalGeometry.RADIANS_TO_ARCSECONDS,
+						  fieldHeight*SphericalGeometry.RADIANS_TO_ARCSECONDS,0.0);
+	}
+
+	/**
+	 * Return the region pixels whose centres are inside a footprint. The bounding cone is covered two orders
+	 * coarser than the region pixels, as testing the extra pixels costs much less than the finer recursion.
+	 * @param f The footprint.
+	 * @param ra The right ascension of the footprint centre, in radians.
+	 * @param dec The declination of the footprint centre, in radians.
+	 * @return A new list of region pixel indices.
+	 */
+	protected IntArrayList pixelsInside(final SkyRegion f,double ra,double dec)
+	{
+		final IntArrayList list = new IntArrayList();
+		double radius;
+
+		if(fieldRadius > 0.0)
+			radius = fieldRadius;
+		else
+			radius = Math.atan(Math.hypot(Math.tan(fieldWidth/2.0),Math.tan(fieldHeight/2.0)));
+		HEALPix.coneCoverage(new SkyCone(ra,dec,(radius+EPSILON)*SphericalGeometry.RADIANS_TO_ARCSECONDS),
+				     Math.max(0,order-2),(cellOrder,cellPixel,inside) ->
+		{
+			long first,last;
+			int shift,j;
+
+			shift = 2*(order-cellOrder);
+			first = cellPixel << shift;
+			last = (cellPixel+1) << shift;
+			j = Arrays.binarySearch(pixels,0,pixelCount,first);
+			if(j < 0)
+				j = -j-1;
+			for(; (j < pixelCount)&&(pixels[j] < last); j++)
+			{
+				if(f.contains(centres[3*j],centres[(3*j)+1],centres[(3*j)+2]))
+					list.add(j);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Return the order whose pixels fit PIXELS_ACROSS times across the narrowest part of the field.
+	 */
+	protected int fieldOrder()
+	{
+		double size;
+
+		if(fieldRadius > 0.0)
+			size = 2.0*fieldRadius;
+		else
+			size = Math.min(fieldWidth,fieldHeight);
+		return HEALPix.orderForResolution(size/PIXELS_ACROSS);
+	}
+
+	/**
+	 * Sort the region pixels, if the coverage did not already return them in order.
+	 */
+	protected void sortPixels()
+	{
+		for(int i = 1; i < pixelCount; i++)
+		{
+			if(pixels[i] < pixels[i-1])
+			{
+				Arrays.sort(pixels,0,pixelCount);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Run a loop, in parallel chunks or all at once.
+	 */
+	private void run(int n,int minChunk,ParallelChunks.Task task)
+	{
+		if(parallel)
+			ParallelChunks.forEach(n,minChunk,task);
+		else
+			task.run(0,n);
+	}
+
+	/**
+	 * Check a field of view dimension.
+	 */
+	private void checkField(String method,String name,double value,double max) throws IllegalArgumentException
+	{
+		if(!((value > 0.0)&&(value <= max)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":"+method+":Illegal "+name+":"+
+							   value+": Must be more than 0 and at most "+max+".");
+		}
+	}
+
+	/**
+	 * A growable set of candidate tiles, with their footprints and the region pixels each contains.
+	 */
+	protected class Candidates
+	{
+		/**
+		 * The number of candidates.
+		 */
+		int count = 0;
+		/**
+		 * The right ascension of each candidate, in radians.
+		 */
+		double ra[] = new double[16];
+		/**
+		 * The declination of each candidate, in radians.
+		 */
+		double dec[] = new double[16];
+		/**
+		 * The footprint of each candidate.
+		 */
+		SkyRegion footprints[] = null;
+		/**
+		 * The region pixels inside each candidate.
+		 */
+		IntArrayList pixelLists[] = null;
+		/**
+		 * The total weight inside each candidate.
+		 */
+		double contained[] = null;
+		/**
+		 * The last known uncovered weight inside each candidate.
+		 */
+		double gain[] = null;
+
+		/**
+		 * Add a candidate.
+		 * @param r The right ascension, in radians, in any range.
+		 * @param d The declination, in radians.
+		 */
+		void add(double r,double d)
+		{
+			if(count == ra.length)
+			{
+				ra = Arrays.copyOf(ra,count*2);
+				dec = Arrays.copyOf(dec,count*2);
+			}
+			r = r % (2.0*Math.PI);
+			if(r < 0.0)
+				r += 2.0*Math.PI;
+			ra[count] = r;
+			dec[count] = d;
+			count++;
+		}
+
+		/**
+		 * Compute every candidate's footprint, pixels and contained weight, in parallel.
+		 */
+		void computeFootprints()
+		{
+			footprints = new SkyRegion[count];
+			pixelLists = new IntArrayList[count];
+			contained = new double[count];
+			gain = new double[count];
+			run(count,MIN_CHUNK,(from,to) ->
+			{
+				double w;
+
+				for(int i = from; i < to; i++)
+				{
+					footprints[i] = footprint(ra[i],dec[i]);
+					pixelLists[i] = pixelsInside(footprints[i],ra[i],dec[i]);
+					w = 0.0;
+					for(int j = 0; j < pixelLists[i].size(); j++)
+						w += weights[pixelLists[i].get(j)];
+					contained[i] = w;
+				}
+			});
+		}
+	};
+};
+//
+// $Log$
+//
@@ -0,0 +1,152 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// MosaicTile.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds one pointing of a mosaic returned by the MosaicPlanner, in rank order.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see MosaicPlanner
+ */
+public class MosaicTile implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so planned mosaics can be saved and reloaded.
+	 */
+	static final long serialVersionUID = -6255477849440735926L;
+	/**
+	 * The right ascension of the pointing, in radians.
+	 */
+	protected double raRadians = 0.0;
+	/**
+	 * The declination of the pointing, in radians.
+	 */
+	protected double decRadians = 0.0;
+	/**
+	 * The footprint of the field of view at the pointing.
+	 */
+	protected SkyRegion footprint = null;
+	/**
+	 * The weight (probability, object count or area in pixels) this tile adds that no higher ranked tile
+	 * covers.
+	 */
+	protected double weight = 0.0;
+	/**
+	 * The total weight inside the footprint, including any already covered by higher ranked tiles.
+	 */
+	protected double containedWeight = 0.0;
+	/**
+	 * The fraction of the region's weight covered by this tile and every higher ranked tile.
+	 */
+	protected double cumulativeFraction = 0.0;
+
+	/**
+	 * Constructor.
+	 * @param ra The right ascension of the pointing, in radians.
+	 * @param dec The declination of the pointing, in radians.
+	 * @param f The footprint.
+	 * @param w The weight this tile adds.
+	 * @param c The total weight inside the footprint.
+	 * @param cf The cumulative fraction of the region's weight covered.
+	 */
+	public MosaicTile(double ra,double dec,SkyRegion f,double w,double c,double cf)
+	{
+		super();
+		raRadians = ra;
+		decRadians = dec;
+		footprint = f;
+		weight = w;
+		containedWeight = c;
+		cumulativeFraction = cf;
+	}
+
+	public double getRARadians()
+	{
+		return raRadians;
+	}
+
+	public double getDecRadians()
+	{
+		return decRadians;
+	}
+
+	/**
+	 * Return the right ascension of the pointing.
+	 * @return A new RA.
+	 */
+	public RA getRA()
+	{
+		RA ra = null;
+
+		ra = new RA();
+		ra.fromRadians(raRadians);
+		return ra;
+	}
+
+	/**
+	 * Return the declination of the pointing.
+	 * @return A new Dec.
+	 */
+	public Dec getDec()
+	{
+		Dec dec = null;
+
+		dec = new Dec();
+		dec.fromRadians(decRadians);
+		return dec;
+	}
+
+	public SkyRegion getFootprint()
+	{
+		return footprint;
+	}
+
+	public double getWeight()
+	{
+		return weight;
+	}
+
+	public double getContainedWeight()
+	{
+		return containedWeight;
+	}
+
+	public double getCumulativeFraction()
+	{
+		return cumulativeFraction;
+	}
+
+	public String toString()
+	{
+		return new String(getRA()+" "+getDec()+" weight:"+weight+" contained:"+containedWeight+
+				  " cumulative:"+cumulativeFraction);
+	}
+};
+//
+// $Log$
+//
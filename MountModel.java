@@ -0,0 +1,244 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// MountModel.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class models how long an equatorial telescope mount takes to slew between two positions. Each axis
+ * (right ascension and declination) moves at its own top speed, optionally accelerating and decelerating at a
+ * fixed rate, and the axes move together (the slew lasts as long as the slower axis) or one after the other.
+ * The right ascension axis takes the short way round, so a slew across 0h is short. A settle time is added to
+ * every slew. The time does not depend on the direction of the slew.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SlewOptimiser
+ */
+public class MountModel implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so a fitted model can be saved and reloaded by later builds.
+	 */
+	static final long serialVersionUID = -8334138401617717169L;
+	/**
+	 * The right ascension axis top speed, in degrees per second.
+	 */
+	protected double raSpeed = 2.0;
+	/**
+	 * The declination axis top speed, in degrees per second.
+	 */
+	protected double decSpeed = 2.0;
+	/**
+	 * The right ascension axis acceleration, in degrees per second per second, or 0 for instant.
+	 */
+	protected double raAcceleration = 0.0;
+	/**
+	 * The declination axis acceleration, in degrees per second per second, or 0 for instant.
+	 */
+	protected double decAcceleration = 0.0;
+	/**
+	 * The time to settle after a slew, in seconds.
+	 */
+	protected double settleTime = 5.0;
+	/**
+	 * Whether the axes move at the same time.
+	 */
+	protected boolean simultaneousAxes = true;
+
+	/**
+	 * Default constructor. Both axes move together at 2 degrees per second, with instant acceleration and a
+	 * 5 second settle time.
+	 */
+	public MountModel()
+	{
+		super();
+	}
+
+	/**
+	 * Set the axis top speeds.
+	 * @param ra The right ascension axis speed, in degrees per second.
+	 * @param dec The declination axis speed, in degrees per second.
+	 * @exception IllegalArgumentException Thrown if either is not positive.
+	 */
+	public void setAxisSpeeds(double ra,double dec) throws IllegalArgumentException
+	{
+		if(!(ra > 0.0)||!(dec > 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setAxisSpeeds:Illegal speeds:"+
+							   ra+","+dec+": Must be positive.");
+		}
+		raSpeed = ra;
+		decSpeed = dec;
+	}
+
+	public double getRASpeed()
+	{
+		return raSpeed;
+	}
+
+	public double getDecSpeed()
+	{
+		return decSpeed;
+	}
+
+	/**
+	 * Set the axis accelerations. An axis accelerates to its top speed (or until half way) and decelerates at
+	 * the same rate.
+	 * @param ra The right ascension axis acceleration, in degrees per second per second, or 0 for instant.
+	 * @param dec The declination axis acceleration, in degrees per second per second, or 0 for instant.
+	 * @exception IllegalArgumentException Thrown if either is negative.
+	 */
+	public void setAxisAccelerations(double ra,double dec) throws IllegalArgumentException
+	{
+		if(!(ra >= 0.0)||!(dec >= 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setAxisAccelerations:"+
+							   "Illegal accelerations:"+ra+","+dec+": Must be 0 or more.");
+		}
+		raAcceleration = ra;
+		decAcceleration = dec;
+	}
+
+	public double getRAAcceleration()
+	{
+		return raAcceleration;
+	}
+
+	public double getDecAcceleration()
+	{
+		return decAcceleration;
+	}
+
+	/**
+	 * Set the time to settle after a slew.
+	 * @param s The settle time, in seconds.
+	 * @exception IllegalArgumentException Thrown if s is negative.
+	 */
+	public void setSettleTime(double s) throws IllegalArgumentException
+	{
+		if(!(s >= 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setSettleTime:Illegal time:"+s+
+							   ": Must be 0 or more.");
+		}
+		settleTime = s;
+	}
+
+	public double getSettleTime()
+	{
+		return settleTime;
+	}
+
+	/**
+	 * Set whether the axes move at the same time, or one after the other.
+	 */
+	public void setSimultaneousAxes(boolean b)
+	{
+		simultaneousAxes = b;
+	}
+
+	public boolean getSimultaneousAxes()
+	{
+		return simultaneousAxes;
+	}
+
+	/**
+	 * Return the slew time between two positions.
+	 * @param ra1 The right ascension of the first position.
+	 * @param dec1 The declination of the first position.
+	 * @param ra2 The right ascension of the second position.
+	 * @param dec2 The declination of the second position.
+	 * @return The slew time including settling, in seconds, or 0 if the positions are the same.
+	 */
+	public double slewTime(RA ra1,Dec dec1,RA ra2,Dec dec2)
+	{
+		return slewTime(ra1.toRadians(),dec1.toRadians(),ra2.toRadians(),dec2.toRadians());
+	}
+
+	/**
+	 * Return the slew time between two positions.
+	 * @param ra1 The right ascension of the first position, in radians.
+	 * @param dec1 The declination of the first position, in radians.
+	 * @param ra2 The right ascension of the second position, in radians.
+	 * @param dec2 The declination of the second position, in radians.
+	 * @return The slew time including settling, in seconds, or 0 if the positions are the same.
+	 */
+	public double slewTime(double ra1,double dec1,double ra2,double dec2)
+	{
+		double dRA;
+
+		dRA = Math.abs(ra2-ra1) % (2.0*Math.PI);
+		if(dRA > Math.PI)
+			dRA = (2.0*Math.PI)-dRA;
+		return axisSlewTime(Math.toDegrees(dRA),Math.toDegrees(Math.abs(dec2-dec1)));
+	}
+
+	/**
+	 * Return the slew time for given axis movements.
+	 * @param raDistance How far the right ascension axis moves, in degrees.
+	 * @param decDistance How far the declination axis moves, in degrees.
+	 * @return The slew time including settling, in seconds, or 0 if neither axis moves.
+	 */
+	public double axisSlewTime(double raDistance,double decDistance)
+	{
+		double tRA,tDec;
+
+		if((raDistance == 0.0)&&(decDistance == 0.0))
+			return 0.0;
+		tRA = axisTime(raDistance,raSpeed,raAcceleration);
+		tDec = axisTime(decDistance,decSpeed,decAcceleration);
+		if(simultaneousAxes)
+			return Math.max(tRA,tDec)+settleTime;
+		return tRA+tDec+settleTime;
+	}
+
+	/**
+	 * Return the time one axis takes to move.
+	 * @param distance The distance, in degrees.
+	 * @param speed The top speed, in degrees per second.
+	 * @param acceleration The acceleration, in degrees per second per second, or 0 for instant.
+	 * @return The time, in seconds.
+	 */
+	protected static double axisTime(double distance,double speed,double acceleration)
+	{
+		if(acceleration == 0.0)
+			return distance/speed;
+		// the distance covered accelerating to top speed and decelerating again is speed^2/acceleration
+		if(distance >= (speed*speed)/acceleration)
+			return (distance/speed)+(speed/acceleration);
+		return 2.0*Math.sqrt(distance/acceleration);
+	}
+
+	public String toString()
+	{
+		return new String(this.getClass().getName()+":raSpeed="+raSpeed+":decSpeed="+decSpeed+
+				  ":raAcceleration="+raAcceleration+":decAcceleration="+decAcceleration+
+				  ":settleTime="+settleTime+":simultaneousAxes="+simultaneousAxes);
+	}
+};
+//
+// $Log$
+//
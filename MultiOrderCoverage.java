@@ -0,0 +1,641 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// MultiOrderCoverage.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class holds a Multi-Order Coverage map (MOC): a region of sky described as a set of HEALPix (NESTED)
+ * cells at mixed orders. Internally the cells are stored as a sorted list of disjoint half open ranges
+ * [start,end) of pixel numbers at HEALPix.MAX_ORDER, so a coarse cell is a single range. Point containment is
+ * a binary search over the range starts, and union, intersection and difference are linear merges of the
+ * range lists. Instances are immutable.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see HEALPix
+ */
+public class MultiOrderCoverage implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed so stored coverage maps stay readable.
+	 */
+	static final long serialVersionUID = 7966854353221441127L;
+	/**
+	 * Magic number at the start of the binary form ("MOC1").
+	 */
+	public final static int MAGIC = 0x4d4f4331;
+	/**
+	 * Version of the binary form.
+	 */
+	public final static int VERSION = 1;
+	/**
+	 * The number of pixels at HEALPix.MAX_ORDER, i.e. the end of the last range of a full sky MOC.
+	 */
+	private final static long MAX_PIXEL = HEALPix.pixelCount(HEALPix.MAX_ORDER);
+	/**
+	 * The ranges, stored start,end for each range, at HEALPix.MAX_ORDER.
+	 */
+	protected long ranges[] = null;
+	/**
+	 * The number of ranges.
+	 */
+	protected int rangeCount = 0;
+	/**
+	 * The finest order of the cells in this MOC.
+	 */
+	protected int maxOrder = 0;
+
+	/**
+	 * Constructor.
+	 * @param r The ranges at HEALPix.MAX_ORDER, stored start,end for each range. These must be sorted,
+	 *        disjoint and non-adjacent. The array is not copied.
+	 * @param count The number of ranges.
+	 * @param order The finest order of the cells, all range bounds must be aligned to this order.
+	 */
+	protected MultiOrderCoverage(long r[],int count,int order)
+	{
+		super();
+		ranges = r;
+		rangeCount = count;
+		maxOrder = order;
+	}
+
+	/**
+	 * Create an empty MOC.
+	 * @return A MOC covering no sky.
+	 */
+	public static MultiOrderCoverage empty()
+	{
+		return new MultiOrderCoverage(new long[0],0,0);
+	}
+
+	/**
+	 * Create a MOC covering the whole sky.
+	 * @return A MOC covering all sky.
+	 */
+	public static MultiOrderCoverage fullSky()
+	{
+		return new MultiOrderCoverage(new long[] {0,MAX_PIXEL},1,0);
+	}
+
+	/**
+	 * Create a MOC covering a region. Cells at order that straddle the region boundary are included, so the
+	 * MOC covers all of the region plus at most a boundary strip one cell wide.
+	 * @param region The region to cover.
+	 * @param order The finest order to use, 0..HEALPix.MAX_ORDER.
+	 * @return A new MOC.
+	 * @see HEALPix#coverage
+	 */
+	public static MultiOrderCoverage fromRegion(SkyRegion region,int order)
+	{
+		final RangeBuilder builder;
+
+		checkOrder(order);
+		builder = new RangeBuilder();
+		// the coverage recursion reports cells in increasing NESTED order
+		HEALPix.coverage(region,order,(cellOrder,cellPixel,inside) ->
+		{
+			int shift;
+
+			shift = 2*(HEALPix.MAX_ORDER-cellOrder);
+			builder.add(cellPixel << shift,(cellPixel+1) << shift);
+		});
+		return builder.toMOC(order);
+	}
+
+	/**
+	 * Create a MOC covering a cone.
+	 * @param ra The right ascension of the centre.
+	 * @param dec The declination of the centre.
+	 * @param radiusArcSeconds The radius, in arc-seconds.
+	 * @param order The finest order to use.
+	 * @return A new MOC.
+	 * @see #fromRegion
+	 */
+	public static MultiOrderCoverage fromCone(RA ra,Dec dec,double radiusArcSeconds,int order)
+	{
+		return fromRegion(new SkyCone(ra,dec,radiusArcSeconds),order);
+	}
+
+	/**
+	 * Create a MOC covering a polygon.
+	 * @param polygon The polygon.
+	 * @param order The finest order to use.
+	 * @return A new MOC.
+	 * @see #fromRegion
+	 */
+	public static MultiOrderCoverage fromPolygon(SphericalPolygon polygon,int order)
+	{
+		return fromRegion(polygon,order);
+	}
+
+	/**
+	 * Create a MOC of the cells containing a list of objects.
+	 * @param list The list of CelestialObjects, all of which must have an RA and Dec.
+	 * @param order The order of the cells.
+	 * @return A new MOC.
+	 */
+	public static MultiOrderCoverage fromObjects(List<CelestialObject> list,int order)
+	{
+		long pixels[];
+		CelestialObject co = null;
+
+		checkOrder(order);
+		pixels = new long[list.size()];
+		for(int i = 0; i < pixels.length; i++)
+		{
+			co = list.get(i);
+			pixels[i] = HEALPix.angToPixel(order,co.getRA().toRadians(),co.getDec().toRadians());
+		}
+		return fromPixels(pixels,pixels.length,order);
+	}
+
+	/**
+	 * Create a MOC from a list of pixels at one order.
+	 * @param pixels The pixel numbers, in any order, duplicates allowed. The array is sorted in place.
+	 * @param count The number of pixels to use.
+	 * @param order The order of the pixels.
+	 * @return A new MOC.
+	 */
+	public static MultiOrderCoverage fromPixels(long pixels[],int count,int order)
+	{
+		RangeBuilder builder = null;
+		int shift;
+
+		checkOrder(order);
+		Arrays.parallelSort(pixels,0,count);
+		shift = 2*(HEALPix.MAX_ORDER-order);
+		builder = new RangeBuilder();
+		for(int i = 0; i < count; i++)
+			builder.add(pixels[i] << shift,(pixels[i]+1) << shift);
+		return builder.toMOC(order);
+	}
+
+	/**
+	 * Return the finest order of the cells in this MOC.
+	 */
+	public int getMaxOrder()
+	{
+		return maxOrder;
+	}
+
+	/**
+	 * Return the number of pixel ranges.
+	 */
+	public int getRangeCount()
+	{
+		return rangeCount;
+	}
+
+	/**
+	 * Return whether the MOC covers no sky.
+	 */
+	public boolean isEmpty()
+	{
+		return rangeCount == 0;
+	}
+
+	/**
+	 * Return the fraction of the sky covered.
+	 * @return A number between 0 and 1.
+	 */
+	public double getSkyFraction()
+	{
+		long total;
+
+		total = 0;
+		for(int i = 0; i < rangeCount; i++)
+			total += ranges[(2*i)+1]-ranges[2*i];
+		return ((double)total)/((double)MAX_PIXEL);
+	}
+
+	/**
+	 * Test whether an RA/Dec is inside the MOC.
+	 * @param ra The right ascension.
+	 * @param dec The declination.
+	 * @return true if the position is covered.
+	 */
+	public boolean contains(RA ra,Dec dec)
+	{
+		return contains(ra.toRadians(),dec.toRadians());
+	}
+
+	/**
+	 * Test whether an RA/Dec in radians is inside the MOC.
+	 * @return true if the position is covered.
+	 */
+	public boolean contains(double raRadians,double decRadians)
+	{
+		return containsPixel(HEALPix.angToPixel(HEALPix.MAX_ORDER,raRadians,decRadians));
+	}
+
+	/**
+	 * Test whether a unit vector is inside the MOC.
+	 * @return true if the position is covered.
+	 */
+	public boolean contains(double x,double y,double z)
+	{
+		return containsPixel(HEALPix.vecToPixel(HEALPix.MAX_ORDER,x,y,z));
+	}
+
+	/**
+	 * Test whether a pixel at HEALPix.MAX_ORDER is inside the MOC, by binary search of the range starts.
+	 * @param p The pixel number.
+	 * @return true if the pixel is covered.
+	 */
+	public boolean containsPixel(long p)
+	{
+		int lo,hi,mid;
+
+		// find the last range whose start is <= p
+		lo = 0;
+		hi = rangeCount;
+		while(lo < hi)
+		{
+			mid = (lo+hi) >>> 1;
+			if(ranges[2*mid] <= p)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return (lo > 0)&&(p < ranges[(2*(lo-1))+1]);
+	}
+
+	/**
+	 * Return the union of this MOC and another.
+	 * @param other The other MOC.
+	 * @return A new MOC covering sky in either MOC.
+	 */
+	public MultiOrderCoverage union(MultiOrderCoverage other)
+	{
+		return combine(other,OPERATION_UNION);
+	}
+
+	/**
+	 * Return the intersection of this MOC and another.
+	 * @param other The other MOC.
+	 * @return A new MOC covering sky in both MOCs.
+	 */
+	public MultiOrderCoverage intersection(MultiOrderCoverage other)
+	{
+		return combine(other,OPERATION_INTERSECTION);
+	}
+
+	/**
+	 * Return the difference of this MOC and another.
+	 * @param other The other MOC.
+	 * @return A new MOC covering sky in this MOC but not the other.
+	 */
+	public MultiOrderCoverage difference(MultiOrderCoverage other)
+	{
+		return combine(other,OPERATION_DIFFERENCE);
+	}
+
+	/**
+	 * Return the complement of this MOC.
+	 * @return A new MOC covering sky not in this MOC.
+	 */
+	public MultiOrderCoverage complement()
+	{
+		return fullSky().difference(this);
+	}
+
+	/**
+	 * Operation code for union.
+	 */
+	private final static int OPERATION_UNION = 0;
+	/**
+	 * Operation code for intersection.
+	 */
+	private final static int OPERATION_INTERSECTION = 1;
+	/**
+	 * Operation code for difference.
+	 */
+	private final static int OPERATION_DIFFERENCE = 2;
+
+	/**
+	 * Combine two range lists with a sweep over all range boundaries.
+	 * @param other The other MOC.
+	 * @param operation One of OPERATION_UNION, OPERATION_INTERSECTION or OPERATION_DIFFERENCE.
+	 * @return A new MOC.
+	 */
+	protected MultiOrderCoverage combine(MultiOrderCoverage other,int operation)
+	{
+		RangeBuilder builder = null;
+		long a[],b[],position,start;
+		int i,j,na,nb;
+		boolean inA,inB,in,wasIn;
+
+		a = ranges;
+		b = other.ranges;
+		na = 2*rangeCount;
+		nb = 2*other.rangeCount;
+		builder = new RangeBuilder();
+		i = 0;
+		j = 0;
+		wasIn = false;
+		start = 0;
+		// boundaries at even indices are starts, odd indices are ends
+		while((i < na)||(j < nb))
+		{
+			if((j >= nb)||((i < na)&&(a[i] <= b[j])))
+				position = a[i];
+			else
+				position = b[j];
+			while((i < na)&&(a[i] == position))
+				i++;
+			while((j < nb)&&(b[j] == position))
+				j++;
+			inA = (i & 1) == 1;
+			inB = (j & 1) == 1;
+			switch(operation)
+			{
+				case OPERATION_UNION:
+					in = inA||inB;
+					break;
+				case OPERATION_INTERSECTION:
+					in = inA&&inB;
+					break;
+				default:
+					in = inA&&(!inB);
+					break;
+			}
+			if(in && (!wasIn))
+				start = position;
+			else if((!in) && wasIn)
+				builder.add(start,position);
+			wasIn = in;
+		}
+		return builder.toMOC(Math.max(maxOrder,other.maxOrder));
+	}
+
+	/**
+	 * Return the cells of this MOC as NUNIQ numbers (4*4^order + pixel), the standard way of listing the
+	 * cells of a mixed order MOC. Each range is split into the fewest aligned cells.
+	 * @return An array of NUNIQ cell numbers, in increasing range order.
+	 */
+	public long[] getCells()
+	{
+		List<Long> cells = null;
+		long start,end,cellSize,result[];
+		int level;
+
+		cells = new ArrayList<Long>();
+		for(int i = 0; i < rangeCount; i++)
+		{
+			start = ranges[2*i];
+			end = ranges[(2*i)+1];
+			while(start < end)
+			{
+				// the largest aligned cell starting at start that fits before end
+				level = 0;
+				while((level < HEALPix.MAX_ORDER)&&
+				      ((start & ((4L << (2*level))-1)) == 0)&&
+				      ((start+(4L << (2*level))) <= end))
+					level++;
+				cellSize = 1L << (2*level);
+				cells.add((4L << (2*(HEALPix.MAX_ORDER-level)))+(start >>> (2*level)));
+				start += cellSize;
+			}
+		}
+		result = new long[cells.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = cells.get(i);
+		return result;
+	}
+
+	/**
+	 * Write the MOC in its compact binary form: the magic number, version, max order and range count,
+	 * followed by each range as two variable length integers (gap from the previous range end, and range
+	 * length), in units of pixels at the max order.
+	 * @param out The stream to write to.
+	 * @exception IOException Thrown if the write fails.
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		long previousEnd;
+		int shift;
+
+		shift = 2*(HEALPix.MAX_ORDER-maxOrder);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(maxOrder);
+		writeVarLong(out,rangeCount);
+		previousEnd = 0;
+		for(int i = 0; i < rangeCount; i++)
+		{
+			writeVarLong(out,(ranges[2*i]-previousEnd) >>> shift);
+			writeVarLong(out,(ranges[(2*i)+1]-ranges[2*i]) >>> shift);
+			previousEnd = ranges[(2*i)+1];
+		}
+	}
+
+	/**
+	 * Return the compact binary form of the MOC.
+	 * @return A byte array.
+	 * @see #write
+	 */
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream bos = null;
+
+		bos = new ByteArrayOutputStream();
+		try
+		{
+			write(new DataOutputStream(bos));
+		}
+		catch(IOException e)
+		{
+			// cannot happen for a byte array stream
+			throw new IllegalStateException(this.getClass().getName()+":toByteArray:"+e);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Read a MOC from its compact binary form.
+	 * @param in The stream to read from.
+	 * @return A new MOC.
+	 * @exception IOException Thrown if the read fails or the data is not a valid MOC.
+	 * @see #write
+	 */
+	public static MultiOrderCoverage read(DataInput in) throws IOException
+	{
+		long r[],previousEnd,n;
+		int magic,version,order,count,shift;
+
+		magic = in.readInt();
+		if(magic != MAGIC)
+			throw new IOException("MultiOrderCoverage:read:Illegal magic number:"+Integer.toHexString(magic));
+		version = in.readUnsignedByte();
+		if(version != VERSION)
+			throw new IOException("MultiOrderCoverage:read:Unsupported version:"+version);
+		order = in.readUnsignedByte();
+		if(order > HEALPix.MAX_ORDER)
+			throw new IOException("MultiOrderCoverage:read:Illegal order:"+order);
+		n = readVarLong(in);
+		if((n < 0)||(n > HEALPix.pixelCount(order))||(n > Integer.MAX_VALUE/2))
+			throw new IOException("MultiOrderCoverage:read:Illegal range count:"+n+" at order "+order+".");
+		count = (int)n;
+		shift = 2*(HEALPix.MAX_ORDER-order);
+		r = new long[2*count];
+		previousEnd = 0;
+		for(int i = 0; i < count; i++)
+		{
+			r[2*i] = previousEnd+(readVarLong(in) << shift);
+			r[(2*i)+1] = r[2*i]+(readVarLong(in) << shift);
+			if((r[(2*i)+1] <= r[2*i])||(r[(2*i)+1] > MAX_PIXEL)||((i > 0)&&(r[2*i] <= previousEnd)))
+				throw new IOException("MultiOrderCoverage:read:Illegal range "+i+".");
+			previousEnd = r[(2*i)+1];
+		}
+		return new MultiOrderCoverage(r,count,order);
+	}
+
+	/**
+	 * Read a MOC from its compact binary form.
+	 * @param b The byte array.
+	 * @return A new MOC.
+	 * @exception IOException Thrown if the data is not a valid MOC.
+	 * @see #read
+	 */
+	public static MultiOrderCoverage fromByteArray(byte b[]) throws IOException
+	{
+		return read(new DataInputStream(new ByteArrayInputStream(b)));
+	}
+
+	public boolean equals(Object o)
+	{
+		MultiOrderCoverage other = null;
+
+		if(!(o instanceof MultiOrderCoverage))
+			return false;
+		other = (MultiOrderCoverage)o;
+		if(other.rangeCount != rangeCount)
+			return false;
+		for(int i = 0; i < 2*rangeCount; i++)
+		{
+			if(ranges[i] != other.ranges[i])
+				return false;
+		}
+		return true;
+	}
+
+	public int hashCode()
+	{
+		int h;
+
+		h = rangeCount;
+		for(int i = 0; i < 2*rangeCount; i++)
+			h = (31*h)+Long.hashCode(ranges[i]);
+		return h;
+	}
+
+	public String toString()
+	{
+		return new String("MultiOrderCoverage(maxOrder="+maxOrder+",ranges="+rangeCount+
+				  ",skyFraction="+getSkyFraction()+")");
+	}
+
+	/**
+	 * Throw an exception if an order is out of range.
+	 */
+	private static void checkOrder(int order) throws IllegalArgumentException
+	{
+		if((order < 0)||(order > HEALPix.MAX_ORDER))
+		{
+			throw new IllegalArgumentException("MultiOrderCoverage:Illegal order:"+order+
+							   ": Must be between 0 and "+HEALPix.MAX_ORDER+".");
+		}
+	}
+
+	/**
+	 * Write an unsigned variable length integer, 7 bits per byte, low bits first.
+	 */
+	private static void writeVarLong(DataOutput out,long v) throws IOException
+	{
+		while((v & ~0x7fL) != 0)
+		{
+			out.writeByte((int)((v & 0x7f)|0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+	/**
+	 * Read an unsigned variable length integer.
+	 */
+	private static long readVarLong(DataInput in) throws IOException
+	{
+		long v;
+		int b,shift;
+
+		v = 0;
+		shift = 0;
+		do
+		{
+			if(shift > 63)
+				throw new IOException("MultiOrderCoverage:readVarLong:Variable length integer too long.");
+			b = in.readUnsignedByte();
+			v |= ((long)(b & 0x7f)) << shift;
+			shift += 7;
+		}
+		while((b & 0x80) != 0);
+		return v;
+	}
+
+	/**
+	 * Accumulates ranges added in increasing order, merging overlapping and adjacent ranges.
+	 */
+	private static class RangeBuilder
+	{
+		private long r[] = new long[32];
+		private int count = 0;
+
+		void add(long start,long end)
+		{
+			if((count > 0)&&(start <= r[(2*count)-1]))
+			{
+				if(end > r[(2*count)-1])
+					r[(2*count)-1] = end;
+				return;
+			}
+			if((2*count) == r.length)
+				r = Arrays.copyOf(r,r.length*2);
+			r[2*count] = start;
+			r[(2*count)+1] = end;
+			count++;
+		}
+
+		MultiOrderCoverage toMOC(int order)
+		{
+			return new MultiOrderCoverage(Arrays.copyOf(r,2*count),count,order);
+		}
+	}
+};
+//
+// $Log$
+//
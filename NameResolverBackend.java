@@ -0,0 +1,63 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// NameResolverBackend.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+/**
+ * Interface implemented by services that resolve object names to positions, such as Simbad. Used by
+ * CachingNameResolver, which adds caching, request coalescing and batching in front of a backend.
+ * Implementations must be safe to call from several threads at once.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CachingNameResolver
+ * @see SimbadNameResolverBackend
+ */
+public interface NameResolverBackend
+{
+	/**
+	 * Resolve one name.
+	 * @param name The name, as the user typed it.
+	 * @return A new object holding at least the name and position, or null if the backend does not know the name.
+	 * @exception IOException Thrown if the backend could not be asked, e.g. a network failure.
+	 */
+	public CelestialObject resolve(String name) throws IOException;
+
+	/**
+	 * Resolve several names in one call.
+	 * @param names The names, no more than getMaxBatchSize of them.
+	 * @return A list the same size and order as names, holding the resolved objects, or null for names the
+	 *         backend does not know.
+	 * @exception IOException Thrown if the backend could not be asked.
+	 * @see #getMaxBatchSize
+	 */
+	public List<CelestialObject> resolveBatch(List<String> names) throws IOException;
+
+	/**
+	 * Return the largest number of names resolveBatch accepts. A backend that cannot batch returns 1.
+	 */
+	public int getMaxBatchSize();
+};
+//
+// $Log$
+//
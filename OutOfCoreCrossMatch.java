@@ -0,0 +1,1272 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// OutOfCoreCrossMatch.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class cross-matches two catalogues that are too large to hold in memory. Every object of catalogue A is
+ * paired with every object of catalogue B within the match radius (or only the nearest, see setNearestOnly).
+ * <ul>
+ * <li>The spill phase streams both inputs once and writes them, by HEALPix NESTED pixel at the partition
+ *     order, into spill files in a work directory. An A row goes to the partition holding it. A B row goes to
+ *     every partition that overlaps its match radius cone, so each partition holds all the B rows any of its
+ *     A rows can match, and each pair is found exactly once.
+ * <li>The match phase processes partitions in parallel. Each one is read back and matched with a k-d tree
+ *     over its B rows. Partitions run concurrently only while their estimated memory fits the memory budget.
+ *     A partition that is too big on its own (a dense region of sky) is split into its four children at the
+ *     next order, written back to disk, and they are processed instead.
+ * <li>Each partition's pairs are passed to the MatchSink in one call. Calls are never concurrent.
+ * </ul>
+ * Rows are identified by their position in their input, counting from zero.
+ * <p>
+ * Progress is recorded in the work directory: a properties file once the spill phase is complete, and a log
+ * line (forced to disk) after the sink has accepted each partition and after each split. If run is
+ * interrupted (by a crash, or the JVM being killed), calling it again with the same work directory, radius
+ * and partition order skips the spill phase and every partition already delivered. A partition whose sink call
+ * was interrupted is delivered again in full. An interrupted spill phase cannot be resumed, because the
+ * inputs are only streamed, so it is started again. Once every partition is delivered the work directory is
+ * emptied.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectKDTree
+ * @see HEALPix
+ */
+public class OutOfCoreCrossMatch
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default HEALPix order of the partitions (768 partitions, each about 7 degrees across).
+	 */
+	public final static int DEFAULT_PARTITION_ORDER = 3;
+	/**
+	 * The largest partition order allowed (49152 partitions).
+	 */
+	public final static int MAX_PARTITION_ORDER = 6;
+	/**
+	 * The default memory budget, in bytes.
+	 */
+	public final static long DEFAULT_MEMORY_BUDGET = 256L*1024L*1024L;
+	/**
+	 * The name of the properties file written when the spill phase is complete.
+	 */
+	public final static String SPILL_PROPERTIES_NAME = "crossmatch.properties";
+	/**
+	 * The name of the progress log.
+	 */
+	public final static String LOG_NAME = "crossmatch.log";
+	/**
+	 * The size of a spill record: a long row number and the RA and Dec as doubles, in radians.
+	 */
+	private final static int RECORD_BYTES = 24;
+	/**
+	 * The estimated memory needed to match one A row.
+	 */
+	private final static int A_ROW_BYTES = 40;
+	/**
+	 * The estimated memory needed to match one B row, including its share of the k-d tree.
+	 */
+	private final static int B_ROW_BYTES = 96;
+	/**
+	 * The largest number of input rows read and partitioned at a time during the spill phase.
+	 */
+	private final static int SPILL_BATCH = 65536;
+	/**
+	 * The memory used by each row of a spill batch: its RA, Dec and pixel.
+	 */
+	private final static int SPILL_BATCH_ROW_BYTES = 24;
+	/**
+	 * The smallest per-partition spill buffer.
+	 */
+	private final static int MIN_SPILL_BUFFER = 4096;
+	/**
+	 * The largest per-partition spill buffer.
+	 */
+	private final static int MAX_SPILL_BUFFER = 1024*1024;
+	/**
+	 * The size of the buffer used to read spill files.
+	 */
+	private final static int READ_BUFFER = 65536;
+	/**
+	 * The work directory.
+	 */
+	protected File directory = null;
+	/**
+	 * The match radius, in arc-seconds.
+	 */
+	protected double radius = 0.0;
+	/**
+	 * The HEALPix order of the partitions.
+	 */
+	protected int partitionOrder = DEFAULT_PARTITION_ORDER;
+	/**
+	 * The memory budget, in bytes.
+	 */
+	protected long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	/**
+	 * The number of partitions matched at once, at most.
+	 */
+	protected int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Whether only the nearest B row is paired with each A row.
+	 */
+	protected boolean nearestOnly = false;
+	/**
+	 * The number of rows in catalogue A, from the spill phase.
+	 */
+	protected long rowCountA = 0;
+	/**
+	 * The number of rows in catalogue B, from the spill phase.
+	 */
+	protected long rowCountB = 0;
+	/**
+	 * The number of partitions delivered by the last run.
+	 */
+	protected AtomicLong partitionCount = new AtomicLong();
+	/**
+	 * The number of partition splits made by the last run.
+	 */
+	protected AtomicLong splitCount = new AtomicLong();
+	/**
+	 * The number of pairs delivered by the last run.
+	 */
+	protected AtomicLong pairCount = new AtomicLong();
+	/**
+	 * The number of partitions skipped by the last run because an earlier run delivered them.
+	 */
+	protected long skippedCount = 0;
+	/**
+	 * Whether the last run skipped the spill phase.
+	 */
+	protected boolean resumed = false;
+	/**
+	 * The progress log channel, open during the match phase.
+	 */
+	private FileChannel log = null;
+
+	/**
+	 * Interface implemented by objects receiving match pairs.
+	 */
+	public interface MatchSink
+	{
+		/**
+		 * Called once per partition with all its pairs. Calls are never concurrent.
+		 * @param rowA The A row of each pair.
+		 * @param rowB The B row of each pair.
+		 * @param separation The separation of each pair, in arc-seconds.
+		 * @param count The number of pairs, which may be 0.
+		 * @exception IOException Thrown if the pairs cannot be stored. The run stops, and the partition
+		 *            is delivered again when it is resumed.
+		 */
+		void partition(long rowA[],long rowB[],double separation[],int count) throws IOException;
+	};
+
+	/**
+	 * Constructor.
+	 * @param d The work directory, which is created if it does not exist. It should be on a disk with room
+	 *        for both catalogues at 24 bytes a row, plus the B rows copied into more than one partition.
+	 * @param r The match radius, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if the radius is not positive.
+	 */
+	public OutOfCoreCrossMatch(File d,double r) throws IllegalArgumentException
+	{
+		super();
+		if(!(r > 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal radius:"+r+
+							   ": Must be positive.");
+		}
+		directory = d;
+		radius = r;
+	}
+
+	/**
+	 * Set the HEALPix order of the partitions the spill phase writes. Each partition needs a spill buffer of at
+	 * least 4KB in half the memory budget, so order 6 needs a budget of about 400MB.
+	 * @param o The order, 0..MAX_PARTITION_ORDER.
+	 * @exception IllegalArgumentException Thrown if the order is out of range.
+	 */
+	public void setPartitionOrder(int o) throws IllegalArgumentException
+	{
+		if((o < 0)||(o > MAX_PARTITION_ORDER))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setPartitionOrder:Illegal order:"+
+							   o+": Must be 0.."+MAX_PARTITION_ORDER+".");
+		}
+		partitionOrder = o;
+	}
+
+	/**
+	 * Set the memory budget for spill buffers and for the partitions being matched at once. During the spill
+	 * phase half of it is spill buffers, at least 4KB for each partition, and a quarter the rows being
+	 * partitioned. During the match phase it is shared by the partitions being matched and the buffers of
+	 * partitions being split.
+	 * @param b The budget, in bytes.
+	 * @exception IllegalArgumentException Thrown if the budget is less than 1MB.
+	 */
+	public void setMemoryBudget(long b) throws IllegalArgumentException
+	{
+		if(b < 1024L*1024L)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMemoryBudget:Illegal budget:"+
+							   b+": Must be at least 1MB.");
+		}
+		memoryBudget = b;
+	}
+
+	/**
+	 * Set the largest number of partitions matched at once.
+	 * @param t The number of threads, at least 1.
+	 * @exception IllegalArgumentException Thrown if t is less than 1.
+	 */
+	public void setThreads(int t) throws IllegalArgumentException
+	{
+		if(t < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setThreads:Illegal thread count:"+
+							   t+": Must be at least 1.");
+		}
+		threads = t;
+	}
+
+	/**
+	 * Set whether each A row is only paired with its nearest B row within the radius.
+	 */
+	public void setNearestOnly(boolean b)
+	{
+		nearestOnly = b;
+	}
+
+	/**
+	 * Return the match radius, in arc-seconds.
+	 */
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * Return the number of rows in catalogue A.
+	 */
+	public long getRowCountA()
+	{
+		return rowCountA;
+	}
+
+	/**
+	 * Return the number of rows in catalogue B.
+	 */
+	public long getRowCountB()
+	{
+		return rowCountB;
+	}
+
+	/**
+	 * Return the number of partitions the last run delivered to the sink.
+	 */
+	public long getPartitionCount()
+	{
+		return partitionCount.get();
+	}
+
+	/**
+	 * Return the number of partitions the last run split because they did not fit the memory budget.
+	 */
+	public long getSplitCount()
+	{
+		return splitCount.get();
+	}
+
+	/**
+	 * Return the number of pairs the last run delivered to the sink.
+	 */
+	public long getPairCount()
+	{
+		return pairCount.get();
+	}
+
+	/**
+	 * Return the number of partitions the last run skipped because an interrupted run had delivered them.
+	 */
+	public long getSkippedCount()
+	{
+		return skippedCount;
+	}
+
+	/**
+	 * Return whether the last run resumed an interrupted run, skipping the spill phase.
+	 */
+	public boolean isResumed()
+	{
+		return resumed;
+	}
+
+	/**
+	 * Run (or resume) the cross-match.
+	 * @param a The rows of catalogue A, all of which must have an RA and Dec. Not read if the work directory
+	 *        holds a completed spill phase, and may then be null.
+	 * @param b The rows of catalogue B, all of which must have an RA and Dec. Not read if the work directory
+	 *        holds a completed spill phase, and may then be null.
+	 * @param sink The object to pass each partition's pairs to.
+	 * @exception IOException Thrown if a spill file cannot be read or written, the sink fails, or the work
+	 *            directory holds the spill phase of a cross-match with a different radius or partition order.
+	 * @exception InterruptedException Thrown if the thread is interrupted while waiting for partitions.
+	 * @exception IllegalArgumentException Thrown if an input row has no position, or the spill buffers of the
+	 *            partition order do not fit in half the memory budget.
+	 */
+	public void run(Iterator<? extends CelestialObject> a,Iterator<? extends CelestialObject> b,MatchSink sink)
+		throws IOException, InterruptedException, IllegalArgumentException
+	{
+		long spillBytes;
+
+		spillBytes = HEALPix.pixelCount(partitionOrder)*MIN_SPILL_BUFFER;
+		if(spillBytes > memoryBudget/2)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":run:Partition order "+partitionOrder+
+							   " needs "+spillBytes+" bytes of spill buffers: Memory budget "+
+							   memoryBudget+" must be at least "+(2*spillBytes)+
+							   ", or the order lower.");
+		}
+		partitionCount.set(0);
+		splitCount.set(0);
+		pairCount.set(0);
+		skippedCount = 0;
+		if(!directory.isDirectory()&&!directory.mkdirs())
+		{
+			throw new IOException(this.getClass().getName()+":run:Failed to create work directory:"+
+					      directory);
+		}
+		resumed = readSpillProperties();
+		if(!resumed)
+		{
+			clean();
+			rowCountA = spill(a,"a");
+			rowCountB = spill(b,"b");
+			writeSpillProperties();
+		}
+		match(sink);
+		clean();
+	}
+
+	/**
+	 * Read the spill properties file, if there is one.
+	 * @return true if the spill phase is complete, false if it must be (re)run.
+	 * @exception IOException Thrown if the file cannot be read, or was written by a cross-match with a
+	 *            different radius or partition order.
+	 */
+	protected boolean readSpillProperties() throws IOException
+	{
+		Properties properties = null;
+		File file = null;
+		InputStream in = null;
+		double r;
+		int o;
+
+		file = new File(directory,SPILL_PROPERTIES_NAME);
+		if(!file.exists())
+			return false;
+		properties = new Properties();
+		in = new FileInputStream(file);
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		try
+		{
+			r = Double.parseDouble(properties.getProperty("radius"));
+			o = Integer.parseInt(properties.getProperty("partition.order"));
+			rowCountA = Long.parseLong(properties.getProperty("rows.a"));
+			rowCountB = Long.parseLong(properties.getProperty("rows.b"));
+		}
+		catch(Exception e)
+		{
+			throw new IOException(this.getClass().getName()+":readSpillProperties:"+file+":Illegal contents:"+e);
+		}
+		if((r != radius)||(o != partitionOrder))
+		{
+			throw new IOException(this.getClass().getName()+":readSpillProperties:"+directory+
+					      ":Holds a cross-match with radius "+r+" and partition order "+o+
+					      ", not radius "+radius+" and partition order "+partitionOrder+".");
+		}
+		return true;
+	}
+
+	/**
+	 * Write the spill properties file, marking the spill phase complete. The file is written under a
+	 * temporary name and renamed, so it is never seen half written.
+	 */
+	protected void writeSpillProperties() throws IOException
+	{
+		Properties properties = null;
+		File file = null;
+		FileOutputStream out = null;
+
+		properties = new Properties();
+		properties.setProperty("radius",Double.toString(radius));
+		properties.setProperty("partition.order",Integer.toString(partitionOrder));
+		properties.setProperty("rows.a",Long.toString(rowCountA));
+		properties.setProperty("rows.b",Long.toString(rowCountB));
+		file = new File(directory,SPILL_PROPERTIES_NAME+".tmp");
+		out = new FileOutputStream(file);
+		try
+		{
+			properties.store(out,"OutOfCoreCrossMatch spill phase");
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move(file.toPath(),new File(directory,SPILL_PROPERTIES_NAME).toPath(),
+			   StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Delete the spill files, the spill properties and the progress log from the work directory.
+	 */
+	protected void clean() throws IOException
+	{
+		File files[] = null;
+
+		files = directory.listFiles();
+		if(files == null)
+			throw new IOException(this.getClass().getName()+":clean:Failed to list:"+directory);
+		for(int i = 0; i < files.length; i++)
+		{
+			if((parsePartition(files[i].getName()) != null)||files[i].getName().equals(LOG_NAME)||
+			   files[i].getName().startsWith(SPILL_PROPERTIES_NAME))
+			{
+				Files.deleteIfExists(files[i].toPath());
+			}
+		}
+	}
+
+	/**
+	 * Stream one catalogue into spill files at the partition order. Rows are read in batches, whose pixels are
+	 * found in parallel.
+	 * @param rows The rows.
+	 * @param side "a" or "b". B rows are written to every partition that overlaps their match radius cone.
+	 * @return The number of rows.
+	 */
+	protected long spill(Iterator<? extends CelestialObject> rows,String side) throws IOException
+	{
+		final double ra[],dec[];
+		final long pixel[];
+		final SpillBuffer buffers[];
+		final long pixelCount;
+		CelestialObject co = null;
+		long row;
+		int n,bufferSize,batchSize;
+
+		// half the budget for spill buffers (run checks the minimum fits), a quarter for the batch
+		pixelCount = HEALPix.pixelCount(partitionOrder);
+		buffers = new SpillBuffer[(int)pixelCount];
+		bufferSize = (int)Math.max(MIN_SPILL_BUFFER,Math.min(MAX_SPILL_BUFFER,(memoryBudget/2)/pixelCount));
+		bufferSize -= bufferSize % RECORD_BYTES;
+		batchSize = (int)Math.min(SPILL_BATCH,(memoryBudget/4)/SPILL_BATCH_ROW_BYTES);
+		ra = new double[batchSize];
+		dec = new double[batchSize];
+		pixel = new long[batchSize];
+		row = 0;
+		while(rows.hasNext())
+		{
+			for(n = 0; (n < batchSize)&&rows.hasNext(); n++)
+			{
+				co = rows.next();
+				if((co == null)||(co.getRA() == null)||(co.getDec() == null))
+				{
+					throw new IllegalArgumentException(this.getClass().getName()+":spill:Catalogue "+side+
+									   " row "+(row+n)+" has no position.");
+				}
+				ra[n] = co.getRA().toRadians();
+				dec[n] = co.getDec().toRadians();
+			}
+			ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+			{
+				for(int i = from; i < to; i++)
+					pixel[i] = HEALPix.angToPixel(partitionOrder,ra[i],dec[i]);
+			});
+			for(int i = 0; i < n; i++)
+			{
+				if(side.equals("a"))
+					add(buffers,0L,side,partitionOrder,pixel[i],bufferSize,row+i,ra[i],dec[i]);
+				else
+					addCovering(buffers,0L,pixelCount,side,partitionOrder,bufferSize,row+i,ra[i],dec[i]);
+			}
+			row += n;
+		}
+		for(int i = 0; i < buffers.length; i++)
+		{
+			if(buffers[i] != null)
+				buffers[i].close();
+		}
+		return row;
+	}
+
+	/**
+	 * Add a record to the spill buffer of a pixel, creating the buffer if needed.
+	 * @param buffers The buffers, indexed by pixel-firstPixel.
+	 * @param firstPixel The pixel of buffers[0].
+	 */
+	private void add(SpillBuffer buffers[],long firstPixel,String side,int order,long pixel,int bufferSize,
+			 long row,double ra,double dec) throws IOException
+	{
+		int i;
+
+		i = (int)(pixel-firstPixel);
+		if(buffers[i] == null)
+			buffers[i] = new SpillBuffer(partitionFile(side,order,pixel),bufferSize);
+		buffers[i].add(row,ra,dec);
+	}
+
+	/**
+	 * Add a B record to the spill buffer of every pixel in [firstPixel,endPixel) that overlaps its match
+	 * radius cone.
+	 */
+	private void addCovering(final SpillBuffer buffers[],final long firstPixel,final long endPixel,
+				 final String side,final int order,final int bufferSize,final long row,
+				 final double ra,final double dec) throws IOException
+	{
+		final ArrayList<Long> pixels = new ArrayList<Long>(4);
+
+		HEALPix.coneCoverage(new SkyCone(ra,dec,radius),order,(cellOrder,cellPixel,inside) ->
+		{
+			int shift;
+			long lo,hi;
+
+			shift = 2*(order-cellOrder);
+			lo = Math.max(firstPixel,cellPixel << shift);
+			hi = Math.min(endPixel,(cellPixel+1) << shift);
+			for(long p = lo; p < hi; p++)
+				pixels.add(p);
+		});
+		for(int i = 0; i < pixels.size(); i++)
+			add(buffers,firstPixel,side,order,pixels.get(i),bufferSize,row,ra,dec);
+	}
+
+	/**
+	 * The match phase: work out which partitions are left from the files in the work directory and the
+	 * progress log, and match them in parallel.
+	 * @param sink The object to pass pairs to.
+	 */
+	protected void match(final MatchSink sink) throws IOException, InterruptedException
+	{
+		final Semaphore memory;
+		final Phaser phaser;
+		final AtomicReference<Exception> failure;
+		final ExecutorService executor;
+		Set<String> done = null;
+		Set<String> split = null;
+		Set<String> present = null;
+		List<Partition> todo = null;
+		boolean torn;
+		Partition p = null;
+		File files[] = null;
+		Exception e = null;
+
+		done = new HashSet<String>();
+		split = new HashSet<String>();
+		torn = readLog(done,split);
+		files = directory.listFiles();
+		if(files == null)
+			throw new IOException(this.getClass().getName()+":match:Failed to list:"+directory);
+		present = new HashSet<String>();
+		for(int i = 0; i < files.length; i++)
+		{
+			p = parsePartition(files[i].getName());
+			if(p != null)
+				present.add(p.toString());
+		}
+		todo = new ArrayList<Partition>();
+		for(String key : present)
+		{
+			p = parsePartition("a-"+key+".spill");
+			if(done.contains(key)||split.contains(key))
+			{
+				// delivered or split, but the files were not deleted before the interruption
+				p.delete();
+			}
+			else if((p.order > partitionOrder)&&present.contains(p.parent().toString())&&
+				!split.contains(p.parent().toString()))
+			{
+				// the child of an interrupted split, which will be made again
+				p.delete();
+			}
+			else if(!p.fileA.exists())
+			{
+				// B rows with no A rows to match
+				p.delete();
+			}
+			else
+				todo.add(p);
+		}
+		skippedCount = done.size();
+		log = FileChannel.open(new File(directory,LOG_NAME).toPath(),StandardOpenOption.CREATE,
+				       StandardOpenOption.WRITE,StandardOpenOption.APPEND);
+		// end a torn last line, so it does not swallow the next one
+		if(torn)
+			appendLog("");
+		memory = new Semaphore((int)Math.min(Integer.MAX_VALUE,memoryBudget/1024L),true);
+		phaser = new Phaser(1);
+		failure = new AtomicReference<Exception>();
+		executor = Executors.newFixedThreadPool(threads,r ->
+		{
+			Thread t = new Thread(r,"OutOfCoreCrossMatch");
+
+			t.setDaemon(true);
+			return t;
+		});
+		try
+		{
+			for(int i = 0; i < todo.size(); i++)
+				submit(executor,phaser,memory,failure,sink,todo.get(i));
+			phaser.awaitAdvanceInterruptibly(phaser.arrive());
+		}
+		finally
+		{
+			executor.shutdownNow();
+			log.close();
+			log = null;
+		}
+		e = failure.get();
+		if(e instanceof IOException)
+			throw (IOException)e;
+		if(e instanceof RuntimeException)
+			throw (RuntimeException)e;
+		if(e != null)
+			throw new IOException(this.getClass().getName()+":match:"+e,e);
+	}
+
+	/**
+	 * Queue a partition for matching. Nothing more is started once a partition has failed.
+	 */
+	private void submit(final ExecutorService executor,final Phaser phaser,final Semaphore memory,
+			    final AtomicReference<Exception> failure,final MatchSink sink,final Partition p)
+	{
+		phaser.register();
+		executor.execute(() ->
+		{
+			try
+			{
+				if(failure.get() == null)
+					process(executor,phaser,memory,failure,sink,p);
+			}
+			catch(Exception e)
+			{
+				failure.compareAndSet(null,e);
+			}
+			finally
+			{
+				phaser.arriveAndDeregister();
+			}
+		});
+	}
+
+	/**
+	 * Match one partition, or split it if it does not fit the memory budget.
+	 */
+	private void process(ExecutorService executor,Phaser phaser,Semaphore memory,
+			     AtomicReference<Exception> failure,MatchSink sink,Partition p)
+		throws IOException, InterruptedException
+	{
+		long estimate;
+		int permits;
+
+		estimate = ((p.fileA.length()/RECORD_BYTES)*A_ROW_BYTES)+((p.fileB.length()/RECORD_BYTES)*B_ROW_BYTES);
+		if((estimate > memoryBudget)&&canSplit(p.order))
+		{
+			// the split's eight buffers share the budget with the partitions being matched
+			permits = (int)Math.max(1L,(8L*splitBufferSize())/1024L);
+			memory.acquire(permits);
+			try
+			{
+				split(p);
+			}
+			finally
+			{
+				memory.release(permits);
+			}
+			splitCount.incrementAndGet();
+			for(int c = 0; c < 4; c++)
+				submit(executor,phaser,memory,failure,sink,p.child(c));
+			return;
+		}
+		permits = (int)Math.max(1L,Math.min(estimate,memoryBudget)/1024L);
+		memory.acquire(permits);
+		try
+		{
+			matchPartition(p,sink);
+		}
+		finally
+		{
+			memory.release(permits);
+		}
+	}
+
+	/**
+	 * Return whether partitions at an order can be split. Splitting stops once pixels would be so small
+	 * that most B rows would be copied into several of them.
+	 */
+	private boolean canSplit(int order)
+	{
+		return (order < HEALPix.MAX_ORDER)&&
+			(HEALPix.maxPixelRadius(order+1) > 8.0*radius*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+	}
+
+	/**
+	 * Return the size of each of the eight buffers a split writes its children through: together at most
+	 * half the memory budget.
+	 */
+	private int splitBufferSize()
+	{
+		int size;
+
+		size = (int)Math.max(MIN_SPILL_BUFFER,Math.min(MAX_SPILL_BUFFER,(memoryBudget/2)/8L));
+		return size-(size % RECORD_BYTES);
+	}
+
+	/**
+	 * Split a partition into its four children, logging the split before deleting the parent's files.
+	 */
+	protected void split(Partition p) throws IOException
+	{
+		SpillBuffer buffersA[] = new SpillBuffer[4];
+		SpillBuffer buffersB[] = new SpillBuffer[4];
+		SpillReader reader = null;
+		long firstChild;
+		int bufferSize;
+
+		firstChild = p.pixel << 2;
+		bufferSize = splitBufferSize();
+		reader = new SpillReader(p.fileA);
+		try
+		{
+			while(reader.next())
+			{
+				add(buffersA,firstChild,"a",p.order+1,
+				    HEALPix.angToPixel(p.order+1,reader.ra,reader.dec),bufferSize,reader.row,reader.ra,reader.dec);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		reader = new SpillReader(p.fileB);
+		try
+		{
+			while(reader.next())
+			{
+				addCovering(buffersB,firstChild,firstChild+4,"b",p.order+1,bufferSize,
+					    reader.row,reader.ra,reader.dec);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		for(int c = 0; c < 4; c++)
+		{
+			if(buffersA[c] != null)
+				buffersA[c].close();
+			if(buffersB[c] != null)
+				buffersB[c].close();
+		}
+		// B rows are only copied to children with A rows to match
+		for(int c = 0; c < 4; c++)
+		{
+			if(!p.child(c).fileA.exists())
+				Files.deleteIfExists(p.child(c).fileB.toPath());
+		}
+		appendLog("split "+p);
+		p.delete();
+	}
+
+	/**
+	 * Match one partition and pass its pairs to the sink.
+	 */
+	protected void matchPartition(Partition p,MatchSink sink) throws IOException
+	{
+		CelestialObjectKDTree tree = null;
+		IntArrayList found = null;
+		PairList pairs = null;
+		long rowA[],rowB[];
+		double raA[],decA[],raB[],decB[],v[];
+		double bx[],by[],bz[];
+		double separation,best;
+		int nA,nB,j,bestIndex;
+
+		nA = (int)(p.fileA.length()/RECORD_BYTES);
+		nB = (int)(p.fileB.length()/RECORD_BYTES);
+		pairs = new PairList();
+		if((nA > 0)&&(nB > 0))
+		{
+			rowA = new long[nA];
+			raA = new double[nA];
+			decA = new double[nA];
+			readSpill(p.fileA,rowA,raA,decA,nA);
+			rowB = new long[nB];
+			raB = new double[nB];
+			decB = new double[nB];
+			readSpill(p.fileB,rowB,raB,decB,nB);
+			tree = new CelestialObjectKDTree(raB,decB,nB);
+			bx = new double[nB];
+			by = new double[nB];
+			bz = new double[nB];
+			v = new double[3];
+			for(int i = 0; i < nB; i++)
+			{
+				SphericalGeometry.toUnitVector(raB[i],decB[i],v,0);
+				bx[i] = v[0];
+				by[i] = v[1];
+				bz[i] = v[2];
+			}
+			found = new IntArrayList();
+			for(int i = 0; i < nA; i++)
+			{
+				SphericalGeometry.toUnitVector(raA[i],decA[i],v,0);
+				found.clear();
+				tree.withinRadius(v[0],v[1],v[2],radius,found);
+				bestIndex = -1;
+				best = Double.MAX_VALUE;
+				for(int k = 0; k < found.size(); k++)
+				{
+					j = found.get(k);
+					separation = SphericalGeometry.separation(v[0],v[1],v[2],bx[j],by[j],bz[j])*
+						SphericalGeometry.RADIANS_TO_ARCSECONDS;
+					if(!nearestOnly)
+						pairs.add(rowA[i],rowB[j],separation);
+					else if(separation < best)
+					{
+						best = separation;
+						bestIndex = j;
+					}
+				}
+				if(bestIndex >= 0)
+					pairs.add(rowA[i],rowB[bestIndex],best);
+			}
+		}
+		synchronized(this)
+		{
+			sink.partition(pairs.rowA,pairs.rowB,pairs.separation,pairs.size);
+			appendLog("done "+p);
+		}
+		pairCount.addAndGet(pairs.size);
+		partitionCount.incrementAndGet();
+		p.delete();
+	}
+
+	/**
+	 * Read a whole spill file into arrays.
+	 */
+	private static void readSpill(File file,long row[],double ra[],double dec[],int n) throws IOException
+	{
+		SpillReader reader = null;
+		int i;
+
+		reader = new SpillReader(file);
+		try
+		{
+			for(i = 0; (i < n)&&reader.next(); i++)
+			{
+				row[i] = reader.row;
+				ra[i] = reader.ra;
+				dec[i] = reader.dec;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		if(i != n)
+		{
+			throw new IOException("OutOfCoreCrossMatch:readSpill:"+file+":Truncated: "+i+" records, expected "+
+					      n+".");
+		}
+	}
+
+	/**
+	 * Read the progress log. A torn last line (from an interruption part way through a write) is ignored.
+	 * @param done A set to add the delivered partitions to.
+	 * @param split A set to add the split partitions to.
+	 * @return true if the log ends with a torn line.
+	 */
+	protected boolean readLog(Set<String> done,Set<String> split) throws IOException
+	{
+		File file = null;
+		String text = null;
+		String lines[] = null;
+		int end;
+
+		file = new File(directory,LOG_NAME);
+		if(!file.exists())
+			return false;
+		text = new String(Files.readAllBytes(file.toPath()),StandardCharsets.US_ASCII);
+		lines = text.split("\n");
+		// without a final newline the last line is torn
+		end = text.endsWith("\n") ? lines.length : lines.length-1;
+		for(int i = 0; i < end; i++)
+		{
+			if(lines[i].startsWith("done ")&&(parsePartition("a-"+lines[i].substring(5)+".spill") != null))
+				done.add(lines[i].substring(5));
+			else if(lines[i].startsWith("split ")&&(parsePartition("a-"+lines[i].substring(6)+".spill") != null))
+				split.add(lines[i].substring(6));
+		}
+		return (text.length() > 0)&&!text.endsWith("\n");
+	}
+
+	/**
+	 * Append a line to the progress log and force it to disk.
+	 */
+	private synchronized void appendLog(String line) throws IOException
+	{
+		ByteBuffer buffer = null;
+
+		buffer = ByteBuffer.wrap((line+"\n").getBytes(StandardCharsets.US_ASCII));
+		while(buffer.hasRemaining())
+			log.write(buffer);
+		log.force(false);
+	}
+
+	/**
+	 * Return the spill file of a partition.
+	 * @param side "a" or "b".
+	 */
+	protected File partitionFile(String side,int order,long pixel)
+	{
+		return new File(directory,side+"-"+order+"-"+pixel+".spill");
+	}
+
+	/**
+	 * Parse a spill file name.
+	 * @return The partition, or null if the name is not a spill file name.
+	 */
+	protected Partition parsePartition(String name)
+	{
+		String s[] = null;
+		int order;
+		long pixel;
+
+		if((!name.startsWith("a-")&&!name.startsWith("b-"))||!name.endsWith(".spill"))
+			return null;
+		s = name.substring(2,name.length()-6).split("-");
+		if(s.length != 2)
+			return null;
+		try
+		{
+			order = Integer.parseInt(s[0]);
+			pixel = Long.parseLong(s[1]);
+		}
+		catch(NumberFormatException e)
+		{
+			return null;
+		}
+		if((order < 0)||(order > HEALPix.MAX_ORDER)||(pixel < 0)||(pixel >= HEALPix.pixelCount(order)))
+			return null;
+		return new Partition(order,pixel);
+	}
+
+	public String toString()
+	{
+		return new String(this.getClass().getName()+":directory="+directory+":radius="+radius+
+				  ":partitionOrder="+partitionOrder+":memoryBudget="+memoryBudget+":threads="+threads+
+				  ":nearestOnly="+nearestOnly);
+	}
+
+	/**
+	 * A partition: a HEALPix pixel and its two spill files.
+	 */
+	protected class Partition
+	{
+		/**
+		 * The HEALPix order.
+		 */
+		protected int order = 0;
+		/**
+		 * The NESTED pixel number.
+		 */
+		protected long pixel = 0;
+		/**
+		 * The A rows in the pixel.
+		 */
+		protected File fileA = null;
+		/**
+		 * The B rows whose match radius cone overlaps the pixel.
+		 */
+		protected File fileB = null;
+
+		/**
+		 * Constructor.
+		 */
+		protected Partition(int o,long p)
+		{
+			super();
+			order = o;
+			pixel = p;
+			fileA = partitionFile("a",order,pixel);
+			fileB = partitionFile("b",order,pixel);
+		}
+
+		/**
+		 * Return the partition containing this one at the order above.
+		 */
+		protected Partition parent()
+		{
+			return new Partition(order-1,pixel >>> 2);
+		}
+
+		/**
+		 * Return one of the four partitions this one splits into.
+		 * @param c The child, 0..3.
+		 */
+		protected Partition child(int c)
+		{
+			return new Partition(order+1,(pixel << 2)+c);
+		}
+
+		/**
+		 * Delete the spill files.
+		 */
+		protected void delete() throws IOException
+		{
+			Files.deleteIfExists(fileA.toPath());
+			Files.deleteIfExists(fileB.toPath());
+		}
+
+		/**
+		 * Return the partition as "order-pixel", as used in file names and the progress log.
+		 */
+		public String toString()
+		{
+			return new String(order+"-"+pixel);
+		}
+	};
+
+	/**
+	 * A buffer of spill records for one file, appended to the file whenever it fills. The file is only held
+	 * open while writing, so thousands of partitions do not need thousands of file handles.
+	 */
+	protected static class SpillBuffer
+	{
+		/**
+		 * The file.
+		 */
+		protected File file = null;
+		/**
+		 * The buffered records.
+		 */
+		protected ByteBuffer buffer = null;
+
+		/**
+		 * Constructor. Any existing file is truncated.
+		 * @param f The file.
+		 * @param size The buffer size, a multiple of the record size.
+		 */
+		protected SpillBuffer(File f,int size) throws IOException
+		{
+			super();
+			file = f;
+			buffer = ByteBuffer.allocate(size);
+			Files.deleteIfExists(file.toPath());
+		}
+
+		/**
+		 * Add a record.
+		 */
+		protected void add(long row,double ra,double dec) throws IOException
+		{
+			if(buffer.remaining() < RECORD_BYTES)
+				flush();
+			buffer.putLong(row);
+			buffer.putDouble(ra);
+			buffer.putDouble(dec);
+		}
+
+		/**
+		 * Append the buffered records to the file.
+		 */
+		protected void flush() throws IOException
+		{
+			FileChannel channel = null;
+
+			buffer.flip();
+			channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+						   StandardOpenOption.APPEND);
+			try
+			{
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			finally
+			{
+				channel.close();
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Flush the buffered records and force the file to disk.
+		 */
+		protected void close() throws IOException
+		{
+			FileChannel channel = null;
+
+			flush();
+			channel = FileChannel.open(file.toPath(),StandardOpenOption.WRITE);
+			try
+			{
+				channel.force(true);
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+	};
+
+	/**
+	 * Sequential reader of a spill file.
+	 */
+	protected static class SpillReader
+	{
+		/**
+		 * The file channel.
+		 */
+		protected FileChannel channel = null;
+		/**
+		 * The read buffer.
+		 */
+		protected ByteBuffer buffer = null;
+		/**
+		 * The row number of the current record.
+		 */
+		protected long row = 0;
+		/**
+		 * The right ascension of the current record, in radians.
+		 */
+		protected double ra = 0.0;
+		/**
+		 * The declination of the current record, in radians.
+		 */
+		protected double dec = 0.0;
+
+		/**
+		 * Constructor. A missing file reads as empty.
+		 */
+		protected SpillReader(File file) throws IOException
+		{
+			super();
+			buffer = ByteBuffer.allocate(READ_BUFFER-(READ_BUFFER % RECORD_BYTES));
+			buffer.flip();
+			if(file.exists())
+				channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		}
+
+		/**
+		 * Read the next record.
+		 * @return false at the end of the file.
+		 */
+		protected boolean next() throws IOException
+		{
+			if(buffer.remaining() < RECORD_BYTES)
+			{
+				if(channel == null)
+					return false;
+				buffer.compact();
+				while((buffer.position() < RECORD_BYTES)&&(channel.read(buffer) > 0))
+					;
+				buffer.flip();
+				if(buffer.remaining() < RECORD_BYTES)
+					return false;
+			}
+			row = buffer.getLong();
+			ra = buffer.getDouble();
+			dec = buffer.getDouble();
+			return true;
+		}
+
+		/**
+		 * Close the file.
+		 */
+		protected void close() throws IOException
+		{
+			if(channel != null)
+				channel.close();
+		}
+	};
+
+	/**
+	 * A growable list of pairs.
+	 */
+	private static class PairList
+	{
+		/**
+		 * The A row of each pair.
+		 */
+		long rowA[] = new long[64];
+		/**
+		 * The B row of each pair.
+		 */
+		long rowB[] = new long[64];
+		/**
+		 * The separation of each pair, in arc-seconds.
+		 */
+		double separation[] = new double[64];
+		/**
+		 * The number of pairs.
+		 */
+		int size = 0;
+
+		/**
+		 * Add a pair.
+		 */
+		void add(long a,long b,double s)
+		{
+			if(size == rowA.length)
+			{
+				rowA = Arrays.copyOf(rowA,size*2);
+				rowB = Arrays.copyOf(rowB,size*2);
+				separation = Arrays.copyOf(separation,size*2);
+			}
+			rowA[size] = a;
+			rowB[size] = b;
+			separation[size] = s;
+			size++;
+		}
+	};
+};
+//
+// $Log$
+//
@@ -0,0 +1,114 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// ParallelChunks.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.stream.*;
+
+/**
+ * Package helper that splits an index range into contiguous chunks and runs them on the common
+ * fork/join pool. Small ranges are run on the calling thread.
+ * @author Chris Mottram
+ * @version $Revision$
+ */
+final class ParallelChunks
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default minimum number of elements in a chunk.
+	 */
+	final static int DEFAULT_MIN_CHUNK = 4096;
+
+	/**
+	 * Interface implemented by the body of a chunked loop.
+	 */
+	interface Task
+	{
+		/**
+		 * Process the elements from (inclusive) to (exclusive).
+		 */
+		void run(int from,int to);
+	};
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private ParallelChunks()
+	{
+		super();
+	}
+
+	/**
+	 * Return the number of chunks a range of n elements would be split into.
+	 * @param n The number of elements.
+	 * @param minChunk The minimum number of elements in a chunk.
+	 * @return The number of chunks, at least 1.
+	 */
+	static int chunkCount(int n,int minChunk)
+	{
+		int chunks,maxChunks;
+
+		maxChunks = Runtime.getRuntime().availableProcessors()*4;
+		chunks = n/Math.max(1,minChunk);
+		if(chunks > maxChunks)
+			chunks = maxChunks;
+		if(chunks < 1)
+			chunks = 1;
+		return chunks;
+	}
+
+	/**
+	 * Return the start of a chunk.
+	 * @param n The number of elements.
+	 * @param chunks The number of chunks.
+	 * @param chunk The chunk index, 0..chunks inclusive (chunks returns n).
+	 */
+	static int chunkStart(int n,int chunks,int chunk)
+	{
+		return (int)(((long)n*chunk)/chunks);
+	}
+
+	/**
+	 * Run a task over the range 0..n in parallel.
+	 * @param n The number of elements.
+	 * @param minChunk The minimum number of elements in a chunk.
+	 * @param task The loop body.
+	 */
+	static void forEach(int n,int minChunk,Task task)
+	{
+		final int chunks;
+
+		chunks = chunkCount(n,minChunk);
+		if(chunks == 1)
+		{
+			task.run(0,n);
+			return;
+		}
+		IntStream.range(0,chunks).parallel().forEach(c -> task.run(chunkStart(n,chunks,c),
+									    chunkStart(n,chunks,c+1)));
+	}
+};
+//
+// $Log$
+//
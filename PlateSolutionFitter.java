@@ -0,0 +1,754 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// PlateSolutionFitter.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * This class fits a plate solution (a TangentPlaneProjection: tangent point, CD matrix and an optional polynomial
+ * distortion) to matched pairs of pixel positions and catalogue positions, with iterative sigma clipping.
+ * <p>
+ * The standard coordinates of each catalogue position are modelled as polynomials in the pixel offsets from the
+ * reference pixel, of the fitter's order (1 is linear, a CD matrix only). The least squares normal equations
+ * are accumulated in parallel chunks, each into its own accumulator, reduced, and solved by Cholesky
+ * decomposition. The tangent point is moved to the fitted position of the reference pixel until the constant
+ * terms vanish. Pairs whose residual is more than clipSigma times the RMS residual are then rejected, and the
+ * fit repeated until the rejected set stops changing. Rejection only sets a flag per pair; the input arrays are
+ * never copied or reordered.
+ * <p>
+ * The fitter keeps its work arrays between fits, so fitting frame after frame of a similar size allocates next
+ * to nothing. A fitter is not thread safe; use one per thread.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see TangentPlaneProjection
+ */
+public class PlateSolutionFitter
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default polynomial order.
+	 */
+	public final static int DEFAULT_ORDER = 1;
+	/**
+	 * The default clipping threshold, in multiples of the RMS residual.
+	 */
+	public final static double DEFAULT_CLIP_SIGMA = 3.0;
+	/**
+	 * The default largest number of clipping iterations.
+	 */
+	public final static int DEFAULT_MAX_ITERATIONS = 10;
+	/**
+	 * The largest number of times the tangent point is moved within one clipping iteration.
+	 */
+	private final static int MAX_RECENTRE_ITERATIONS = 5;
+	/**
+	 * The tangent point is moved until the fitted constant terms are smaller than this, in radians.
+	 */
+	private final static double RECENTRE_TOLERANCE = 1.0e-11;
+	/**
+	 * A Cholesky pivot smaller than this fraction of its diagonal element means the pairs are degenerate.
+	 */
+	private final static double PIVOT_TOLERANCE = 1.0e-12;
+	/**
+	 * The polynomial order.
+	 */
+	protected int order = DEFAULT_ORDER;
+	/**
+	 * The clipping threshold, in multiples of the RMS residual.
+	 */
+	protected double clipSigma = DEFAULT_CLIP_SIGMA;
+	/**
+	 * The largest number of clipping iterations.
+	 */
+	protected int maxIterations = DEFAULT_MAX_ITERATIONS;
+	/**
+	 * Whether to accumulate and evaluate in parallel.
+	 */
+	protected boolean parallel = true;
+	/**
+	 * Work arrays: catalogue unit vectors.
+	 */
+	protected double vx[] = null,vy[] = null,vz[] = null;
+	/**
+	 * Work arrays: catalogue standard coordinates.
+	 */
+	protected double xi[] = null,eta[] = null;
+	/**
+	 * The residual of each pair from the last fit, in arc-seconds.
+	 */
+	protected double residual[] = null;
+	/**
+	 * Whether each pair was rejected by the last fit.
+	 */
+	protected boolean rejected[] = null;
+	/**
+	 * The per chunk normal equation accumulators.
+	 */
+	protected double accumulators[][] = null;
+	/**
+	 * The number of pairs in the last fit.
+	 */
+	protected int pairCount = 0;
+	/**
+	 * The number of pairs used (not rejected) by the last fit.
+	 */
+	protected int usedCount = 0;
+	/**
+	 * The RMS residual of the pairs used by the last fit, in arc-seconds.
+	 */
+	protected double rms = 0.0;
+	/**
+	 * The number of clipping iterations the last fit took.
+	 */
+	protected int iterations = 0;
+
+	/**
+	 * Default constructor, for a linear fit.
+	 */
+	public PlateSolutionFitter()
+	{
+		super();
+	}
+
+	/**
+	 * Constructor.
+	 * @param order The polynomial order.
+	 * @see #setOrder
+	 */
+	public PlateSolutionFitter(int order)
+	{
+		super();
+		setOrder(order);
+	}
+
+	/**
+	 * Set the polynomial order: 1 fits a CD matrix only, higher orders add a distortion of that order.
+	 * @param order The order, 1..TangentPlaneProjection.MAX_DISTORTION_ORDER.
+	 * @exception IllegalArgumentException Thrown if the order is out of range.
+	 */
+	public void setOrder(int order) throws IllegalArgumentException
+	{
+		if((order < 1)||(order > TangentPlaneProjection.MAX_DISTORTION_ORDER))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setOrder:Illegal order:"+order+
+							   ": Must be 1.."+TangentPlaneProjection.MAX_DISTORTION_ORDER+".");
+		}
+		this.order = order;
+	}
+
+	/**
+	 * Return the polynomial order.
+	 */
+	public int getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Set the clipping threshold.
+	 * @param sigma The threshold in multiples of the RMS residual, or infinity to never reject.
+	 * @exception IllegalArgumentException Thrown if the threshold is not positive.
+	 */
+	public void setClipSigma(double sigma) throws IllegalArgumentException
+	{
+		if(!(sigma > 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setClipSigma:Illegal sigma:"+sigma+
+							   ": Must be positive.");
+		}
+		clipSigma = sigma;
+	}
+
+	/**
+	 * Set the largest number of clipping iterations.
+	 * @param i The number of iterations, at least 1.
+	 * @exception IllegalArgumentException Thrown if the number is less than 1.
+	 */
+	public void setMaxIterations(int i) throws IllegalArgumentException
+	{
+		if(i < 1)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setMaxIterations:Illegal iterations:"+
+							   i+": Must be at least 1.");
+		}
+		maxIterations = i;
+	}
+
+	/**
+	 * Set whether to accumulate and evaluate in parallel.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Fit a plate solution to matched catalogue objects.
+	 * @param objects The catalogue objects.
+	 * @param x The pixel x of each object's detection.
+	 * @param y The pixel y of each object's detection.
+	 * @param initial A projection to take the tangent point and reference pixel from, or null.
+	 * @return The fitted projection.
+	 * @exception IllegalArgumentException Thrown if there are too few usable pairs, or they are degenerate.
+	 * @see #fit(double[],double[],double[],double[],int,TangentPlaneProjection)
+	 */
+	public TangentPlaneProjection fit(List<CelestialObject> objects,double x[],double y[],
+					  TangentPlaneProjection initial) throws IllegalArgumentException
+	{
+		CelestialObject co = null;
+		double ra[],dec[];
+		int n;
+
+		n = objects.size();
+		ra = new double[n];
+		dec = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			co = objects.get(i);
+			ra[i] = co.getRA().toRadians();
+			dec[i] = co.getDec().toRadians();
+		}
+		return fit(x,y,ra,dec,n,initial);
+	}
+
+	/**
+	 * Fit a plate solution to matched pairs.
+	 * @param x The pixel x of each pair.
+	 * @param y The pixel y of each pair.
+	 * @param ra The catalogue right ascension of each pair, in radians.
+	 * @param dec The catalogue declination of each pair, in radians.
+	 * @param n The number of pairs.
+	 * @param initial A projection to take the tangent point and reference pixel from, or null to use the
+	 *        mean catalogue position and the mean pixel position.
+	 * @return The fitted projection. Its reference pixel is the initial one; its tangent point is the fitted
+	 *         position of that pixel.
+	 * @exception IllegalArgumentException Thrown if there are too few usable pairs, or they are degenerate.
+	 * @see #getResiduals
+	 * @see #isRejected
+	 */
+	public TangentPlaneProjection fit(final double x[],final double y[],double ra[],double dec[],final int n,
+					  TangentPlaneProjection initial) throws IllegalArgumentException
+	{
+		TangentPlaneProjection projection = null;
+		final int termP[],termQ[];
+		final double coefficients[];
+		final double crpix1,crpix2,scale;
+		double centre[] = new double[3];
+		double matrix[],solutionXi[],solutionEta[],point[];
+		double sum,threshold,tpRA,tpDec,maxOffset;
+		int m,kept,changed;
+		boolean reject;
+
+		if((n > x.length)||(n > y.length)||(n > ra.length)||(n > dec.length))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":fit:Illegal pair count:"+n+
+							   ": Must be no more than the array lengths.");
+		}
+		m = ((order+1)*(order+2))/2;
+		termP = new int[m];
+		termQ = new int[m];
+		for(int d = 0, k = 0; d <= order; d++)
+		{
+			for(int p = d; p >= 0; p--, k++)
+			{
+				termP[k] = p;
+				termQ[k] = d-p;
+			}
+		}
+		allocate(n,m);
+		pairCount = n;
+		// catalogue unit vectors
+		run(n,(from,to) ->
+		{
+			double v[] = new double[3];
+
+			for(int i = from; i < to; i++)
+			{
+				SphericalGeometry.toUnitVector(ra[i],dec[i],v,0);
+				vx[i] = v[0];
+				vy[i] = v[1];
+				vz[i] = v[2];
+			}
+		});
+		Arrays.fill(rejected,0,n,false);
+		// tangent point and reference pixel
+		if(initial != null)
+		{
+			tpRA = initial.getRARadians();
+			tpDec = initial.getDecRadians();
+			crpix1 = initial.getReferencePixelX();
+			crpix2 = initial.getReferencePixelY();
+		}
+		else
+		{
+			for(int i = 0; i < n; i++)
+			{
+				centre[0] += vx[i];
+				centre[1] += vy[i];
+				centre[2] += vz[i];
+			}
+			tpRA = SphericalGeometry.toRARadians(centre[0],centre[1],centre[2]);
+			tpDec = SphericalGeometry.toDecRadians(centre[0],centre[1],centre[2]);
+			sum = 0.0;
+			for(int i = 0; i < n; i++)
+				sum += x[i];
+			crpix1 = (n > 0) ? sum/n : 0.0;
+			sum = 0.0;
+			for(int i = 0; i < n; i++)
+				sum += y[i];
+			crpix2 = (n > 0) ? sum/n : 0.0;
+		}
+		// normalise pixel offsets to about +/-1, to keep the normal equations well conditioned
+		maxOffset = 1.0;
+		for(int i = 0; i < n; i++)
+			maxOffset = Math.max(maxOffset,Math.max(Math.abs(x[i]-crpix1),Math.abs(y[i]-crpix2)));
+		scale = maxOffset;
+		matrix = new double[m*m];
+		solutionXi = new double[m];
+		solutionEta = new double[m];
+		point = new double[3];
+		coefficients = new double[2*m];
+		iterations = 0;
+		projection = new TangentPlaneProjection(tpRA,tpDec);
+		do
+		{
+			iterations++;
+			// fit, moving the tangent point to the reference pixel's fitted position
+			for(int recentre = 0; recentre < MAX_RECENTRE_ITERATIONS; recentre++)
+			{
+				projection.setTangentPoint(tpRA,tpDec);
+				projection.unitVectorsToStandard(vx,vy,vz,xi,eta,n,parallel);
+				kept = accumulate(x,y,n,crpix1,crpix2,scale,termP,termQ,matrix,solutionXi,solutionEta);
+				if(kept < m)
+				{
+					throw new IllegalArgumentException(this.getClass().getName()+":fit:Too few pairs:"+kept+
+									   " usable: Must be at least "+m+" for order "+order+".");
+				}
+				solve(matrix,solutionXi,solutionEta,m);
+				if(Math.abs(solutionXi[0])+Math.abs(solutionEta[0]) < RECENTRE_TOLERANCE)
+					break;
+				SphericalGeometry.tangentPlaneToUnitVector(tpRA,tpDec,solutionXi[0],solutionEta[0],point,0);
+				tpRA = SphericalGeometry.toRARadians(point[0],point[1],point[2]);
+				tpDec = SphericalGeometry.toDecRadians(point[0],point[1],point[2]);
+			}
+			System.arraycopy(solutionXi,0,coefficients,0,m);
+			System.arraycopy(solutionEta,0,coefficients,m,m);
+			// residuals on the tangent plane, and their RMS over the pairs used
+			run(n,(from,to) ->
+			{
+				double uPower[] = new double[order+1];
+				double vPower[] = new double[order+1];
+				double basis,fitXi,fitEta,dXi,dEta;
+				int k;
+
+				for(int i = from; i < to; i++)
+				{
+					powers(x[i],y[i],crpix1,crpix2,scale,uPower,vPower);
+					fitXi = 0.0;
+					fitEta = 0.0;
+					for(k = 0; k < termP.length; k++)
+					{
+						basis = uPower[termP[k]]*vPower[termQ[k]];
+						fitXi += coefficients[k]*basis;
+						fitEta += coefficients[termP.length+k]*basis;
+					}
+					dXi = fitXi-xi[i];
+					dEta = fitEta-eta[i];
+					residual[i] = Math.sqrt((dXi*dXi)+(dEta*dEta))*SphericalGeometry.RADIANS_TO_ARCSECONDS;
+				}
+			});
+			sum = 0.0;
+			kept = 0;
+			for(int i = 0; i < n; i++)
+			{
+				// NaN means the catalogue position was in the far hemisphere
+				if((!rejected[i])&&(!Double.isNaN(residual[i])))
+				{
+					sum += residual[i]*residual[i];
+					kept++;
+				}
+			}
+			rms = Math.sqrt(sum/kept);
+			// clip, re-admitting pairs that now fit; not after the last fit, so the rejected set is the one it used
+			changed = 0;
+			if(iterations < maxIterations)
+			{
+				threshold = clipSigma*rms;
+				for(int i = 0; i < n; i++)
+				{
+					reject = !(residual[i] <= threshold);
+
+					if(reject != rejected[i])
+					{
+						rejected[i] = reject;
+						changed++;
+					}
+				}
+			}
+		}
+		while((changed > 0)&&(iterations < maxIterations));
+		projection = makeProjection(tpRA,tpDec,crpix1,crpix2,scale,termP,termQ,solutionXi,solutionEta);
+		finalResiduals(projection,x,y,n);
+		return projection;
+	}
+
+	/**
+	 * Return the number of pairs in the last fit.
+	 */
+	public int getPairCount()
+	{
+		return pairCount;
+	}
+
+	/**
+	 * Return the number of pairs the last fit used, those not rejected.
+	 */
+	public int getUsedCount()
+	{
+		return usedCount;
+	}
+
+	/**
+	 * Return the RMS residual of the pairs the last fit used.
+	 * @return The RMS, in arc-seconds.
+	 */
+	public double getRMS()
+	{
+		return rms;
+	}
+
+	/**
+	 * Return the number of clipping iterations the last fit took.
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	/**
+	 * Return the residual of a pair in the last fit: the angle between the catalogue position and the fitted
+	 * sky position of the pixel. Rejected pairs have residuals too.
+	 * @param i The pair index.
+	 * @return The residual, in arc-seconds, or NaN if the pair could not be projected.
+	 */
+	public double getResidual(int i)
+	{
+		return residual[i];
+	}
+
+	/**
+	 * Return the residuals of the last fit. This is the fitter's own work array, which is longer than the pair
+	 * count if an earlier fit was larger, and is overwritten by the next fit.
+	 * @return The residuals, in arc-seconds.
+	 * @see #getPairCount
+	 */
+	public double[] getResiduals()
+	{
+		return residual;
+	}
+
+	/**
+	 * Return whether a pair was rejected by the last fit.
+	 * @param i The pair index.
+	 */
+	public boolean isRejected(int i)
+	{
+		return rejected[i];
+	}
+
+	/**
+	 * Make sure the work arrays are big enough.
+	 */
+	private void allocate(int n,int m)
+	{
+		int chunks,size;
+
+		if((residual == null)||(residual.length < n))
+		{
+			vx = new double[n];
+			vy = new double[n];
+			vz = new double[n];
+			xi = new double[n];
+			eta = new double[n];
+			residual = new double[n];
+			rejected = new boolean[n];
+		}
+		chunks = parallel ? ParallelChunks.chunkCount(n,ParallelChunks.DEFAULT_MIN_CHUNK) : 1;
+		size = (m*m)+(2*m);
+		if((accumulators == null)||(accumulators.length < chunks)||(accumulators[0].length != size))
+			accumulators = new double[chunks][size];
+	}
+
+	/**
+	 * Work out the powers of the normalised pixel offsets.
+	 */
+	private static void powers(double x,double y,double crpix1,double crpix2,double scale,double uPower[],
+				   double vPower[])
+	{
+		double u,v;
+
+		u = (x-crpix1)/scale;
+		v = (y-crpix2)/scale;
+		uPower[0] = 1.0;
+		vPower[0] = 1.0;
+		for(int p = 1; p < uPower.length; p++)
+		{
+			uPower[p] = uPower[p-1]*u;
+			vPower[p] = vPower[p-1]*v;
+		}
+	}
+
+	/**
+	 * Accumulate the normal equations over the pairs not rejected, in parallel chunks, and reduce them.
+	 * @param matrix Set to the normal matrix, m by m.
+	 * @param rhsXi Set to the right hand side for xi.
+	 * @param rhsEta Set to the right hand side for eta.
+	 * @return The number of pairs accumulated.
+	 */
+	private int accumulate(final double x[],final double y[],final int n,final double crpix1,final double crpix2,
+			       final double scale,final int termP[],final int termQ[],double matrix[],double rhsXi[],
+			       double rhsEta[])
+	{
+		final int m = termP.length;
+		final int chunks;
+		final int counts[];
+		IntStream chunkStream = null;
+		int kept;
+
+		chunks = parallel ? ParallelChunks.chunkCount(n,ParallelChunks.DEFAULT_MIN_CHUNK) : 1;
+		counts = new int[chunks];
+		chunkStream = IntStream.range(0,chunks);
+		if(chunks > 1)
+			chunkStream = chunkStream.parallel();
+		chunkStream.forEach(c ->
+		{
+			double accumulator[] = accumulators[c];
+			double pairXi[] = xi;
+			double pairEta[] = eta;
+			boolean pairRejected[] = rejected;
+			double uPower[] = new double[order+1];
+			double vPower[] = new double[order+1];
+			double basis[] = new double[m];
+			double b,pointXi,pointEta;
+			int from,to,row,count;
+
+			from = ParallelChunks.chunkStart(n,chunks,c);
+			to = ParallelChunks.chunkStart(n,chunks,c+1);
+			Arrays.fill(accumulator,0.0);
+			count = 0;
+			for(int i = from; i < to; i++)
+			{
+				pointXi = pairXi[i];
+				pointEta = pairEta[i];
+				// NaN means the catalogue position was in the far hemisphere
+				if(pairRejected[i]||Double.isNaN(pointXi))
+					continue;
+				powers(x[i],y[i],crpix1,crpix2,scale,uPower,vPower);
+				for(int k = 0; k < m; k++)
+					basis[k] = uPower[termP[k]]*vPower[termQ[k]];
+				// upper triangle only
+				for(int j = 0; j < m; j++)
+				{
+					b = basis[j];
+					row = j*m;
+					for(int k = j; k < m; k++)
+						accumulator[row+k] += b*basis[k];
+					accumulator[(m*m)+j] += b*pointXi;
+					accumulator[(m*m)+m+j] += b*pointEta;
+				}
+				count++;
+			}
+			counts[c] = count;
+		});
+		// reduce
+		Arrays.fill(matrix,0.0);
+		Arrays.fill(rhsXi,0.0);
+		Arrays.fill(rhsEta,0.0);
+		kept = 0;
+		for(int c = 0; c < chunks; c++)
+		{
+			for(int j = 0; j < m; j++)
+			{
+				for(int k = j; k < m; k++)
+					matrix[(j*m)+k] += accumulators[c][(j*m)+k];
+				rhsXi[j] += accumulators[c][(m*m)+j];
+				rhsEta[j] += accumulators[c][(m*m)+m+j];
+			}
+			kept += counts[c];
+		}
+		return kept;
+	}
+
+	/**
+	 * Solve the normal equations by Cholesky decomposition, in place.
+	 * @param matrix The symmetric normal matrix, upper triangle filled; overwritten by the decomposition.
+	 * @param rhsXi The xi right hand side; overwritten by the xi solution.
+	 * @param rhsEta The eta right hand side; overwritten by the eta solution.
+	 * @param m The number of terms.
+	 * @exception IllegalArgumentException Thrown if the matrix is not positive definite (degenerate pairs,
+	 *        such as all on one line).
+	 */
+	private void solve(double matrix[],double rhsXi[],double rhsEta[],int m) throws IllegalArgumentException
+	{
+		double sum,diagonal;
+
+		// decompose into upper triangular R, matrix = R'R, R stored in the upper triangle
+		for(int j = 0; j < m; j++)
+		{
+			diagonal = matrix[(j*m)+j];
+			sum = diagonal;
+			for(int k = 0; k < j; k++)
+				sum -= matrix[(k*m)+j]*matrix[(k*m)+j];
+			// a pivot lost to rounding means the column is a combination of the others
+			if(!(sum > diagonal*PIVOT_TOLERANCE))
+			{
+				throw new IllegalArgumentException(this.getClass().getName()+
+								   ":solve:Degenerate pairs: normal matrix not positive definite.");
+			}
+			matrix[(j*m)+j] = Math.sqrt(sum);
+			for(int i = j+1; i < m; i++)
+			{
+				sum = matrix[(j*m)+i];
+				for(int k = 0; k < j; k++)
+					sum -= matrix[(k*m)+j]*matrix[(k*m)+i];
+				matrix[(j*m)+i] = sum/matrix[(j*m)+j];
+			}
+		}
+		substitute(matrix,rhsXi,m);
+		substitute(matrix,rhsEta,m);
+	}
+
+	/**
+	 * Solve R'R s = b in place, given the upper triangular R from solve.
+	 */
+	private static void substitute(double r[],double b[],int m)
+	{
+		double sum;
+
+		// forward, R' t = b
+		for(int i = 0; i < m; i++)
+		{
+			sum = b[i];
+			for(int k = 0; k < i; k++)
+				sum -= r[(k*m)+i]*b[k];
+			b[i] = sum/r[(i*m)+i];
+		}
+		// back, R s = t
+		for(int i = m-1; i >= 0; i--)
+		{
+			sum = b[i];
+			for(int k = i+1; k < m; k++)
+				sum -= r[(i*m)+k]*b[k];
+			b[i] = sum/r[(i*m)+i];
+		}
+	}
+
+	/**
+	 * Turn fitted polynomial coefficients into a projection: the linear terms become the CD matrix, and the
+	 * higher terms the distortion, A = CD^-1 times the xi and eta terms.
+	 */
+	private TangentPlaneProjection makeProjection(double tpRA,double tpDec,double crpix1,double crpix2,double scale,
+						      int termP[],int termQ[],double solutionXi[],double solutionEta[])
+	{
+		TangentPlaneProjection projection = null;
+		double cd[] = new double[4];
+		double inverse[] = new double[4];
+		double a[],b[];
+		double c,d;
+		int stride;
+
+		projection = new TangentPlaneProjection(tpRA,tpDec);
+		projection.setReferencePixel(crpix1,crpix2);
+		// terms 1 and 2 are u and v
+		projection.setCDMatrix(solutionXi[1]/scale,solutionXi[2]/scale,solutionEta[1]/scale,solutionEta[2]/scale);
+		if(order < 2)
+			return projection;
+		projection.getCDMatrix(cd);
+		c = (cd[0]*cd[3])-(cd[1]*cd[2]);
+		inverse[0] = cd[3]/c;
+		inverse[1] = -cd[1]/c;
+		inverse[2] = -cd[2]/c;
+		inverse[3] = cd[0]/c;
+		stride = order+1;
+		a = new double[stride*stride];
+		b = new double[stride*stride];
+		for(int k = 3; k < termP.length; k++)
+		{
+			d = Math.pow(scale,termP[k]+termQ[k]);
+			c = solutionXi[k]/d;
+			d = solutionEta[k]/d;
+			a[(termP[k]*stride)+termQ[k]] = (inverse[0]*c)+(inverse[1]*d);
+			b[(termP[k]*stride)+termQ[k]] = (inverse[2]*c)+(inverse[3]*d);
+		}
+		projection.setDistortion(order,a,b);
+		return projection;
+	}
+
+	/**
+	 * Work out each pair's exact residual against the final projection, and the used count and RMS.
+	 */
+	private void finalResiduals(final TangentPlaneProjection projection,double x[],double y[],int n)
+	{
+		double sum;
+
+		// reuse the work arrays for the fitted positions: standard coordinates, then unit vectors
+		projection.pixelToStandard(x,y,xi,eta,n,parallel);
+		projection.standardToUnitVectors(xi,eta,xi,eta,residual,n,parallel);
+		run(n,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				residual[i] = SphericalGeometry.separation(xi[i],eta[i],residual[i],vx[i],vy[i],vz[i])*
+					SphericalGeometry.RADIANS_TO_ARCSECONDS;
+			}
+		});
+		sum = 0.0;
+		usedCount = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if((!rejected[i])&&(!Double.isNaN(residual[i])))
+			{
+				sum += residual[i]*residual[i];
+				usedCount++;
+			}
+		}
+		rms = (usedCount > 0) ? Math.sqrt(sum/usedCount) : 0.0;
+	}
+
+	/**
+	 * Run a loop over the pairs, in parallel chunks if parallel is set.
+	 */
+	private void run(int n,ParallelChunks.Task task)
+	{
+		if(parallel)
+			ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,task);
+		else
+			task.run(0,n);
+	}
+};
+//
+// $Log$
+//
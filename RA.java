@@ -296,6 +296,26 @@ public class RA implements Serializable
 	 * @see #fromArcSeconds
 	 */
 	public void fromRadians(double radians) throws IllegalArgumentException
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		try
+		{
+			fromRadiansImpl(radians);
+		}
+		catch(RuntimeException e)
+		{
+			AstrometryMetrics.reject(AstrometryMetrics.RA_CONVERT);
+			throw e;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.RA_CONVERT,startTime);
+	}
+
+	/**
+	 * The body of fromRadians, timed by it.
+	 */
+	private void fromRadiansImpl(double radians) throws IllegalArgumentException
 	{
 		double as;
 
@@ -323,7 +343,13 @@ public class RA implements Serializable
 	 */
 	public double toRadians() throws IllegalArgumentException
 	{
-		return (toArcSeconds()*(2*Math.PI))/ARCSECONDS_PER_DAY;
+		double radians;
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		radians = (toArcSeconds()*(2*Math.PI))/ARCSECONDS_PER_DAY;
+		AstrometryMetrics.stop(AstrometryMetrics.RA_CONVERT,startTime);
+		return radians;
 	}
 
 	/**
@@ -349,9 +375,33 @@ public class RA implements Serializable
 	{
 		DecimalFormat df = null;
 		DecimalFormat dfd = null;
+		String s = null;
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
 		df = new DecimalFormat("00");
 		dfd = new DecimalFormat("00.00");
-		return new String(df.format(hours)+separator+df.format(minutes)+separator+dfd.format(seconds));
+		s = new String(df.format(hours)+separator+df.format(minutes)+separator+dfd.format(seconds));
+		AstrometryMetrics.stop(AstrometryMetrics.RA_FORMAT,startTime);
+		return s;
+	}
+
+	/**
+	 * Method to append a right ascension to a StringBuilder, in the same form as toString(char), without
+	 * creating any intermediate objects. Used when streaming many positions.
+	 * @param sb The StringBuilder to append to.
+	 * @param separator The character to delimit the hours, minutes and seconds by.
+	 * @return sb, so calls can be chained.
+	 * @see #toString(char)
+	 */
+	public StringBuilder appendTo(StringBuilder sb,char separator)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		SexagesimalFormat.appendFields(sb,hours,separator,minutes,seconds);
+		AstrometryMetrics.stop(AstrometryMetrics.RA_FORMAT,startTime);
+		return sb;
 	}
 
 	/**
@@ -362,6 +412,26 @@ public class RA implements Serializable
 	 * @param separator A string representing the seperator. N.B. Should be a char?
 	 */
 	private void parseSeperator(String s,String seperator)
+	{
+		long startTime;
+
+		startTime = AstrometryMetrics.start();
+		try
+		{
+			parseSeperatorImpl(s,seperator);
+		}
+		catch(RuntimeException e)
+		{
+			AstrometryMetrics.reject(AstrometryMetrics.RA_PARSE);
+			throw e;
+		}
+		AstrometryMetrics.stop(AstrometryMetrics.RA_PARSE,startTime);
+	}
+
+	/**
+	 * The body of parseSeperator, timed by it.
+	 */
+	private void parseSeperatorImpl(String s,String seperator)
 	{
 		StringTokenizer st = null;
 		String valueString = null;
@@ -0,0 +1,142 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SexagesimalFormat.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * This class holds the allocation-free formatting shared by RA.appendTo, Dec.appendTo and the CoordinateArrays
+ * formatters. It writes AA&lt;separator&gt;BB&lt;separator&gt;SS.ss giving the same text as the DecimalFormat
+ * "00" and "00.00" patterns used by RA.toString(char) and Dec.toString(char).
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see RA#toString(char)
+ * @see Dec#toString(char)
+ */
+public class SexagesimalFormat
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private SexagesimalFormat()
+	{
+		super();
+	}
+
+	/**
+	 * Round seconds to a whole number of hundredths, as DecimalFormat("00.00") does: half-even on the exact
+	 * value of the double. Scaling by 100 can itself round a value just above or below a half-way point onto
+	 * it (56.145 scales to exactly 5614.5), so when the scaled value lands on a half the exact rounding error
+	 * of the multiplication decides the direction, and only a true half rounds to even.
+	 * @param seconds The seconds, non-negative.
+	 * @return The seconds in hundredths.
+	 */
+	public static long centiSeconds(double seconds)
+	{
+		double scaled,rounded,error;
+
+		scaled = seconds*100.0;
+		rounded = Math.rint(scaled);
+		if(Math.abs(scaled-rounded) == 0.5)
+		{
+			error = Math.fma(seconds,100.0,-scaled);
+			if(error > 0.0)
+				rounded = Math.ceil(scaled);
+			else if(error < 0.0)
+				rounded = Math.floor(scaled);
+		}
+		return (long)rounded;
+	}
+
+	/**
+	 * Append AA&lt;separator&gt;BB&lt;separator&gt;SS.ss to a StringBuilder.
+	 * @param sb The StringBuilder to append to.
+	 * @param a The first field, hours or degrees, non-negative.
+	 * @param separator The separator.
+	 * @param b The second field, minutes, non-negative.
+	 * @param seconds The seconds, non-negative.
+	 * @return sb, so calls can be chained.
+	 */
+	public static StringBuilder appendFields(StringBuilder sb,int a,char separator,int b,double seconds)
+	{
+		long centiSeconds;
+
+		appendTwoDigits(sb,a);
+		sb.append(separator);
+		appendTwoDigits(sb,b);
+		sb.append(separator);
+		centiSeconds = centiSeconds(seconds);
+		appendTwoDigits(sb,centiSeconds/100);
+		sb.append('.');
+		appendTwoDigits(sb,centiSeconds%100);
+		return sb;
+	}
+
+	/**
+	 * Write AA&lt;separator&gt;BB&lt;separator&gt;SS.ss into a byte array, as ASCII.
+	 * @param out The array to write to.
+	 * @param p Where in out to write the first byte. Eleven bytes are written.
+	 * @param separator The separator, an ASCII character.
+	 * @param a The first field, hours or degrees, 0..99.
+	 * @param b The second field, minutes, 0..99.
+	 * @param seconds The seconds, 0 &lt;= s &lt; 99.995.
+	 */
+	public static void formatFields(byte out[],int p,char separator,int a,int b,double seconds)
+	{
+		long centiSeconds;
+
+		centiSeconds = centiSeconds(seconds);
+		writeTwoDigits(out,p,a);
+		out[p+2] = (byte)separator;
+		writeTwoDigits(out,p+3,b);
+		out[p+5] = (byte)separator;
+		writeTwoDigits(out,p+6,(int)(centiSeconds/100));
+		out[p+8] = (byte)'.';
+		writeTwoDigits(out,p+9,(int)(centiSeconds%100));
+	}
+
+	/**
+	 * Append a non-negative number, zero padded to at least two digits.
+	 */
+	private static void appendTwoDigits(StringBuilder sb,long n)
+	{
+		if(n < 10)
+			sb.append('0');
+		sb.append(n);
+	}
+
+	/**
+	 * Write a number, 0..99, as two ASCII digits.
+	 */
+	private static void writeTwoDigits(byte out[],int p,int n)
+	{
+		out[p] = (byte)('0'+(n/10));
+		out[p+1] = (byte)('0'+(n%10));
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,182 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SexagesimalFormatCheck.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * This class checks the allocation-free formatters (RA.appendTo, Dec.appendTo, CoordinateArrays.formatRA and
+ * CoordinateArrays.formatDec) against RA.toString(char) and Dec.toString(char), which use DecimalFormat. It
+ * sweeps every x.xx5 seconds value, in the several ways it can be computed and one ulp either side, then
+ * formats random positions through fromRadians. It is not in the jar; "make test" builds and runs it. Usage:
+ * <pre>
+ * java org.estar.astrometry.SexagesimalFormatCheck [random count]
+ * </pre>
+ * Mismatches are printed, and the exit status is 1 if there are any.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SexagesimalFormat
+ */
+public class SexagesimalFormatCheck
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default number of random positions to check.
+	 */
+	public final static int DEFAULT_RANDOM_COUNT = 1000000;
+	/**
+	 * The most mismatches to print.
+	 */
+	private final static int MAX_PRINTED = 20;
+	/**
+	 * The number of values checked.
+	 */
+	protected long checked = 0;
+	/**
+	 * The number of mismatches found.
+	 */
+	protected long mismatches = 0;
+
+	/**
+	 * Default constructor.
+	 */
+	public SexagesimalFormatCheck()
+	{
+		super();
+	}
+
+	/**
+	 * Check every x.xx5 seconds value, and its neighbours, in RA and both signs of Dec.
+	 */
+	public void sweepHalves()
+	{
+		double values[] = new double[3];
+		double s;
+
+		for(int c = 0; c < 6000; c++)
+		{
+			values[0] = (c/100.0)+0.005;
+			values[1] = (c+0.5)/100.0;
+			values[2] = (c*0.01)+0.005;
+			for(int v = 0; v < values.length; v++)
+			{
+				s = values[v];
+				checkSeconds(Math.nextDown(s));
+				checkSeconds(s);
+				checkSeconds(Math.nextUp(s));
+			}
+		}
+	}
+
+	/**
+	 * Check positions made from random radians.
+	 * @param count The number of positions.
+	 */
+	public void sweepRandom(int count)
+	{
+		Random random = null;
+		RA ra = null;
+		Dec dec = null;
+
+		random = new Random(1L);
+		ra = new RA();
+		dec = new Dec();
+		for(int i = 0; i < count; i++)
+		{
+			ra.fromRadians(random.nextDouble()*2.0*Math.PI);
+			dec.fromRadians((random.nextDouble()-0.5)*Math.PI);
+			check(ra.toString(':'),ra.appendTo(new StringBuilder(),':').toString());
+			check(dec.toString(':'),dec.appendTo(new StringBuilder(),':').toString());
+		}
+	}
+
+	/**
+	 * Check one seconds value in an RA and a positive and negative Dec.
+	 */
+	protected void checkSeconds(double s)
+	{
+		RA ra = null;
+		Dec dec = null;
+		byte out[] = new byte[CoordinateArrays.DEC_FORMAT_WIDTH];
+
+		if((s < 0.0)||(s >= 60.0))
+			return;
+		ra = new RA(12,34,s);
+		check(ra.toString(':'),ra.appendTo(new StringBuilder(),':').toString());
+		CoordinateArrays.formatRA(new int[] {12},new int[] {34},new double[] {s},1,':',out,0,
+					  CoordinateArrays.RA_FORMAT_WIDTH,false);
+		check(ra.toString(':'),new String(out,0,CoordinateArrays.RA_FORMAT_WIDTH,StandardCharsets.US_ASCII));
+		dec = new Dec('+',45,6,s);
+		check(dec.toString(':'),dec.appendTo(new StringBuilder(),':').toString());
+		dec.setNegative(true);
+		check(dec.toString(' '),dec.appendTo(new StringBuilder(),' ').toString());
+		CoordinateArrays.formatDec(new boolean[] {true},new int[] {45},new int[] {6},new double[] {s},1,' ',out,0,
+					   CoordinateArrays.DEC_FORMAT_WIDTH,false);
+		check(dec.toString(' '),new String(out,StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Compare the expected and actual text, printing the first few mismatches.
+	 */
+	protected void check(String expected,String actual)
+	{
+		checked++;
+		if(!expected.equals(actual))
+		{
+			mismatches++;
+			if(mismatches <= MAX_PRINTED)
+				System.out.println("mismatch: expected "+expected+" got "+actual);
+		}
+	}
+
+	/**
+	 * Main program.
+	 * @param args The command line arguments: [random count].
+	 */
+	public static void main(String args[])
+	{
+		SexagesimalFormatCheck check = null;
+		int count;
+
+		try
+		{
+			count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_RANDOM_COUNT;
+			check = new SexagesimalFormatCheck();
+			check.sweepHalves();
+			check.sweepRandom(count);
+			System.out.println("checked="+check.checked+" mismatches="+check.mismatches);
+		}
+		catch(Exception e)
+		{
+			System.err.println("SexagesimalFormatCheck:main:"+e);
+			System.exit(1);
+		}
+		System.exit((check.mismatches == 0) ? 0 : 1);
+	}
+};
+//
+// $Log$
+//
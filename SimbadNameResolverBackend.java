@@ -0,0 +1,202 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SimbadNameResolverBackend.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * This class resolves names using the Simbad script interface. Each name is sent as a one line script whose
+ * output is the main identifier and the position, which is parsed with CelestialObject.parseSimbadRADec.
+ * The script interface reports unknown names in an error block rather than per line, so this backend does not
+ * batch: getMaxBatchSize returns 1. The URL can be changed to point at a mirror or a local stub server.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObject#parseSimbadRADec
+ * @see CachingNameResolver
+ */
+public class SimbadNameResolverBackend implements NameResolverBackend
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default Simbad script URL.
+	 */
+	public final static String DEFAULT_URL = "https://simbad.cds.unistra.fr/simbad/sim-script";
+	/**
+	 * The default request timeout, in milliseconds.
+	 */
+	public final static long DEFAULT_TIMEOUT = 10000;
+	/**
+	 * The marker Simbad puts at the start of an error block.
+	 */
+	protected final static String ERROR_MARKER = "::error::";
+	/**
+	 * The script URL.
+	 */
+	protected URI uri = null;
+	/**
+	 * The request timeout, in milliseconds.
+	 */
+	protected long timeout = DEFAULT_TIMEOUT;
+	/**
+	 * The HTTP client, shared by all requests.
+	 */
+	protected HttpClient client = null;
+
+	/**
+	 * Default constructor. Uses DEFAULT_URL.
+	 * @see #DEFAULT_URL
+	 */
+	public SimbadNameResolverBackend()
+	{
+		this(DEFAULT_URL);
+	}
+
+	/**
+	 * Constructor.
+	 * @param url The Simbad script URL.
+	 * @exception IllegalArgumentException Thrown if the URL is malformed.
+	 */
+	public SimbadNameResolverBackend(String url) throws IllegalArgumentException
+	{
+		super();
+		uri = URI.create(url);
+		client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(timeout)).build();
+	}
+
+	/**
+	 * Set the request timeout.
+	 * @param t The timeout, in milliseconds.
+	 * @exception IllegalArgumentException Thrown if t is not positive.
+	 */
+	public void setTimeout(long t) throws IllegalArgumentException
+	{
+		if(t <= 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setTimeout:Illegal timeout:"+
+							   t+": Must be positive.");
+		}
+		timeout = t;
+	}
+
+	public long getTimeout()
+	{
+		return timeout;
+	}
+
+	/**
+	 * Resolve a name with Simbad.
+	 * @param name The name.
+	 * @return A new object holding Simbad's main identifier and position, or null if Simbad does not know
+	 *         the name.
+	 * @exception IOException Thrown if the request failed, or the reply could not be parsed.
+	 */
+	public CelestialObject resolve(String name) throws IOException
+	{
+		HttpRequest request = null;
+		HttpResponse<String> response = null;
+		CelestialObject co = null;
+		String script = null;
+		String line = null;
+		int bar;
+
+		script = "output console=off script=off\n"+
+			"format object \"%IDLIST(1)|%COO(A D)\"\n"+
+			"query id "+name.replace('\n',' ')+"\n";
+		request = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(timeout)).
+			header("Content-Type","application/x-www-form-urlencoded").
+			POST(HttpRequest.BodyPublishers.ofString("script="+URLEncoder.encode(script,StandardCharsets.UTF_8))).
+			build();
+		try
+		{
+			response = client.send(request,HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(this.getClass().getName()+":resolve:Interrupted resolving:"+name);
+		}
+		if(response.statusCode() != 200)
+		{
+			throw new IOException(this.getClass().getName()+":resolve:"+name+":HTTP status:"+
+					      response.statusCode());
+		}
+		if(response.body().indexOf(ERROR_MARKER) >= 0)
+			return null;
+		// the first non-blank line is the formatted object
+		for(String l : response.body().split("\n"))
+		{
+			if(l.trim().length() > 0)
+			{
+				line = l;
+				break;
+			}
+		}
+		bar = (line != null) ? line.indexOf('|') : -1;
+		if(bar < 0)
+			return null;
+		co = new CelestialObject();
+		co.setName(line.substring(0,bar).trim());
+		try
+		{
+			co.parseSimbadRADec(line.substring(bar+1).trim());
+		}
+		catch(IllegalArgumentException e)
+		{
+			// includes NumberFormatException
+			throw new IOException(this.getClass().getName()+":resolve:"+name+":Unparsable position:"+line,e);
+		}
+		return co;
+	}
+
+	/**
+	 * Resolve names one at a time, since this backend does not batch.
+	 * @see #resolve
+	 */
+	public List<CelestialObject> resolveBatch(List<String> names) throws IOException
+	{
+		List<CelestialObject> list = null;
+
+		list = new ArrayList<CelestialObject>(names.size());
+		for(String name : names)
+			list.add(resolve(name));
+		return list;
+	}
+
+	/**
+	 * Return 1, this backend does not batch.
+	 */
+	public int getMaxBatchSize()
+	{
+		return 1;
+	}
+};
+//
+// $Log$
+//
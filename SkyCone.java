@@ -0,0 +1,141 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SkyCone.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds a cone (circular region) on the celestial sphere: all positions within a radius of a centre.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SkyRegion
+ */
+public class SkyCone implements SkyRegion, Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as regions are sent with catalogue queries.
+	 */
+	static final long serialVersionUID = -7939535669850860685L;
+	/**
+	 * The centre unit vector.
+	 */
+	protected double centre[] = new double[3];
+	/**
+	 * The radius, in radians.
+	 */
+	protected double radius = 0.0;
+	/**
+	 * The cosine of the radius.
+	 */
+	protected double cosRadius = 1.0;
+
+	/**
+	 * Constructor.
+	 * @param ra The right ascension of the centre.
+	 * @param dec The declination of the centre.
+	 * @param radiusArcSeconds The radius of the cone, in arc-seconds.
+	 */
+	public SkyCone(RA ra,Dec dec,double radiusArcSeconds)
+	{
+		this(ra.toRadians(),dec.toRadians(),radiusArcSeconds);
+	}
+
+	/**
+	 * Constructor.
+	 * @param raRadians The right ascension of the centre, in radians.
+	 * @param decRadians The declination of the centre, in radians.
+	 * @param radiusArcSeconds The radius of the cone, in arc-seconds.
+	 * @exception IllegalArgumentException Thrown if the radius is negative.
+	 */
+	public SkyCone(double raRadians,double decRadians,double radiusArcSeconds) throws IllegalArgumentException
+	{
+		super();
+		if(radiusArcSeconds < 0.0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal radius:"+
+							   radiusArcSeconds+": Must be positive.");
+		}
+		SphericalGeometry.toUnitVector(raRadians,decRadians,centre,0);
+		radius = Math.min(Math.PI,radiusArcSeconds*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		cosRadius = Math.cos(radius);
+	}
+
+	/**
+	 * Return the radius of the cone.
+	 * @return The radius, in radians.
+	 */
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * Return the centre of the cone.
+	 * @param v An array to put the unit vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public void getCentre(double v[],int offset)
+	{
+		v[offset] = centre[0];
+		v[offset+1] = centre[1];
+		v[offset+2] = centre[2];
+	}
+
+	/**
+	 * Exact containment test.
+	 * @return true if the unit vector is within the radius of the centre.
+	 */
+	public boolean contains(double x,double y,double z)
+	{
+		return ((centre[0]*x)+(centre[1]*y)+(centre[2]*z)) >= cosRadius;
+	}
+
+	/**
+	 * Classification of a spherical cap against the cone.
+	 * @see SkyRegion#classifyCap
+	 */
+	public int classifyCap(double x,double y,double z,double capRadius)
+	{
+		double d;
+
+		d = SphericalGeometry.separation(x,y,z,centre[0],centre[1],centre[2]);
+		if(d > radius+capRadius)
+			return OUTSIDE;
+		if(d+capRadius <= radius)
+			return INSIDE;
+		return PARTIAL;
+	}
+
+	public String toString()
+	{
+		return new String("cone("+Math.toDegrees(SphericalGeometry.toRARadians(centre[0],centre[1],centre[2]))+","+
+				  Math.toDegrees(SphericalGeometry.toDecRadians(centre[0],centre[1],centre[2]))+","+
+				  (radius*SphericalGeometry.RADIANS_TO_ARCSECONDS)+"\")");
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,486 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SkyDensityGrid.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class holds a sky grid for plotting: for each non-empty cell, the number of objects, statistics of one
+ * magnitude band, and the row numbers of the brightest objects. Cells are identified by a long: a NESTED
+ * HEALPix pixel for the levels of a SkyDensityMap, or (iy*nx)+ix for a tangent-plane grid. Only non-empty
+ * cells are stored, in ascending cell order.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SkyDensityMap
+ */
+public class SkyDensityGrid
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of non-empty cells.
+	 */
+	protected int cellCount = 0;
+	/**
+	 * The cell identifier of each non-empty cell, ascending.
+	 */
+	protected long cell[] = null;
+	/**
+	 * The number of objects in each cell.
+	 */
+	protected int count[] = null;
+	/**
+	 * The number of objects in each cell with a magnitude in the band.
+	 */
+	protected int magnitudeCount[] = null;
+	/**
+	 * The brightest magnitude in each cell, NaN if none.
+	 */
+	protected double minMagnitude[] = null;
+	/**
+	 * The faintest magnitude in each cell, NaN if none.
+	 */
+	protected double maxMagnitude[] = null;
+	/**
+	 * The sum of the magnitudes in each cell.
+	 */
+	protected double magnitudeSum[] = null;
+	/**
+	 * The sum of the squared magnitudes in each cell.
+	 */
+	protected double magnitudeSumSquared[] = null;
+	/**
+	 * Where each cell's brightest rows start in brightest; cell i's are brightestStart[i]..brightestStart[i+1].
+	 */
+	protected int brightestStart[] = null;
+	/**
+	 * The brightest rows of each cell, brightest first. Rows without a magnitude come last.
+	 */
+	protected int brightest[] = null;
+
+	/**
+	 * Constructor, allocating the arrays for a number of cells. The brightest arrays are set by the builder.
+	 */
+	protected SkyDensityGrid(int n)
+	{
+		super();
+		cellCount = n;
+		cell = new long[n];
+		count = new int[n];
+		magnitudeCount = new int[n];
+		minMagnitude = new double[n];
+		maxMagnitude = new double[n];
+		magnitudeSum = new double[n];
+		magnitudeSumSquared = new double[n];
+		brightestStart = new int[n+1];
+	}
+
+	/**
+	 * Return the largest cell number build can sort together with the row number, for a number of rows.
+	 * @param n The number of rows.
+	 * @return The largest cell number.
+	 */
+	static long maxCell(int n)
+	{
+		int indexBits;
+
+		indexBits = Math.max(1,32-Integer.numberOfLeadingZeros(Math.max(1,n-1)));
+		return (1L << (63-indexBits))-1;
+	}
+
+	/**
+	 * Build a grid from the cell of each row.
+	 * @param rowCell The cell of each row, or -1 for rows not in the grid.
+	 * @param magnitude The magnitude of each row, NaN if absent.
+	 * @param n The number of rows.
+	 * @param brightestCount The number of brightest rows to keep for each cell.
+	 * @return A new grid.
+	 * @exception IllegalArgumentException Thrown if a cell number is too large to sort with the row number.
+	 */
+	static SkyDensityGrid build(final long rowCell[],final double magnitude[],int n,final int brightestCount)
+		throws IllegalArgumentException
+	{
+		final SkyDensityGrid grid;
+		final long key[];
+		final int groupStart[];
+		final int indexBits;
+		final long indexMask;
+		long maxCell;
+		int kept,groups;
+
+		indexBits = Math.max(1,32-Integer.numberOfLeadingZeros(Math.max(1,n-1)));
+		indexMask = (1L << indexBits)-1;
+		maxCell = -1;
+		kept = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(rowCell[i] >= 0)
+			{
+				maxCell = Math.max(maxCell,rowCell[i]);
+				kept++;
+			}
+		}
+		if(maxCell > maxCell(n))
+		{
+			throw new IllegalArgumentException("SkyDensityGrid:build:Cell number "+maxCell+
+							   " too large for "+n+" rows.");
+		}
+		// sort rows by cell, row order within a cell
+		key = new long[kept];
+		kept = 0;
+		for(int i = 0; i < n; i++)
+		{
+			if(rowCell[i] >= 0)
+				key[kept++] = (rowCell[i] << indexBits)|i;
+		}
+		Arrays.parallelSort(key);
+		groups = 0;
+		for(int i = 0; i < kept; i++)
+		{
+			if((i == 0)||((key[i] >>> indexBits) != (key[i-1] >>> indexBits)))
+				groups++;
+		}
+		groupStart = new int[groups+1];
+		groups = 0;
+		for(int i = 0; i < kept; i++)
+		{
+			if((i == 0)||((key[i] >>> indexBits) != (key[i-1] >>> indexBits)))
+				groupStart[groups++] = i;
+		}
+		groupStart[groups] = kept;
+		grid = new SkyDensityGrid(groups);
+		for(int g = 0; g < groups; g++)
+		{
+			grid.cell[g] = key[groupStart[g]] >>> indexBits;
+			grid.count[g] = groupStart[g+1]-groupStart[g];
+			grid.brightestStart[g+1] = grid.brightestStart[g]+Math.min(brightestCount,grid.count[g]);
+		}
+		grid.brightest = new int[grid.brightestStart[groups]];
+		ParallelChunks.forEach(groups,ParallelChunks.DEFAULT_MIN_CHUNK/64,(from,to) ->
+		{
+			int top[] = new int[brightestCount];
+			int row,found;
+
+			for(int g = from; g < to; g++)
+			{
+				grid.clearStatistics(g);
+				found = 0;
+				for(int i = groupStart[g]; i < groupStart[g+1]; i++)
+				{
+					row = (int)(key[i] & indexMask);
+					grid.addMagnitude(g,magnitude[row]);
+					found = insertBrightest(top,found,row,magnitude);
+				}
+				System.arraycopy(top,0,grid.brightest,grid.brightestStart[g],found);
+			}
+		});
+		return grid;
+	}
+
+	/**
+	 * Build the next coarser HEALPix level from this one: each cell's parent is cell/4.
+	 * @param magnitude The magnitude of each row, NaN if absent.
+	 * @param brightestCount The number of brightest rows to keep for each cell.
+	 * @return A new grid.
+	 */
+	SkyDensityGrid coarsen(final double magnitude[],final int brightestCount)
+	{
+		final SkyDensityGrid parent;
+		final int childStart[];
+		int groups;
+
+		groups = 0;
+		for(int i = 0; i < cellCount; i++)
+		{
+			if((i == 0)||((cell[i] >>> 2) != (cell[i-1] >>> 2)))
+				groups++;
+		}
+		childStart = new int[groups+1];
+		groups = 0;
+		for(int i = 0; i < cellCount; i++)
+		{
+			if((i == 0)||((cell[i] >>> 2) != (cell[i-1] >>> 2)))
+				childStart[groups++] = i;
+		}
+		childStart[groups] = cellCount;
+		parent = new SkyDensityGrid(groups);
+		for(int g = 0; g < groups; g++)
+		{
+			parent.cell[g] = cell[childStart[g]] >>> 2;
+			for(int c = childStart[g]; c < childStart[g+1]; c++)
+				parent.count[g] += count[c];
+			parent.brightestStart[g+1] = parent.brightestStart[g]+Math.min(brightestCount,parent.count[g]);
+		}
+		parent.brightest = new int[parent.brightestStart[groups]];
+		ParallelChunks.forEach(groups,ParallelChunks.DEFAULT_MIN_CHUNK/64,(from,to) ->
+		{
+			int top[] = new int[brightestCount];
+			int found;
+
+			for(int g = from; g < to; g++)
+			{
+				parent.clearStatistics(g);
+				found = 0;
+				for(int c = childStart[g]; c < childStart[g+1]; c++)
+				{
+					parent.magnitudeCount[g] += magnitudeCount[c];
+					parent.magnitudeSum[g] += magnitudeSum[c];
+					parent.magnitudeSumSquared[g] += magnitudeSumSquared[c];
+					parent.minMagnitude[g] = nanMin(parent.minMagnitude[g],minMagnitude[c]);
+					parent.maxMagnitude[g] = nanMax(parent.maxMagnitude[g],maxMagnitude[c]);
+					// a parent's brightest are among its children's brightest
+					for(int i = brightestStart[c]; i < brightestStart[c+1]; i++)
+						found = insertBrightest(top,found,brightest[i],magnitude);
+				}
+				System.arraycopy(top,0,parent.brightest,parent.brightestStart[g],found);
+			}
+		});
+		return parent;
+	}
+
+	/**
+	 * Reset the magnitude statistics of a cell.
+	 */
+	private void clearStatistics(int g)
+	{
+		magnitudeCount[g] = 0;
+		magnitudeSum[g] = 0.0;
+		magnitudeSumSquared[g] = 0.0;
+		minMagnitude[g] = Double.NaN;
+		maxMagnitude[g] = Double.NaN;
+	}
+
+	/**
+	 * Add a magnitude to a cell's statistics. Absent (NaN) magnitudes are ignored.
+	 */
+	private void addMagnitude(int g,double m)
+	{
+		if(Double.isNaN(m))
+			return;
+		magnitudeCount[g]++;
+		magnitudeSum[g] += m;
+		magnitudeSumSquared[g] += m*m;
+		minMagnitude[g] = nanMin(minMagnitude[g],m);
+		maxMagnitude[g] = nanMax(maxMagnitude[g],m);
+	}
+
+	/**
+	 * The smaller of two values, ignoring NaN unless both are.
+	 */
+	private static double nanMin(double a,double b)
+	{
+		if(Double.isNaN(a))
+			return b;
+		if(Double.isNaN(b))
+			return a;
+		return Math.min(a,b);
+	}
+
+	/**
+	 * The larger of two values, ignoring NaN unless both are.
+	 */
+	private static double nanMax(double a,double b)
+	{
+		if(Double.isNaN(a))
+			return b;
+		if(Double.isNaN(b))
+			return a;
+		return Math.max(a,b);
+	}
+
+	/**
+	 * Insert a row into a bounded list of rows kept brightest first, NaN magnitudes last.
+	 * @param top The list.
+	 * @param found The number of rows in the list.
+	 * @param row The row to insert.
+	 * @param magnitude The magnitude of each row.
+	 * @return The new number of rows in the list.
+	 */
+	private static int insertBrightest(int top[],int found,int row,double magnitude[])
+	{
+		double m;
+		int i;
+
+		if(top.length == 0)
+			return 0;
+		m = magnitude[row];
+		if(found == top.length)
+		{
+			if(!brighter(m,magnitude[top[found-1]]))
+				return found;
+			found--;
+		}
+		i = found;
+		while((i > 0)&&brighter(m,magnitude[top[i-1]]))
+		{
+			top[i] = top[i-1];
+			i--;
+		}
+		top[i] = row;
+		return found+1;
+	}
+
+	/**
+	 * Whether magnitude a is strictly brighter than b, NaN being fainter than everything.
+	 */
+	private static boolean brighter(double a,double b)
+	{
+		if(Double.isNaN(a))
+			return false;
+		if(Double.isNaN(b))
+			return true;
+		return a < b;
+	}
+
+	/**
+	 * Return the number of non-empty cells.
+	 */
+	public int getCellCount()
+	{
+		return cellCount;
+	}
+
+	/**
+	 * Return the identifier of a non-empty cell.
+	 * @param i The cell index, 0..getCellCount()-1.
+	 */
+	public long getCell(int i)
+	{
+		return cell[i];
+	}
+
+	/**
+	 * Find a cell.
+	 * @param c The cell identifier.
+	 * @return The cell index, or -1 if the cell is empty.
+	 */
+	public int findCell(long c)
+	{
+		int i;
+
+		i = Arrays.binarySearch(cell,0,cellCount,c);
+		return (i >= 0) ? i : -1;
+	}
+
+	/**
+	 * Return the index of the first cell whose identifier is greater or equal to a value.
+	 */
+	public int lowerBound(long c)
+	{
+		int i;
+
+		i = Arrays.binarySearch(cell,0,cellCount,c);
+		return (i >= 0) ? i : -(i+1);
+	}
+
+	/**
+	 * Return the number of objects in a cell.
+	 */
+	public int getCount(int i)
+	{
+		return count[i];
+	}
+
+	/**
+	 * Return the number of objects in a cell that have a magnitude in the band.
+	 */
+	public int getMagnitudeCount(int i)
+	{
+		return magnitudeCount[i];
+	}
+
+	/**
+	 * Return the brightest magnitude in a cell, or NaN if none of its objects has one.
+	 */
+	public double getMinMagnitude(int i)
+	{
+		return minMagnitude[i];
+	}
+
+	/**
+	 * Return the faintest magnitude in a cell, or NaN if none of its objects has one.
+	 */
+	public double getMaxMagnitude(int i)
+	{
+		return maxMagnitude[i];
+	}
+
+	/**
+	 * Return the mean magnitude in a cell, or NaN if none of its objects has one.
+	 */
+	public double getMeanMagnitude(int i)
+	{
+		if(magnitudeCount[i] == 0)
+			return Double.NaN;
+		return magnitudeSum[i]/magnitudeCount[i];
+	}
+
+	/**
+	 * Return the standard deviation of the magnitudes in a cell, or NaN if none of its objects has one.
+	 */
+	public double getMagnitudeSigma(int i)
+	{
+		double mean;
+
+		if(magnitudeCount[i] == 0)
+			return Double.NaN;
+		mean = magnitudeSum[i]/magnitudeCount[i];
+		return Math.sqrt(Math.max(0.0,(magnitudeSumSquared[i]/magnitudeCount[i])-(mean*mean)));
+	}
+
+	/**
+	 * Return the number of brightest rows kept for a cell.
+	 */
+	public int getBrightestCount(int i)
+	{
+		return brightestStart[i+1]-brightestStart[i];
+	}
+
+	/**
+	 * Return one of the brightest rows of a cell.
+	 * @param i The cell index.
+	 * @param j 0 for the brightest row, up to getBrightestCount(i)-1.
+	 * @return The row number.
+	 */
+	public int getBrightest(int i,int j)
+	{
+		return brightest[brightestStart[i]+j];
+	}
+
+	/**
+	 * Return the total number of objects in the grid.
+	 */
+	public long getTotalCount()
+	{
+		long total;
+
+		total = 0;
+		for(int i = 0; i < cellCount; i++)
+			total += count[i];
+		return total;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,301 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SkyDensityMap.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class decimates a catalogue for sky charts. One parallel pass assigns every object to a HEALPix pixel
+ * at maxOrder, giving the finest level of a pyramid of SkyDensityGrids; each coarser level is made from
+ * the level below by merging groups of four pixels, not by rescanning the catalogue. Every cell keeps its
+ * object count, magnitude statistics and brightest objects, so a chart at any zoom can draw density
+ * and the brightest few objects per cell without touching the rest. Levels are built on first use and cached.
+ * <p>
+ * For a one-off view, tangentPlaneGrid makes an uncached grid on the tangent plane of a field centre.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SkyDensityGrid
+ * @see HEALPix
+ */
+public class SkyDensityMap
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The default finest HEALPix order (about 3.4 arc-minute pixels).
+	 */
+	public final static int DEFAULT_MAX_ORDER = 10;
+	/**
+	 * The default number of brightest objects kept per cell.
+	 */
+	public final static int DEFAULT_BRIGHTEST_COUNT = 16;
+	/**
+	 * The catalogue.
+	 */
+	protected CelestialObjectColumns columns = null;
+	/**
+	 * The magnitude column of the band the statistics and brightest objects use.
+	 */
+	protected double magnitude[] = null;
+	/**
+	 * The finest HEALPix order.
+	 */
+	protected int maxOrder = DEFAULT_MAX_ORDER;
+	/**
+	 * The number of brightest objects kept per cell.
+	 */
+	protected int brightestCount = DEFAULT_BRIGHTEST_COUNT;
+	/**
+	 * The pyramid levels built so far, indexed by order. Guarded by this.
+	 */
+	protected SkyDensityGrid levels[] = null;
+
+	/**
+	 * Constructor, using DEFAULT_MAX_ORDER and DEFAULT_BRIGHTEST_COUNT.
+	 * @param c The catalogue, e.g. from CelestialObjectColumns.fromList.
+	 * @param band The magnitude band: CataloguePredicate.BAND_B, BAND_V or BAND_R.
+	 * @exception IllegalArgumentException Thrown if the band is not known.
+	 */
+	public SkyDensityMap(CelestialObjectColumns c,int band) throws IllegalArgumentException
+	{
+		this(c,band,DEFAULT_MAX_ORDER,DEFAULT_BRIGHTEST_COUNT);
+	}
+
+	/**
+	 * Constructor.
+	 * @param c The catalogue, e.g. from CelestialObjectColumns.fromList.
+	 * @param band The magnitude band: CataloguePredicate.BAND_B, BAND_V or BAND_R.
+	 * @param o The finest HEALPix order, 0..HEALPix.MAX_ORDER. Cells are sorted on their pixel number and row
+	 *        together in a long, so the larger the catalogue the lower the largest order allowed (order 26 up to
+	 *        2^7 rows, order 20 up to 2^19 rows, order 16 up to 2^27 rows).
+	 * @param n The number of brightest objects kept per cell, at least 0.
+	 * @exception IllegalArgumentException Thrown if the band is not known, or the order or count is out of range,
+	 *            or the order is too fine for the number of rows.
+	 */
+	public SkyDensityMap(CelestialObjectColumns c,int band,int o,int n) throws IllegalArgumentException
+	{
+		super();
+		if(band == CataloguePredicate.BAND_B)
+			magnitude = c.getBMagnitude();
+		else if(band == CataloguePredicate.BAND_V)
+			magnitude = c.getVMagnitude();
+		else if(band == CataloguePredicate.BAND_R)
+			magnitude = c.getRMagnitude();
+		else
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal band:"+band);
+		if((o < 0)||(o > HEALPix.MAX_ORDER))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal order:"+o+
+							   ": Must be 0.."+HEALPix.MAX_ORDER+".");
+		}
+		if(HEALPix.pixelCount(o)-1 > SkyDensityGrid.maxCell(c.getSize()))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal order:"+o+
+							   ": Too fine for "+c.getSize()+" rows.");
+		}
+		if(n < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":Illegal brightest count:"+n+
+							   ": Must be positive.");
+		}
+		columns = c;
+		maxOrder = o;
+		brightestCount = n;
+		levels = new SkyDensityGrid[maxOrder+1];
+	}
+
+	public int getMaxOrder()
+	{
+		return maxOrder;
+	}
+
+	public int getBrightestCount()
+	{
+		return brightestCount;
+	}
+
+	/**
+	 * Return a level of the pyramid, building it (and the finer levels it is made from) if needed.
+	 * @param order The HEALPix order, 0..getMaxOrder().
+	 * @return The level. Its cell identifiers are NESTED pixel numbers at that order.
+	 * @exception IllegalArgumentException Thrown if the order is out of range.
+	 */
+	public synchronized SkyDensityGrid getLevel(int order) throws IllegalArgumentException
+	{
+		if((order < 0)||(order > maxOrder))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":getLevel:Illegal order:"+order+
+							   ": Must be 0.."+maxOrder+".");
+		}
+		if(levels[order] == null)
+		{
+			if(order == maxOrder)
+				levels[order] = buildFinestLevel();
+			else
+				levels[order] = getLevel(order+1).coarsen(magnitude,brightestCount);
+		}
+		return levels[order];
+	}
+
+	/**
+	 * Build the finest level, assigning every object to its pixel in parallel.
+	 */
+	protected SkyDensityGrid buildFinestLevel()
+	{
+		final double ra[],dec[];
+		final long pixel[];
+		int n;
+
+		n = columns.getSize();
+		ra = columns.getRARadians();
+		dec = columns.getDecRadians();
+		pixel = new long[n];
+		ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+				pixel[i] = HEALPix.angToPixel(maxOrder,ra[i],dec[i]);
+		});
+		return SkyDensityGrid.build(pixel,magnitude,n,brightestCount);
+	}
+
+	/**
+	 * Return the level to draw a chart with, so cells are about a given number of screen pixels wide.
+	 * @param fieldOfView The width of the chart, in arc-seconds.
+	 * @param cellsAcross The number of cells wanted across the chart.
+	 * @return An order between 0 and getMaxOrder().
+	 */
+	public int orderForZoom(double fieldOfView,int cellsAcross)
+	{
+		double resolution;
+
+		resolution = (fieldOfView*SphericalGeometry.ARCSECONDS_TO_RADIANS)/Math.max(1,cellsAcross);
+		return Math.min(maxOrder,HEALPix.orderForResolution(resolution));
+	}
+
+	/**
+	 * Find the brightest objects in each cell of a level that overlaps a region, for a chart pan or zoom.
+	 * Only the cached level is read, never the whole catalogue.
+	 * @param region The visible region.
+	 * @param order The level, usually from orderForZoom.
+	 * @param n The maximum number of objects per cell; no more than getBrightestCount() are kept.
+	 * @param result A list to add the row numbers of the objects inside the region to, brightest first within
+	 *        each cell.
+	 * @exception IllegalArgumentException Thrown if the order is out of range.
+	 */
+	public void brightest(final SkyRegion region,int order,final int n,final IntArrayList result)
+		throws IllegalArgumentException
+	{
+		final SkyDensityGrid level;
+		final double ra[],dec[];
+		final int levelOrder = order;
+
+		level = getLevel(order);
+		ra = columns.getRARadians();
+		dec = columns.getDecRadians();
+		HEALPix.coverage(region,order,(cellOrder,cellPixel,inside) ->
+		{
+			double v[] = new double[3];
+			int shift,row,taken;
+			long hi;
+
+			shift = 2*(levelOrder-cellOrder);
+			hi = (cellPixel+1) << shift;
+			for(int i = level.lowerBound(cellPixel << shift); (i < level.getCellCount())&&(level.getCell(i) < hi); i++)
+			{
+				taken = 0;
+				for(int j = 0; (j < level.getBrightestCount(i))&&(taken < n); j++)
+				{
+					row = level.getBrightest(i,j);
+					if(!inside)
+					{
+						SphericalGeometry.toUnitVector(ra[row],dec[row],v,0);
+						if(!region.contains(v[0],v[1],v[2]))
+							continue;
+					}
+					result.add(row);
+					taken++;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Make a grid on the tangent plane of a field centre, north up, in one parallel pass.
+	 * The grid is not cached.
+	 * @param raRadians The right ascension of the field centre, in radians.
+	 * @param decRadians The declination of the field centre, in radians.
+	 * @param width The width of the field, in arc-seconds.
+	 * @param height The height of the field, in arc-seconds.
+	 * @param nx The number of cells across.
+	 * @param ny The number of cells down.
+	 * @return A new grid, whose cell identifiers are (iy*nx)+ix, ix increasing west to east and iy south
+	 *         to north.
+	 * @exception IllegalArgumentException Thrown if a size is not positive.
+	 */
+	public SkyDensityGrid tangentPlaneGrid(final double raRadians,final double decRadians,double width,double height,
+					       final int nx,final int ny) throws IllegalArgumentException
+	{
+		final double ra[],dec[];
+		final long cell[];
+		final double halfWidth,halfHeight,cellWidth,cellHeight;
+		int n;
+
+		if((width <= 0.0)||(height <= 0.0)||(nx < 1)||(ny < 1))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":tangentPlaneGrid:Illegal grid:"+
+							   width+"x"+height+" in "+nx+"x"+ny+": Must be positive.");
+		}
+		n = columns.getSize();
+		ra = columns.getRARadians();
+		dec = columns.getDecRadians();
+		cell = new long[n];
+		halfWidth = (width*SphericalGeometry.ARCSECONDS_TO_RADIANS)/2.0;
+		halfHeight = (height*SphericalGeometry.ARCSECONDS_TO_RADIANS)/2.0;
+		cellWidth = (2.0*halfWidth)/nx;
+		cellHeight = (2.0*halfHeight)/ny;
+		ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			double v[] = new double[3];
+			double plane[] = new double[2];
+			int ix,iy;
+
+			for(int i = from; i < to; i++)
+			{
+				cell[i] = -1;
+				SphericalGeometry.toUnitVector(ra[i],dec[i],v,0);
+				if(!SphericalGeometry.unitVectorToTangentPlane(raRadians,decRadians,v[0],v[1],v[2],plane))
+					continue;
+				// the standard coordinate xi increases to the east
+				ix = (int)Math.floor((plane[0]+halfWidth)/cellWidth);
+				iy = (int)Math.floor((plane[1]+halfHeight)/cellHeight);
+				if((ix >= 0)&&(ix < nx)&&(iy >= 0)&&(iy < ny))
+					cell[i] = (((long)iy)*nx)+ix;
+			}
+		});
+		return SkyDensityGrid.build(cell,magnitude,n,brightestCount);
+	}
+};
+//
+// $Log$
+//
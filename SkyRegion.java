@@ -0,0 +1,70 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SkyRegion.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * Interface implemented by regions of the celestial sphere, so they can be covered by HEALPix cells
+ * and tested against catalogue positions. Positions are passed as unit vectors.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see HEALPix#coverage
+ * @see SphericalGeometry#toUnitVector
+ */
+public interface SkyRegion
+{
+	/**
+	 * Classification value: the cap is entirely outside the region.
+	 */
+	public final static int OUTSIDE = 0;
+	/**
+	 * Classification value: the cap may overlap the region boundary.
+	 */
+	public final static int PARTIAL = 1;
+	/**
+	 * Classification value: the cap is entirely inside the region.
+	 */
+	public final static int INSIDE = 2;
+
+	/**
+	 * Exact containment test.
+	 * @return true if the unit vector is inside the region.
+	 */
+	public boolean contains(double x,double y,double z);
+
+	/**
+	 * Conservative classification of a spherical cap against the region. Returning PARTIAL is
+	 * always allowed, OUTSIDE and INSIDE must only be returned when they are certain.
+	 * @param x The X component of the cap centre unit vector.
+	 * @param y The Y component of the cap centre unit vector.
+	 * @param z The Z component of the cap centre unit vector.
+	 * @param radius The cap radius, in radians.
+	 * @return One of OUTSIDE, PARTIAL or INSIDE.
+	 * @see #OUTSIDE
+	 * @see #PARTIAL
+	 * @see #INSIDE
+	 */
+	public int classifyCap(double x,double y,double z,double radius);
+};
+//
+// $Log$
+//
@@ -0,0 +1,984 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SlewOptimiser.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class orders a list of targets to minimise the total slew time of a MountModel, as an open path
+ * (optionally from the telescope's current position). Unlike sorting by RA and Dec, the path does not zig-zag
+ * across RA strips near the pole or jump across 0h.
+ * <ul>
+ * <li>The slew time between every pair of targets is computed once, in parallel, into a matrix (for lists of
+ *     up to MAX_MATRIX_TARGETS targets; longer lists compute times as needed), and each target's nearest
+ *     NEIGHBOUR_COUNT targets by slew time are found.
+ * <li>Several searches run in parallel. Each builds a nearest neighbour path, from a different first target
+ *     if the start is free, and improves it with 2-opt (reversing a stretch of the path) and Or-opt (moving a
+ *     stretch of one to three targets elsewhere, either way round) moves, trying only moves that make a
+ *     target adjacent to one of its near neighbours, and only re-examining targets near a change.
+ * <li>While time is left, each search repeatedly perturbs its best path (swapping two random stretches) and
+ *     improves it again, keeping the result if it is better.
+ * </ul>
+ * The best path of all the searches is returned once the time limit is reached, or sooner if there are no
+ * more than three targets. The time limit also stops the first local search, so a large list may be returned
+ * before it reaches a local optimum; only the slew times, near neighbours and nearest neighbour path are
+ * always worked out in full.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see MountModel
+ */
+public class SlewOptimiser
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The number of near neighbours each target's moves are tried against.
+	 */
+	public final static int NEIGHBOUR_COUNT = 10;
+	/**
+	 * The largest number of targets (including the start position) whose slew times are held in a matrix.
+	 * The matrix takes 4 bytes per pair. Filling it costs more than the search saves for longer lists, as
+	 * the search only uses the slew times to near neighbours and path neighbours.
+	 */
+	public final static int MAX_MATRIX_TARGETS = 512;
+	/**
+	 * The default time limit, in milliseconds.
+	 */
+	public final static long DEFAULT_TIME_LIMIT = 50;
+	/**
+	 * The largest number of parallel searches.
+	 */
+	private final static int MAX_SEARCHES = 8;
+	/**
+	 * The longest stretch of targets an Or-opt move shifts.
+	 */
+	private final static int MAX_OR_OPT_LENGTH = 3;
+	/**
+	 * Improvements smaller than this many seconds are ignored, so rounding cannot cause endless moves.
+	 */
+	private final static double EPSILON = 1e-6;
+	/**
+	 * The mount model.
+	 */
+	protected MountModel model = null;
+	/**
+	 * The time limit, in milliseconds.
+	 */
+	protected long timeLimit = DEFAULT_TIME_LIMIT;
+	/**
+	 * Whether to run several searches in parallel.
+	 */
+	protected boolean parallel = true;
+	/**
+	 * The right ascension the path starts from, in radians, or NaN if the start is free.
+	 */
+	protected double startRA = Double.NaN;
+	/**
+	 * The declination the path starts from, in radians.
+	 */
+	protected double startDec = Double.NaN;
+	/**
+	 * The total slew time of the last ordering, in seconds.
+	 */
+	protected double slewTime = 0.0;
+	/**
+	 * The total slew time of the best nearest neighbour path of the last ordering, in seconds.
+	 */
+	protected double nearestNeighbourSlewTime = 0.0;
+	/**
+	 * The number of perturbations tried by the last ordering, over all searches.
+	 */
+	protected long kickCount = 0;
+	/**
+	 * The number of nodes in the current ordering: the targets, plus one for the start position if set.
+	 */
+	private int nodeCount = 0;
+	/**
+	 * The right ascension of each node, in degrees, 0..360. The start position, if set, is the last node.
+	 */
+	private double nodeRA[] = null;
+	/**
+	 * The declination of each node, in degrees.
+	 */
+	private double nodeDec[] = null;
+	/**
+	 * The slew time between each pair of nodes, nodeCount*nodeCount, or null if there are too many nodes.
+	 */
+	private float matrix[] = null;
+	/**
+	 * The near neighbours of each node, NEIGHBOUR_COUNT (or fewer) per node, nearest first.
+	 */
+	private int neighbours[][] = null;
+
+	/**
+	 * Constructor.
+	 * @param m The mount model to minimise the slew time of.
+	 */
+	public SlewOptimiser(MountModel m)
+	{
+		super();
+		model = m;
+	}
+
+	/**
+	 * Set how long an ordering may spend perturbing and re-improving its paths, after the first local search.
+	 * @param ms The time limit, in milliseconds. 0 returns the first local optimum.
+	 * @exception IllegalArgumentException Thrown if ms is negative.
+	 */
+	public void setTimeLimit(long ms) throws IllegalArgumentException
+	{
+		if(ms < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setTimeLimit:Illegal time limit:"+
+							   ms+": Must be 0 or more.");
+		}
+		timeLimit = ms;
+	}
+
+	/**
+	 * Set whether to run several searches in parallel, or one on the calling thread.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Set the position the path starts from, usually where the telescope is now pointing.
+	 * @param ra The right ascension.
+	 * @param dec The declination.
+	 */
+	public void setStartPosition(RA ra,Dec dec)
+	{
+		setStartPosition(ra.toRadians(),dec.toRadians());
+	}
+
+	/**
+	 * Set the position the path starts from, usually where the telescope is now pointing.
+	 * @param raRadians The right ascension, in radians.
+	 * @param decRadians The declination, in radians.
+	 */
+	public void setStartPosition(double raRadians,double decRadians)
+	{
+		startRA = raRadians;
+		startDec = decRadians;
+	}
+
+	/**
+	 * Let the path start at any target.
+	 */
+	public void clearStartPosition()
+	{
+		startRA = Double.NaN;
+		startDec = Double.NaN;
+	}
+
+	/**
+	 * Return the total slew time of the last ordering, including the slew from the start position if set.
+	 * @return The time, in seconds.
+	 */
+	public double getSlewTime()
+	{
+		return slewTime;
+	}
+
+	/**
+	 * Return the total slew time of the best nearest neighbour path the last ordering started from.
+	 * @return The time, in seconds.
+	 */
+	public double getNearestNeighbourSlewTime()
+	{
+		return nearestNeighbourSlewTime;
+	}
+
+	/**
+	 * Return the number of perturbations the last ordering tried, over all searches.
+	 */
+	public long getKickCount()
+	{
+		return kickCount;
+	}
+
+	/**
+	 * Order a list of targets.
+	 * @param list The targets, all of which must have an RA and Dec.
+	 * @return A new list holding the targets in slew order.
+	 */
+	public List<CelestialObject> order(List<CelestialObject> list)
+	{
+		List<CelestialObject> result = null;
+		double ra[],dec[];
+		int order[];
+
+		ra = new double[list.size()];
+		dec = new double[list.size()];
+		for(int i = 0; i < list.size(); i++)
+		{
+			ra[i] = list.get(i).getRA().toRadians();
+			dec[i] = list.get(i).getDec().toRadians();
+		}
+		order = order(ra,dec,ra.length);
+		result = new ArrayList<CelestialObject>(order.length);
+		for(int i = 0; i < order.length; i++)
+			result.add(list.get(order[i]));
+		return result;
+	}
+
+	/**
+	 * Order targets given as coordinate arrays.
+	 * @param raRadians The right ascensions, in radians.
+	 * @param decRadians The declinations, in radians.
+	 * @param n The number of targets.
+	 * @return The indices of the targets, in slew order.
+	 */
+	public synchronized int[] order(double raRadians[],double decRadians[],int n)
+	{
+		final Search searches[];
+		final long deadline;
+		final boolean fixedStart;
+		Search best = null;
+		int order[];
+		int searchCount,first;
+
+		deadline = System.nanoTime()+(timeLimit*1000000L);
+		fixedStart = !Double.isNaN(startRA);
+		nodeCount = n+(fixedStart ? 1 : 0);
+		nodeRA = new double[nodeCount];
+		nodeDec = new double[nodeCount];
+		for(int a = 0; a < nodeCount; a++)
+		{
+			nodeRA[a] = Math.toDegrees((a < n) ? raRadians[a] : startRA) % 360.0;
+			if(nodeRA[a] < 0.0)
+				nodeRA[a] += 360.0;
+			nodeDec[a] = Math.toDegrees((a < n) ? decRadians[a] : startDec);
+		}
+		computeMatrix();
+		computeNeighbours();
+		searchCount = parallel ? Math.min(MAX_SEARCHES,Runtime.getRuntime().availableProcessors()) : 1;
+		searchCount = Math.max(1,Math.min(searchCount,n));
+		searches = new Search[searchCount];
+		for(int s = 0; s < searchCount; s++)
+		{
+			first = fixedStart ? n : (int)(((long)s*nodeCount)/searchCount);
+			searches[s] = new Search(fixedStart,first,s);
+		}
+		ParallelChunks.forEach(searchCount,1,(from,to) ->
+		{
+			for(int s = from; s < to; s++)
+				searches[s].run(deadline);
+		});
+		kickCount = 0;
+		nearestNeighbourSlewTime = Double.MAX_VALUE;
+		for(int s = 0; s < searchCount; s++)
+		{
+			if((best == null)||(searches[s].bestCost < best.bestCost))
+				best = searches[s];
+			nearestNeighbourSlewTime = Math.min(nearestNeighbourSlewTime,searches[s].initialCost);
+			kickCount += searches[s].kicks;
+		}
+		order = new int[n];
+		if(best != null)
+		{
+			System.arraycopy(best.best,fixedStart ? 1 : 0,order,0,n);
+			slewTime = best.bestCost;
+		}
+		else
+		{
+			slewTime = 0.0;
+			nearestNeighbourSlewTime = 0.0;
+		}
+		matrix = null;
+		neighbours = null;
+		nodeRA = null;
+		nodeDec = null;
+		return order;
+	}
+
+	/**
+	 * Return the slew time between two nodes, or 0 if either is -1 (off the end of the path).
+	 */
+	private double cost(int a,int b)
+	{
+		if((a < 0)||(b < 0))
+			return 0.0;
+		if(matrix != null)
+			return matrix[(a*nodeCount)+b];
+		return slewTime(a,b);
+	}
+
+	/**
+	 * Work out the slew time between two nodes from the mount model.
+	 */
+	private double slewTime(int a,int b)
+	{
+		double dRA;
+
+		dRA = Math.abs(nodeRA[b]-nodeRA[a]);
+		if(dRA > 180.0)
+			dRA = 360.0-dRA;
+		return model.axisSlewTime(dRA,Math.abs(nodeDec[b]-nodeDec[a]));
+	}
+
+	/**
+	 * Fill in the slew time matrix in parallel, if there are few enough nodes. Slew times are symmetric, so
+	 * each row only computes the pairs above the diagonal and mirrors them.
+	 */
+	private void computeMatrix()
+	{
+		final float m[];
+		final int n;
+
+		matrix = null;
+		n = nodeCount;
+		if(n > MAX_MATRIX_TARGETS)
+			return;
+		m = new float[n*n];
+		// row a has n-1-a pairs above the diagonal, so rows a and n-1-a are done together to balance the work
+		ParallelChunks.forEach((n+1)/2,32,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				fillRow(m,i);
+				if(n-1-i != i)
+					fillRow(m,n-1-i);
+			}
+		});
+		matrix = m;
+	}
+
+	/**
+	 * Fill in the matrix entries of row a above the diagonal, and their mirror images below it.
+	 */
+	private void fillRow(float m[],int a)
+	{
+		float c;
+		int n;
+
+		n = nodeCount;
+		for(int b = a+1; b < n; b++)
+		{
+			c = (float)slewTime(a,b);
+			m[(a*n)+b] = c;
+			m[(b*n)+a] = c;
+		}
+	}
+
+	/**
+	 * Find the near neighbours of each node, in parallel. Nodes are bucketed in a grid over the mount axes
+	 * (right ascension by declination, in degrees), and each node searches rings of cells outward from its
+	 * own until no node in the next ring can be nearer than its furthest near neighbour so far. Slew time only
+	 * grows with each axis distance, so this finds exactly the nearest nodes without comparing every pair.
+	 */
+	private void computeNeighbours()
+	{
+		final double raDegrees[],decDegrees[];
+		final int cellStart[],cellNode[];
+		final double cellWidth,cellHeight;
+		final int n,k,columns,rows;
+		int cell[],fill[];
+
+		n = nodeCount;
+		k = Math.max(0,Math.min(NEIGHBOUR_COUNT,n-1));
+		neighbours = new int[n][];
+		// about two nodes per cell, with cells twice as wide in right ascension as high in declination
+		columns = Math.max(1,(int)Math.ceil(Math.sqrt(n)));
+		rows = Math.max(1,(int)Math.ceil(Math.sqrt(n)/2.0));
+		cellWidth = 360.0/columns;
+		cellHeight = 180.0/rows;
+		raDegrees = nodeRA;
+		decDegrees = nodeDec;
+		cell = new int[n];
+		cellStart = new int[(columns*rows)+1];
+		for(int a = 0; a < n; a++)
+		{
+			cell[a] = (gridRow(decDegrees[a],cellHeight,rows)*columns)+
+				Math.min(columns-1,(int)(raDegrees[a]/cellWidth));
+			cellStart[cell[a]+1]++;
+		}
+		for(int i = 0; i < columns*rows; i++)
+			cellStart[i+1] += cellStart[i];
+		// counting sort of the nodes into cells
+		cellNode = new int[n];
+		fill = Arrays.copyOf(cellStart,columns*rows);
+		for(int a = 0; a < n; a++)
+			cellNode[fill[cell[a]]++] = a;
+		ParallelChunks.forEach(n,64,(from,to) ->
+		{
+			double nearCost[] = new double[Math.max(k,1)];
+			double bound;
+			int near[];
+			int count,column,row,dcMin,dcMax,cc,rr;
+
+			dcMin = -((columns-1)/2);
+			dcMax = columns/2;
+			for(int a = from; a < to; a++)
+			{
+				near = new int[k];
+				count = 0;
+				column = Math.min(columns-1,(int)(raDegrees[a]/cellWidth));
+				row = gridRow(decDegrees[a],cellHeight,rows);
+				for(int r = 0; (k > 0)&&(r <= Math.max(columns,rows)); r++)
+				{
+					if((count == k)&&(r > 0))
+					{
+						// a node r cells away is at least r-1 cells away on one axis
+						bound = Math.min(model.axisSlewTime((r-1)*cellWidth,0.0),
+								 model.axisSlewTime(0.0,(r-1)*cellHeight));
+						if(bound >= nearCost[k-1])
+							break;
+					}
+					for(int dr = -r; dr <= r; dr++)
+					{
+						rr = row+dr;
+						if((rr < 0)||(rr >= rows))
+							continue;
+						for(int dc = Math.max(-r,dcMin); dc <= Math.min(r,dcMax); dc++)
+						{
+							if((Math.abs(dr) != r)&&(Math.abs(dc) != r))
+								continue;
+							cc = Math.floorMod(column+dc,columns);
+							count = addNearCell(a,(rr*columns)+cc,cellStart,cellNode,near,nearCost,count);
+						}
+					}
+				}
+				neighbours[a] = near;
+			}
+		});
+	}
+
+	/**
+	 * Return the grid row of a declination.
+	 */
+	private static int gridRow(double decDegrees,double cellHeight,int rows)
+	{
+		return Math.max(0,Math.min(rows-1,(int)((decDegrees+90.0)/cellHeight)));
+	}
+
+	/**
+	 * Offer the nodes of one grid cell to a node's sorted near list.
+	 * @return The new number of nodes in the near list.
+	 */
+	private int addNearCell(int a,int cellIndex,int cellStart[],int cellNode[],int near[],double nearCost[],int count)
+	{
+		double c;
+		int b,j,k;
+
+		k = near.length;
+		for(int i = cellStart[cellIndex]; i < cellStart[cellIndex+1]; i++)
+		{
+			b = cellNode[i];
+			if(b == a)
+				continue;
+			c = cost(a,b);
+			if((count == k)&&(c >= nearCost[k-1]))
+				continue;
+			j = (count < k) ? count++ : k-1;
+			while((j > 0)&&(nearCost[j-1] > c))
+			{
+				nearCost[j] = nearCost[j-1];
+				near[j] = near[j-1];
+				j--;
+			}
+			nearCost[j] = c;
+			near[j] = b;
+		}
+		return count;
+	}
+
+	/**
+	 * One search: a nearest neighbour path improved by local search, then perturbed and improved until the
+	 * deadline.
+	 */
+	private class Search
+	{
+		/**
+		 * Whether the first node of the path is fixed (the start position).
+		 */
+		boolean fixedStart = false;
+		/**
+		 * The node the nearest neighbour path starts from.
+		 */
+		int firstNode = 0;
+		/**
+		 * The first position moves may change: 1 if the start is fixed, else 0.
+		 */
+		int firstPosition = 0;
+		/**
+		 * The path being improved: the node at each position.
+		 */
+		int tour[] = null;
+		/**
+		 * The position of each node in tour.
+		 */
+		int position[] = null;
+		/**
+		 * The best path found.
+		 */
+		int best[] = null;
+		/**
+		 * The cost of the best path.
+		 */
+		double bestCost = 0.0;
+		/**
+		 * The cost of the nearest neighbour path.
+		 */
+		double initialCost = 0.0;
+		/**
+		 * The number of perturbations tried.
+		 */
+		long kicks = 0;
+		/**
+		 * Random numbers for perturbations.
+		 */
+		Random random = null;
+		/**
+		 * The nodes waiting to be examined, as a circular queue.
+		 */
+		int queue[] = null;
+		/**
+		 * The head of the queue.
+		 */
+		int queueHead = 0;
+		/**
+		 * The number of nodes in the queue.
+		 */
+		int queueSize = 0;
+		/**
+		 * Whether each node is in the queue.
+		 */
+		boolean queued[] = null;
+		/**
+		 * Scratch space for moving stretches of the path.
+		 */
+		int scratch[] = null;
+
+		/**
+		 * Constructor.
+		 * @param fixed Whether the path must start at node first.
+		 * @param first The node the nearest neighbour path starts from.
+		 * @param seed The random number seed.
+		 */
+		Search(boolean fixed,int first,long seed)
+		{
+			super();
+			fixedStart = fixed;
+			firstNode = first;
+			firstPosition = fixed ? 1 : 0;
+			random = new Random(seed);
+		}
+
+		/**
+		 * Run the search.
+		 * @param deadline The System.nanoTime after which the search stops improving the path.
+		 */
+		void run(long deadline)
+		{
+			double c;
+			int n;
+
+			n = nodeCount;
+			tour = new int[n];
+			position = new int[n];
+			queue = new int[n];
+			queued = new boolean[n];
+			scratch = new int[n];
+			nearestNeighbour();
+			initialCost = pathCost();
+			for(int i = 0; i < n; i++)
+				push(tour[i]);
+			// a large list may not reach a local optimum before the deadline, the best path so far is kept
+			improve(deadline);
+			best = tour.clone();
+			bestCost = pathCost();
+			// a perturbation needs three cut points after the fixed start
+			while((n-firstPosition > 3)&&(System.nanoTime() < deadline))
+			{
+				kick();
+				kicks++;
+				improve(deadline);
+				c = pathCost();
+				if(c < bestCost-EPSILON)
+				{
+					System.arraycopy(tour,0,best,0,n);
+					bestCost = c;
+				}
+				else
+				{
+					System.arraycopy(best,0,tour,0,n);
+					for(int i = 0; i < n; i++)
+						position[tour[i]] = i;
+					clearQueue();
+				}
+			}
+		}
+
+		/**
+		 * Build a nearest neighbour path from firstNode.
+		 */
+		void nearestNeighbour()
+		{
+			boolean visited[];
+			double c,nearest;
+			int current,next,n;
+
+			n = nodeCount;
+			visited = new boolean[n];
+			current = firstNode;
+			for(int i = 0; i < n; i++)
+			{
+				tour[i] = current;
+				position[current] = i;
+				visited[current] = true;
+				// the near list is sorted, so its first unvisited node is the nearest unvisited node
+				next = -1;
+				for(int k = 0; (k < neighbours[current].length)&&(next < 0); k++)
+				{
+					if(!visited[neighbours[current][k]])
+						next = neighbours[current][k];
+				}
+				if(next < 0)
+				{
+					nearest = Double.MAX_VALUE;
+					for(int b = 0; b < n; b++)
+					{
+						if(!visited[b])
+						{
+							c = cost(current,b);
+							if(c < nearest)
+							{
+								nearest = c;
+								next = b;
+							}
+						}
+					}
+				}
+				current = next;
+			}
+		}
+
+		/**
+		 * Return the total slew time of the path.
+		 */
+		double pathCost()
+		{
+			double c;
+
+			c = 0.0;
+			for(int i = 1; i < tour.length; i++)
+				c += cost(tour[i-1],tour[i]);
+			return c;
+		}
+
+		/**
+		 * Return the node at a position, or -1 off either end of the path.
+		 */
+		int node(int p)
+		{
+			if((p < 0)||(p >= tour.length))
+				return -1;
+			return tour[p];
+		}
+
+		/**
+		 * Apply improving moves until no queued node has one, or the deadline passes.
+		 */
+		void improve(long deadline)
+		{
+			int a,count;
+
+			count = 0;
+			while(queueSize > 0)
+			{
+				if(((++count & 255) == 0)&&(System.nanoTime() >= deadline))
+					return;
+				a = pop();
+				if(twoOpt(a)||orOpt(a))
+					push(a);
+			}
+		}
+
+		/**
+		 * Try 2-opt moves that make node a adjacent to one of its near neighbours, applying the best.
+		 * @return true if a move was applied.
+		 */
+		boolean twoOpt(int a)
+		{
+			double delta,bestDelta;
+			int p,q,i,j,bestFrom,bestTo;
+
+			bestDelta = -EPSILON;
+			bestFrom = -1;
+			bestTo = -1;
+			p = position[a];
+			for(int k = 0; k < neighbours[a].length; k++)
+			{
+				q = position[neighbours[a][k]];
+				i = Math.min(p,q);
+				j = Math.max(p,q);
+				if(j-i < 2)
+					continue;
+				// reversing i+1..j makes tour[i] adjacent to tour[j], and so does reversing i..j-1
+				delta = reverseDelta(i+1,j);
+				if(delta < bestDelta)
+				{
+					bestDelta = delta;
+					bestFrom = i+1;
+					bestTo = j;
+				}
+				delta = reverseDelta(i,j-1);
+				if(delta < bestDelta)
+				{
+					bestDelta = delta;
+					bestFrom = i;
+					bestTo = j-1;
+				}
+			}
+			if(bestFrom < 0)
+				return false;
+			reverse(bestFrom,bestTo);
+			pushAround(bestFrom);
+			pushAround(bestTo);
+			return true;
+		}
+
+		/**
+		 * Return the change in cost from reversing positions i..j, or +infinity if the move would move the
+		 * fixed start.
+		 */
+		double reverseDelta(int i,int j)
+		{
+			int before,after;
+
+			if(i < firstPosition)
+				return Double.POSITIVE_INFINITY;
+			before = node(i-1);
+			after = node(j+1);
+			return (cost(before,tour[j])+cost(tour[i],after))-(cost(before,tour[i])+cost(tour[j],after));
+		}
+
+		/**
+		 * Reverse positions i..j of the path.
+		 */
+		void reverse(int i,int j)
+		{
+			int t;
+
+			while(i < j)
+			{
+				t = tour[i];
+				tour[i] = tour[j];
+				tour[j] = t;
+				position[tour[i]] = i;
+				position[tour[j]] = j;
+				i++;
+				j--;
+			}
+			if(i == j)
+				position[tour[i]] = i;
+		}
+
+		/**
+		 * Try Or-opt moves of stretches starting or ending at node a to next to one of a's near neighbours,
+		 * applying the best.
+		 * @return true if a move was applied.
+		 */
+		boolean orOpt(int a)
+		{
+			double removeGain,delta,bestDelta,forward,backward,gapCost;
+			boolean bestReversed;
+			int p,s,e,q,gap,x,y,u,v,bestS,bestE,bestGap,n;
+
+			n = tour.length;
+			p = position[a];
+			bestDelta = -EPSILON;
+			bestS = -1;
+			bestE = -1;
+			bestGap = -1;
+			bestReversed = false;
+			for(int length = 1; length <= MAX_OR_OPT_LENGTH; length++)
+			{
+				for(int end = 0; end < 2; end++)
+				{
+					if((length == 1)&&(end == 1))
+						continue;
+					s = (end == 0) ? p : p-length+1;
+					e = s+length-1;
+					if((s < firstPosition)||(e >= n))
+						continue;
+					u = tour[s];
+					v = tour[e];
+					removeGain = (cost(node(s-1),u)+cost(v,node(e+1)))-cost(node(s-1),node(e+1));
+					for(int k = 0; k < neighbours[a].length; k++)
+					{
+						q = position[neighbours[a][k]];
+						if((q >= s)&&(q <= e))
+							continue;
+						// the gaps either side of the neighbour: gap g is between positions g-1 and g
+						for(gap = q; gap <= q+1; gap++)
+						{
+							if((gap == s)||(gap == e+1)||(gap < firstPosition))
+								continue;
+							x = node(gap-1);
+							y = node(gap);
+							gapCost = cost(x,y);
+							forward = (cost(x,u)+cost(v,y))-gapCost;
+							backward = (cost(x,v)+cost(u,y))-gapCost;
+							delta = Math.min(forward,backward)-removeGain;
+							if(delta < bestDelta)
+							{
+								bestDelta = delta;
+								bestS = s;
+								bestE = e;
+								bestGap = gap;
+								bestReversed = (backward < forward);
+							}
+						}
+					}
+				}
+			}
+			if(bestS < 0)
+				return false;
+			push(node(bestS-1));
+			push(node(bestE+1));
+			push(node(bestGap-1));
+			push(node(bestGap));
+			moveStretch(bestS,bestE,bestGap,bestReversed);
+			return true;
+		}
+
+		/**
+		 * Move positions s..e of the path to gap g (between positions g-1 and g), optionally reversed.
+		 */
+		void moveStretch(int s,int e,int g,boolean reversed)
+		{
+			int length,from,to;
+
+			length = e-s+1;
+			for(int i = 0; i < length; i++)
+				scratch[i] = tour[reversed ? e-i : s+i];
+			if(g < s)
+			{
+				System.arraycopy(tour,g,tour,g+length,s-g);
+				System.arraycopy(scratch,0,tour,g,length);
+				from = g;
+				to = e;
+			}
+			else
+			{
+				System.arraycopy(tour,e+1,tour,s,g-e-1);
+				System.arraycopy(scratch,0,tour,g-length,length);
+				from = s;
+				to = g-1;
+			}
+			for(int i = from; i <= to; i++)
+				position[tour[i]] = i;
+			pushAround(from);
+			pushAround(to);
+		}
+
+		/**
+		 * Perturb the path by swapping two adjacent stretches: A B C D becomes A C B D.
+		 */
+		void kick()
+		{
+			int n,i,j,k,length;
+
+			n = tour.length;
+			// three distinct cut points in firstPosition+1..n
+			do
+			{
+				i = firstPosition+1+random.nextInt(n-firstPosition);
+				j = firstPosition+1+random.nextInt(n-firstPosition);
+				k = firstPosition+1+random.nextInt(n-firstPosition);
+			}
+			while((i == j)||(j == k)||(i == k));
+			if(i > j) { length = i; i = j; j = length; }
+			if(j > k) { length = j; j = k; k = length; }
+			if(i > j) { length = i; i = j; j = length; }
+			// B is i..j-1, C is j..k-1
+			System.arraycopy(tour,j,scratch,0,k-j);
+			System.arraycopy(tour,i,scratch,k-j,j-i);
+			System.arraycopy(scratch,0,tour,i,k-i);
+			for(int p = i; p < k; p++)
+				position[tour[p]] = p;
+			pushAround(i);
+			pushAround(i+(k-j));
+			pushAround(k-1);
+		}
+
+		/**
+		 * Queue the nodes at and either side of a position.
+		 */
+		void pushAround(int p)
+		{
+			push(node(p-1));
+			push(node(p));
+			push(node(p+1));
+		}
+
+		/**
+		 * Queue a node for examination, unless it is already queued or is -1.
+		 */
+		void push(int a)
+		{
+			if((a < 0)||queued[a])
+				return;
+			queue[(queueHead+queueSize) % queue.length] = a;
+			queueSize++;
+			queued[a] = true;
+		}
+
+		/**
+		 * Take the next node off the queue.
+		 */
+		int pop()
+		{
+			int a;
+
+			a = queue[queueHead];
+			queueHead = (queueHead+1) % queue.length;
+			queueSize--;
+			queued[a] = false;
+			return a;
+		}
+
+		/**
+		 * Empty the queue.
+		 */
+		void clearQueue()
+		{
+			while(queueSize > 0)
+				pop();
+		}
+	};
+
+	public String toString()
+	{
+		return new String(this.getClass().getName()+":timeLimit="+timeLimit+":parallel="+parallel+
+				  ":model="+model);
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,444 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SolarSystemAvoidanceFilter.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class rejects targets that are too close to the Sun, Moon or planets, for whole target arrays over a
+ * grid of times. Each body has its own minimum separation (0 to ignore the body). The body positions for the
+ * time grid are computed once per call (and cached across calls by the ephemeris), then each target is
+ * compared against every body at every time with a dot product against the cosine of the limit, so no
+ * trigonometry is done per target/body pair. Targets are processed in parallel chunks.
+ * <p>
+ * Body positions are geocentric, so the Moon may appear up to a degree away from where an observer sees it:
+ * the Moon's limit should include that margin.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SolarSystemEphemeris
+ */
+public class SolarSystemAvoidanceFilter
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The violation value of a target that is clear of every body.
+	 */
+	public final static byte NONE = -1;
+	/**
+	 * The default minimum separations, in degrees, indexed by body. The Sun is ignored, as daylight and
+	 * twilight limits are applied elsewhere, as are Uranus and Neptune.
+	 */
+	public final static double DEFAULT_MINIMUM_SEPARATIONS[] = {0.0,30.0,1.0,3.0,1.0,2.0,1.0,0.0,0.0};
+	/**
+	 * The minimum number of targets in a parallel chunk.
+	 */
+	private final static int MIN_CHUNK = 1024;
+	/**
+	 * The minimum number of times in a parallel chunk of body positions.
+	 */
+	private final static int MIN_TIME_CHUNK = 16;
+	/**
+	 * The ephemeris the body positions come from.
+	 */
+	protected SolarSystemEphemeris ephemeris = null;
+	/**
+	 * The minimum separation from each body, in degrees, or 0 to ignore the body.
+	 */
+	protected double minimumSeparations[] = null;
+	/**
+	 * Whether to filter in parallel.
+	 */
+	protected boolean parallel = true;
+
+	/**
+	 * Default constructor, using a new ephemeris and the default minimum separations.
+	 */
+	public SolarSystemAvoidanceFilter()
+	{
+		this(new SolarSystemEphemeris());
+	}
+
+	/**
+	 * Constructor, using the default minimum separations.
+	 * @param e The ephemeris, which may be shared with other filters so they share its cache.
+	 */
+	public SolarSystemAvoidanceFilter(SolarSystemEphemeris e)
+	{
+		super();
+		ephemeris = e;
+		minimumSeparations = DEFAULT_MINIMUM_SEPARATIONS.clone();
+	}
+
+	/**
+	 * Set the minimum separation from a body.
+	 * @param body The body index, SolarSystemEphemeris.SUN..NEPTUNE.
+	 * @param degrees The separation, in degrees, or 0 to ignore the body.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal, or degrees is out of range.
+	 */
+	public void setMinimumSeparation(int body,double degrees) throws IllegalArgumentException
+	{
+		checkBody("setMinimumSeparation",body);
+		if((degrees < 0.0)||(degrees > 180.0)||Double.isNaN(degrees))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":setMinimumSeparation:Illegal separation:"+degrees+
+							   ": Must be 0..180.");
+		}
+		minimumSeparations[body] = degrees;
+	}
+
+	/**
+	 * Return the minimum separation from a body.
+	 * @param body The body index, SolarSystemEphemeris.SUN..NEPTUNE.
+	 * @return The separation, in degrees, or 0 if the body is ignored.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal.
+	 */
+	public double getMinimumSeparation(int body) throws IllegalArgumentException
+	{
+		checkBody("getMinimumSeparation",body);
+		return minimumSeparations[body];
+	}
+
+	/**
+	 * Set whether to filter in parallel.
+	 */
+	public void setParallel(boolean b)
+	{
+		parallel = b;
+	}
+
+	/**
+	 * Return the ephemeris the body positions come from.
+	 */
+	public SolarSystemEphemeris getEphemeris()
+	{
+		return ephemeris;
+	}
+
+	/**
+	 * Find which targets are too close to a body at each time.
+	 * @param raRadians The target right ascensions, in radians.
+	 * @param decRadians The target declinations, in radians.
+	 * @param count The number of targets.
+	 * @param jd The Julian dates of the time grid.
+	 * @param times The number of times.
+	 * @param violation An array of at least count*times elements. Element (t*count)+i is set to the first body
+	 *        (in body index order) target i is too close to at time t, or NONE.
+	 * @return The number of target/time pairs that are clear of every body.
+	 * @exception IllegalArgumentException Thrown if a count is negative or an array is too short.
+	 */
+	public int filter(final double raRadians[],final double decRadians[],final int count,double jd[],int times,
+			  final byte violation[]) throws IllegalArgumentException
+	{
+		final BodyGrid grid;
+		int clear;
+
+		checkTargets("filter",raRadians,decRadians,count,jd,times);
+		checkResult("filter",count,times,violation.length);
+		grid = new BodyGrid(jd,times);
+		run(count,(from,to) ->
+		{
+			double x,y,z,cosDec;
+			int b;
+
+			for(int i = from; i < to; i++)
+			{
+				cosDec = Math.cos(decRadians[i]);
+				x = cosDec*Math.cos(raRadians[i]);
+				y = cosDec*Math.sin(raRadians[i]);
+				z = Math.sin(decRadians[i]);
+				for(int t = 0; t < grid.times; t++)
+				{
+					b = grid.closeBody(t,x,y,z);
+					violation[(t*count)+i] = (b < 0) ? NONE : (byte)b;
+				}
+			}
+		});
+		clear = 0;
+		for(int j = 0; j < count*times; j++)
+		{
+			if(violation[j] == NONE)
+				clear++;
+		}
+		return clear;
+	}
+
+	/**
+	 * Find which targets are clear of every body at every time.
+	 * @param raRadians The target right ascensions, in radians.
+	 * @param decRadians The target declinations, in radians.
+	 * @param count The number of targets.
+	 * @param jd The Julian dates of the time grid.
+	 * @param times The number of times.
+	 * @param clear An array of at least count elements, set to whether each target is clear at every time.
+	 * @return The number of targets that are clear at every time.
+	 * @exception IllegalArgumentException Thrown if a count is negative or an array is too short.
+	 */
+	public int filterAllTimes(final double raRadians[],final double decRadians[],int count,double jd[],int times,
+				  final boolean clear[]) throws IllegalArgumentException
+	{
+		final BodyGrid grid;
+		int clearCount;
+
+		checkTargets("filterAllTimes",raRadians,decRadians,count,jd,times);
+		checkResult("filterAllTimes",count,1,clear.length);
+		grid = new BodyGrid(jd,times);
+		run(count,(from,to) ->
+		{
+			double x,y,z,cosDec;
+			boolean ok;
+
+			for(int i = from; i < to; i++)
+			{
+				cosDec = Math.cos(decRadians[i]);
+				x = cosDec*Math.cos(raRadians[i]);
+				y = cosDec*Math.sin(raRadians[i]);
+				z = Math.sin(decRadians[i]);
+				ok = true;
+				for(int t = 0; ok && (t < grid.times); t++)
+					ok = (grid.closeBody(t,x,y,z) < 0);
+				clear[i] = ok;
+			}
+		});
+		clearCount = 0;
+		for(int i = 0; i < count; i++)
+		{
+			if(clear[i])
+				clearCount++;
+		}
+		return clearCount;
+	}
+
+	/**
+	 * Return the objects in a list that are clear of every body at every time.
+	 * @param list The objects.
+	 * @param jd The Julian dates of the time grid.
+	 * @return A new list of the clear objects, in their original order.
+	 */
+	public List<CelestialObject> filter(List<CelestialObject> list,double jd[])
+	{
+		List<CelestialObject> result = null;
+		CelestialObject co = null;
+		double ra[] = null;
+		double dec[] = null;
+		boolean clear[] = null;
+		int n;
+
+		n = list.size();
+		ra = new double[n];
+		dec = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			co = list.get(i);
+			ra[i] = co.getRA().toRadians();
+			dec[i] = co.getDec().toRadians();
+		}
+		clear = new boolean[n];
+		result = new ArrayList<CelestialObject>(filterAllTimes(ra,dec,n,jd,jd.length,clear));
+		for(int i = 0; i < n; i++)
+		{
+			if(clear[i])
+				result.add(list.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Compute the separation of every target from one body at each time. The body's minimum separation is not
+	 * used, so this works for ignored bodies too.
+	 * @param raRadians The target right ascensions, in radians.
+	 * @param decRadians The target declinations, in radians.
+	 * @param count The number of targets.
+	 * @param jd The Julian dates of the time grid.
+	 * @param times The number of times.
+	 * @param body The body index, SolarSystemEphemeris.SUN..NEPTUNE.
+	 * @param separations An array of at least count*times elements. Element (t*count)+i is set to the
+	 *        separation of target i from the body at time t, in degrees.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal, a count is negative or an array
+	 *            is too short.
+	 */
+	public void separations(final double raRadians[],final double decRadians[],final int count,double jd[],
+				final int times,int body,final double separations[]) throws IllegalArgumentException
+	{
+		final double positions[];
+
+		checkBody("separations",body);
+		checkTargets("separations",raRadians,decRadians,count,jd,times);
+		checkResult("separations",count,times,separations.length);
+		positions = new double[3*times];
+		for(int t = 0; t < times; t++)
+			ephemeris.getPosition(body,jd[t],positions,3*t);
+		run(count,(from,to) ->
+		{
+			double x,y,z,cosDec;
+
+			for(int i = from; i < to; i++)
+			{
+				cosDec = Math.cos(decRadians[i]);
+				x = cosDec*Math.cos(raRadians[i]);
+				y = cosDec*Math.sin(raRadians[i]);
+				z = Math.sin(decRadians[i]);
+				for(int t = 0; t < times; t++)
+				{
+					separations[(t*count)+i] = Math.toDegrees(SphericalGeometry.separation(x,y,z,
+								positions[3*t],positions[(3*t)+1],positions[(3*t)+2]));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run a loop over the targets, in parallel chunks or all at once.
+	 */
+	private void run(int n,ParallelChunks.Task task)
+	{
+		if(parallel)
+			ParallelChunks.forEach(n,MIN_CHUNK,task);
+		else
+			task.run(0,n);
+	}
+
+	/**
+	 * Check the target and time arguments.
+	 */
+	private void checkTargets(String method,double raRadians[],double decRadians[],int count,double jd[],
+				  int times) throws IllegalArgumentException
+	{
+		if((count < 0)||(count > raRadians.length)||(count > decRadians.length))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":"+method+":Illegal count:"+count+
+							   ": Must be positive and no more than the array lengths.");
+		}
+		if((times < 0)||(times > jd.length))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":"+method+":Illegal times:"+times+
+							   ": Must be positive and no more than "+jd.length+".");
+		}
+	}
+
+	/**
+	 * Check a result array can hold count*times elements.
+	 */
+	private void checkResult(String method,int count,int times,int length) throws IllegalArgumentException
+	{
+		if(((long)count)*times > length)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":"+method+":Illegal result length:"+
+							   length+": Must be at least "+(((long)count)*times)+".");
+		}
+	}
+
+	/**
+	 * Check a body index.
+	 */
+	private void checkBody(String method,int body) throws IllegalArgumentException
+	{
+		if((body < 0)||(body >= SolarSystemEphemeris.BODY_COUNT))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":"+method+":Illegal body:"+body+
+							   ": Must be 0.."+(SolarSystemEphemeris.BODY_COUNT-1)+".");
+		}
+	}
+
+	/**
+	 * The positions of the bodies that are not ignored, over a time grid, with the cosines of their limits.
+	 */
+	private class BodyGrid
+	{
+		/**
+		 * The number of times.
+		 */
+		final int times;
+		/**
+		 * The indices of the bodies that are not ignored.
+		 */
+		final int bodies[];
+		/**
+		 * The cosine of each body's minimum separation.
+		 */
+		final double cosLimits[];
+		/**
+		 * The unit vector of each body at each time, x y z for the bodies at time 0 then at time 1 and so on.
+		 */
+		final double positions[];
+
+		/**
+		 * Constructor, looking up the body positions in parallel over the times.
+		 */
+		BodyGrid(final double jd[],int t)
+		{
+			int k;
+
+			times = t;
+			k = 0;
+			for(int b = 0; b < SolarSystemEphemeris.BODY_COUNT; b++)
+			{
+				if(minimumSeparations[b] > 0.0)
+					k++;
+			}
+			bodies = new int[k];
+			cosLimits = new double[k];
+			k = 0;
+			for(int b = 0; b < SolarSystemEphemeris.BODY_COUNT; b++)
+			{
+				if(minimumSeparations[b] > 0.0)
+				{
+					bodies[k] = b;
+					cosLimits[k] = Math.cos(Math.toRadians(minimumSeparations[b]));
+					k++;
+				}
+			}
+			positions = new double[3*times*bodies.length];
+			ParallelChunks.forEach(times,parallel ? MIN_TIME_CHUNK : Integer.MAX_VALUE,(from,to) ->
+			{
+				for(int i = from; i < to; i++)
+				{
+					for(int j = 0; j < bodies.length; j++)
+						ephemeris.getPosition(bodies[j],jd[i],positions,3*((i*bodies.length)+j));
+				}
+			});
+		}
+
+		/**
+		 * Return the first body a unit vector is too close to at a time, or -1.
+		 */
+		int closeBody(int t,double x,double y,double z)
+		{
+			int p;
+
+			p = 3*t*bodies.length;
+			for(int j = 0; j < bodies.length; j++,p += 3)
+			{
+				// a target exactly at the limit is too close
+				if((x*positions[p])+(y*positions[p+1])+(z*positions[p+2]) >= cosLimits[j])
+					return bodies[j];
+			}
+			return -1;
+		}
+	};
+};
+//
+// $Log$
+//
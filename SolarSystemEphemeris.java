@@ -0,0 +1,452 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SolarSystemEphemeris.java
+package org.estar.astrometry;
+
+import java.lang.*;
+import java.util.*;
+
+/**
+ * This class computes low precision geocentric positions of the Sun, Moon and planets, from analytic series
+ * that need no data files or network access. Positions are unit vectors (or right ascension and declination)
+ * in the J2000 equatorial frame used by the rest of the package.
+ * <ul>
+ * <li>The planets (and the Earth, and so the Sun) use the mean Keplerian elements and rates of Standish's
+ *     "Approximate Positions of the Planets" for 1800-2050, good to an arc-minute or so in that range
+ *     (Mars to a few arc-minutes). Light time and aberration are ignored.
+ * <li>The Moon uses the low precision series of the Astronomical Almanac, good to about 0.3 degrees,
+ *     with its equinox of date moved to J2000 by the general precession in longitude.
+ * </ul>
+ * Positions are geocentric: the Moon's parallax moves it up to a degree against the stars for an observer on
+ * the Earth's surface. Times are Julian dates; the difference between TT and UTC (about a minute) is well
+ * below the precision of the series.
+ * <p>
+ * An instance keeps a cache of recent positions for each body, so many queries at the same few epochs (for
+ * instance a filter run over target lists with a shared time grid) compute each position once. The static
+ * position method does not cache. The cache is safe to use from many threads.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SolarSystemAvoidanceFilter
+ */
+public class SolarSystemEphemeris
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Body index of the Sun.
+	 */
+	public final static int SUN = 0;
+	/**
+	 * Body index of the Moon.
+	 */
+	public final static int MOON = 1;
+	/**
+	 * Body index of Mercury.
+	 */
+	public final static int MERCURY = 2;
+	/**
+	 * Body index of Venus.
+	 */
+	public final static int VENUS = 3;
+	/**
+	 * Body index of Mars.
+	 */
+	public final static int MARS = 4;
+	/**
+	 * Body index of Jupiter.
+	 */
+	public final static int JUPITER = 5;
+	/**
+	 * Body index of Saturn.
+	 */
+	public final static int SATURN = 6;
+	/**
+	 * Body index of Uranus.
+	 */
+	public final static int URANUS = 7;
+	/**
+	 * Body index of Neptune.
+	 */
+	public final static int NEPTUNE = 8;
+	/**
+	 * The number of bodies.
+	 */
+	public final static int BODY_COUNT = 9;
+	/**
+	 * The body names, indexed by body.
+	 */
+	public final static String BODY_NAMES[] = {"Sun","Moon","Mercury","Venus","Mars","Jupiter","Saturn",
+						   "Uranus","Neptune"};
+	/**
+	 * The Julian date of the J2000 epoch, 2000 January 1 12h.
+	 */
+	public final static double J2000 = 2451545.0;
+	/**
+	 * The Julian date of the Unix epoch, 1970 January 1 0h.
+	 */
+	public final static double UNIX_EPOCH = 2440587.5;
+	/**
+	 * The default number of positions cached per body.
+	 */
+	public final static int DEFAULT_CACHE_SIZE = 1024;
+	/**
+	 * The obliquity of the ecliptic at J2000, in radians.
+	 */
+	private final static double OBLIQUITY = Math.toRadians(23.43928);
+	/**
+	 * The general precession in longitude, in degrees per Julian century.
+	 */
+	private final static double PRECESSION = 1.396971;
+	/**
+	 * The index of the Earth-Moon barycentre in ELEMENTS.
+	 */
+	private final static int EARTH = 2;
+	/**
+	 * Mean elements of Mercury, Venus, the Earth-Moon barycentre, Mars, Jupiter, Saturn, Uranus and Neptune
+	 * on the J2000 ecliptic and equinox: semi-major axis (AU), eccentricity, inclination, mean longitude,
+	 * longitude of perihelion and longitude of the ascending node (degrees), each followed by its rate per
+	 * Julian century.
+	 */
+	private final static double ELEMENTS[][] =
+	{
+		{0.38709927,0.00000037,0.20563593,0.00001906,7.00497902,-0.00594749,
+		 252.25032350,149472.67411175,77.45779628,0.16047689,48.33076593,-0.12534081},
+		{0.72333566,0.00000390,0.00677672,-0.00004107,3.39467605,-0.00078890,
+		 181.97909950,58517.81538729,131.60246718,0.00268329,76.67984255,-0.27769418},
+		{1.00000261,0.00000562,0.01671123,-0.00004392,-0.00001531,-0.01294668,
+		 100.46457166,35999.37244981,102.93768193,0.32327364,0.0,0.0},
+		{1.52371034,0.00001847,0.09339410,0.00007882,1.84969142,-0.00813131,
+		 -4.55343205,19140.30268499,-23.94362959,0.44441088,49.55953891,-0.29257343},
+		{5.20288700,-0.00011607,0.04838624,-0.00013253,1.30439695,-0.00183714,
+		 34.39644051,3034.74612775,14.72847983,0.21252668,100.47390909,0.20469106},
+		{9.53667594,-0.00125060,0.05386179,-0.00050991,2.48599187,0.00193609,
+		 49.95424423,1222.49362201,92.59887831,-0.41897216,113.66242448,-0.28867794},
+		{19.18916464,-0.00196176,0.04725744,-0.00004397,0.77263783,-0.00242939,
+		 313.23810451,428.48202785,170.95427630,0.40805281,74.01692503,0.04240589},
+		{30.06992276,0.00026291,0.00859048,0.00005105,1.77004347,0.00035372,
+		 -55.12002969,218.45945325,44.96476227,-0.32241464,131.78422574,-0.01262724}
+	};
+	/**
+	 * The position cache of each body, mapping Julian date to unit vector, least recently used first.
+	 */
+	protected List<LinkedHashMap<Double,double[]>> caches = null;
+	/**
+	 * The number of positions cached per body.
+	 */
+	protected int cacheSize = DEFAULT_CACHE_SIZE;
+
+	/**
+	 * Default constructor.
+	 */
+	public SolarSystemEphemeris()
+	{
+		super();
+		caches = new ArrayList<LinkedHashMap<Double,double[]>>(BODY_COUNT);
+		for(int b = 0; b < BODY_COUNT; b++)
+		{
+			caches.add(new LinkedHashMap<Double,double[]>(16,0.75f,true)
+			{
+				protected boolean removeEldestEntry(Map.Entry<Double,double[]> eldest)
+				{
+					return size() > cacheSize;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Set the number of positions cached per body. A smaller size takes effect as new positions are cached.
+	 * @param n The number of positions, 0 to disable caching.
+	 * @exception IllegalArgumentException Thrown if n is negative.
+	 */
+	public void setCacheSize(int n) throws IllegalArgumentException
+	{
+		if(n < 0)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCacheSize:Illegal size:"+n+
+							   ": Must be 0 or more.");
+		}
+		cacheSize = n;
+	}
+
+	/**
+	 * Return the number of positions cached per body.
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * Remove every cached position.
+	 */
+	public void clearCache()
+	{
+		for(int b = 0; b < BODY_COUNT; b++)
+		{
+			synchronized(caches.get(b))
+			{
+				caches.get(b).clear();
+			}
+		}
+	}
+
+	/**
+	 * Return the position of a body, from the cache if it is there.
+	 * @param body The body index, SUN..NEPTUNE.
+	 * @param jd The Julian date.
+	 * @param v An array to put the geocentric J2000 unit vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal.
+	 */
+	public void getPosition(int body,double jd,double v[],int offset) throws IllegalArgumentException
+	{
+		LinkedHashMap<Double,double[]> cache = null;
+		Double key = null;
+		double p[] = null;
+
+		checkBody("getPosition",body);
+		cache = caches.get(body);
+		key = Double.valueOf(jd);
+		synchronized(cache)
+		{
+			p = cache.get(key);
+		}
+		if(p == null)
+		{
+			// computed outside the lock, two threads may both compute a position, which is harmless
+			p = new double[3];
+			position(body,jd,p,0);
+			if(cacheSize > 0)
+			{
+				synchronized(cache)
+				{
+					cache.put(key,p);
+				}
+			}
+		}
+		v[offset] = p[0];
+		v[offset+1] = p[1];
+		v[offset+2] = p[2];
+	}
+
+	/**
+	 * Return the position of a body as a CelestialObject, named after the body.
+	 * @param body The body index, SUN..NEPTUNE.
+	 * @param jd The Julian date.
+	 * @return A new object holding the geocentric J2000 right ascension and declination.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal.
+	 */
+	public CelestialObject getCelestialObject(int body,double jd) throws IllegalArgumentException
+	{
+		CelestialObject co = null;
+		RA ra = null;
+		Dec dec = null;
+		double v[] = new double[3];
+
+		getPosition(body,jd,v,0);
+		ra = new RA();
+		ra.fromRadians(SphericalGeometry.toRARadians(v[0],v[1],v[2]));
+		dec = new Dec();
+		dec.fromRadians(SphericalGeometry.toDecRadians(v[0],v[1],v[2]));
+		co = new CelestialObject();
+		co.setName(BODY_NAMES[body]);
+		co.setRA(ra);
+		co.setDec(dec);
+		return co;
+	}
+
+	/**
+	 * Compute the position of a body, without caching.
+	 * @param body The body index, SUN..NEPTUNE.
+	 * @param jd The Julian date.
+	 * @param v An array to put the geocentric J2000 unit vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 * @exception IllegalArgumentException Thrown if the body index is illegal.
+	 */
+	public static void position(int body,double jd,double v[],int offset) throws IllegalArgumentException
+	{
+		double earth[] = new double[3];
+		double planet[] = new double[3];
+		double t,x,y,z,r;
+
+		checkBody("position",body);
+		t = (jd-J2000)/36525.0;
+		if(body == MOON)
+		{
+			moon(t,v,offset);
+			return;
+		}
+		heliocentric(EARTH,t,earth);
+		if(body == SUN)
+		{
+			x = -earth[0];
+			y = -earth[1];
+			z = -earth[2];
+		}
+		else
+		{
+			// ELEMENTS starts at Mercury, with the Earth-Moon barycentre between Venus and Mars
+			heliocentric((body < MARS) ? body-MERCURY : body-MERCURY+1,t,planet);
+			x = planet[0]-earth[0];
+			y = planet[1]-earth[1];
+			z = planet[2]-earth[2];
+		}
+		r = Math.sqrt((x*x)+(y*y)+(z*z));
+		eclipticToEquatorial(x/r,y/r,z/r,v,offset);
+	}
+
+	/**
+	 * Return the Julian date of a time.
+	 * @param d The time.
+	 * @return The Julian date.
+	 */
+	public static double julianDate(Date d)
+	{
+		return julianDate(d.getTime());
+	}
+
+	/**
+	 * Return the Julian date of a time.
+	 * @param millis The time, in milliseconds since the Unix epoch.
+	 * @return The Julian date.
+	 */
+	public static double julianDate(long millis)
+	{
+		return UNIX_EPOCH+(millis/86400000.0);
+	}
+
+	/**
+	 * Compute a heliocentric J2000 ecliptic position from the mean elements.
+	 * @param planet The index into ELEMENTS.
+	 * @param t Julian centuries since J2000.
+	 * @param p An array to put the position into, in AU.
+	 */
+	private static void heliocentric(int planet,double t,double p[])
+	{
+		double e[] = ELEMENTS[planet];
+		double a,ecc,inc,l,peri,node,m,ea,dea,w,xp,yp;
+		double cw,sw,cn,sn,ci,si;
+
+		a = e[0]+(e[1]*t);
+		ecc = e[2]+(e[3]*t);
+		inc = Math.toRadians(e[4]+(e[5]*t));
+		l = e[6]+(e[7]*t);
+		peri = e[8]+(e[9]*t);
+		node = Math.toRadians(e[10]+(e[11]*t));
+		w = Math.toRadians(peri)-node;
+		m = Math.toRadians(normalise(l-peri));
+		// Kepler's equation by Newton's method, converging in a few steps for planetary eccentricities
+		ea = m+(ecc*Math.sin(m));
+		for(int i = 0; i < 10; i++)
+		{
+			dea = (m-(ea-(ecc*Math.sin(ea))))/(1.0-(ecc*Math.cos(ea)));
+			ea += dea;
+			if(Math.abs(dea) < 1e-12)
+				break;
+		}
+		xp = a*(Math.cos(ea)-ecc);
+		yp = a*Math.sqrt(1.0-(ecc*ecc))*Math.sin(ea);
+		cw = Math.cos(w);
+		sw = Math.sin(w);
+		cn = Math.cos(node);
+		sn = Math.sin(node);
+		ci = Math.cos(inc);
+		si = Math.sin(inc);
+		p[0] = (((cw*cn)-(sw*sn*ci))*xp)+(((-sw*cn)-(cw*sn*ci))*yp);
+		p[1] = (((cw*sn)+(sw*cn*ci))*xp)+(((-sw*sn)+(cw*cn*ci))*yp);
+		p[2] = (sw*si*xp)+(cw*si*yp);
+	}
+
+	/**
+	 * Compute the geocentric J2000 direction of the Moon.
+	 * @param t Julian centuries since J2000.
+	 * @param v An array to put the unit vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	private static void moon(double t,double v[],int offset)
+	{
+		double lambda,beta;
+
+		lambda = 218.32+(481267.881*t)+
+			(6.29*sinDegrees(135.0+(477198.87*t)))-(1.27*sinDegrees(259.3-(413335.36*t)))+
+			(0.66*sinDegrees(235.7+(890534.22*t)))+(0.21*sinDegrees(269.9+(954397.74*t)))-
+			(0.19*sinDegrees(357.5+(35999.05*t)))-(0.11*sinDegrees(186.5+(966404.03*t)));
+		beta = (5.13*sinDegrees(93.3+(483202.02*t)))+(0.28*sinDegrees(228.2+(960400.89*t)))-
+			(0.28*sinDegrees(318.3+(6003.15*t)))-(0.17*sinDegrees(217.6-(407332.21*t)));
+		// the series is on the equinox of date
+		lambda = Math.toRadians(normalise(lambda-(PRECESSION*t)));
+		beta = Math.toRadians(beta);
+		eclipticToEquatorial(Math.cos(beta)*Math.cos(lambda),Math.cos(beta)*Math.sin(lambda),Math.sin(beta),
+				     v,offset);
+	}
+
+	/**
+	 * Rotate a J2000 ecliptic vector into the J2000 equatorial frame.
+	 */
+	private static void eclipticToEquatorial(double x,double y,double z,double v[],int offset)
+	{
+		double c,s;
+
+		c = Math.cos(OBLIQUITY);
+		s = Math.sin(OBLIQUITY);
+		v[offset] = x;
+		v[offset+1] = (c*y)-(s*z);
+		v[offset+2] = (s*y)+(c*z);
+	}
+
+	/**
+	 * Return the sine of an angle in degrees.
+	 */
+	private static double sinDegrees(double degrees)
+	{
+		return Math.sin(Math.toRadians(normalise(degrees)));
+	}
+
+	/**
+	 * Reduce an angle in degrees to the range -180..180.
+	 */
+	private static double normalise(double degrees)
+	{
+		degrees = degrees % 360.0;
+		if(degrees > 180.0)
+			degrees -= 360.0;
+		else if(degrees < -180.0)
+			degrees += 360.0;
+		return degrees;
+	}
+
+	/**
+	 * Check a body index.
+	 */
+	private static void checkBody(String method,int body) throws IllegalArgumentException
+	{
+		if((body < 0)||(body >= BODY_COUNT))
+		{
+			throw new IllegalArgumentException("SolarSystemEphemeris:"+method+":Illegal body:"+body+
+							   ": Must be 0.."+(BODY_COUNT-1)+".");
+		}
+	}
+};
+//
+// $Log$
+//
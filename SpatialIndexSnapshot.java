@@ -0,0 +1,699 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SpatialIndexSnapshot.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * This class reads and writes snapshot files of spatial indices, so a process can map an index back in at
+ * start up rather than rebuilding it from the catalogue. A snapshot is a versioned binary file:
+ * <ul>
+ * <li>A 96 byte header: magic number, version, the kind of index, the number of sections, the fingerprint of
+ *     the catalogue the index was built from, eight index parameters (order, size and so on), and a CRC-32C
+ *     of the header and section table.
+ * <li>A section table, 32 bytes per section: element type, CRC-32C of the section's bytes, element count and
+ *     file offset.
+ * <li>The sections: the index's primitive arrays (pixel keys, permutations, unit vectors), little endian,
+ *     each starting on an 8 byte boundary.
+ * </ul>
+ * Opening a snapshot memory maps it, checks the header, kind, version and fingerprint, and verifies every
+ * section's checksum (in parallel) before any array is copied out. A snapshot that fails any check is
+ * rejected with an IOException, and the caller should rebuild the index and save a new one.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see CelestialObjectFootprintIndex#loadSnapshot
+ * @see CelestialObjectKDTree#loadSnapshot
+ */
+public class SpatialIndexSnapshot
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * The file magic number, "SIS1".
+	 */
+	public final static int MAGIC = 0x53495331;
+	/**
+	 * The file version.
+	 */
+	public final static int VERSION = 1;
+	/**
+	 * Kind of index: CelestialObjectFootprintIndex.
+	 */
+	public final static int KIND_FOOTPRINT_INDEX = 1;
+	/**
+	 * Kind of index: CelestialObjectKDTree.
+	 */
+	public final static int KIND_KD_TREE = 2;
+	/**
+	 * The number of index parameters in the header.
+	 */
+	public final static int PARAMETER_COUNT = 8;
+	/**
+	 * Section element type: long.
+	 */
+	public final static int TYPE_LONG = 1;
+	/**
+	 * Section element type: int.
+	 */
+	public final static int TYPE_INT = 2;
+	/**
+	 * Section element type: double.
+	 */
+	public final static int TYPE_DOUBLE = 3;
+	/**
+	 * Section element type: byte.
+	 */
+	public final static int TYPE_BYTE = 4;
+	/**
+	 * The size of the header.
+	 */
+	private final static int HEADER_BYTES = 96;
+	/**
+	 * The size of a section table entry.
+	 */
+	private final static int SECTION_ENTRY_BYTES = 32;
+	/**
+	 * The largest number of bytes mapped in one buffer.
+	 */
+	private final static long MAX_MAP_BYTES = 1L << 30;
+	/**
+	 * The size of the buffer used to write sections.
+	 */
+	private final static int WRITE_BUFFER = 1 << 20;
+	/**
+	 * The number of catalogue rows hashed as one block by fingerprint. Fixed, so the fingerprint does not
+	 * depend on how many processors there are.
+	 */
+	private final static int FINGERPRINT_BLOCK = 65536;
+	/**
+	 * The snapshot file.
+	 */
+	protected File file = null;
+	/**
+	 * The kind of index.
+	 */
+	protected int kind = 0;
+	/**
+	 * The catalogue fingerprint.
+	 */
+	protected long fingerprint = 0;
+	/**
+	 * The index parameters.
+	 */
+	protected long parameter[] = null;
+	/**
+	 * The element type of each section.
+	 */
+	protected int sectionType[] = null;
+	/**
+	 * The element count of each section.
+	 */
+	protected long sectionCount[] = null;
+	/**
+	 * The mapped bytes of each section, in chunks of at most MAX_MAP_BYTES (rounded down to whole elements).
+	 */
+	protected ByteBuffer sectionBuffer[][] = null;
+
+	/**
+	 * Constructor. Use open to read a snapshot.
+	 */
+	protected SpatialIndexSnapshot()
+	{
+		super();
+	}
+
+	/**
+	 * Write a snapshot. The file is written under a temporary name, forced to disk and renamed, so a reader
+	 * never sees a partly written snapshot.
+	 * @param file The file to write.
+	 * @param kind The kind of index, one of the KIND_ constants.
+	 * @param fingerprint The fingerprint of the catalogue the index was built from.
+	 * @param parameters Up to PARAMETER_COUNT index parameters.
+	 * @param sections The index arrays, each a long[], int[], double[] or byte[].
+	 * @param counts The number of elements of each array to write.
+	 * @exception IOException Thrown if the file cannot be written.
+	 * @exception IllegalArgumentException Thrown if there are too many parameters or a section is not a
+	 *            supported array type.
+	 * @see #fingerprint
+	 */
+	public static void write(File file,int kind,long fingerprint,long parameters[],Object sections[],long counts[])
+		throws IOException, IllegalArgumentException
+	{
+		ByteBuffer header = null;
+		ByteBuffer buffer = null;
+		FileChannel channel = null;
+		File tmpFile = null;
+		int type[];
+		long offset[];
+		int checksum[];
+		long position;
+
+		if(parameters.length > PARAMETER_COUNT)
+		{
+			throw new IllegalArgumentException("SpatialIndexSnapshot:write:Illegal parameter count:"+
+							   parameters.length+": Must be at most "+PARAMETER_COUNT+".");
+		}
+		type = new int[sections.length];
+		offset = new long[sections.length];
+		checksum = new int[sections.length];
+		position = HEADER_BYTES+((long)sections.length*SECTION_ENTRY_BYTES);
+		for(int s = 0; s < sections.length; s++)
+		{
+			type[s] = typeOf(sections[s]);
+			offset[s] = align(position);
+			position = offset[s]+(counts[s]*elementSize(type[s]));
+		}
+		tmpFile = new File(file.getPath()+".tmp");
+		buffer = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		channel = FileChannel.open(tmpFile.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+					   StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			for(int s = 0; s < sections.length; s++)
+				checksum[s] = writeSection(channel,offset[s],sections[s],counts[s],buffer);
+			header = ByteBuffer.allocate(HEADER_BYTES+(sections.length*SECTION_ENTRY_BYTES)).
+				order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(kind);
+			header.putInt(sections.length);
+			header.putLong(fingerprint);
+			for(int i = 0; i < PARAMETER_COUNT; i++)
+				header.putLong((i < parameters.length) ? parameters[i] : 0L);
+			for(int s = 0; s < sections.length; s++)
+			{
+				header.putInt(HEADER_BYTES+(s*SECTION_ENTRY_BYTES),type[s]);
+				header.putInt(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+4,checksum[s]);
+				header.putLong(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+8,counts[s]);
+				header.putLong(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+16,offset[s]);
+			}
+			header.putInt(HEADER_BYTES-4,headerChecksum(header));
+			header.clear();
+			writeFully(channel,header,0);
+			channel.force(true);
+		}
+		finally
+		{
+			channel.close();
+		}
+		Files.move(tmpFile.toPath(),file.toPath(),StandardCopyOption.ATOMIC_MOVE,
+			   StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Write one section, and return the CRC-32C of its bytes.
+	 */
+	private static int writeSection(FileChannel channel,long position,Object section,long count,ByteBuffer buffer)
+		throws IOException
+	{
+		CRC32C crc = null;
+		int type,elementSize,n;
+		long done;
+
+		crc = new CRC32C();
+		type = typeOf(section);
+		elementSize = elementSize(type);
+		done = 0;
+		while(done < count)
+		{
+			buffer.clear();
+			n = (int)Math.min(count-done,buffer.capacity()/elementSize);
+			switch(type)
+			{
+				case TYPE_LONG:
+					buffer.asLongBuffer().put((long[])section,(int)done,n);
+					break;
+				case TYPE_INT:
+					buffer.asIntBuffer().put((int[])section,(int)done,n);
+					break;
+				case TYPE_DOUBLE:
+					buffer.asDoubleBuffer().put((double[])section,(int)done,n);
+					break;
+				default:
+					buffer.put((byte[])section,(int)done,n);
+					break;
+			}
+			buffer.position(0);
+			buffer.limit(n*elementSize);
+			crc.update(buffer.duplicate());
+			writeFully(channel,buffer,position+(done*elementSize));
+			done += n;
+		}
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Open a snapshot: map it, and check it is a snapshot of the right kind of index, built from a catalogue
+	 * with the given fingerprint, and undamaged.
+	 * @param file The snapshot file.
+	 * @param kind The kind of index expected, one of the KIND_ constants.
+	 * @param fingerprint The fingerprint of the catalogue the index must have been built from.
+	 * @return The open snapshot. Its arrays are copied out with the get methods.
+	 * @exception IOException Thrown if the file cannot be read, or fails any check.
+	 */
+	public static SpatialIndexSnapshot open(File file,int kind,long fingerprint) throws IOException
+	{
+		final SpatialIndexSnapshot snapshot;
+		final int checksum[];
+		final boolean bad[];
+		ByteBuffer header = null;
+		FileChannel channel = null;
+		long offset,bytes,chunkBytes,fileSize;
+		int magic,version,sections,elementSize,chunks;
+
+		snapshot = new SpatialIndexSnapshot();
+		snapshot.file = file;
+		channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		try
+		{
+			fileSize = channel.size();
+			if(fileSize < HEADER_BYTES)
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Truncated header.");
+			header = map(channel,0,HEADER_BYTES);
+			magic = header.getInt(0);
+			version = header.getInt(4);
+			sections = header.getInt(12);
+			if(magic != MAGIC)
+			{
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Illegal magic number:"+
+						      Integer.toHexString(magic));
+			}
+			if(version != VERSION)
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Unsupported version:"+version);
+			if((sections < 0)||(HEADER_BYTES+((long)sections*SECTION_ENTRY_BYTES) > fileSize))
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Illegal section count:"+sections);
+			header = map(channel,0,HEADER_BYTES+(sections*SECTION_ENTRY_BYTES));
+			if(header.getInt(HEADER_BYTES-4) != headerChecksum(header))
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Header checksum mismatch.");
+			snapshot.kind = header.getInt(8);
+			if(snapshot.kind != kind)
+			{
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Holds index kind "+snapshot.kind+
+						      ", not "+kind+".");
+			}
+			snapshot.fingerprint = header.getLong(16);
+			if(snapshot.fingerprint != fingerprint)
+			{
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Catalogue fingerprint "+
+						      Long.toHexString(snapshot.fingerprint)+" does not match "+
+						      Long.toHexString(fingerprint)+".");
+			}
+			snapshot.parameter = new long[PARAMETER_COUNT];
+			for(int i = 0; i < PARAMETER_COUNT; i++)
+				snapshot.parameter[i] = header.getLong(24+(i*8));
+			snapshot.sectionType = new int[sections];
+			snapshot.sectionCount = new long[sections];
+			snapshot.sectionBuffer = new ByteBuffer[sections][];
+			checksum = new int[sections];
+			for(int s = 0; s < sections; s++)
+			{
+				snapshot.sectionType[s] = header.getInt(HEADER_BYTES+(s*SECTION_ENTRY_BYTES));
+				checksum[s] = header.getInt(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+4);
+				snapshot.sectionCount[s] = header.getLong(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+8);
+				offset = header.getLong(HEADER_BYTES+(s*SECTION_ENTRY_BYTES)+16);
+				if((snapshot.sectionType[s] < TYPE_LONG)||(snapshot.sectionType[s] > TYPE_BYTE))
+				{
+					throw new IOException("SpatialIndexSnapshot:open:"+file+":Section "+s+
+							      " has illegal type:"+snapshot.sectionType[s]);
+				}
+				elementSize = elementSize(snapshot.sectionType[s]);
+				bytes = snapshot.sectionCount[s]*elementSize;
+				if((snapshot.sectionCount[s] < 0)||(snapshot.sectionCount[s] > Integer.MAX_VALUE)||
+				   (offset < 0)||(offset+bytes > fileSize))
+				{
+					throw new IOException("SpatialIndexSnapshot:open:"+file+":Section "+s+
+							      " is outside the file.");
+				}
+				chunkBytes = MAX_MAP_BYTES-(MAX_MAP_BYTES % elementSize);
+				chunks = (int)Math.max(1,(bytes+chunkBytes-1)/chunkBytes);
+				snapshot.sectionBuffer[s] = new ByteBuffer[chunks];
+				for(int c = 0; c < chunks; c++)
+				{
+					snapshot.sectionBuffer[s][c] = map(channel,offset+(c*chunkBytes),
+									   Math.min(chunkBytes,bytes-(c*chunkBytes)));
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		// verify every section before any of it is used
+		bad = new boolean[sections];
+		ParallelChunks.forEach(sections,1,(from,to) ->
+		{
+			CRC32C crc = new CRC32C();
+
+			for(int s = from; s < to; s++)
+			{
+				crc.reset();
+				for(int c = 0; c < snapshot.sectionBuffer[s].length; c++)
+					crc.update(snapshot.sectionBuffer[s][c].duplicate());
+				bad[s] = ((int)crc.getValue() != checksum[s]);
+			}
+		});
+		for(int s = 0; s < sections; s++)
+		{
+			if(bad[s])
+				throw new IOException("SpatialIndexSnapshot:open:"+file+":Section "+s+" checksum mismatch.");
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Return the kind of index.
+	 */
+	public int getKind()
+	{
+		return kind;
+	}
+
+	/**
+	 * Return the fingerprint of the catalogue the index was built from.
+	 */
+	public long getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	/**
+	 * Return an index parameter.
+	 * @param i The parameter, 0..PARAMETER_COUNT-1.
+	 */
+	public long getParameter(int i)
+	{
+		return parameter[i];
+	}
+
+	/**
+	 * Return the number of sections.
+	 */
+	public int getSectionCount()
+	{
+		return sectionType.length;
+	}
+
+	/**
+	 * Return the number of elements in a section.
+	 */
+	public int getSectionLength(int s)
+	{
+		return (int)sectionCount[s];
+	}
+
+	/**
+	 * Copy a long section out of the snapshot.
+	 * @param s The section.
+	 * @return A new array.
+	 * @exception IOException Thrown if the section is not a long section.
+	 */
+	public long[] getLongs(int s) throws IOException
+	{
+		long a[];
+		int done;
+
+		checkType(s,TYPE_LONG);
+		a = new long[(int)sectionCount[s]];
+		done = 0;
+		for(int c = 0; c < sectionBuffer[s].length; c++)
+		{
+			LongBuffer b = sectionBuffer[s][c].duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+
+			b.get(a,done,b.remaining());
+			done += b.capacity();
+		}
+		return a;
+	}
+
+	/**
+	 * Copy an int section out of the snapshot.
+	 * @param s The section.
+	 * @return A new array.
+	 * @exception IOException Thrown if the section is not an int section.
+	 */
+	public int[] getInts(int s) throws IOException
+	{
+		int a[];
+		int done;
+
+		checkType(s,TYPE_INT);
+		a = new int[(int)sectionCount[s]];
+		done = 0;
+		for(int c = 0; c < sectionBuffer[s].length; c++)
+		{
+			IntBuffer b = sectionBuffer[s][c].duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+			b.get(a,done,b.remaining());
+			done += b.capacity();
+		}
+		return a;
+	}
+
+	/**
+	 * Copy a double section out of the snapshot.
+	 * @param s The section.
+	 * @return A new array.
+	 * @exception IOException Thrown if the section is not a double section.
+	 */
+	public double[] getDoubles(int s) throws IOException
+	{
+		double a[];
+		int done;
+
+		checkType(s,TYPE_DOUBLE);
+		a = new double[(int)sectionCount[s]];
+		done = 0;
+		for(int c = 0; c < sectionBuffer[s].length; c++)
+		{
+			DoubleBuffer b = sectionBuffer[s][c].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+			b.get(a,done,b.remaining());
+			done += b.capacity();
+		}
+		return a;
+	}
+
+	/**
+	 * Copy a byte section out of the snapshot.
+	 * @param s The section.
+	 * @return A new array.
+	 * @exception IOException Thrown if the section is not a byte section.
+	 */
+	public byte[] getBytes(int s) throws IOException
+	{
+		byte a[];
+		int done;
+
+		checkType(s,TYPE_BYTE);
+		a = new byte[(int)sectionCount[s]];
+		done = 0;
+		for(int c = 0; c < sectionBuffer[s].length; c++)
+		{
+			ByteBuffer b = sectionBuffer[s][c].duplicate();
+
+			b.get(a,done,b.remaining());
+			done += b.capacity();
+		}
+		return a;
+	}
+
+	/**
+	 * Check a section exists and has the expected type.
+	 */
+	private void checkType(int s,int type) throws IOException
+	{
+		if((s < 0)||(s >= sectionType.length))
+			throw new IOException(this.getClass().getName()+":"+file+":No section "+s+".");
+		if(sectionType[s] != type)
+		{
+			throw new IOException(this.getClass().getName()+":"+file+":Section "+s+" has type "+
+					      sectionType[s]+", not "+type+".");
+		}
+	}
+
+	/**
+	 * Compute the fingerprint of a catalogue's positions, in parallel. It depends on every position and on
+	 * their order, so any change to the catalogue that would change an index built from it changes the
+	 * fingerprint.
+	 * @param raRadians The right ascensions, in radians.
+	 * @param decRadians The declinations, in radians.
+	 * @param count The number of elements of the arrays to use.
+	 * @return The fingerprint.
+	 */
+	public static long fingerprint(final double raRadians[],final double decRadians[],final int count)
+	{
+		final long blockHash[];
+		final int blocks;
+		long h;
+
+		blocks = (count+FINGERPRINT_BLOCK-1)/FINGERPRINT_BLOCK;
+		blockHash = new long[blocks];
+		ParallelChunks.forEach(blocks,1,(from,to) ->
+		{
+			long bh;
+			int end;
+
+			for(int b = from; b < to; b++)
+			{
+				bh = b;
+				end = Math.min(count,(b+1)*FINGERPRINT_BLOCK);
+				for(int i = b*FINGERPRINT_BLOCK; i < end; i++)
+				{
+					bh = mix(bh^Double.doubleToLongBits(raRadians[i]));
+					bh = mix(bh^Double.doubleToLongBits(decRadians[i]));
+				}
+				blockHash[b] = bh;
+			}
+		});
+		h = count;
+		for(int b = 0; b < blocks; b++)
+			h = mix((h*31)+blockHash[b]);
+		return h;
+	}
+
+	/**
+	 * Compute the fingerprint of a list of CelestialObjects' positions.
+	 * @param list The list, all of which must have an RA and Dec.
+	 * @return The fingerprint.
+	 * @see #fingerprint(double[],double[],int)
+	 */
+	public static long fingerprint(final List<CelestialObject> list)
+	{
+		final double raRadians[],decRadians[];
+
+		raRadians = new double[list.size()];
+		decRadians = new double[list.size()];
+		ParallelChunks.forEach(list.size(),ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) ->
+		{
+			for(int i = from; i < to; i++)
+			{
+				raRadians[i] = list.get(i).getRA().toRadians();
+				decRadians[i] = list.get(i).getDec().toRadians();
+			}
+		});
+		return fingerprint(raRadians,decRadians,raRadians.length);
+	}
+
+	/**
+	 * Return the type of a section array.
+	 * @exception IllegalArgumentException Thrown if it is not a supported array type.
+	 */
+	private static int typeOf(Object section) throws IllegalArgumentException
+	{
+		if(section instanceof long[])
+			return TYPE_LONG;
+		if(section instanceof int[])
+			return TYPE_INT;
+		if(section instanceof double[])
+			return TYPE_DOUBLE;
+		if(section instanceof byte[])
+			return TYPE_BYTE;
+		throw new IllegalArgumentException("SpatialIndexSnapshot:typeOf:Illegal section type:"+
+						   ((section == null) ? "null" : section.getClass().getName()));
+	}
+
+	/**
+	 * Return the size in bytes of an element of a section type.
+	 */
+	private static int elementSize(int type)
+	{
+		switch(type)
+		{
+			case TYPE_INT:
+				return 4;
+			case TYPE_BYTE:
+				return 1;
+			default:
+				return 8;
+		}
+	}
+
+	/**
+	 * Round a file position up to a multiple of 8.
+	 */
+	private static long align(long position)
+	{
+		return (position+7) & ~7L;
+	}
+
+	/**
+	 * Return the CRC-32C of a header buffer, leaving out the checksum field itself.
+	 */
+	private static int headerChecksum(ByteBuffer header)
+	{
+		CRC32C crc = null;
+		ByteBuffer b = null;
+
+		crc = new CRC32C();
+		b = header.duplicate();
+		b.clear();
+		b.limit(HEADER_BYTES-4);
+		crc.update(b);
+		b.limit(header.capacity());
+		b.position(HEADER_BYTES);
+		crc.update(b);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Map part of a file read only, little endian.
+	 */
+	private static ByteBuffer map(FileChannel channel,long position,long size) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY,position,size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Write all of a buffer at a file position.
+	 */
+	private static void writeFully(FileChannel channel,ByteBuffer buffer,long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+			position += channel.write(buffer,position);
+	}
+
+	/**
+	 * 64-bit finaliser (from SplitMix64).
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public String toString()
+	{
+		return new String(this.getClass().getName()+":file="+file+":kind="+kind+":fingerprint="+
+				  Long.toHexString(fingerprint)+":sections="+sectionType.length);
+	}
+};
+//
+// $Log$
+//
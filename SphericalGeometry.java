@@ -0,0 +1,231 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SphericalGeometry.java
+package org.estar.astrometry;
+
+import java.lang.*;
+
+/**
+ * Static routines for converting RA/Decs into 3D unit vectors on the celestial sphere, and for
+ * computing angular distances between them. Unit vectors use the usual convention:
+ * <pre>x = cos(dec)cos(ra), y = cos(dec)sin(ra), z = sin(dec)</pre>
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see RA#toRadians
+ * @see Dec#toRadians
+ */
+public final class SphericalGeometry
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * How many arc-seconds in one radian.
+	 */
+	public final static double RADIANS_TO_ARCSECONDS = (180.0*60.0*60.0)/Math.PI;
+	/**
+	 * How many radians in one arc-second.
+	 */
+	public final static double ARCSECONDS_TO_RADIANS = Math.PI/(180.0*60.0*60.0);
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private SphericalGeometry()
+	{
+		super();
+	}
+
+	/**
+	 * Convert an RA and Dec in radians into a unit vector.
+	 * @param raRadians The right ascension, in radians.
+	 * @param decRadians The declination, in radians.
+	 * @param v An array to put the vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public static void toUnitVector(double raRadians,double decRadians,double v[],int offset)
+	{
+		double cosDec;
+
+		cosDec = Math.cos(decRadians);
+		v[offset] = cosDec*Math.cos(raRadians);
+		v[offset+1] = cosDec*Math.sin(raRadians);
+		v[offset+2] = Math.sin(decRadians);
+	}
+
+	/**
+	 * Convert an RA and Dec into a unit vector.
+	 * @param ra The right ascension.
+	 * @param dec The declination.
+	 * @param v An array to put the vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 * @see #toUnitVector(double,double,double[],int)
+	 */
+	public static void toUnitVector(RA ra,Dec dec,double v[],int offset)
+	{
+		toUnitVector(ra.toRadians(),dec.toRadians(),v,offset);
+	}
+
+	/**
+	 * Return the right ascension of a (not necessarily unit) vector.
+	 * @return The RA in radians, greater or equal to zero and less than 2*PI.
+	 */
+	public static double toRARadians(double x,double y,double z)
+	{
+		double ra;
+
+		ra = Math.atan2(y,x);
+		if(ra < 0.0)
+			ra += 2.0*Math.PI;
+		// atan2 can round up to exactly 2*PI for tiny negative angles
+		if(ra >= 2.0*Math.PI)
+			ra = 0.0;
+		return ra;
+	}
+
+	/**
+	 * Return the declination of a (not necessarily unit) vector.
+	 * @return The declination in radians, between -PI/2 and PI/2.
+	 */
+	public static double toDecRadians(double x,double y,double z)
+	{
+		return Math.atan2(z,Math.sqrt((x*x)+(y*y)));
+	}
+
+	/**
+	 * Angle between two unit vectors. This uses atan2 of the cross and dot products, which is accurate
+	 * for both very small and nearly antipodal separations.
+	 * @return The angle in radians.
+	 */
+	public static double separation(double x1,double y1,double z1,double x2,double y2,double z2)
+	{
+		double cx,cy,cz,dot;
+
+		cx = (y1*z2)-(z1*y2);
+		cy = (z1*x2)-(x1*z2);
+		cz = (x1*y2)-(y1*x2);
+		dot = (x1*x2)+(y1*y2)+(z1*z2);
+		return Math.atan2(Math.sqrt((cx*cx)+(cy*cy)+(cz*cz)),dot);
+	}
+
+	/**
+	 * Angular separation between two RA/Decs.
+	 * @param ra1 The first right ascension.
+	 * @param dec1 The first declination.
+	 * @param ra2 The second right ascension.
+	 * @param dec2 The second declination.
+	 * @return The separation, in arc-seconds.
+	 */
+	public static double separationArcSeconds(RA ra1,Dec dec1,RA ra2,Dec dec2)
+	{
+		double v[] = new double[6];
+
+		toUnitVector(ra1,dec1,v,0);
+		toUnitVector(ra2,dec2,v,3);
+		return separation(v[0],v[1],v[2],v[3],v[4],v[5])*RADIANS_TO_ARCSECONDS;
+	}
+
+	/**
+	 * Convert gnomonic (tangent plane) standard coordinates back into a unit vector.
+	 * @param raRadians The right ascension of the tangent point, in radians.
+	 * @param decRadians The declination of the tangent point, in radians.
+	 * @param xi The standard coordinate towards increasing RA (east), in radians on the tangent plane.
+	 * @param eta The standard coordinate towards increasing Dec (north), in radians on the tangent plane.
+	 * @param v An array to put the vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public static void tangentPlaneToUnitVector(double raRadians,double decRadians,double xi,double eta,
+						    double v[],int offset)
+	{
+		double sinRA,cosRA,sinDec,cosDec,vx,vy,vz,norm;
+
+		sinRA = Math.sin(raRadians);
+		cosRA = Math.cos(raRadians);
+		sinDec = Math.sin(decRadians);
+		cosDec = Math.cos(decRadians);
+		// tangent point + xi * east axis + eta * north axis
+		vx = (cosDec*cosRA)-(xi*sinRA)-(eta*sinDec*cosRA);
+		vy = (cosDec*sinRA)+(xi*cosRA)-(eta*sinDec*sinRA);
+		vz = sinDec+(eta*cosDec);
+		norm = Math.sqrt((vx*vx)+(vy*vy)+(vz*vz));
+		v[offset] = vx/norm;
+		v[offset+1] = vy/norm;
+		v[offset+2] = vz/norm;
+	}
+
+	/**
+	 * Convert a unit vector into gnomonic (tangent plane) standard coordinates.
+	 * @param raRadians The right ascension of the tangent point, in radians.
+	 * @param decRadians The declination of the tangent point, in radians.
+	 * @param result An array of at least 2 elements, set to xi (east) and eta (north), in radians on the
+	 *        tangent plane.
+	 * @return false if the vector is in the hemisphere opposite the tangent point and cannot be projected.
+	 */
+	public static boolean unitVectorToTangentPlane(double raRadians,double decRadians,double x,double y,double z,
+						       double result[])
+	{
+		double sinRA,cosRA,sinDec,cosDec,w;
+
+		sinRA = Math.sin(raRadians);
+		cosRA = Math.cos(raRadians);
+		sinDec = Math.sin(decRadians);
+		cosDec = Math.cos(decRadians);
+		w = (cosDec*((cosRA*x)+(sinRA*y)))+(sinDec*z);
+		if(w <= 0.0)
+			return false;
+		result[0] = ((cosRA*y)-(sinRA*x))/w;
+		result[1] = ((z*cosDec)-(sinDec*((cosRA*x)+(sinRA*y))))/w;
+		return true;
+	}
+
+	/**
+	 * Convert the squared chord length between two unit vectors into the angle between them.
+	 * @param chordSquared The squared euclidean distance between two unit vectors.
+	 * @return The angle, in radians.
+	 */
+	public static double chordSquaredToRadians(double chordSquared)
+	{
+		double halfChord;
+
+		halfChord = Math.sqrt(chordSquared)/2.0;
+		if(halfChord >= 1.0)
+			return Math.PI;
+		return 2.0*Math.asin(halfChord);
+	}
+
+	/**
+	 * Convert an angle into the squared chord length between two unit vectors that far apart.
+	 * @param radians The angle, in radians.
+	 * @return The squared euclidean distance.
+	 */
+	public static double radiansToChordSquared(double radians)
+	{
+		double chord;
+
+		if(radians >= Math.PI)
+			return 4.0;
+		chord = 2.0*Math.sin(radians/2.0);
+		return chord*chord;
+	}
+};
+//
+// $Log$
+//
@@ -0,0 +1,513 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// SphericalPolygon.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+
+/**
+ * This class holds a polygon on the celestial sphere, whose edges are great circle arcs between consecutive
+ * vertices. The polygon must be simple (its edges must not cross) and lie within a hemisphere. Convex polygons
+ * (e.g. detector footprints) are tested against the edge normals; non-convex polygons (e.g. mosaic outlines) are
+ * gnomonically projected about their centre, which maps the edges onto straight lines, and tested with a planar
+ * crossing test.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SkyRegion
+ */
+public class SphericalPolygon implements SkyRegion, Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as polygons are sent with catalogue queries.
+	 */
+	static final long serialVersionUID = 4397164932734525241L;
+	/**
+	 * Tolerance used when deciding whether the polygon is convex.
+	 */
+	private final static double CONVEXITY_TOLERANCE = 1.0e-12;
+	/**
+	 * The number of vertices.
+	 */
+	protected int count = 0;
+	/**
+	 * The vertex unit vectors, stored x,y,z for each vertex.
+	 */
+	protected double vertex[] = null;
+	/**
+	 * The unit normals of the edge great circles, stored x,y,z for each edge. Edge i runs from vertex i
+	 * to vertex (i+1)%count. For convex polygons these point towards the interior.
+	 */
+	protected double normal[] = null;
+	/**
+	 * Whether the polygon is convex.
+	 */
+	protected boolean convex = false;
+	/**
+	 * The bounding cap centre unit vector.
+	 */
+	protected double centre[] = null;
+	/**
+	 * The bounding cap radius, in radians.
+	 */
+	protected double capRadius = 0.0;
+	/**
+	 * The vertices projected onto the tangent plane at the centre, stored u,v for each vertex.
+	 * Only used for non-convex polygons.
+	 */
+	protected double projected[] = null;
+	/**
+	 * The tangent plane east and north axes at the centre, stored ex,ey,ez,nx,ny,nz.
+	 */
+	protected double tangentAxes[] = null;
+
+	/**
+	 * Constructor.
+	 * @param ras The vertex right ascensions.
+	 * @param decs The vertex declinations.
+	 * @exception IllegalArgumentException Thrown if the polygon is not valid.
+	 * @see #SphericalPolygon(double[],double[])
+	 */
+	public SphericalPolygon(RA ras[],Dec decs[]) throws IllegalArgumentException
+	{
+		super();
+		double raRadians[],decRadians[];
+
+		if(ras.length != decs.length)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":Vertex RA/Dec counts differ:"+ras.length+
+							   ":"+decs.length);
+		}
+		raRadians = new double[ras.length];
+		decRadians = new double[decs.length];
+		for(int i = 0; i < ras.length; i++)
+		{
+			raRadians[i] = ras[i].toRadians();
+			decRadians[i] = decs[i].toRadians();
+		}
+		initialise(raRadians,decRadians);
+	}
+
+	/**
+	 * Constructor.
+	 * @param raRadians The vertex right ascensions, in radians.
+	 * @param decRadians The vertex declinations, in radians.
+	 * @exception IllegalArgumentException Thrown if the polygon is not valid.
+	 */
+	public SphericalPolygon(double raRadians[],double decRadians[]) throws IllegalArgumentException
+	{
+		super();
+		if(raRadians.length != decRadians.length)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":Vertex RA/Dec counts differ:"+raRadians.length+
+							   ":"+decRadians.length);
+		}
+		initialise(raRadians,decRadians);
+	}
+
+	/**
+	 * Create a rectangular footprint, such as an imager field of view.
+	 * @param ra The right ascension of the centre of the rectangle.
+	 * @param dec The declination of the centre of the rectangle.
+	 * @param width The width of the rectangle, in arc-seconds.
+	 * @param height The height of the rectangle, in arc-seconds.
+	 * @param positionAngle The position angle of the height axis, in degrees, measured from north through east.
+	 * @return A new convex polygon.
+	 */
+	public static SphericalPolygon rectangle(RA ra,Dec dec,double width,double height,double positionAngle)
+	{
+		return rectangle(ra.toRadians(),dec.toRadians(),width,height,positionAngle);
+	}
+
+	/**
+	 * Create a rectangular footprint. The rectangle is flat on the tangent plane at its centre, as a
+	 * detector is.
+	 * @param raRadians The right ascension of the centre of the rectangle, in radians.
+	 * @param decRadians The declination of the centre of the rectangle, in radians.
+	 * @param width The width of the rectangle, in arc-seconds.
+	 * @param height The height of the rectangle, in arc-seconds.
+	 * @param positionAngle The position angle of the height axis, in degrees, measured from north through east.
+	 * @return A new convex polygon.
+	 */
+	public static SphericalPolygon rectangle(double raRadians,double decRadians,double width,double height,
+						 double positionAngle)
+	{
+		double cornerRA[] = new double[4];
+		double cornerDec[] = new double[4];
+		double v[] = new double[3];
+		double halfWidth,halfHeight,sinPA,cosPA,a,b,xi,eta;
+		int signA[] = {-1,1,1,-1};
+		int signB[] = {-1,-1,1,1};
+
+		halfWidth = Math.tan((width/2.0)*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		halfHeight = Math.tan((height/2.0)*SphericalGeometry.ARCSECONDS_TO_RADIANS);
+		sinPA = Math.sin(Math.toRadians(positionAngle));
+		cosPA = Math.cos(Math.toRadians(positionAngle));
+		for(int i = 0; i < 4; i++)
+		{
+			a = signA[i]*halfWidth;
+			b = signB[i]*halfHeight;
+			// height axis is (sinPA,cosPA) in (xi,eta), width axis is (cosPA,-sinPA)
+			xi = (a*cosPA)+(b*sinPA);
+			eta = (b*cosPA)-(a*sinPA);
+			SphericalGeometry.tangentPlaneToUnitVector(raRadians,decRadians,xi,eta,v,0);
+			cornerRA[i] = SphericalGeometry.toRARadians(v[0],v[1],v[2]);
+			cornerDec[i] = SphericalGeometry.toDecRadians(v[0],v[1],v[2]);
+		}
+		return new SphericalPolygon(cornerRA,cornerDec);
+	}
+
+	/**
+	 * Compute the vertex vectors, edge normals, bounding cap and convexity of the polygon.
+	 * @exception IllegalArgumentException Thrown if there are fewer than 3 vertices, consecutive vertices
+	 *            coincide, or the polygon does not fit in a hemisphere.
+	 */
+	protected void initialise(double raRadians[],double decRadians[]) throws IllegalArgumentException
+	{
+		double ax,ay,az,bx,by,bz,nx,ny,nz,norm,d,sep;
+		boolean allPositive,allNegative;
+		int j;
+
+		count = raRadians.length;
+		if(count < 3)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":initialise:A polygon needs at least 3 vertices:"+count);
+		}
+		vertex = new double[3*count];
+		for(int i = 0; i < count; i++)
+			SphericalGeometry.toUnitVector(raRadians[i],decRadians[i],vertex,3*i);
+		// edge normals
+		normal = new double[3*count];
+		for(int i = 0; i < count; i++)
+		{
+			j = (i+1)%count;
+			ax = vertex[3*i];
+			ay = vertex[(3*i)+1];
+			az = vertex[(3*i)+2];
+			bx = vertex[3*j];
+			by = vertex[(3*j)+1];
+			bz = vertex[(3*j)+2];
+			nx = (ay*bz)-(az*by);
+			ny = (az*bx)-(ax*bz);
+			nz = (ax*by)-(ay*bx);
+			norm = Math.sqrt((nx*nx)+(ny*ny)+(nz*nz));
+			if(norm < 1.0e-15)
+			{
+				throw new IllegalArgumentException(this.getClass().getName()+
+								   ":initialise:Vertices "+i+" and "+j+
+								   " are coincident or antipodal.");
+			}
+			normal[3*i] = nx/norm;
+			normal[(3*i)+1] = ny/norm;
+			normal[(3*i)+2] = nz/norm;
+		}
+		// bounding cap
+		centre = new double[3];
+		for(int i = 0; i < count; i++)
+		{
+			centre[0] += vertex[3*i];
+			centre[1] += vertex[(3*i)+1];
+			centre[2] += vertex[(3*i)+2];
+		}
+		norm = Math.sqrt((centre[0]*centre[0])+(centre[1]*centre[1])+(centre[2]*centre[2]));
+		if(norm < 1.0e-12)
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":initialise:Polygon vertices have no well defined centre.");
+		}
+		centre[0] /= norm;
+		centre[1] /= norm;
+		centre[2] /= norm;
+		capRadius = 0.0;
+		for(int i = 0; i < count; i++)
+		{
+			sep = SphericalGeometry.separation(centre[0],centre[1],centre[2],
+							   vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2]);
+			if(sep > capRadius)
+				capRadius = sep;
+		}
+		if(capRadius >= (Math.PI/2.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+
+							   ":initialise:Polygon does not fit in a hemisphere.");
+		}
+		// convexity: every vertex on the same side of every edge
+		allPositive = true;
+		allNegative = true;
+		for(int i = 0; i < count; i++)
+		{
+			for(int k = 0; k < count; k++)
+			{
+				if((k == i)||(k == ((i+1)%count)))
+					continue;
+				d = dot(normal,3*i,vertex[3*k],vertex[(3*k)+1],vertex[(3*k)+2]);
+				if(d < -CONVEXITY_TOLERANCE)
+					allPositive = false;
+				if(d > CONVEXITY_TOLERANCE)
+					allNegative = false;
+			}
+		}
+		convex = allPositive||allNegative;
+		if(convex && allNegative && (!allPositive))
+		{
+			// clockwise polygon, flip normals so they point inwards
+			for(int i = 0; i < normal.length; i++)
+				normal[i] = -normal[i];
+		}
+		if(!convex)
+			initialiseProjection();
+	}
+
+	/**
+	 * Project the vertices onto the tangent plane at the centre, for the non-convex containment test.
+	 */
+	protected void initialiseProjection()
+	{
+		double ex,ey,ez,nx,ny,nz,norm,w;
+
+		// east axis = z x centre, north axis = centre x east
+		ex = -centre[1];
+		ey = centre[0];
+		ez = 0.0;
+		norm = Math.sqrt((ex*ex)+(ey*ey));
+		if(norm < 1.0e-12)
+		{
+			// centre at a pole, any perpendicular will do
+			ex = 1.0;
+			ey = 0.0;
+			norm = 1.0;
+		}
+		ex /= norm;
+		ey /= norm;
+		nx = (centre[1]*ez)-(centre[2]*ey);
+		ny = (centre[2]*ex)-(centre[0]*ez);
+		nz = (centre[0]*ey)-(centre[1]*ex);
+		tangentAxes = new double[] {ex,ey,ez,nx,ny,nz};
+		projected = new double[2*count];
+		for(int i = 0; i < count; i++)
+		{
+			w = dot(centre,0,vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2]);
+			projected[2*i] = dot(tangentAxes,0,vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2])/w;
+			projected[(2*i)+1] = dot(tangentAxes,3,vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2])/w;
+		}
+	}
+
+	/**
+	 * Return the number of vertices.
+	 */
+	public int getVertexCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Return the right ascension of a vertex.
+	 * @param i The vertex index.
+	 * @return The right ascension, in radians.
+	 */
+	public double getVertexRARadians(int i)
+	{
+		return SphericalGeometry.toRARadians(vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2]);
+	}
+
+	/**
+	 * Return the declination of a vertex.
+	 * @param i The vertex index.
+	 * @return The declination, in radians.
+	 */
+	public double getVertexDecRadians(int i)
+	{
+		return SphericalGeometry.toDecRadians(vertex[3*i],vertex[(3*i)+1],vertex[(3*i)+2]);
+	}
+
+	/**
+	 * Return whether the polygon is convex.
+	 */
+	public boolean isConvex()
+	{
+		return convex;
+	}
+
+	/**
+	 * Return the radius of a cap about the polygon centre that contains the whole polygon.
+	 * @return The radius, in radians.
+	 */
+	public double getBoundingRadius()
+	{
+		return capRadius;
+	}
+
+	/**
+	 * Return the polygon centre (the normalised sum of its vertices).
+	 * @param v An array to put the unit vector into.
+	 * @param offset The index in v to put the x component, y and z follow it.
+	 */
+	public void getCentre(double v[],int offset)
+	{
+		v[offset] = centre[0];
+		v[offset+1] = centre[1];
+		v[offset+2] = centre[2];
+	}
+
+	/**
+	 * Test whether an RA/Dec is inside the polygon.
+	 * @param ra The right ascension.
+	 * @param dec The declination.
+	 * @return true if the position is inside the polygon.
+	 */
+	public boolean contains(RA ra,Dec dec)
+	{
+		double v[] = new double[3];
+
+		SphericalGeometry.toUnitVector(ra,dec,v,0);
+		return contains(v[0],v[1],v[2]);
+	}
+
+	/**
+	 * Exact containment test.
+	 * @return true if the unit vector is inside the polygon.
+	 */
+	public boolean contains(double x,double y,double z)
+	{
+		double w,u,v,ui,vi,uj,vj;
+		boolean inside;
+		int j;
+
+		if(convex)
+		{
+			for(int i = 0; i < count; i++)
+			{
+				if(dot(normal,3*i,x,y,z) < 0.0)
+					return false;
+			}
+			return true;
+		}
+		w = (centre[0]*x)+(centre[1]*y)+(centre[2]*z);
+		if(w <= 0.0)
+			return false;
+		u = dot(tangentAxes,0,x,y,z)/w;
+		v = dot(tangentAxes,3,x,y,z)/w;
+		// planar even-odd crossing test
+		inside = false;
+		j = count-1;
+		for(int i = 0; i < count; i++)
+		{
+			ui = projected[2*i];
+			vi = projected[(2*i)+1];
+			uj = projected[2*j];
+			vj = projected[(2*j)+1];
+			if(((vi > v) != (vj > v))&&(u < (((uj-ui)*(v-vi))/(vj-vi))+ui))
+				inside = !inside;
+			j = i;
+		}
+		return inside;
+	}
+
+	/**
+	 * Conservative classification of a spherical cap against the polygon.
+	 * @see SkyRegion#classifyCap
+	 */
+	public int classifyCap(double x,double y,double z,double radius)
+	{
+		double sinRadius,s;
+		boolean partial;
+
+		if(SphericalGeometry.separation(x,y,z,centre[0],centre[1],centre[2]) > capRadius+radius)
+			return OUTSIDE;
+		if(radius >= (Math.PI/2.0))
+			return PARTIAL;
+		if(convex)
+		{
+			sinRadius = Math.sin(radius);
+			partial = false;
+			for(int i = 0; i < count; i++)
+			{
+				s = dot(normal,3*i,x,y,z);
+				if(s < -sinRadius)
+					return OUTSIDE;
+				if(s < sinRadius)
+					partial = true;
+			}
+			if(partial)
+				return PARTIAL;
+			return INSIDE;
+		}
+		for(int i = 0; i < count; i++)
+		{
+			if(edgeDistance(i,x,y,z) <= radius)
+				return PARTIAL;
+		}
+		if(contains(x,y,z))
+			return INSIDE;
+		return OUTSIDE;
+	}
+
+	/**
+	 * Return the angular distance from a unit vector to an edge arc. The edge normals must not have been
+	 * flipped, i.e. the polygon must be non-convex.
+	 * @param i The edge index.
+	 * @return The distance, in radians.
+	 */
+	protected double edgeDistance(int i,double x,double y,double z)
+	{
+		double s,px,py,pz,ax,ay,az,bx,by,bz,nx,ny,nz,d1,d2;
+		int j;
+
+		j = (i+1)%count;
+		nx = normal[3*i];
+		ny = normal[(3*i)+1];
+		nz = normal[(3*i)+2];
+		ax = vertex[3*i];
+		ay = vertex[(3*i)+1];
+		az = vertex[(3*i)+2];
+		bx = vertex[3*j];
+		by = vertex[(3*j)+1];
+		bz = vertex[(3*j)+2];
+		// projection of the point onto the edge's great circle plane
+		s = (nx*x)+(ny*y)+(nz*z);
+		px = x-(s*nx);
+		py = y-(s*ny);
+		pz = z-(s*nz);
+		// is the projection between a and b? Only used for non-convex polygons, whose normals are a x b
+		d1 = dot(normal,3*i,(ay*pz)-(az*py),(az*px)-(ax*pz),(ax*py)-(ay*px));
+		d2 = dot(normal,3*i,(py*bz)-(pz*by),(pz*bx)-(px*bz),(px*by)-(py*bx));
+		if((d1 >= 0.0)&&(d2 >= 0.0))
+			return Math.asin(Math.min(1.0,Math.abs(s)));
+		return Math.min(SphericalGeometry.separation(x,y,z,ax,ay,az),SphericalGeometry.separation(x,y,z,bx,by,bz));
+	}
+
+	/**
+	 * Dot product of the 3-vector at offset in a with (x,y,z).
+	 */
+	private static double dot(double a[],int offset,double x,double y,double z)
+	{
+		return (a[offset]*x)+(a[offset+1]*y)+(a[offset+2]*z);
+	}
+};
+//
+// $Log$
+//
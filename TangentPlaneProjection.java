@@ -0,0 +1,965 @@
+/*
+    Copyright 2006, Astrophysics Research Institute, Liverpool John Moores University.
+
+    This file is part of org.estar.astrometry.
+
+    org.estar.astrometry is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    org.estar.astrometry is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with org.estar.astrometry; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+// TangentPlaneProjection.java
+package org.estar.astrometry;
+
+import java.io.*;
+import java.lang.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class is a gnomonic (tangent plane, FITS "TAN") projection between the sky and the pixels of one frame,
+ * with batch transforms over primitive arrays. The transform from pixel (x,y) to sky is:
+ * <pre>
+ * u = x - crpix1, v = y - crpix2
+ * u' = u + A(u,v), v' = v + B(u,v)          (optional SIP style polynomial distortion)
+ * xi = cd11*u' + cd12*v', eta = cd21*u' + cd22*v'
+ * (xi,eta) -&gt; (RA,Dec) by the gnomonic projection about the tangent point
+ * </pre>
+ * where xi (east) and eta (north) are standard coordinates, in radians on the tangent plane, and the CD matrix
+ * is in radians per pixel. The inverse distortion is solved by iteration (fixed point, falling back to Newton
+ * for strong distortions), so no separate inverse polynomial is needed. A pixel whose inverse cannot be found
+ * is set to NaN.
+ * <p>
+ * The rotation to the tangent point is worked out once, when the projection is made. The batch methods
+ * take separate input and output arrays, which may be the same arrays, and a parallel flag. Points more than
+ * 90 degrees from the tangent point cannot be projected; their outputs are set to NaN and they are not
+ * counted in the returned count. The unitVector methods need no trigonometry at all and are the fastest way to
+ * project a catalogue whose unit vectors are already to hand.
+ * <p>
+ * A projection may be shared between threads once set up, but must not be changed while a transform is
+ * running.
+ * @author Chris Mottram
+ * @version $Revision$
+ * @see SphericalGeometry#unitVectorToTangentPlane
+ */
+public class TangentPlaneProjection implements Serializable
+{
+	/**
+	 * Revision control system Identifier.
+	 */
+	public final static String RCSID = "$Id$";
+	/**
+	 * Serial version ID, fixed as projections are stored with image metadata.
+	 */
+	static final long serialVersionUID = -7382614865974947112L;
+	/**
+	 * The largest distortion polynomial order allowed.
+	 */
+	public final static int MAX_DISTORTION_ORDER = 9;
+	/**
+	 * The number of fixed point iterations tried when inverting the distortion, before falling back to Newton
+	 * iteration.
+	 */
+	public final static int FIXED_POINT_ITERATIONS = 8;
+	/**
+	 * The largest number of Newton iterations used to invert the distortion.
+	 */
+	public final static int MAX_INVERSE_ITERATIONS = 20;
+	/**
+	 * The largest number of times a Newton step is halved, to make the distortion residual fall, before it
+	 * is taken anyway.
+	 */
+	public final static int MAX_STEP_HALVINGS = 30;
+	/**
+	 * The Newton iteration stops once a step is smaller than this, in pixels.
+	 */
+	public final static double INVERSE_TOLERANCE = 1.0e-8;
+	/**
+	 * The right ascension of the tangent point, in radians.
+	 */
+	protected double raRadians = 0.0;
+	/**
+	 * The declination of the tangent point, in radians.
+	 */
+	protected double decRadians = 0.0;
+	/**
+	 * The sine of the tangent point declination.
+	 */
+	protected double sinDec = 0.0;
+	/**
+	 * The cosine of the tangent point declination.
+	 */
+	protected double cosDec = 1.0;
+	/**
+	 * The rotation to the tangent point: rows are the east, north and tangent point unit vectors.
+	 */
+	protected double rotation[] = new double[9];
+	/**
+	 * The reference pixel, x.
+	 */
+	protected double crpix1 = 0.0;
+	/**
+	 * The reference pixel, y.
+	 */
+	protected double crpix2 = 0.0;
+	/**
+	 * The CD matrix, radians per pixel: cd11, cd12, cd21, cd22.
+	 */
+	protected double cd[] = new double[] {1.0,0.0,0.0,1.0};
+	/**
+	 * The inverse of the CD matrix.
+	 */
+	protected double inverseCD[] = new double[] {1.0,0.0,0.0,1.0};
+	/**
+	 * The distortion polynomial order, or 0 for no distortion.
+	 */
+	protected int distortionOrder = 0;
+	/**
+	 * The A (x) distortion coefficients, A[p][q] at index p*(order+1)+q, multiplying u^p v^q.
+	 */
+	protected double distortionA[] = null;
+	/**
+	 * The B (y) distortion coefficients, indexed as distortionA.
+	 */
+	protected double distortionB[] = null;
+	/**
+	 * The partial derivatives of A and B, by u and v, indexed as distortionA: dA/du, dA/dv, dB/du, dB/dv.
+	 */
+	protected transient double distortionDerivatives[][] = null;
+
+	/**
+	 * Constructor. The reference pixel is (0,0), the CD matrix is the identity and there is no distortion,
+	 * so pixel coordinates are the standard coordinates until setReferencePixel and setCDMatrix are called.
+	 * @param raRadians The right ascension of the tangent point, in radians.
+	 * @param decRadians The declination of the tangent point, in radians.
+	 */
+	public TangentPlaneProjection(double raRadians,double decRadians)
+	{
+		super();
+		setTangentPoint(raRadians,decRadians);
+	}
+
+	/**
+	 * Constructor.
+	 * @param ra The right ascension of the tangent point.
+	 * @param dec The declination of the tangent point.
+	 */
+	public TangentPlaneProjection(RA ra,Dec dec)
+	{
+		this(ra.toRadians(),dec.toRadians());
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param p The projection to copy.
+	 */
+	public TangentPlaneProjection(TangentPlaneProjection p)
+	{
+		this(p.raRadians,p.decRadians);
+		setReferencePixel(p.crpix1,p.crpix2);
+		setCDMatrix(p.cd[0],p.cd[1],p.cd[2],p.cd[3]);
+		if(p.distortionOrder > 0)
+			setDistortion(p.distortionOrder,p.distortionA,p.distortionB);
+	}
+
+	/**
+	 * Set the tangent point, and work out the rotation to it.
+	 * @param raRadians The right ascension of the tangent point, in radians.
+	 * @param decRadians The declination of the tangent point, in radians.
+	 * @exception IllegalArgumentException Thrown if the declination is not in -PI/2..PI/2.
+	 */
+	public void setTangentPoint(double raRadians,double decRadians) throws IllegalArgumentException
+	{
+		double sinRA,cosRA;
+
+		if(!((decRadians >= -Math.PI/2.0)&&(decRadians <= Math.PI/2.0)))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setTangentPoint:Illegal declination:"+
+							   decRadians+": Must be in -PI/2..PI/2.");
+		}
+		this.raRadians = raRadians;
+		this.decRadians = decRadians;
+		sinRA = Math.sin(raRadians);
+		cosRA = Math.cos(raRadians);
+		sinDec = Math.sin(decRadians);
+		cosDec = Math.cos(decRadians);
+		// east
+		rotation[0] = -sinRA;
+		rotation[1] = cosRA;
+		rotation[2] = 0.0;
+		// north
+		rotation[3] = -sinDec*cosRA;
+		rotation[4] = -sinDec*sinRA;
+		rotation[5] = cosDec;
+		// tangent point
+		rotation[6] = cosDec*cosRA;
+		rotation[7] = cosDec*sinRA;
+		rotation[8] = sinDec;
+	}
+
+	/**
+	 * Return the right ascension of the tangent point, in radians.
+	 */
+	public double getRARadians()
+	{
+		return raRadians;
+	}
+
+	/**
+	 * Return the declination of the tangent point, in radians.
+	 */
+	public double getDecRadians()
+	{
+		return decRadians;
+	}
+
+	/**
+	 * Set the reference pixel, the pixel at the tangent point (before distortion).
+	 * @param x The reference pixel x (FITS CRPIX1, less one if the pixels are counted from 0).
+	 * @param y The reference pixel y (FITS CRPIX2, likewise).
+	 */
+	public void setReferencePixel(double x,double y)
+	{
+		crpix1 = x;
+		crpix2 = y;
+	}
+
+	/**
+	 * Return the reference pixel x.
+	 */
+	public double getReferencePixelX()
+	{
+		return crpix1;
+	}
+
+	/**
+	 * Return the reference pixel y.
+	 */
+	public double getReferencePixelY()
+	{
+		return crpix2;
+	}
+
+	/**
+	 * Set the CD matrix, which takes (distorted) pixel offsets to standard coordinates.
+	 * @param cd11 d(xi)/du, in radians per pixel.
+	 * @param cd12 d(xi)/dv, in radians per pixel.
+	 * @param cd21 d(eta)/du, in radians per pixel.
+	 * @param cd22 d(eta)/dv, in radians per pixel.
+	 * @exception IllegalArgumentException Thrown if the matrix is singular.
+	 */
+	public void setCDMatrix(double cd11,double cd12,double cd21,double cd22) throws IllegalArgumentException
+	{
+		double determinant;
+
+		determinant = (cd11*cd22)-(cd12*cd21);
+		if(!(Math.abs(determinant) > 0.0)||Double.isInfinite(determinant))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setCDMatrix:Illegal CD matrix:"+
+							   cd11+","+cd12+","+cd21+","+cd22+": Must not be singular.");
+		}
+		cd[0] = cd11;
+		cd[1] = cd12;
+		cd[2] = cd21;
+		cd[3] = cd22;
+		inverseCD[0] = cd22/determinant;
+		inverseCD[1] = -cd12/determinant;
+		inverseCD[2] = -cd21/determinant;
+		inverseCD[3] = cd11/determinant;
+	}
+
+	/**
+	 * Set the CD matrix from a pixel scale and rotation, as FITS CDELT1/CDELT2 and CROTA2 would. With no
+	 * rotation north is up (+y) and east is left (-x), the usual sky orientation.
+	 * @param arcSecondsPerPixel The pixel scale.
+	 * @param rotationRadians The rotation, as CROTA2.
+	 * @param flipped Whether the image is mirrored (east right), as seen through some optics.
+	 * @exception IllegalArgumentException Thrown if the scale is not positive.
+	 */
+	public void setPixelScale(double arcSecondsPerPixel,double rotationRadians,boolean flipped)
+		throws IllegalArgumentException
+	{
+		double scale,xScale,sinRotation,cosRotation;
+
+		if(!(arcSecondsPerPixel > 0.0))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setPixelScale:Illegal scale:"+
+							   arcSecondsPerPixel+": Must be positive.");
+		}
+		scale = arcSecondsPerPixel*SphericalGeometry.ARCSECONDS_TO_RADIANS;
+		xScale = flipped ? scale : -scale;
+		sinRotation = Math.sin(rotationRadians);
+		cosRotation = Math.cos(rotationRadians);
+		setCDMatrix(xScale*cosRotation,-scale*sinRotation,xScale*sinRotation,scale*cosRotation);
+	}
+
+	/**
+	 * Return the CD matrix.
+	 * @param result An array of at least 4 elements, set to cd11, cd12, cd21, cd22 in radians per pixel.
+	 */
+	public void getCDMatrix(double result[])
+	{
+		System.arraycopy(cd,0,result,0,4);
+	}
+
+	/**
+	 * Return the mean pixel scale, the square root of the CD matrix determinant.
+	 * @return The scale in arc-seconds per pixel.
+	 */
+	public double getPixelScale()
+	{
+		return Math.sqrt(Math.abs((cd[0]*cd[3])-(cd[1]*cd[2])))*SphericalGeometry.RADIANS_TO_ARCSECONDS;
+	}
+
+	/**
+	 * Set a SIP style polynomial distortion, applied to pixel offsets from the reference pixel before the CD
+	 * matrix: u' = u + sum(A[p][q] u^p v^q), v' = v + sum(B[p][q] u^p v^q), over p+q &lt;= order. Terms with
+	 * p+q greater than the order are ignored.
+	 * @param order The polynomial order, 1..MAX_DISTORTION_ORDER.
+	 * @param a The A coefficients, (order+1)^2 of them, A[p][q] at index p*(order+1)+q. Copied.
+	 * @param b The B coefficients, indexed as a. Copied.
+	 * @exception IllegalArgumentException Thrown if the order is out of range or an array is the wrong length.
+	 */
+	public void setDistortion(int order,double a[],double b[]) throws IllegalArgumentException
+	{
+		int terms;
+
+		if((order < 1)||(order > MAX_DISTORTION_ORDER))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setDistortion:Illegal order:"+
+							   order+": Must be 1.."+MAX_DISTORTION_ORDER+".");
+		}
+		terms = (order+1)*(order+1);
+		if((a.length != terms)||(b.length != terms))
+		{
+			throw new IllegalArgumentException(this.getClass().getName()+":setDistortion:Illegal coefficient count:"+
+							   a.length+","+b.length+": Must be "+terms+" for order "+order+".");
+		}
+		distortionA = new double[terms];
+		distortionB = new double[terms];
+		for(int p = 0; p <= order; p++)
+		{
+			for(int q = 0; p+q <= order; q++)
+			{
+				distortionA[(p*(order+1))+q] = a[(p*(order+1))+q];
+				distortionB[(p*(order+1))+q] = b[(p*(order+1))+q];
+			}
+		}
+		distortionOrder = order;
+		distortionDerivatives = null;
+	}
+
+	/**
+	 * Remove any distortion.
+	 */
+	public void clearDistortion()
+	{
+		distortionOrder = 0;
+		distortionA = null;
+		distortionB = null;
+		distortionDerivatives = null;
+	}
+
+	/**
+	 * Return the distortion polynomial order, or 0 if there is no distortion.
+	 */
+	public int getDistortionOrder()
+	{
+		return distortionOrder;
+	}
+
+	/**
+	 * Return a copy of the A distortion coefficients, or null if there is no distortion.
+	 * @see #setDistortion
+	 */
+	public double[] getDistortionA()
+	{
+		if(distortionA == null)
+			return null;
+		return distortionA.clone();
+	}
+
+	/**
+	 * Return a copy of the B distortion coefficients, or null if there is no distortion.
+	 * @see #setDistortion
+	 */
+	public double[] getDistortionB()
+	{
+		if(distortionB == null)
+			return null;
+		return distortionB.clone();
+	}
+
+	/**
+	 * Project sky positions onto the tangent plane.
+	 * @param ra The right ascensions, in radians.
+	 * @param dec The declinations, in radians.
+	 * @param xi The array to put the standard coordinates towards east into, in radians.
+	 * @param eta The array to put the standard coordinates towards north into, in radians.
+	 * @param n The number of positions.
+	 * @param parallel Whether to project in parallel.
+	 * @return The number of positions projected; the others are more than 90 degrees from the tangent point,
+	 *         and their outputs are NaN.
+	 */
+	public int skyToStandard(final double ra[],final double dec[],final double xi[],final double eta[],int n,
+				 boolean parallel)
+	{
+		return run(n,parallel,(from,to) -> skyToStandard(ra,dec,xi,eta,from,to));
+	}
+
+	/**
+	 * Deproject standard coordinates back onto the sky.
+	 * @param xi The standard coordinates towards east, in radians.
+	 * @param eta The standard coordinates towards north, in radians.
+	 * @param ra The array to put the right ascensions into, in radians, 0..2PI.
+	 * @param dec The array to put the declinations into, in radians.
+	 * @param n The number of positions.
+	 * @param parallel Whether to deproject in parallel.
+	 */
+	public void standardToSky(final double xi[],final double eta[],final double ra[],final double dec[],int n,
+				  boolean parallel)
+	{
+		run(n,parallel,(from,to) ->
+		{
+			standardToSky(xi,eta,ra,dec,from,to);
+			return to-from;
+		});
+	}
+
+	/**
+	 * Project unit vectors onto the tangent plane. This needs no trigonometry.
+	 * @param x The unit vector x components.
+	 * @param y The unit vector y components.
+	 * @param z The unit vector z components.
+	 * @param xi The array to put the standard coordinates towards east into, in radians.
+	 * @param eta The array to put the standard coordinates towards north into, in radians.
+	 * @param n The number of vectors.
+	 * @param parallel Whether to project in parallel.
+	 * @return The number of vectors projected; the others are in the far hemisphere and their outputs are NaN.
+	 */
+	public int unitVectorsToStandard(final double x[],final double y[],final double z[],final double xi[],
+					 final double eta[],int n,boolean parallel)
+	{
+		return run(n,parallel,(from,to) -> unitVectorsToStandard(x,y,z,xi,eta,from,to));
+	}
+
+	/**
+	 * Deproject standard coordinates into unit vectors. This needs no trigonometry.
+	 * @param xi The standard coordinates towards east, in radians.
+	 * @param eta The standard coordinates towards north, in radians.
+	 * @param x The array to put the unit vector x components into.
+	 * @param y The array to put the unit vector y components into.
+	 * @param z The array to put the unit vector z components into.
+	 * @param n The number of positions.
+	 * @param parallel Whether to deproject in parallel.
+	 */
+	public void standardToUnitVectors(final double xi[],final double eta[],final double x[],final double y[],
+					  final double z[],int n,boolean parallel)
+	{
+		final double r[] = rotation;
+
+		run(n,parallel,(from,to) ->
+		{
+			double vx,vy,vz,norm;
+
+			for(int i = from; i < to; i++)
+			{
+				vx = r[6]+(xi[i]*r[0])+(eta[i]*r[3]);
+				vy = r[7]+(xi[i]*r[1])+(eta[i]*r[4]);
+				vz = r[8]+(xi[i]*r[2])+(eta[i]*r[5]);
+				norm = 1.0/Math.sqrt((vx*vx)+(vy*vy)+(vz*vz));
+				x[i] = vx*norm;
+				y[i] = vy*norm;
+				z[i] = vz*norm;
+			}
+			return to-from;
+		});
+	}
+
+	/**
+	 * Convert standard coordinates to pixels, through the inverse CD matrix and the inverse distortion.
+	 * @param xi The standard coordinates towards east, in radians.
+	 * @param eta The standard coordinates towards north, in radians.
+	 * @param x The array to put the pixel x coordinates into.
+	 * @param y The array to put the pixel y coordinates into.
+	 * @param n The number of positions.
+	 * @param parallel Whether to convert in parallel.
+	 */
+	public void standardToPixel(final double xi[],final double eta[],final double x[],final double y[],int n,
+				    boolean parallel)
+	{
+		final double derivatives[][] = getDistortionDerivatives();
+
+		run(n,parallel,(from,to) ->
+		{
+			standardToPixel(xi,eta,x,y,derivatives,from,to);
+			return to-from;
+		});
+	}
+
+	/**
+	 * Convert pixels to standard coordinates, through the distortion and the CD matrix.
+	 * @param x The pixel x coordinates.
+	 * @param y The pixel y coordinates.
+	 * @param xi The array to put the standard coordinates towards east into, in radians.
+	 * @param eta The array to put the standard coordinates towards north into, in radians.
+	 * @param n The number of positions.
+	 * @param parallel Whether to convert in parallel.
+	 */
+	public void pixelToStandard(final double x[],final double y[],final double xi[],final double eta[],int n,
+				    boolean parallel)
+	{
+		run(n,parallel,(from,to) ->
+		{
+			pixelToStandard(x,y,xi,eta,from,to);
+			return to-from;
+		});
+	}
+
+	/**
+	 * Project sky positions to pixels.
+	 * @param ra The right ascensions, in radians.
+	 * @param dec The declinations, in radians.
+	 * @param x The array to put the pixel x coordinates into.
+	 * @param y The array to put the pixel y coordinates into.
+	 * @param n The number of positions.
+	 * @param parallel Whether to project in parallel.
+	 * @return The number of positions projected; the others are more than 90 degrees from the tangent point,
+	 *         and their outputs are NaN.
+	 */
+	public int skyToPixel(final double ra[],final double dec[],final double x[],final double y[],int n,
+			      boolean parallel)
+	{
+		final double derivatives[][] = getDistortionDerivatives();
+
+		return run(n,parallel,(from,to) ->
+		{
+			int count;
+
+			count = skyToStandard(ra,dec,x,y,from,to);
+			standardToPixel(x,y,x,y,derivatives,from,to);
+			return count;
+		});
+	}
+
+	/**
+	 * Project unit vectors to pixels. This needs no trigonometry.
+	 * @param vx The unit vector x components.
+	 * @param vy The unit vector y components.
+	 * @param vz The unit vector z components.
+	 * @param x The array to put the pixel x coordinates into.
+	 * @param y The array to put the pixel y coordinates into.
+	 * @param n The number of vectors.
+	 * @param parallel Whether to project in parallel.
+	 * @return The number of vectors projected; the others are in the far hemisphere and their outputs are NaN.
+	 */
+	public int unitVectorsToPixel(final double vx[],final double vy[],final double vz[],final double x[],
+				      final double y[],int n,boolean parallel)
+	{
+		final double derivatives[][] = getDistortionDerivatives();
+
+		return run(n,parallel,(from,to) ->
+		{
+			int count;
+
+			count = unitVectorsToStandard(vx,vy,vz,x,y,from,to);
+			standardToPixel(x,y,x,y,derivatives,from,to);
+			return count;
+		});
+	}
+
+	/**
+	 * Deproject pixels onto the sky.
+	 * @param x The pixel x coordinates.
+	 * @param y The pixel y coordinates.
+	 * @param ra The array to put the right ascensions into, in radians, 0..2PI.
+	 * @param dec The array to put the declinations into, in radians.
+	 * @param n The number of positions.
+	 * @param parallel Whether to deproject in parallel.
+	 */
+	public void pixelToSky(final double x[],final double y[],final double ra[],final double dec[],int n,
+			       boolean parallel)
+	{
+		run(n,parallel,(from,to) ->
+		{
+			pixelToStandard(x,y,ra,dec,from,to);
+			standardToSky(ra,dec,ra,dec,from,to);
+			return to-from;
+		});
+	}
+
+	/**
+	 * Project one sky position to pixels.
+	 * @param ra The right ascension.
+	 * @param dec The declination.
+	 * @param result An array of at least 2 elements, set to the pixel x and y.
+	 * @return false if the position is more than 90 degrees from the tangent point and cannot be projected.
+	 */
+	public boolean skyToPixel(RA ra,Dec dec,double result[])
+	{
+		double r[] = new double[1];
+		double d[] = new double[1];
+		double x[] = new double[1];
+		double y[] = new double[1];
+
+		r[0] = ra.toRadians();
+		d[0] = dec.toRadians();
+		if(skyToPixel(r,d,x,y,1,false) == 0)
+			return false;
+		result[0] = x[0];
+		result[1] = y[0];
+		return true;
+	}
+
+	/**
+	 * Deproject one pixel onto the sky.
+	 * @param x The pixel x coordinate.
+	 * @param y The pixel y coordinate.
+	 * @param ra An RA to set.
+	 * @param dec A Dec to set.
+	 */
+	public void pixelToSky(double x,double y,RA ra,Dec dec)
+	{
+		double r[] = new double[] {x};
+		double d[] = new double[] {y};
+
+		pixelToSky(r,d,r,d,1,false);
+		// guard against rounding up to exactly 2PI
+		ra.fromRadians((r[0] < 2*Math.PI) ? r[0] : 0.0);
+		dec.fromRadians(Math.max(-Math.PI/2.0,Math.min(Math.PI/2.0,d[0])));
+	}
+
+	/**
+	 * Project a range of sky positions onto the tangent plane.
+	 * @return The number projected.
+	 */
+	private int skyToStandard(double ra[],double dec[],double xi[],double eta[],int from,int to)
+	{
+		double sinD,cosD,sinA,cosA,w,east,north;
+		int count;
+
+		count = 0;
+		for(int i = from; i < to; i++)
+		{
+			sinD = Math.sin(dec[i]);
+			cosD = Math.cos(dec[i]);
+			sinA = Math.sin(ra[i]-raRadians);
+			cosA = Math.cos(ra[i]-raRadians);
+			east = cosD*sinA;
+			north = (sinD*cosDec)-(cosD*sinDec*cosA);
+			w = (sinD*sinDec)+(cosD*cosDec*cosA);
+			if(w > 0.0)
+			{
+				xi[i] = east/w;
+				eta[i] = north/w;
+				count++;
+			}
+			else
+			{
+				xi[i] = Double.NaN;
+				eta[i] = Double.NaN;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Project a range of unit vectors onto the tangent plane.
+	 * @return The number projected.
+	 */
+	private int unitVectorsToStandard(double x[],double y[],double z[],double xi[],double eta[],int from,int to)
+	{
+		double r0,r1,r3,r4,r5,r6,r7,r8,w,east,north,vx,vy,vz,inverseW;
+		int count;
+
+		// r[2] is always 0
+		r0 = rotation[0];
+		r1 = rotation[1];
+		r3 = rotation[3];
+		r4 = rotation[4];
+		r5 = rotation[5];
+		r6 = rotation[6];
+		r7 = rotation[7];
+		r8 = rotation[8];
+		count = 0;
+		for(int i = from; i < to; i++)
+		{
+			vx = x[i];
+			vy = y[i];
+			vz = z[i];
+			east = (r0*vx)+(r1*vy);
+			north = (r3*vx)+(r4*vy)+(r5*vz);
+			w = (r6*vx)+(r7*vy)+(r8*vz);
+			inverseW = (w > 0.0) ? (1.0/w) : Double.NaN;
+			xi[i] = east*inverseW;
+			eta[i] = north*inverseW;
+			count += (w > 0.0) ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Deproject a range of standard coordinates onto the sky.
+	 */
+	private void standardToSky(double xi[],double eta[],double ra[],double dec[],int from,int to)
+	{
+		double a,b,r;
+
+		for(int i = from; i < to; i++)
+		{
+			a = xi[i];
+			b = cosDec-(eta[i]*sinDec);
+			r = raRadians+Math.atan2(a,b);
+			dec[i] = Math.atan2(sinDec+(eta[i]*cosDec),Math.sqrt((a*a)+(b*b)));
+			if(r < 0.0)
+				r += 2*Math.PI;
+			else if(r >= 2*Math.PI)
+				r -= 2*Math.PI;
+			ra[i] = r;
+		}
+	}
+
+	/**
+	 * Convert a range of pixels to standard coordinates.
+	 */
+	private void pixelToStandard(double x[],double y[],double xi[],double eta[],int from,int to)
+	{
+		double cd11,cd12,cd21,cd22,u,v,du;
+		double a[],b[];
+		int order;
+
+		cd11 = cd[0];
+		cd12 = cd[1];
+		cd21 = cd[2];
+		cd22 = cd[3];
+		order = distortionOrder;
+		a = distortionA;
+		b = distortionB;
+		if(order == 0)
+		{
+			for(int i = from; i < to; i++)
+			{
+				u = x[i]-crpix1;
+				v = y[i]-crpix2;
+				xi[i] = (cd11*u)+(cd12*v);
+				eta[i] = (cd21*u)+(cd22*v);
+			}
+			return;
+		}
+		for(int i = from; i < to; i++)
+		{
+			u = x[i]-crpix1;
+			v = y[i]-crpix2;
+			du = polynomial(a,order,u,v);
+			v += polynomial(b,order,u,v);
+			u += du;
+			xi[i] = (cd11*u)+(cd12*v);
+			eta[i] = (cd21*u)+(cd22*v);
+		}
+	}
+
+	/**
+	 * Convert a range of standard coordinates to pixels, inverting the distortion by iteration. Fixed point
+	 * iteration is tried first. If it does not converge, Newton iteration starts from the fixed point iterate
+	 * with the smallest residual (which may be the undistorted position), halving each step until the
+	 * residual falls, so a diverging fixed point iteration cannot push it away from the solution. Pixels
+	 * Newton iteration cannot invert are set to NaN.
+	 * @param derivatives The distortion partial derivatives, from getDistortionDerivatives.
+	 */
+	private void standardToPixel(double xi[],double eta[],double x[],double y[],double derivatives[][],
+				     int from,int to)
+	{
+		double i11,i12,i21,i22,targetU,targetV,u,v,fu,fv,j11,j12,j21,j22,determinant,stepU,stepV;
+		double residual,bestU,bestV,bestResidual,nextU,nextV,scale;
+		double a[],b[];
+		int order,iteration,halving;
+		boolean converged;
+
+		i11 = inverseCD[0];
+		i12 = inverseCD[1];
+		i21 = inverseCD[2];
+		i22 = inverseCD[3];
+		order = distortionOrder;
+		a = distortionA;
+		b = distortionB;
+		for(int i = from; i < to; i++)
+		{
+			targetU = (i11*xi[i])+(i12*eta[i]);
+			targetV = (i21*xi[i])+(i22*eta[i]);
+			u = targetU;
+			v = targetV;
+			if(order > 0)
+			{
+				// fixed point iteration converges quickly for the usual small distortions
+				bestU = u;
+				bestV = v;
+				bestResidual = Double.POSITIVE_INFINITY;
+				for(iteration = 0; iteration < FIXED_POINT_ITERATIONS; iteration++)
+				{
+					// the step is minus the residual at (u,v)
+					stepU = targetU-polynomial(a,order,u,v)-u;
+					stepV = targetV-polynomial(b,order,u,v)-v;
+					residual = Math.abs(stepU)+Math.abs(stepV);
+					if(residual < bestResidual)
+					{
+						bestU = u;
+						bestV = v;
+						bestResidual = residual;
+					}
+					u += stepU;
+					v += stepV;
+					if(residual <= INVERSE_TOLERANCE)
+						break;
+				}
+				// otherwise fall back to Newton iteration, from the best fixed point iterate
+				if(iteration == FIXED_POINT_ITERATIONS)
+				{
+					u = bestU;
+					v = bestV;
+					converged = false;
+					for(iteration = 0; iteration < MAX_INVERSE_ITERATIONS; iteration++)
+					{
+						fu = u+polynomial(a,order,u,v)-targetU;
+						fv = v+polynomial(b,order,u,v)-targetV;
+						j11 = 1.0+polynomial(derivatives[0],order,u,v);
+						j12 = polynomial(derivatives[1],order,u,v);
+						j21 = polynomial(derivatives[2],order,u,v);
+						j22 = 1.0+polynomial(derivatives[3],order,u,v);
+						determinant = (j11*j22)-(j12*j21);
+						stepU = ((j22*fu)-(j12*fv))/determinant;
+						stepV = ((j11*fv)-(j21*fu))/determinant;
+						if(!Double.isFinite(stepU+stepV))
+							break;
+						if(Math.abs(stepU)+Math.abs(stepV) <= INVERSE_TOLERANCE)
+						{
+							u -= stepU;
+							v -= stepV;
+							converged = true;
+							break;
+						}
+						residual = Math.abs(fu)+Math.abs(fv);
+						scale = 1.0;
+						nextU = u-stepU;
+						nextV = v-stepV;
+						for(halving = 0; halving < MAX_STEP_HALVINGS; halving++)
+						{
+							nextU = u-(scale*stepU);
+							nextV = v-(scale*stepV);
+							if(Math.abs(nextU+polynomial(a,order,nextU,nextV)-targetU)+
+							   Math.abs(nextV+polynomial(b,order,nextU,nextV)-targetV) < residual)
+								break;
+							scale *= 0.5;
+						}
+						u = nextU;
+						v = nextV;
+					}
+					if(!converged)
+					{
+						u = Double.NaN;
+						v = Double.NaN;
+					}
+				}
+			}
+			x[i] = u+crpix1;
+			y[i] = v+crpix2;
+		}
+	}
+
+	/**
+	 * Evaluate sum(c[p][q] u^p v^q) over p+q &lt;= order, by Horner's rule in v then u.
+	 * @param c The coefficients, c[p][q] at index p*(order+1)+q.
+	 */
+	private static double polynomial(double c[],int order,double u,double v)
+	{
+		double sum,inner;
+		int row;
+
+		sum = 0.0;
+		for(int p = order; p >= 0; p--)
+		{
+			row = p*(order+1);
+			inner = 0.0;
+			for(int q = order-p; q >= 0; q--)
+				inner = (inner*v)+c[row+q];
+			sum = (sum*u)+inner;
+		}
+		return sum;
+	}
+
+	/**
+	 * Return the partial derivatives of the distortion polynomials, working them out if needed.
+	 * @return dA/du, dA/dv, dB/du, dB/dv, indexed as distortionA, or null if there is no distortion.
+	 */
+	protected synchronized double[][] getDistortionDerivatives()
+	{
+		int order,stride;
+
+		if(distortionOrder == 0)
+			return null;
+		if(distortionDerivatives == null)
+		{
+			order = distortionOrder;
+			stride = order+1;
+			distortionDerivatives = new double[4][stride*stride];
+			for(int p = 0; p <= order; p++)
+			{
+				for(int q = 0; p+q <= order; q++)
+				{
+					if(p > 0)
+					{
+						distortionDerivatives[0][((p-1)*stride)+q] = p*distortionA[(p*stride)+q];
+						distortionDerivatives[2][((p-1)*stride)+q] = p*distortionB[(p*stride)+q];
+					}
+					if(q > 0)
+					{
+						distortionDerivatives[1][(p*stride)+q-1] = q*distortionA[(p*stride)+q];
+						distortionDerivatives[3][(p*stride)+q-1] = q*distortionB[(p*stride)+q];
+					}
+				}
+			}
+		}
+		return distortionDerivatives;
+	}
+
+	/**
+	 * Interface implemented by a chunk of a batch transform.
+	 */
+	private interface CountingTask
+	{
+		/**
+		 * Transform the elements from (inclusive) to (exclusive).
+		 * @return The number of elements transformed.
+		 */
+		int run(int from,int to);
+	};
+
+	/**
+	 * Run a batch transform, in parallel chunks or all at once, and total the chunk counts.
+	 */
+	private static int run(int n,boolean parallel,final CountingTask task)
+	{
+		final AtomicInteger count = new AtomicInteger();
+
+		if(!parallel)
+			return task.run(0,n);
+		ParallelChunks.forEach(n,ParallelChunks.DEFAULT_MIN_CHUNK,(from,to) -> count.addAndGet(task.run(from,to)));
+		return count.get();
+	}
+
+	public String toString()
+	{
+		return new String("tan("+Math.toDegrees(raRadians)+","+Math.toDegrees(decRadians)+",crpix="+crpix1+","+
+				  crpix2+",scale="+getPixelScale()+"\"/pixel,distortion order="+distortionOrder+")");
+	}
+};
+//
+// $Log$
+//